@@ -0,0 +1,214 @@
+/*
+ * AttachmentStore 类管理附件文件。
+ * 附件内容按SHA-256命名保存在应用私有目录下，相同内容只保存一份；
+ * 引用关系和引用计数由数据库中的附件表维护，本类只负责文件的写入、定位和删除。
+ */
+
+package net.micode.notes.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+
+class AttachmentStore {
+    private static final String TAG = "AttachmentStore";
+
+    // 附件根目录，位于应用的files目录下
+    private static final String DIR_NAME = "attachments";
+
+    // 写入中的临时文件目录，计算出哈希后再移动到正式位置
+    private static final String TMP_DIR_NAME = "tmp";
+
+    // 清理时跳过最近修改过的文件，避免删除正在加入的附件
+    private static final long ORPHAN_MIN_AGE = 60 * 60 * 1000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final File mRoot;
+    private final File mTmpDir;
+
+    /**
+     * 写入临时文件后得到的附件内容，{@link #commit}之后才可以被引用
+     */
+    static class Blob {
+        final String hash;
+        final long size;
+        final File tmpFile;
+
+        Blob(String hash, long size, File tmpFile) {
+            this.hash = hash;
+            this.size = size;
+            this.tmpFile = tmpFile;
+        }
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param context 上下文对象
+     */
+    AttachmentStore(Context context) {
+        mRoot = new File(context.getFilesDir(), DIR_NAME);
+        mTmpDir = new File(mRoot, TMP_DIR_NAME);
+    }
+
+    /**
+     * 把输入流的内容写入临时文件，同时计算SHA-256。内容只经过固定大小的缓冲区，不会整体读入内存。
+     *
+     * @param in 附件内容，由调用方关闭。
+     * @return 写入的附件内容。
+     * @throws IOException 读写失败时抛出，临时文件已删除。
+     */
+    Blob write(InputStream in) throws IOException {
+        if (!mTmpDir.isDirectory() && !mTmpDir.mkdirs()) {
+            throw new IOException("Create directory failed: " + mTmpDir);
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+        File tmpFile = File.createTempFile("blob", null, mTmpDir);
+        long size = 0;
+        boolean success = false;
+        OutputStream out = new FileOutputStream(tmpFile);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+                out.write(buffer, 0, n);
+                size += n;
+            }
+            success = true;
+        } finally {
+            out.close();
+            if (!success) {
+                tmpFile.delete();
+            }
+        }
+        return new Blob(toHex(digest.digest()), size, tmpFile);
+    }
+
+    /**
+     * 把临时文件移动到按哈希命名的位置，已有相同内容的文件时直接丢弃临时文件。
+     * 需要在数据库事务中调用，与回收文件互斥。
+     *
+     * @param blob {@link #write}的结果。
+     * @throws IOException 移动失败时抛出。
+     */
+    void commit(Blob blob) throws IOException {
+        File file = getFile(blob.hash);
+        if (file.exists()) {
+            blob.tmpFile.delete();
+            return;
+        }
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Create directory failed: " + dir);
+        }
+        if (!blob.tmpFile.renameTo(file)) {
+            throw new IOException("Move attachment failed: " + blob.hash);
+        }
+    }
+
+    /**
+     * 丢弃未提交的临时文件，已提交时不做任何事。
+     *
+     * @param blob {@link #write}的结果。
+     */
+    void discard(Blob blob) {
+        if (blob.tmpFile.exists()) {
+            blob.tmpFile.delete();
+        }
+    }
+
+    /**
+     * 获取哈希对应的附件文件。
+     *
+     * @param hash SHA-256，十六进制小写。
+     * @return 附件文件，可能不存在。
+     */
+    File getFile(String hash) {
+        if (!isHash(hash)) {
+            throw new IllegalArgumentException("Invalid attachment hash " + hash);
+        }
+        // 按前两位分目录，避免单个目录中的文件过多
+        return new File(new File(mRoot, hash.substring(0, 2)), hash);
+    }
+
+    /**
+     * 删除不再被引用的附件文件。需要在数据库事务中调用，与提交文件互斥。
+     *
+     * @param hash SHA-256，十六进制小写。
+     */
+    void delete(String hash) {
+        File file = getFile(hash);
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Delete attachment failed: " + hash);
+        }
+    }
+
+    /**
+     * 删除数据库中没有记录的附件文件和残留的临时文件，它们来自写入或事务中途的中断。
+     * 需要在数据库事务中调用，与提交文件互斥。
+     *
+     * @param known 数据库中记录的所有哈希。
+     * @return 删除的文件数。
+     */
+    int sweep(Set<String> known) {
+        File[] dirs = mRoot.listFiles();
+        if (dirs == null) {
+            return 0;
+        }
+        long before = System.currentTimeMillis() - ORPHAN_MIN_AGE;
+        int count = 0;
+        for (File dir : dirs) {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                continue;
+            }
+            boolean tmp = dir.equals(mTmpDir);
+            for (File file : files) {
+                if ((tmp || !known.contains(file.getName())) && file.lastModified() < before
+                        && file.delete()) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static boolean isHash(String hash) {
+        if (hash == null || hash.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < hash.length(); i++) {
+            char ch = hash.charAt(i);
+            if ((ch < '0' || ch > '9') && (ch < 'a' || ch > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+}
@@ -6,26 +6,61 @@
 package net.micode.notes.data;
 
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.Data;
 import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
 import android.util.Log;
+import android.util.LruCache;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 
 public class Contact {
-    // 缓存已查询过的电话号码和对应的联系人名称，以减少数据库查询次数。
-    private static HashMap<String, String> sContactCache;
     private static final String TAG = "Contact"; // 日志标签
 
-    // 用于查询具有完整国际号码格式的电话号码的selection字符串。
-    private static final String CALLER_ID_SELECTION = "PHONE_NUMBERS_EQUAL(" + Phone.NUMBER
-            + ",?) AND " + Data.MIMETYPE + "='" + Phone.CONTENT_ITEM_TYPE + "'"
-            + " AND " + Data.RAW_CONTACT_ID + " IN "
-            + "(SELECT raw_contact_id "
-            + " FROM phone_lookup"
-            + " WHERE min_match = '+')";
+    // 最多缓存的电话号码数量
+    private static final int CACHE_SIZE = 500;
+
+    // 没有匹配联系人的结果缓存的时间，过期后重新查询
+    private static final long NEGATIVE_TTL_MS = 10 * 60 * 1000;
+
+    // 一次批量查询最多包含的号码数量，避免超出SQLite的参数个数限制
+    private static final int BATCH_SIZE = 200;
+
+    // 批量查询的列
+    private static final String[] PROJECTION = new String[]{
+            Phone.DISPLAY_NAME,
+            Phone.NUMBER
+    };
+    private static final int DISPLAY_NAME_COLUMN = 0;
+    private static final int NUMBER_COLUMN = 1;
+
+    // 一次查询的结果；没有匹配的联系人时name为null，expireTime之后失效
+    private static class Entry {
+        final String name;
+        final long expireTime;
+
+        Entry(String name, long expireTime) {
+            this.name = name;
+            this.expireTime = expireTime;
+        }
+    }
+
+    // 电话号码到联系人名称的缓存，LruCache的各操作本身是同步的，可以在多个线程中使用
+    private static final LruCache<String, Entry> sContactCache =
+            new LruCache<String, Entry>(CACHE_SIZE);
+
+    // 联系人变化时清空缓存，首次查询时注册
+    private static ContentObserver sContactObserver;
 
     /**
      * 根据电话号码获取联系人名称。
@@ -35,46 +70,227 @@ public class Contact {
      * @return 与电话号码相关联的联系人名称，如果找不到则返回null。
      */
     public static String getContact(Context context, String phoneNumber) {
-        // 初始化或获取联系人缓存
-        if (sContactCache == null) {
-            sContactCache = new HashMap<String, String>();
-        }
-
-        // 从缓存中直接获取联系人名称，如果存在。
-        if (sContactCache.containsKey(phoneNumber)) {
-            return sContactCache.get(phoneNumber);
-        }
-
-        // 使用PhoneNumberUtils将电话号码格式化为适合查询的形式
-        String selection = CALLER_ID_SELECTION.replace("+",
-                PhoneNumberUtils.toCallerIDMinMatch(phoneNumber));
-
-        // 执行查询以获取与电话号码相关联的联系人名称
-        Cursor cursor = context.getContentResolver().query(
-                Data.CONTENT_URI,
-                new String[]{Phone.DISPLAY_NAME},
-                selection,
-                new String[]{phoneNumber},
-                null);
-
-        if (cursor != null && cursor.moveToFirst()) {
-            try {
-                // 从查询结果中获取联系人名称并加入缓存
-                String name = cursor.getString(0);
-                sContactCache.put(phoneNumber, name);
-                return name;
-            } catch (IndexOutOfBoundsException e) {
-                // 处理查询结果异常
-                Log.e(TAG, " Cursor get string error " + e.toString());
-                return null;
-            } finally {
-                // 关闭游标
-                cursor.close();
+        Entry entry = getEntry(phoneNumber);
+        if (entry != null) {
+            return entry.name;
+        }
+        List<String> phoneNumbers = new ArrayList<String>(1);
+        phoneNumbers.add(phoneNumber);
+        return getContacts(context, phoneNumbers).get(phoneNumber);
+    }
+
+    /**
+     * 批量获取一组电话号码的联系人名称，未缓存的号码合并为一次IN查询。
+     *
+     * @param context      上下文对象，用于访问内容解析器。
+     * @param phoneNumbers 需要查询的电话号码。
+     * @return 电话号码到联系人名称的映射，找不到联系人的号码不包含在内。
+     */
+    public static Map<String, String> getContacts(Context context, Collection<String> phoneNumbers) {
+        Map<String, String> result = new HashMap<String, String>();
+        LinkedHashSet<String> pending = new LinkedHashSet<String>();
+        for (String phoneNumber : phoneNumbers) {
+            if (TextUtils.isEmpty(phoneNumber)) {
+                continue;
+            }
+            Entry entry = getEntry(phoneNumber);
+            if (entry == null) {
+                pending.add(phoneNumber);
+            } else if (entry.name != null) {
+                result.put(phoneNumber, entry.name);
+            }
+        }
+        if (pending.isEmpty()) {
+            return result;
+        }
+
+        registerObserver(context);
+        List<String> batch = new ArrayList<String>(BATCH_SIZE);
+        for (String phoneNumber : pending) {
+            batch.add(phoneNumber);
+            if (batch.size() == BATCH_SIZE) {
+                queryContacts(context, batch, result);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            queryContacts(context, batch, result);
+        }
+        return result;
+    }
+
+    /**
+     * 只从缓存中获取联系人名称，不查询数据库，可以在主线程调用。
+     *
+     * @param phoneNumber 电话号码。
+     * @return 缓存的联系人名称，尚未解析或没有匹配的联系人时返回null。
+     */
+    public static String getCachedContact(String phoneNumber) {
+        Entry entry = getEntry(phoneNumber);
+        return entry == null ? null : entry.name;
+    }
+
+    /**
+     * 判断电话号码是否已经解析过，没有匹配联系人的结果在有效期内也算已解析。
+     *
+     * @param phoneNumber 电话号码。
+     * @return 已解析时返回true。
+     */
+    public static boolean isResolved(String phoneNumber) {
+        return getEntry(phoneNumber) != null;
+    }
+
+    /**
+     * 解析一组电话号码的联系人名称并放入缓存，需要在后台线程调用。
+     *
+     * @param context      上下文对象，用于访问内容解析器。
+     * @param phoneNumbers 需要解析的电话号码。
+     * @return 有新的联系人名称加入缓存时返回true。
+     */
+    public static boolean resolveContacts(Context context, Collection<String> phoneNumbers) {
+        List<String> pending = new ArrayList<String>();
+        for (String phoneNumber : phoneNumbers) {
+            if (!TextUtils.isEmpty(phoneNumber) && !isResolved(phoneNumber)) {
+                pending.add(phoneNumber);
             }
-        } else {
-            // 如果查询无结果，记录日志
-            Log.d(TAG, "No contact matched with number:" + phoneNumber);
+        }
+        return !pending.isEmpty() && !getContacts(context, pending).isEmpty();
+    }
+
+    /**
+     * 生成电话号码的最短匹配键：去掉分隔符后倒序的末尾几位数字，与国家设置无关。
+     * 同一号码带不带国家码、区号得到相同的键，写入和查找通话记录笔记时在键上缩小范围，
+     * 再用PHONE_NUMBERS_EQUAL确认。
+     *
+     * @param phoneNumber 电话号码。
+     * @return 最短匹配键，号码为空时返回空字符串。
+     */
+    public static String toMinMatchKey(String phoneNumber) {
+        if (TextUtils.isEmpty(phoneNumber)) {
+            return "";
+        }
+        String key = PhoneNumberUtils.toCallerIDMinMatch(phoneNumber);
+        return key == null ? "" : key;
+    }
+
+    /**
+     * 获取未过期的缓存项。
+     *
+     * @param phoneNumber 电话号码。
+     * @return 缓存项，不存在或已过期时返回null。
+     */
+    private static Entry getEntry(String phoneNumber) {
+        if (phoneNumber == null) {
             return null;
         }
+        Entry entry = sContactCache.get(phoneNumber);
+        if (entry != null && entry.expireTime < SystemClock.elapsedRealtime()) {
+            sContactCache.remove(phoneNumber);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * 用一次查询解析一批电话号码。先按号码的最小匹配串在phone_lookup中筛选，
+     * 再用PhoneNumberUtils比较号码，结果（包括没有匹配的号码）写入缓存。
+     *
+     * @param context      上下文对象。
+     * @param phoneNumbers 一批电话号码，不超过BATCH_SIZE个。
+     * @param result       解析到的联系人名称写入该映射。
+     */
+    private static void queryContacts(Context context, List<String> phoneNumbers,
+                                      Map<String, String> result) {
+        // 最小匹配串相同的号码归为一组
+        Map<String, List<String>> minMatches = new HashMap<String, List<String>>();
+        for (String phoneNumber : phoneNumbers) {
+            String minMatch = PhoneNumberUtils.toCallerIDMinMatch(phoneNumber);
+            List<String> group = minMatches.get(minMatch);
+            if (group == null) {
+                group = new ArrayList<String>();
+                minMatches.put(minMatch, group);
+            }
+            group.add(phoneNumber);
+        }
+
+        StringBuilder selection = new StringBuilder();
+        selection.append(Data.MIMETYPE).append("=? AND ").append(Data.RAW_CONTACT_ID)
+                .append(" IN (SELECT raw_contact_id FROM phone_lookup WHERE min_match IN (");
+        String[] selectionArgs = new String[minMatches.size() + 1];
+        selectionArgs[0] = Phone.CONTENT_ITEM_TYPE;
+        int i = 1;
+        for (String minMatch : minMatches.keySet()) {
+            selection.append(i > 1 ? ",?" : "?");
+            selectionArgs[i++] = minMatch;
+        }
+        selection.append("))");
+
+        Map<String, String> names = new HashMap<String, String>();
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(Data.CONTENT_URI, PROJECTION,
+                    selection.toString(), selectionArgs, null);
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    String number = cursor.getString(NUMBER_COLUMN);
+                    if (TextUtils.isEmpty(number)) {
+                        continue;
+                    }
+                    List<String> group = minMatches.get(PhoneNumberUtils.toCallerIDMinMatch(number));
+                    if (group == null) {
+                        continue;
+                    }
+                    for (String phoneNumber : group) {
+                        if (!names.containsKey(phoneNumber)
+                                && PhoneNumberUtils.compare(phoneNumber, number)) {
+                            names.put(phoneNumber, cursor.getString(DISPLAY_NAME_COLUMN));
+                        }
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // 查询失败时不缓存，下次重新查询
+            Log.e(TAG, "Query contacts failed: " + e.toString());
+            return;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        long negativeExpireTime = SystemClock.elapsedRealtime() + NEGATIVE_TTL_MS;
+        for (String phoneNumber : phoneNumbers) {
+            String name = names.get(phoneNumber);
+            if (name != null) {
+                sContactCache.put(phoneNumber, new Entry(name, Long.MAX_VALUE));
+                result.put(phoneNumber, name);
+            } else {
+                Log.d(TAG, "No contact matched with number:" + phoneNumber);
+                sContactCache.put(phoneNumber, new Entry(null, negativeExpireTime));
+            }
+        }
+    }
+
+    /**
+     * 注册联系人变化的监听，联系人增删改后清空缓存。
+     *
+     * @param context 上下文对象。
+     */
+    private static synchronized void registerObserver(Context context) {
+        if (sContactObserver != null) {
+            return;
+        }
+        sContactObserver = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                sContactCache.evictAll();
+            }
+        };
+        try {
+            context.getApplicationContext().getContentResolver().registerContentObserver(
+                    ContactsContract.Contacts.CONTENT_URI, true, sContactObserver);
+        } catch (SecurityException e) {
+            Log.w(TAG, "Register contacts observer failed: " + e.toString());
+        }
     }
 }
@@ -0,0 +1,156 @@
+/*
+ * NoteContentCodec 类负责数据表正文的压缩和解压。
+ * 超过阈值的正文用deflate压缩后保存在content_compressed列中，content列只保留开头一段供预览使用，
+ * 读取方在真正需要正文时才解压。
+ */
+
+package net.micode.notes.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.util.Log;
+
+import net.micode.notes.data.Notes.DataColumns;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class NoteContentCodec {
+    private static final String TAG = "NoteContentCodec";
+
+    // 正文未压缩
+    public static final int CODEC_NONE = 0;
+
+    // 正文以deflate压缩保存在content_compressed列
+    public static final int CODEC_DEFLATE = 1;
+
+    // 超过该长度（字符数）的正文压缩保存
+    static final int COMPRESS_THRESHOLD = 8 * 1024;
+
+    // 压缩后content列保留的开头字符数，预览触发器据此生成预览
+    static final int CONTENT_PREFIX_LENGTH = 1024;
+
+    /**
+     * 写入前处理正文：超过阈值时压缩，否则清除旧的压缩内容。
+     *
+     * @param values 待写入的值，不会被修改。
+     * @return 不包含正文时返回values本身，否则返回处理后的副本。
+     */
+    static ContentValues compress(ContentValues values) {
+        if (values == null || !values.containsKey(DataColumns.CONTENT)) {
+            return values;
+        }
+        String content = values.getAsString(DataColumns.CONTENT);
+        ContentValues result = new ContentValues(values);
+        if (content != null && content.length() > COMPRESS_THRESHOLD) {
+            result.put(DataColumns.CONTENT, prefixOf(content));
+            result.put(DataColumns.CONTENT_COMPRESSED, deflate(content));
+            result.put(DataColumns.CONTENT_CODEC, CODEC_DEFLATE);
+        } else {
+            result.putNull(DataColumns.CONTENT_COMPRESSED);
+            result.put(DataColumns.CONTENT_CODEC, CODEC_NONE);
+        }
+        return result;
+    }
+
+    /**
+     * 判断写入的值是否包含压缩后的正文。
+     *
+     * @param values {@link #compress}处理后的值。
+     * @return 正文已压缩时返回true。
+     */
+    static boolean isCompressed(ContentValues values) {
+        Integer codec = values == null ? null : values.getAsInteger(DataColumns.CONTENT_CODEC);
+        return codec != null && codec == CODEC_DEFLATE;
+    }
+
+    /**
+     * 从游标当前行读取完整正文，正文已压缩时在此解压。
+     *
+     * @param c                 游标。
+     * @param contentColumn     content列的索引。
+     * @param codecColumn       content_codec列的索引。
+     * @param compressedColumn  content_compressed列的索引。
+     * @return 完整正文。
+     */
+    public static String readContent(Cursor c, int contentColumn, int codecColumn, int compressedColumn) {
+        String content = c.getString(contentColumn);
+        if (c.getInt(codecColumn) != CODEC_DEFLATE || c.isNull(compressedColumn)) {
+            return content;
+        }
+        String inflated = inflate(c.getBlob(compressedColumn));
+        return inflated == null ? content : inflated;
+    }
+
+    /**
+     * 取正文开头的一段，不拆开代理对。
+     *
+     * @param content 正文。
+     * @return 开头的一段。
+     */
+    static String prefixOf(String content) {
+        if (content.length() <= CONTENT_PREFIX_LENGTH) {
+            return content;
+        }
+        int end = CONTENT_PREFIX_LENGTH;
+        if (Character.isHighSurrogate(content.charAt(end - 1))) {
+            end--;
+        }
+        return content.substring(0, end);
+    }
+
+    /**
+     * 以UTF-8编码后用deflate压缩。
+     *
+     * @param text 原文。
+     * @return 压缩后的字节。
+     */
+    static byte[] deflate(String text) {
+        byte[] input = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * 解压deflate数据并按UTF-8解码。
+     *
+     * @param data 压缩后的字节。
+     * @return 原文；数据损坏时返回null。
+     */
+    static String inflate(byte[] data) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    Log.e(TAG, "Compressed content is truncated");
+                    return null;
+                }
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            Log.e(TAG, "Inflate content failed: " + e.toString());
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+}
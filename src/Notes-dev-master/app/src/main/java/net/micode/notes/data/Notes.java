@@ -49,6 +49,50 @@ public class Notes {
     public static final String INTENT_EXTRA_FROM_TRASH = "from_trash";
  
 
+    // NotesProvider.call() 支持的方法名及Bundle键
+    public static final String METHOD_BULK_INSERT = "bulk_insert"; // 批量插入并返回生成的ID，arg为目标URI
+    public static final String EXTRA_VALUES = "values"; // ContentValues数组
+    public static final String EXTRA_IDS = "ids"; // 生成的ID数组，批量插入整批回滚时不返回
+    public static final String METHOD_CHECKPOINT = "checkpoint"; // 大批量写入结束后请求截断WAL
+    public static final String METHOD_SUPPRESS_NOTIFY = "suppress_notify"; // 暂停调用线程写入的变更通知，可嵌套；其他线程的写入照常通知
+    public static final String METHOD_RESUME_NOTIFY = "resume_notify"; // 恢复调用线程的变更通知并一次性发送积累的通知
+    public static final String METHOD_BATCH_MOVE = "batch_move"; // 把EXTRA_IDS中的笔记移动到EXTRA_FOLDER_ID
+    public static final String METHOD_BATCH_DELETE = "batch_delete"; // 删除EXTRA_IDS中的笔记
+    public static final String METHOD_RESTORE_TRASH = "restore_trash"; // 把回收站中的全部笔记移出回收站，返回EXTRA_COUNT
+    public static final String EXTRA_FOLDER_ID = "folder_id"; // 目标文件夹ID
+    public static final String EXTRA_COUNT = "count"; // 受影响的行数
+    public static final String METHOD_EXISTS = "exists"; // 判断arg指向的笔记或数据是否存在
+    public static final String METHOD_EXISTS_MANY = "exists_many"; // 判断EXTRA_IDS中的各行是否存在于arg指向的表
+    public static final String METHOD_USER_FOLDER_COUNT = "user_folder_count"; // 统计回收站以外的用户文件夹数
+    public static final String METHOD_COUNT_SUBTREE = "count_subtree"; // 统计arg指定文件夹整个子树中的笔记数，包括各级子文件夹
+    public static final String EXTRA_VISIBLE_TYPE = "visible_type"; // 可选，要求笔记为该类型且不在回收站中
+    public static final String EXTRA_EXISTS = "exists"; // 是否存在，METHOD_EXISTS_MANY时为与EXTRA_IDS对应的数组
+    public static final String METHOD_QUERY_CACHE_STATS = "query_cache_stats"; // 查询缓存的命中、未命中次数和缓存项数(EXTRA_COUNT)
+    public static final String EXTRA_CACHE_HITS = "cache_hits";
+    public static final String EXTRA_CACHE_MISSES = "cache_misses";
+    public static final String METHOD_ARCHIVE_NOTES = "archive_notes"; // 把EXTRA_ARCHIVE_BEFORE之前修改的笔记正文移入归档库，返回EXTRA_COUNT
+    public static final String EXTRA_ARCHIVE_BEFORE = "archive_before"; // 修改时间早于该值的笔记才归档
+    public static final String METHOD_RESTORE_NOTES = "restore_notes"; // 把EXTRA_IDS中的归档笔记移回，不指定EXTRA_IDS时恢复全部
+    public static final String METHOD_ADD_ATTACHMENT = "add_attachment"; // 把EXTRA_SOURCE_URI指向的内容作为附件加入arg指定的笔记，返回EXTRA_ATTACHMENT_ID
+    public static final String EXTRA_SOURCE_URI = "source_uri"; // 附件内容的来源URI，由内容提供者自行读取，只接受调用方可读的content URI
+    public static final String EXTRA_MIME_TYPE = "mime_type"; // 可选，附件的MIME类型，不指定时取来源URI的类型
+    public static final String EXTRA_ATTACHMENT_ID = "attachment_id"; // 新附件的ID，失败时为-1
+    public static final String METHOD_MAINTAIN = "maintain"; // 空闲维护：分片回收空闲页并更新统计信息，返回EXTRA_RECLAIMED_BYTES和EXTRA_FREELIST_BYTES
+    public static final String EXTRA_RECLAIMED_BYTES = "reclaimed_bytes"; // 本次维护回收的字节数
+    public static final String EXTRA_FREELIST_BYTES = "freelist_bytes"; // 维护后仍未回收的空闲页字节数，维护失败时为-1
+    public static final String METHOD_FIND_CALL_NOTE = "find_call_note"; // 按arg指定的电话号码和EXTRA_CALL_DATE查找通话记录笔记，返回EXTRA_NOTE_ID
+    public static final String EXTRA_CALL_DATE = "call_date"; // 通话时间
+    public static final String EXTRA_NOTE_ID = "note_id"; // 笔记ID，未找到时为0
+
+    // 笔记分页查询的URI参数：每页条数，以及上一页最后一条笔记的排序键(type, modified_date, _id)
+    public static final String PARAM_LIMIT = "limit";
+    public static final String PARAM_AFTER_TYPE = "after_type";
+    public static final String PARAM_AFTER_MODIFIED = "after_modified";
+    public static final String PARAM_AFTER_ID = "after_id";
+
+    // 搜索URI参数：是否同时搜索归档笔记的正文，未指定时搜索
+    public static final String PARAM_INCLUDE_ARCHIVE = "include_archive";
+
     public static final int TYPE_WIDGET_INVALIDE = -1; // 无效的小部件类型
     public static final int TYPE_WIDGET_2X = 0; // 2x小部件类型
     public static final int TYPE_WIDGET_4X = 1; // 4x小部件类型
@@ -68,6 +112,16 @@ public class Notes {
      */
     public static final Uri CONTENT_DATA_URI = Uri.parse("content://" + AUTHORITY + "/data");
 
+    /**
+     * 只读查询归档笔记数据的Uri，不会把笔记移回
+     */
+    public static final Uri CONTENT_ARCHIVE_DATA_URI = Uri.parse("content://" + AUTHORITY + "/archive/data");
+
+    /**
+     * 查询附件信息的Uri，附件内容通过条目Uri的openFile读取
+     */
+    public static final Uri CONTENT_ATTACHMENT_URI = Uri.parse("content://" + AUTHORITY + "/attachment");
+
     // 笔记和文件夹的公共列接口
     public interface NoteColumns extends BaseColumns {
         /**
@@ -160,6 +214,13 @@ public class Notes {
          */
         public static final String ORIGIN_PARENT_ID = "origin_parent_id";
 
+        /**
+         * 在回收站中时，随之一起移入回收站的子树的根ID，根自身为自己的ID；不在回收站中时为0。
+         * 恢复或删除回收站中的文件夹时，只处理与它在同一次操作中移入回收站的后代
+         * <P>类型: INTEGER (long)</P>
+         */
+        public static final String TRASH_ROOT_ID = "trash_root_id";
+
         /**
          * Google任务ID
          * <P>类型: TEXT</P>
@@ -172,6 +233,24 @@ public class Notes {
          */
         public static final String VERSION = "version";
 
+        /**
+         * 通话记录笔记的电话号码，仅用于查询，由内容提供者从通话记录数据中关联得到，其他笔记为null
+         * <P>类型: TEXT</P>
+         */
+        public static final String CALL_NUMBER = "call_number";
+
+        /**
+         * 列表显示用的预览：笔记为正文首行去掉清单符号后的前200个字符，文件夹为名称
+         * <P>类型: TEXT</P>
+         */
+        public static final String PREVIEW = "preview";
+
+        /**
+         * 笔记正文是否已移入归档库，为1时数据行保存在归档库中，打开笔记时自动移回
+         * <P>类型: INTEGER</P>
+         */
+        public static final String ARCHIVED = "archived";
+
 
     }
 
@@ -242,6 +321,59 @@ public class Notes {
          * <P>类型: TEXT</P>
          */
         public static final String DATA5 = "data5";
+
+        /**
+         * 正文的压缩方式，见{@link NoteContentCodec#CODEC_NONE}和{@link NoteContentCodec#CODEC_DEFLATE}
+         * <P>类型: INTEGER</P>
+         */
+        public static final String CONTENT_CODEC = "content_codec";
+
+        /**
+         * 压缩后的完整正文，此时{@link #CONTENT}只保留正文开头，读取时用{@link NoteContentCodec#readContent}
+         * <P>类型: BLOB</P>
+         */
+        public static final String CONTENT_COMPRESSED = "content_compressed";
+    }
+
+    // 附件列接口，附件内容按SHA-256保存为文件，表中只保存引用
+    public interface AttachmentColumns {
+        /**
+         * 行的唯一ID
+         * <P>类型: INTEGER (long)</P>
+         */
+        public static final String ID = "_id";
+
+        /**
+         * 所属笔记的ID
+         * <P>类型: INTEGER (long)</P>
+         */
+        public static final String NOTE_ID = "note_id";
+
+        /**
+         * 附件内容的SHA-256，十六进制小写，相同内容只保存一份文件
+         * <P>类型: TEXT</P>
+         */
+        public static final String HASH = "hash";
+
+        /**
+         * 附件的MIME类型
+         * <P>类型: TEXT</P>
+         */
+        public static final String MIME_TYPE = "mime_type";
+
+        /**
+         * 附件大小，单位字节
+         * <P>类型: INTEGER (long)</P>
+         */
+        public static final String SIZE = "size";
+
+        /**
+         * 创建日期
+         * <P>类型: INTEGER (long)</P>
+         */
+        public static final String CREATED_DATE = "created_date";
+
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/attachment"; // MIME类型定义
     }
 
     // 文本笔记类，实现了DataColumns接口
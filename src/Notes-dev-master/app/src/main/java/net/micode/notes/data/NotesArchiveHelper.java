@@ -0,0 +1,73 @@
+/*
+ * NotesArchiveHelper 类管理归档库 archive.db。
+ * 长期未修改的笔记把数据行移入归档库，主库只保留笔记行和预览，需要时才打开归档库。
+ */
+
+package net.micode.notes.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+class NotesArchiveHelper extends SQLiteOpenHelper {
+    // 归档库名称
+    private static final String DB_NAME = "archive.db";
+
+    // 归档库版本号，数据表结构与主库一致
+    private static final int DB_VERSION = 2;
+
+    private static final String TAG = "NotesArchiveHelper";
+
+    /**
+     * 构造函数
+     *
+     * @param context 上下文对象
+     */
+    NotesArchiveHelper(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * 判断归档库文件是否已经存在，不存在时说明还没有归档过笔记，无需打开
+     *
+     * @param context 上下文对象
+     * @return 存在时返回true
+     */
+    static boolean exists(Context context) {
+        return context.getDatabasePath(DB_NAME).exists();
+    }
+
+    /**
+     * 创建归档数据表，不创建触发器和全文索引
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL(NotesDatabaseHelper.CREATE_DATA_TABLE_SQL);
+        db.execSQL(NotesDatabaseHelper.CREATE_DATA_NOTE_ID_INDEX_SQL);
+        Log.d(TAG, "archive data table has been created");
+    }
+
+    /**
+     * 升级归档库，跟随主库数据表结构的变化
+     *
+     * @param db         SQLiteDatabase 类型，数据库对象
+     * @param oldVersion int 类型，旧版本号
+     * @param newVersion int 类型，新版本号
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion == 1) {
+            // 添加正文压缩列，归档时原样复制主库的压缩内容
+            NotesDatabaseHelper.addContentCompressionColumns(db);
+            oldVersion++;
+        }
+        if (oldVersion != newVersion) {
+            throw new IllegalStateException("Upgrade archive database to version " + newVersion
+                    + " fails");
+        }
+    }
+}
@@ -3,39 +3,327 @@
  */
 package net.micode.notes.data;
 
+import android.content.ComponentCallbacks2;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.res.Configuration;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
+import net.micode.notes.data.Notes.AttachmentColumns;
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.DataConstants;
 import net.micode.notes.data.Notes.NoteColumns;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
 
 public class NotesDatabaseHelper extends SQLiteOpenHelper {
     // 数据库名称
     private static final String DB_NAME = "note.db";
 
     // 数据库版本号
-    private static final int DB_VERSION = 4;
+    private static final int DB_VERSION = 17;
 
     // 表接口，定义了数据库中的两个表名
     public interface TABLE {
         public static final String NOTE = "note";
 
         public static final String DATA = "data";
+
+        // 笔记正文的全文索引虚拟表，rowid 即笔记ID
+        public static final String NOTE_FTS = "note_fts";
+
+        // 附件表，每行是笔记对一个附件文件的引用
+        public static final String ATTACHMENT = "attachment";
+
+        // 附件文件表，每个SHA-256一行，记录被附件表引用的次数
+        public static final String ATTACHMENT_BLOB = "attachment_blob";
+
+        // 批量操作标记表，有行时暂停逐行维护文件夹计数的触发器
+        public static final String FOLDER_COUNT_BATCH = "folder_count_batch";
+
+        // 批量操作期间子项有变化、计数待重算的文件夹
+        public static final String FOLDER_COUNT_DIRTY = "folder_count_dirty";
+
+        // 升级后待完成的数据回填，每个版本一行，记录已处理到的ID
+        public static final String MIGRATION_BACKFILL = "migration_backfill";
+
+        // 通话记录笔记表，每个笔记一行，由数据表的触发器维护，按规范化的号码和通话时间查找笔记
+        public static final String CALL_NOTE = "call_note";
     }
 
+    // 附件文件表的列
+    static final String BLOB_HASH = "hash";
+    static final String BLOB_SIZE = "size";
+    static final String BLOB_REF_COUNT = "ref_count";
+
+    // 通话记录笔记表的列，号码的最短匹配键在查找前由{@link #normalizeCallNotes}补上
+    static final String CALL_NOTE_DATE = "call_date";
+    static final String CALL_NOTE_NUMBER = "phone_number";
+    static final String CALL_NOTE_NUMBER_NORM = "phone_norm";
+
+    // 数据回填表的列
+    static final String BACKFILL_VERSION = "version";
+    private static final String BACKFILL_LAST_ID = "last_id";
+
     // 日志标签
     private static final String TAG = "NotesDatabaseHelper";
 
+    private final Context mContext;
+
     // 单例模式，确保数据库辅助类的唯一实例
     private static NotesDatabaseHelper mInstance;
 
+    // 检查点模式：PASSIVE不等待读者，TRUNCATE在完成后把WAL文件截断为0
+    public static final String CHECKPOINT_PASSIVE = "PASSIVE";
+    public static final String CHECKPOINT_TRUNCATE = "TRUNCATE";
+
+    // 最后一次写入后空闲多久执行被动检查点，单位毫秒
+    private static final long IDLE_CHECKPOINT_DELAY = 5000;
+
+    // 检查点之后WAL文件保留的最大字节数
+    private static final long JOURNAL_SIZE_LIMIT = 1024 * 1024;
+
+    // 在后台线程执行检查点，避免占用调用方线程
+    private final Handler mCheckpointHandler;
+
+    private final Runnable mIdleCheckpoint = new Runnable() {
+        @Override
+        public void run() {
+            checkpoint(CHECKPOINT_PASSIVE);
+        }
+    };
+
+    private final Runnable mTruncateCheckpoint = new Runnable() {
+        @Override
+        public void run() {
+            checkpoint(CHECKPOINT_TRUNCATE);
+        }
+    };
+
+    // 数据回填每批处理的行数，每批一个事务
+    private static final int BACKFILL_CHUNK_SIZE = 500;
+
+    // 打开数据库后延迟开始回填，避开首屏加载；两批之间留出间隔，让前台写入拿到写锁
+    private static final long BACKFILL_DELAY = 10000;
+    private static final long BACKFILL_INTERVAL = 50;
+
+    // PRAGMA auto_vacuum 的增量回收模式
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // 空闲维护时每片回收的页数，每片是一个独立的写事务，片与片之间其他写入可以进行
+    private static final int VACUUM_SLICE_PAGES = 128;
+
+    // 单次空闲维护回收空闲页的最长时间，单位毫秒，剩余的留到下一次
+    private static final long VACUUM_TIME_LIMIT = 10000;
+
+    // 添加预览列的版本，该版本的回填完成前部分笔记的预览为空，正文仍在snippet中
+    private static final int NOTE_PREVIEW_VERSION = 7;
+
+    // 建立通话记录笔记表的版本，该版本的回填完成前按号码查找笔记仍需逐行比较
+    private static final int CALL_NOTE_VERSION = 14;
+
+    // 连接的存储参数，按设备内存选择，内存紧张时缩小内存映射区域。
+    // 只作用于写连接：系统没有为连接池中的读连接提供配置入口，写入、检查点、回填和维护都在写连接上执行
+    private volatile StorageProfile mStorageProfile;
+
+    // 数据库连接是否已经配置过，之后缩小内存映射需要立即应用到连接上
+    private volatile boolean mConfigured;
+
+    /**
+     * 一次空闲维护的结果
+     */
+    static class MaintenanceStats {
+        // 本次回收的字节数
+        final long reclaimedBytes;
+        // 维护后仍未回收的空闲页字节数
+        final long freelistBytes;
+
+        MaintenanceStats(long reclaimedBytes, long freelistBytes) {
+            this.reclaimedBytes = reclaimedBytes;
+            this.freelistBytes = freelistBytes;
+        }
+    }
+
+    private final Runnable mBackfill = new Runnable() {
+        @Override
+        public void run() {
+            if (backfillChunk()) {
+                mCheckpointHandler.postDelayed(this, BACKFILL_INTERVAL);
+            } else {
+                checkpoint(CHECKPOINT_TRUNCATE);
+            }
+        }
+    };
+
+    /**
+     * 一次数据库升级。结构变更在升级事务中同步执行，只做建表、加列和建索引这类与行数无关的操作，触发器在全部变更之后统一重建；
+     * 需要改写已有行的数据回填在打开数据库后由后台线程按ID分批执行，
+     * 进度记录在{@link TABLE#MIGRATION_BACKFILL}中，进程中断后从上次的位置继续。
+     */
+    abstract class Migration {
+        // 升级到的版本号
+        final int version;
+
+        // 数据回填按该表的该列分批，没有数据回填时为null
+        final String backfillTable;
+        final String backfillColumn;
+
+        Migration(int version) {
+            this(version, null, null);
+        }
+
+        Migration(int version, String backfillTable, String backfillColumn) {
+            this.version = version;
+            this.backfillTable = backfillTable;
+            this.backfillColumn = backfillColumn;
+        }
+
+        /**
+         * 结构变更，在升级事务中执行
+         *
+         * @param db SQLiteDatabase 类型，数据库对象
+         */
+        abstract void migrate(SQLiteDatabase db);
+
+        /**
+         * 回填一批数据，在事务中执行，与进度的更新一起提交
+         *
+         * @param db      SQLiteDatabase 类型，数据库对象
+         * @param afterId 本批起点（不含）
+         * @param endId   本批终点（含）
+         */
+        void backfill(SQLiteDatabase db, long afterId, long endId) {
+        }
+    }
+
+    // 按版本号顺序登记的升级，onUpgrade依次执行旧版本之后的各项
+    final Migration[] mMigrations = new Migration[]{
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    upgradeToV3(db);
+                }
+            },
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    upgradeToV4(db);
+                }
+            },
+            new Migration(5, TABLE.DATA, DataColumns.NOTE_ID) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    upgradeToV5(db);
+                }
+
+                @Override
+                void backfill(SQLiteDatabase db, long afterId, long endId) {
+                    backfillNoteFts(db, afterId, endId);
+                }
+            },
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    upgradeToV6(db);
+                }
+            },
+            new Migration(NOTE_PREVIEW_VERSION, TABLE.NOTE, NoteColumns.ID) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    upgradeToV7(db);
+                }
+
+                @Override
+                void backfill(SQLiteDatabase db, long afterId, long endId) {
+                    backfillNotePreview(db, afterId, endId);
+                }
+            },
+            new Migration(8) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    upgradeToV8(db);
+                }
+            },
+            new Migration(9, TABLE.DATA, DataColumns.ID) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    upgradeToV9(db);
+                }
+
+                @Override
+                void backfill(SQLiteDatabase db, long afterId, long endId) {
+                    compressContent(db, afterId, endId);
+                }
+            },
+            new Migration(10) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    upgradeToV10(db);
+                }
+            },
+            new Migration(11) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    upgradeToV11(db);
+                }
+            },
+            new Migration(12) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    upgradeToV12(db);
+                }
+            },
+            new Migration(13) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    upgradeToV13(db);
+                }
+            },
+            new Migration(CALL_NOTE_VERSION, TABLE.DATA, DataColumns.ID) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    upgradeToV14(db);
+                }
+
+                @Override
+                void backfill(SQLiteDatabase db, long afterId, long endId) {
+                    backfillCallNotes(db, afterId, endId);
+                }
+            },
+            new Migration(15) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    upgradeToV15(db);
+                }
+            },
+            new Migration(16) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    upgradeToV16(db);
+                }
+            },
+            new Migration(17) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    upgradeToV17(db);
+                }
+            },
+    };
+
     // 创建NOTE表的SQL语句
-    private static final String CREATE_NOTE_TABLE_SQL =
+    static final String CREATE_NOTE_TABLE_SQL =
             "CREATE TABLE " + TABLE.NOTE + "(" +
                     NoteColumns.ID + " INTEGER PRIMARY KEY," +
                     NoteColumns.PARENT_ID + " INTEGER NOT NULL DEFAULT 0," +
@@ -52,12 +340,15 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
                     NoteColumns.SYNC_ID + " INTEGER NOT NULL DEFAULT 0," +
                     NoteColumns.LOCAL_MODIFIED + " INTEGER NOT NULL DEFAULT 0," +
                     NoteColumns.ORIGIN_PARENT_ID + " INTEGER NOT NULL DEFAULT 0," +
+                    NoteColumns.TRASH_ROOT_ID + " INTEGER NOT NULL DEFAULT 0," +
                     NoteColumns.GTASK_ID + " TEXT NOT NULL DEFAULT ''," +
-                    NoteColumns.VERSION + " INTEGER NOT NULL DEFAULT 0" +
+                    NoteColumns.VERSION + " INTEGER NOT NULL DEFAULT 0," +
+                    NoteColumns.PREVIEW + " TEXT NOT NULL DEFAULT ''," +
+                    NoteColumns.ARCHIVED + " INTEGER NOT NULL DEFAULT 0" +
                     ")";
 
-    // 创建DATA表的SQL语句
-    private static final String CREATE_DATA_TABLE_SQL =
+    // 创建DATA表的SQL语句，归档库使用相同的表结构
+    static final String CREATE_DATA_TABLE_SQL =
             "CREATE TABLE " + TABLE.DATA + "(" +
                     DataColumns.ID + " INTEGER PRIMARY KEY," +
                     DataColumns.MIME_TYPE + " TEXT NOT NULL," +
@@ -69,18 +360,125 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
                     DataColumns.DATA2 + " INTEGER," +
                     DataColumns.DATA3 + " TEXT NOT NULL DEFAULT ''," +
                     DataColumns.DATA4 + " TEXT NOT NULL DEFAULT ''," +
-                    DataColumns.DATA5 + " TEXT NOT NULL DEFAULT ''" +
+                    DataColumns.DATA5 + " TEXT NOT NULL DEFAULT ''," +
+                    DataColumns.CONTENT_CODEC + " INTEGER NOT NULL DEFAULT 0," +
+                    DataColumns.CONTENT_COMPRESSED + " BLOB" +
                     ")";
 
     // 创建DATA表的NOTE_ID索引的SQL语句
-    private static final String CREATE_DATA_NOTE_ID_INDEX_SQL =
+    static final String CREATE_DATA_NOTE_ID_INDEX_SQL =
             "CREATE INDEX IF NOT EXISTS note_id_index ON " +
                     TABLE.DATA + "(" + DataColumns.NOTE_ID + ");";
 
+    // 笔记列表、文件夹内容和回收站查询：按父文件夹过滤，按类型和修改时间倒序排序
+    private static final String CREATE_NOTE_PARENT_TYPE_MODIFIED_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS note_parent_type_modified_index ON " + TABLE.NOTE + "("
+                    + NoteColumns.PARENT_ID + "," + NoteColumns.TYPE + "," + NoteColumns.MODIFIED_DATE + ");";
+
+    // 同步和目标文件夹查询：按类型过滤并排除回收站
+    private static final String CREATE_NOTE_TYPE_PARENT_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS note_type_parent_index ON " + TABLE.NOTE + "("
+                    + NoteColumns.TYPE + "," + NoteColumns.PARENT_ID + ");";
+
+    // 开机恢复提醒：部分索引只包含设置了提醒的笔记，查询条件须带上 alert_date>0
+    private static final String CREATE_NOTE_ALERT_DATE_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS note_alert_date_index ON " + TABLE.NOTE + "("
+                    + NoteColumns.TYPE + "," + NoteColumns.ALERTED_DATE + ")"
+                    + " WHERE " + NoteColumns.ALERTED_DATE + ">0;";
+
+    // 小部件查询：部分索引只包含绑定了小部件的笔记，查询条件须带上 widget_id>0
+    private static final String CREATE_NOTE_WIDGET_ID_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS note_widget_id_index ON " + TABLE.NOTE + "("
+                    + NoteColumns.WIDGET_ID + ")"
+                    + " WHERE " + NoteColumns.WIDGET_ID + ">0;";
+
+    // 归档笔记查询：部分索引只包含正文已归档的笔记
+    private static final String CREATE_NOTE_ARCHIVED_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS note_archived_index ON " + TABLE.NOTE + "("
+                    + NoteColumns.ARCHIVED + ")"
+                    + " WHERE " + NoteColumns.ARCHIVED + ">0;";
+
+    // 创建附件表的SQL语句
+    private static final String CREATE_ATTACHMENT_TABLE_SQL =
+            "CREATE TABLE " + TABLE.ATTACHMENT + "(" +
+                    AttachmentColumns.ID + " INTEGER PRIMARY KEY," +
+                    AttachmentColumns.NOTE_ID + " INTEGER NOT NULL," +
+                    AttachmentColumns.HASH + " TEXT NOT NULL," +
+                    AttachmentColumns.MIME_TYPE + " TEXT NOT NULL DEFAULT ''," +
+                    AttachmentColumns.SIZE + " INTEGER NOT NULL DEFAULT 0," +
+                    AttachmentColumns.CREATED_DATE + " INTEGER NOT NULL DEFAULT (strftime('%s','now') * 1000)" +
+                    ")";
+
+    // 创建附件文件表的SQL语句
+    private static final String CREATE_ATTACHMENT_BLOB_TABLE_SQL =
+            "CREATE TABLE " + TABLE.ATTACHMENT_BLOB + "(" +
+                    BLOB_HASH + " TEXT PRIMARY KEY," +
+                    BLOB_SIZE + " INTEGER NOT NULL DEFAULT 0," +
+                    BLOB_REF_COUNT + " INTEGER NOT NULL DEFAULT 0" +
+                    ")";
+
+    // 按笔记查询附件
+    private static final String CREATE_ATTACHMENT_NOTE_ID_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS attachment_note_id_index ON " + TABLE.ATTACHMENT + "("
+                    + AttachmentColumns.NOTE_ID + ");";
+
+    // 回收附件文件：部分索引只包含不再被引用的文件
+    private static final String CREATE_ATTACHMENT_BLOB_UNREFERENCED_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS attachment_blob_unreferenced_index ON " + TABLE.ATTACHMENT_BLOB + "("
+                    + BLOB_REF_COUNT + ")"
+                    + " WHERE " + BLOB_REF_COUNT + "<=0;";
+
+    // 创建批量操作标记表的SQL语句
+    private static final String CREATE_FOLDER_COUNT_BATCH_TABLE_SQL =
+            "CREATE TABLE IF NOT EXISTS " + TABLE.FOLDER_COUNT_BATCH + "(" +
+                    NoteColumns.ID + " INTEGER PRIMARY KEY" +
+                    ")";
+
+    // 创建待重算文件夹表的SQL语句
+    private static final String CREATE_FOLDER_COUNT_DIRTY_TABLE_SQL =
+            "CREATE TABLE IF NOT EXISTS " + TABLE.FOLDER_COUNT_DIRTY + "(" +
+                    NoteColumns.ID + " INTEGER PRIMARY KEY," +
+                    NoteColumns.NOTES_COUNT + " INTEGER NOT NULL DEFAULT 0" +
+                    ")";
+
+    // 逐行维护文件夹计数的触发器只在非批量操作时执行
+    private static final String NOT_IN_FOLDER_COUNT_BATCH =
+            "NOT EXISTS(SELECT 1 FROM " + TABLE.FOLDER_COUNT_BATCH + ")";
+
+    // 批量操作时触发器只记录待重算的文件夹
+    private static final String IN_FOLDER_COUNT_BATCH =
+            "EXISTS(SELECT 1 FROM " + TABLE.FOLDER_COUNT_BATCH + ")";
+
+    // 各访问路径的典型查询，用于检查查询计划是否命中索引
+    private static final String[] INDEXED_QUERIES = new String[]{
+            // NotesListActivity 根文件夹列表
+            "SELECT * FROM " + TABLE.NOTE + " WHERE (" + NoteColumns.TYPE + "<>" + Notes.TYPE_SYSTEM
+                    + " AND " + NoteColumns.PARENT_ID + "=?) OR (" + NoteColumns.ID + "="
+                    + Notes.ID_CALL_RECORD_FOLDER + " AND " + NoteColumns.NOTES_COUNT + ">0)"
+                    + " ORDER BY " + NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC",
+            // NotesListActivity 子文件夹列表
+            "SELECT * FROM " + TABLE.NOTE + " WHERE " + NoteColumns.PARENT_ID + "=?"
+                    + " ORDER BY " + NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC",
+            // GTaskManager 本地已删除笔记
+            "SELECT * FROM " + TABLE.NOTE + " WHERE (" + NoteColumns.TYPE + "<>? AND "
+                    + NoteColumns.PARENT_ID + "=?)",
+            // GTaskManager 本地文件夹和笔记
+            "SELECT * FROM " + TABLE.NOTE + " WHERE (" + NoteColumns.TYPE + "=? AND "
+                    + NoteColumns.PARENT_ID + "<>?) ORDER BY " + NoteColumns.TYPE + " DESC",
+            // AlarmInitReceiver 待恢复的提醒
+            "SELECT * FROM " + TABLE.NOTE + " WHERE " + NoteColumns.ALERTED_DATE + ">? AND "
+                    + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE + " AND " + NoteColumns.ALERTED_DATE + ">0",
+            // NoteWidgetProvider 小部件对应的笔记
+            "SELECT * FROM " + TABLE.NOTE + " WHERE " + NoteColumns.WIDGET_ID + "=? AND "
+                    + NoteColumns.PARENT_ID + "<>? AND " + NoteColumns.WIDGET_ID + ">0",
+    };
+
     // 当更新NOTE表中的PARENT_ID字段时，增加目标文件夹的NOTE_COUNT
     private static final String NOTE_INCREASE_FOLDER_COUNT_ON_UPDATE_TRIGGER =
             "CREATE TRIGGER increase_folder_count_on_update " +
                     " AFTER UPDATE OF " + NoteColumns.PARENT_ID + " ON " + TABLE.NOTE +
+                    " WHEN new." + NoteColumns.PARENT_ID + "<>old." + NoteColumns.PARENT_ID +
+                    "  AND " + NOT_IN_FOLDER_COUNT_BATCH +
                     " BEGIN " +
                     "  UPDATE " + TABLE.NOTE +
                     "   SET " + NoteColumns.NOTES_COUNT + "=" + NoteColumns.NOTES_COUNT + " + 1" +
@@ -91,6 +489,8 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
     private static final String NOTE_DECREASE_FOLDER_COUNT_ON_UPDATE_TRIGGER =
             "CREATE TRIGGER decrease_folder_count_on_update " +
                     " AFTER UPDATE OF " + NoteColumns.PARENT_ID + " ON " + TABLE.NOTE +
+                    " WHEN new." + NoteColumns.PARENT_ID + "<>old." + NoteColumns.PARENT_ID +
+                    "  AND " + NOT_IN_FOLDER_COUNT_BATCH +
                     " BEGIN " +
                     "  UPDATE " + TABLE.NOTE +
                     "   SET " + NoteColumns.NOTES_COUNT + "=" + NoteColumns.NOTES_COUNT + "-1" +
@@ -102,6 +502,7 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
     private static final String NOTE_INCREASE_FOLDER_COUNT_ON_INSERT_TRIGGER =
             "CREATE TRIGGER increase_folder_count_on_insert " +
                     " AFTER INSERT ON " + TABLE.NOTE +
+                    " WHEN " + NOT_IN_FOLDER_COUNT_BATCH +
                     " BEGIN " +
                     "  UPDATE " + TABLE.NOTE +
                     "   SET " + NoteColumns.NOTES_COUNT + "=" + NoteColumns.NOTES_COUNT + " + 1" +
@@ -112,6 +513,7 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
     private static final String NOTE_DECREASE_FOLDER_COUNT_ON_DELETE_TRIGGER =
             "CREATE TRIGGER decrease_folder_count_on_delete " +
                     " AFTER DELETE ON " + TABLE.NOTE +
+                    " WHEN " + NOT_IN_FOLDER_COUNT_BATCH +
                     " BEGIN " +
                     "  UPDATE " + TABLE.NOTE +
                     "   SET " + NoteColumns.NOTES_COUNT + "=" + NoteColumns.NOTES_COUNT + "-1" +
@@ -119,39 +521,173 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
                     "  AND " + NoteColumns.NOTES_COUNT + ">0;" +
                     " END";
 
-    // 当插入DATA时，如果类型为NOTE，则更新关联NOTE的内容
+    // 批量操作中移动NOTE时，记录源文件夹和目标文件夹
+    private static final String NOTE_MARK_FOLDER_COUNT_ON_UPDATE_TRIGGER =
+            "CREATE TRIGGER mark_folder_count_on_update " +
+                    " AFTER UPDATE OF " + NoteColumns.PARENT_ID + " ON " + TABLE.NOTE +
+                    " WHEN new." + NoteColumns.PARENT_ID + "<>old." + NoteColumns.PARENT_ID +
+                    "  AND " + IN_FOLDER_COUNT_BATCH +
+                    " BEGIN " +
+                    "  INSERT OR IGNORE INTO " + TABLE.FOLDER_COUNT_DIRTY + "(" + NoteColumns.ID + ")" +
+                    "   VALUES(old." + NoteColumns.PARENT_ID + "),(new." + NoteColumns.PARENT_ID + ");" +
+                    " END";
+
+    // 批量操作中插入NOTE时，记录目标文件夹
+    private static final String NOTE_MARK_FOLDER_COUNT_ON_INSERT_TRIGGER =
+            "CREATE TRIGGER mark_folder_count_on_insert " +
+                    " AFTER INSERT ON " + TABLE.NOTE +
+                    " WHEN " + IN_FOLDER_COUNT_BATCH +
+                    " BEGIN " +
+                    "  INSERT OR IGNORE INTO " + TABLE.FOLDER_COUNT_DIRTY + "(" + NoteColumns.ID + ")" +
+                    "   VALUES(new." + NoteColumns.PARENT_ID + ");" +
+                    " END";
+
+    // 批量操作中删除NOTE时，记录所在文件夹
+    private static final String NOTE_MARK_FOLDER_COUNT_ON_DELETE_TRIGGER =
+            "CREATE TRIGGER mark_folder_count_on_delete " +
+                    " AFTER DELETE ON " + TABLE.NOTE +
+                    " WHEN " + IN_FOLDER_COUNT_BATCH +
+                    " BEGIN " +
+                    "  INSERT OR IGNORE INTO " + TABLE.FOLDER_COUNT_DIRTY + "(" + NoteColumns.ID + ")" +
+                    "   VALUES(old." + NoteColumns.PARENT_ID + ");" +
+                    " END";
+
+    // 笔记移出回收站时清除回收站子树的根，此后再移入回收站时重新记录
+    static final String NOTE_CLEAR_TRASH_ROOT_ON_RESTORE_TRIGGER =
+            "CREATE TRIGGER clear_trash_root_on_restore " +
+                    " AFTER UPDATE OF " + NoteColumns.PARENT_ID + " ON " + TABLE.NOTE +
+                    " WHEN old." + NoteColumns.PARENT_ID + "=" + Notes.ID_TRASH_FOLER +
+                    "  AND new." + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER +
+                    "  AND new." + NoteColumns.TRASH_ROOT_ID + "<>0" +
+                    " BEGIN " +
+                    "  UPDATE " + TABLE.NOTE +
+                    "   SET " + NoteColumns.TRASH_ROOT_ID + "=0" +
+                    "  WHERE " + NoteColumns.ID + "=new." + NoteColumns.ID + ";" +
+                    " END";
+
+    // 预览的最大长度
+    private static final int NOTE_PREVIEW_MAX_LENGTH = 200;
+
+    // 清单模式下已勾选和未勾选项的前缀符号，与NoteEditActivity一致
+    private static final String TAG_CHECKED = "\u221A";
+    private static final String TAG_UNCHECKED = "\u25A1";
+
+    // 预览回填完成前代替预览列的表达式：预览为空的笔记用snippet中的正文即时计算，列表和小部件不会显示空白
+    static final String NOTE_PREVIEW_WITH_FALLBACK = "CASE WHEN " + NoteColumns.PREVIEW + "='' AND "
+            + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE + " THEN " + previewOf(NoteColumns.SNIPPET)
+            + " ELSE " + NoteColumns.PREVIEW + " END";
+
+    // 当插入DATA时，如果类型为NOTE，则更新关联NOTE的预览
     private static final String DATA_UPDATE_NOTE_CONTENT_ON_INSERT_TRIGGER =
             "CREATE TRIGGER update_note_content_on_insert " +
                     " AFTER INSERT ON " + TABLE.DATA +
                     " WHEN new." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
                     " BEGIN" +
                     "  UPDATE " + TABLE.NOTE +
-                    "   SET " + NoteColumns.SNIPPET + "=new." + DataColumns.CONTENT +
+                    "   SET " + NoteColumns.PREVIEW + "=" + previewOf("new." + DataColumns.CONTENT) +
                     "  WHERE " + NoteColumns.ID + "=new." + DataColumns.NOTE_ID + ";" +
                     " END";
 
-    // 当更新DATA时，如果类型为NOTE，则更新关联NOTE的内容
+    // 当更新DATA时，如果类型为NOTE且正文有变化，则更新关联NOTE的预览
     private static final String DATA_UPDATE_NOTE_CONTENT_ON_UPDATE_TRIGGER =
             "CREATE TRIGGER update_note_content_on_update " +
                     " AFTER UPDATE ON " + TABLE.DATA +
                     " WHEN old." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
+                    "  AND (old." + DataColumns.CONTENT + "<>new." + DataColumns.CONTENT +
+                    "  OR old." + DataColumns.NOTE_ID + "<>new." + DataColumns.NOTE_ID + ")" +
                     " BEGIN" +
                     "  UPDATE " + TABLE.NOTE +
-                    "   SET " + NoteColumns.SNIPPET + "=new." + DataColumns.CONTENT +
+                    "   SET " + NoteColumns.PREVIEW + "=" + previewOf("new." + DataColumns.CONTENT) +
                     "  WHERE " + NoteColumns.ID + "=new." + DataColumns.NOTE_ID + ";" +
                     " END";
 
-    // 当删除DATA时，如果类型为NOTE，则更新关联NOTE的内容为空
+    // 当删除DATA时，如果类型为NOTE，则清空关联NOTE的预览；正文移入归档库时保留预览
     private static final String DATA_UPDATE_NOTE_CONTENT_ON_DELETE_TRIGGER =
             "CREATE TRIGGER update_note_content_on_delete " +
                     " AFTER delete ON " + TABLE.DATA +
                     " WHEN old." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
+                    "  AND NOT EXISTS(SELECT 1 FROM " + TABLE.NOTE +
+                    "   WHERE " + NoteColumns.ID + "=old." + DataColumns.NOTE_ID +
+                    "   AND " + NoteColumns.ARCHIVED + ">0)" +
                     " BEGIN" +
                     "  UPDATE " + TABLE.NOTE +
-                    "   SET " + NoteColumns.SNIPPET + "=''" +
+                    "   SET " + NoteColumns.PREVIEW + "=''" +
                     "  WHERE " + NoteColumns.ID + "=old." + DataColumns.NOTE_ID + ";" +
                     " END";
 
+    // 插入文件夹时，把名称复制到预览
+    private static final String FOLDER_UPDATE_PREVIEW_ON_INSERT_TRIGGER =
+            "CREATE TRIGGER update_folder_preview_on_insert " +
+                    " AFTER INSERT ON " + TABLE.NOTE +
+                    " WHEN new." + NoteColumns.TYPE + "<>" + Notes.TYPE_NOTE +
+                    " BEGIN" +
+                    "  UPDATE " + TABLE.NOTE +
+                    "   SET " + NoteColumns.PREVIEW + "=new." + NoteColumns.SNIPPET +
+                    "  WHERE " + NoteColumns.ID + "=new." + NoteColumns.ID + ";" +
+                    " END";
+
+    // 文件夹改名时，同步更新预览
+    private static final String FOLDER_UPDATE_PREVIEW_ON_UPDATE_TRIGGER =
+            "CREATE TRIGGER update_folder_preview_on_update " +
+                    " AFTER UPDATE OF " + NoteColumns.SNIPPET + " ON " + TABLE.NOTE +
+                    " WHEN new." + NoteColumns.TYPE + "<>" + Notes.TYPE_NOTE +
+                    " BEGIN" +
+                    "  UPDATE " + TABLE.NOTE +
+                    "   SET " + NoteColumns.PREVIEW + "=new." + NoteColumns.SNIPPET +
+                    "  WHERE " + NoteColumns.ID + "=new." + NoteColumns.ID + ";" +
+                    " END";
+
+    // trigram分词按三个字符切分，中文等不以空格分词的文字也能检索词中的片段，需要SQLite 3.34以上
+    private static final String NOTE_FTS_TRIGRAM_MODULE =
+            " USING fts5(" + DataColumns.CONTENT + ", tokenize='trigram')";
+
+    // 创建全文索引表的SQL语句，优先使用trigram分词的FTS5
+    static final String CREATE_NOTE_FTS5_TRIGRAM_TABLE_SQL =
+            "CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE.NOTE_FTS + NOTE_FTS_TRIGRAM_MODULE;
+
+    // 系统SQLite不支持trigram时退回unicode61分词，中文检索由提供者改用LIKE
+    static final String CREATE_NOTE_FTS5_TABLE_SQL =
+            "CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE.NOTE_FTS +
+                    " USING fts5(" + DataColumns.CONTENT + ", tokenize='unicode61')";
+
+    // 系统SQLite未编译FTS5时退回FTS4
+    private static final String CREATE_NOTE_FTS4_TABLE_SQL =
+            "CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE.NOTE_FTS +
+                    " USING fts4(" + DataColumns.CONTENT + ", tokenize=unicode61)";
+
+    // 当插入DATA时，如果类型为NOTE，则写入全文索引
+    static final String DATA_INSERT_FTS_ON_INSERT_TRIGGER =
+            "CREATE TRIGGER insert_note_fts_on_insert " +
+                    " AFTER INSERT ON " + TABLE.DATA +
+                    " WHEN new." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
+                    " BEGIN" +
+                    "  DELETE FROM " + TABLE.NOTE_FTS + " WHERE rowid=new." + DataColumns.NOTE_ID + ";" +
+                    "  INSERT INTO " + TABLE.NOTE_FTS + "(rowid," + DataColumns.CONTENT + ")" +
+                    "   VALUES(new." + DataColumns.NOTE_ID + ",new." + DataColumns.CONTENT + ");" +
+                    " END";
+
+    // 当更新DATA时，如果类型为NOTE且正文有变化，则刷新全文索引
+    static final String DATA_UPDATE_FTS_ON_UPDATE_TRIGGER =
+            "CREATE TRIGGER update_note_fts_on_update " +
+                    " AFTER UPDATE ON " + TABLE.DATA +
+                    " WHEN old." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
+                    "  AND (old." + DataColumns.CONTENT + "<>new." + DataColumns.CONTENT +
+                    "  OR old." + DataColumns.NOTE_ID + "<>new." + DataColumns.NOTE_ID + ")" +
+                    " BEGIN" +
+                    "  DELETE FROM " + TABLE.NOTE_FTS + " WHERE rowid=old." + DataColumns.NOTE_ID + ";" +
+                    "  INSERT INTO " + TABLE.NOTE_FTS + "(rowid," + DataColumns.CONTENT + ")" +
+                    "   VALUES(new." + DataColumns.NOTE_ID + ",new." + DataColumns.CONTENT + ");" +
+                    " END";
+
+    // 当删除DATA时，如果类型为NOTE，则删除对应的全文索引
+    static final String DATA_DELETE_FTS_ON_DELETE_TRIGGER =
+            "CREATE TRIGGER delete_note_fts_on_delete " +
+                    " AFTER DELETE ON " + TABLE.DATA +
+                    " WHEN old." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
+                    " BEGIN" +
+                    "  DELETE FROM " + TABLE.NOTE_FTS + " WHERE rowid=old." + DataColumns.NOTE_ID + ";" +
+                    " END";
+
     // 当删除NOTE时，删除关联的DATA
     private static final String NOTE_DELETE_DATA_ON_DELETE_TRIGGER =
             "CREATE TRIGGER delete_data_on_delete " +
@@ -161,24 +697,126 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
                     "   WHERE " + DataColumns.NOTE_ID + "=old." + NoteColumns.ID + ";" +
                     " END";
 
-    // 当删除NOTE时，删除属于该NOTE的子NOTE
-    private static final String FOLDER_DELETE_NOTES_ON_DELETE_TRIGGER =
-            "CREATE TRIGGER folder_delete_notes_on_delete " +
-                    " AFTER DELETE ON " + TABLE.NOTE +
+    // 插入附件时增加文件的引用计数，并标记笔记有附件
+    private static final String ATTACHMENT_ADD_REFERENCE_ON_INSERT_TRIGGER =
+            "CREATE TRIGGER attachment_add_reference_on_insert " +
+                    " AFTER INSERT ON " + TABLE.ATTACHMENT +
                     " BEGIN" +
-                    "  DELETE FROM " + TABLE.NOTE +
-                    "   WHERE " + NoteColumns.PARENT_ID + "=old." + NoteColumns.ID + ";" +
+                    "  INSERT OR IGNORE INTO " + TABLE.ATTACHMENT_BLOB + "(" + BLOB_HASH + "," + BLOB_SIZE + ")" +
+                    "   VALUES(new." + AttachmentColumns.HASH + ",new." + AttachmentColumns.SIZE + ");" +
+                    "  UPDATE " + TABLE.ATTACHMENT_BLOB +
+                    "   SET " + BLOB_REF_COUNT + "=" + BLOB_REF_COUNT + "+1" +
+                    "   WHERE " + BLOB_HASH + "=new." + AttachmentColumns.HASH + ";" +
+                    "  UPDATE " + TABLE.NOTE +
+                    "   SET " + NoteColumns.HAS_ATTACHMENT + "=1" +
+                    "   WHERE " + NoteColumns.ID + "=new." + AttachmentColumns.NOTE_ID + ";" +
                     " END";
 
-    // 当NOTE移动到回收站文件夹时，将所有子NOTE也移动到回收站
-    private static final String FOLDER_MOVE_NOTES_ON_TRASH_TRIGGER =
-            "CREATE TRIGGER folder_move_notes_on_trash " +
-                    " AFTER UPDATE ON " + TABLE.NOTE +
-                    " WHEN new." + NoteColumns.PARENT_ID + "=" + Notes.ID_TRASH_FOLER +
+    // 删除附件时减少文件的引用计数，笔记没有其他附件时清除标记；计数为0的文件由后台回收
+    private static final String ATTACHMENT_REMOVE_REFERENCE_ON_DELETE_TRIGGER =
+            "CREATE TRIGGER attachment_remove_reference_on_delete " +
+                    " AFTER DELETE ON " + TABLE.ATTACHMENT +
                     " BEGIN" +
+                    "  UPDATE " + TABLE.ATTACHMENT_BLOB +
+                    "   SET " + BLOB_REF_COUNT + "=" + BLOB_REF_COUNT + "-1" +
+                    "   WHERE " + BLOB_HASH + "=old." + AttachmentColumns.HASH + ";" +
                     "  UPDATE " + TABLE.NOTE +
-                    "   SET " + NoteColumns.PARENT_ID + "=" + Notes.ID_TRASH_FOLER +
-                    "  WHERE " + NoteColumns.PARENT_ID + "=old." + NoteColumns.ID + ";" +
+                    "   SET " + NoteColumns.HAS_ATTACHMENT + "=EXISTS(SELECT 1 FROM " + TABLE.ATTACHMENT +
+                    "    WHERE " + AttachmentColumns.NOTE_ID + "=old." + AttachmentColumns.NOTE_ID + ")" +
+                    "   WHERE " + NoteColumns.ID + "=old." + AttachmentColumns.NOTE_ID + ";" +
+                    " END";
+
+    // 当删除NOTE时，删除关联的附件
+    private static final String NOTE_DELETE_ATTACHMENT_ON_DELETE_TRIGGER =
+            "CREATE TRIGGER delete_attachment_on_delete " +
+                    " AFTER DELETE ON " + TABLE.NOTE +
+                    " BEGIN" +
+                    "  DELETE FROM " + TABLE.ATTACHMENT +
+                    "   WHERE " + AttachmentColumns.NOTE_ID + "=old." + NoteColumns.ID + ";" +
+                    " END";
+
+    // 创建通话记录笔记表的SQL语句
+    private static final String CREATE_CALL_NOTE_TABLE_SQL =
+            "CREATE TABLE IF NOT EXISTS " + TABLE.CALL_NOTE + "(" +
+                    DataColumns.NOTE_ID + " INTEGER PRIMARY KEY," +
+                    CALL_NOTE_DATE + " INTEGER NOT NULL DEFAULT 0," +
+                    CALL_NOTE_NUMBER + " TEXT NOT NULL DEFAULT ''," +
+                    CALL_NOTE_NUMBER_NORM + " TEXT" +
+                    ")";
+
+    // 按号码和通话时间查找通话记录笔记
+    private static final String CREATE_CALL_NOTE_NUMBER_DATE_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS call_note_number_date_index ON " + TABLE.CALL_NOTE + "("
+                    + CALL_NOTE_NUMBER_NORM + "," + CALL_NOTE_DATE + ");";
+
+    // 补充规范化号码：部分索引只包含还没有规范化号码的行
+    private static final String CREATE_CALL_NOTE_UNNORMALIZED_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS call_note_unnormalized_index ON " + TABLE.CALL_NOTE + "("
+                    + DataColumns.NOTE_ID + ")"
+                    + " WHERE " + CALL_NOTE_NUMBER_NORM + " IS NULL;";
+
+    // 号码没有变化时沿用已有的规范化号码，否则置空等待重新规范化
+    private static final String CALL_NOTE_KEEP_NUMBER_NORM =
+            "(SELECT " + CALL_NOTE_NUMBER_NORM + " FROM " + TABLE.CALL_NOTE +
+                    " WHERE " + DataColumns.NOTE_ID + "=new." + DataColumns.NOTE_ID +
+                    " AND " + CALL_NOTE_NUMBER + "=new." + DataColumns.DATA3 + ")";
+
+    // 当插入DATA时，如果类型为CALL_NOTE，则写入通话记录笔记表；归档的笔记恢复时也经过这里
+    private static final String DATA_INSERT_CALL_NOTE_ON_INSERT_TRIGGER =
+            "CREATE TRIGGER insert_call_note_on_insert " +
+                    " AFTER INSERT ON " + TABLE.DATA +
+                    " WHEN new." + DataColumns.MIME_TYPE + "='" + DataConstants.CALL_NOTE + "'" +
+                    " BEGIN" +
+                    "  INSERT OR REPLACE INTO " + TABLE.CALL_NOTE + "(" + DataColumns.NOTE_ID + "," +
+                    CALL_NOTE_DATE + "," + CALL_NOTE_NUMBER + "," + CALL_NOTE_NUMBER_NORM + ")" +
+                    "   VALUES(new." + DataColumns.NOTE_ID + ",IFNULL(new." + DataColumns.DATA1 + ",0)," +
+                    "new." + DataColumns.DATA3 + "," + CALL_NOTE_KEEP_NUMBER_NORM + ");" +
+                    " END";
+
+    // 当更新DATA时，如果新旧数据有一方类型为CALL_NOTE且号码、时间或所属笔记有变化，则刷新通话记录笔记表
+    private static final String DATA_UPDATE_CALL_NOTE_ON_UPDATE_TRIGGER =
+            "CREATE TRIGGER update_call_note_on_update " +
+                    " AFTER UPDATE ON " + TABLE.DATA +
+                    " WHEN (old." + DataColumns.MIME_TYPE + "='" + DataConstants.CALL_NOTE + "'" +
+                    "  OR new." + DataColumns.MIME_TYPE + "='" + DataConstants.CALL_NOTE + "')" +
+                    "  AND (old." + DataColumns.MIME_TYPE + "<>new." + DataColumns.MIME_TYPE +
+                    "  OR old." + DataColumns.NOTE_ID + "<>new." + DataColumns.NOTE_ID +
+                    "  OR old." + DataColumns.DATA1 + " IS NOT new." + DataColumns.DATA1 +
+                    "  OR old." + DataColumns.DATA3 + "<>new." + DataColumns.DATA3 + ")" +
+                    " BEGIN" +
+                    "  DELETE FROM " + TABLE.CALL_NOTE +
+                    "   WHERE " + DataColumns.NOTE_ID + "=old." + DataColumns.NOTE_ID +
+                    "   AND old." + DataColumns.MIME_TYPE + "='" + DataConstants.CALL_NOTE + "'" +
+                    "   AND (new." + DataColumns.MIME_TYPE + "<>'" + DataConstants.CALL_NOTE + "'" +
+                    "   OR old." + DataColumns.NOTE_ID + "<>new." + DataColumns.NOTE_ID + ");" +
+                    "  INSERT OR REPLACE INTO " + TABLE.CALL_NOTE + "(" + DataColumns.NOTE_ID + "," +
+                    CALL_NOTE_DATE + "," + CALL_NOTE_NUMBER + "," + CALL_NOTE_NUMBER_NORM + ")" +
+                    "   SELECT new." + DataColumns.NOTE_ID + ",IFNULL(new." + DataColumns.DATA1 + ",0)," +
+                    "new." + DataColumns.DATA3 + "," + CALL_NOTE_KEEP_NUMBER_NORM +
+                    "   WHERE new." + DataColumns.MIME_TYPE + "='" + DataConstants.CALL_NOTE + "';" +
+                    " END";
+
+    // 当删除DATA时，如果类型为CALL_NOTE，则删除通话记录笔记表中的行；数据移入归档库时保留，归档的笔记仍可按号码找到
+    private static final String DATA_DELETE_CALL_NOTE_ON_DELETE_TRIGGER =
+            "CREATE TRIGGER delete_call_note_on_delete " +
+                    " AFTER DELETE ON " + TABLE.DATA +
+                    " WHEN old." + DataColumns.MIME_TYPE + "='" + DataConstants.CALL_NOTE + "'" +
+                    "  AND NOT EXISTS(SELECT 1 FROM " + TABLE.NOTE +
+                    "   WHERE " + NoteColumns.ID + "=old." + DataColumns.NOTE_ID +
+                    "   AND " + NoteColumns.ARCHIVED + ">0)" +
+                    " BEGIN" +
+                    "  DELETE FROM " + TABLE.CALL_NOTE +
+                    "   WHERE " + DataColumns.NOTE_ID + "=old." + DataColumns.NOTE_ID + ";" +
+                    " END";
+
+    // 当删除NOTE时，删除通话记录笔记表中的行，包括数据已移入归档库的笔记
+    private static final String NOTE_DELETE_CALL_NOTE_ON_DELETE_TRIGGER =
+            "CREATE TRIGGER delete_call_note_on_note_delete " +
+                    " AFTER DELETE ON " + TABLE.NOTE +
+                    " WHEN old." + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE +
+                    " BEGIN" +
+                    "  DELETE FROM " + TABLE.CALL_NOTE +
+                    "   WHERE " + DataColumns.NOTE_ID + "=old." + NoteColumns.ID + ";" +
                     " END";
 
     /**
@@ -188,6 +826,28 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
      */
     public NotesDatabaseHelper(Context context) {
         super(context, DB_NAME, null, DB_VERSION);
+        mContext = context.getApplicationContext();
+        // 开启WAL后系统为读操作维护连接池，同步写入时列表和小部件的查询不再被阻塞
+        setWriteAheadLoggingEnabled(true);
+        HandlerThread thread = new HandlerThread("NotesCheckpoint", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mCheckpointHandler = new Handler(thread.getLooper());
+        mStorageProfile = StorageProfile.forDevice(mContext);
+        mContext.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                trimMemory(level);
+            }
+
+            @Override
+            public void onLowMemory() {
+                trimMemory(TRIM_MEMORY_COMPLETE);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+        });
     }
 
     /**
@@ -197,11 +857,59 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
      */
     public void createNoteTable(SQLiteDatabase db) {
         db.execSQL(CREATE_NOTE_TABLE_SQL);
-        reCreateNoteTableTriggers(db);
+        createNoteTableTriggers(db);
+        createNoteTableIndexes(db);
+        db.execSQL(CREATE_NOTE_ARCHIVED_INDEX_SQL);
         createSystemFolder(db);
         Log.d(TAG, "note table has been created");
     }
 
+    /**
+     * 创建笔记表上与各查询路径对应的索引
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void createNoteTableIndexes(SQLiteDatabase db) {
+        db.execSQL(CREATE_NOTE_PARENT_TYPE_MODIFIED_INDEX_SQL);
+        db.execSQL(CREATE_NOTE_TYPE_PARENT_INDEX_SQL);
+        db.execSQL(CREATE_NOTE_ALERT_DATE_INDEX_SQL);
+        db.execSQL(CREATE_NOTE_WIDGET_ID_INDEX_SQL);
+    }
+
+    /**
+     * 打印各访问路径的查询计划，未命中索引的查询以警告级别输出。
+     * 通过 adb shell setprop log.tag.NotesDatabaseHelper DEBUG 开启。
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void logQueryPlans(SQLiteDatabase db) {
+        for (String query : INDEXED_QUERIES) {
+            int argCount = query.length() - query.replace("?", "").length();
+            String[] args = new String[argCount];
+            Arrays.fill(args, "0");
+            Cursor c = db.rawQuery("EXPLAIN QUERY PLAN " + query, args);
+            try {
+                boolean usesIndex = false;
+                StringBuilder plan = new StringBuilder();
+                while (c.moveToNext()) {
+                    String detail = c.getString(c.getColumnCount() - 1);
+                    plan.append(detail).append("; ");
+                    if (detail.contains("USING INDEX") || detail.contains("USING COVERING INDEX")
+                            || detail.contains("PRIMARY KEY")) {
+                        usesIndex = true;
+                    }
+                }
+                if (usesIndex) {
+                    Log.d(TAG, "query plan ok: " + query + " -> " + plan);
+                } else {
+                    Log.w(TAG, "query plan without index: " + query + " -> " + plan);
+                }
+            } finally {
+                c.close();
+            }
+        }
+    }
+
     /**
      * 重新创建笔记表的触发器
      *
@@ -216,14 +924,97 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL("DROP TRIGGER IF EXISTS increase_folder_count_on_insert");
         db.execSQL("DROP TRIGGER IF EXISTS folder_delete_notes_on_delete");
         db.execSQL("DROP TRIGGER IF EXISTS folder_move_notes_on_trash");
-        // 创建新的触发器
+        db.execSQL("DROP TRIGGER IF EXISTS update_folder_preview_on_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS update_folder_preview_on_update");
+        db.execSQL("DROP TRIGGER IF EXISTS mark_folder_count_on_update");
+        db.execSQL("DROP TRIGGER IF EXISTS mark_folder_count_on_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS mark_folder_count_on_delete");
+        db.execSQL("DROP TRIGGER IF EXISTS clear_trash_root_on_restore");
+        createNoteTableTriggers(db);
+    }
+
+    /**
+     * 创建笔记表的触发器，新建的笔记表上没有需要删除的旧触发器，直接调用
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void createNoteTableTriggers(SQLiteDatabase db) {
+        // 文件夹计数的触发器依赖批量操作的两张表
+        createFolderCountBatchTables(db);
         db.execSQL(NOTE_INCREASE_FOLDER_COUNT_ON_UPDATE_TRIGGER);
         db.execSQL(NOTE_DECREASE_FOLDER_COUNT_ON_UPDATE_TRIGGER);
         db.execSQL(NOTE_DECREASE_FOLDER_COUNT_ON_DELETE_TRIGGER);
         db.execSQL(NOTE_DELETE_DATA_ON_DELETE_TRIGGER);
         db.execSQL(NOTE_INCREASE_FOLDER_COUNT_ON_INSERT_TRIGGER);
-        db.execSQL(FOLDER_DELETE_NOTES_ON_DELETE_TRIGGER);
-        db.execSQL(FOLDER_MOVE_NOTES_ON_TRASH_TRIGGER);
+        db.execSQL(FOLDER_UPDATE_PREVIEW_ON_INSERT_TRIGGER);
+        db.execSQL(FOLDER_UPDATE_PREVIEW_ON_UPDATE_TRIGGER);
+        db.execSQL(NOTE_MARK_FOLDER_COUNT_ON_UPDATE_TRIGGER);
+        db.execSQL(NOTE_MARK_FOLDER_COUNT_ON_INSERT_TRIGGER);
+        db.execSQL(NOTE_MARK_FOLDER_COUNT_ON_DELETE_TRIGGER);
+        db.execSQL(NOTE_CLEAR_TRASH_ROOT_ON_RESTORE_TRIGGER);
+    }
+
+    /**
+     * 创建批量操作标记表和待重算文件夹表
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void createFolderCountBatchTables(SQLiteDatabase db) {
+        db.execSQL(CREATE_FOLDER_COUNT_BATCH_TABLE_SQL);
+        db.execSQL(CREATE_FOLDER_COUNT_DIRTY_TABLE_SQL);
+    }
+
+    /**
+     * 进入批量操作模式：暂停逐行维护文件夹计数，触发器只记录子项有变化的文件夹。
+     * 需要在事务中调用，标记行随事务一起回滚；已在批量操作中时不做任何事。
+     *
+     * @param db SQLiteDatabase 类型，已在事务中的数据库对象
+     * @return 本次进入了批量操作模式时返回true，此时需在提交前调用{@link #endFolderCountBatch}
+     */
+    static boolean beginFolderCountBatch(SQLiteDatabase db) {
+        if (!db.inTransaction()) {
+            throw new IllegalStateException("Folder count batch must run in a transaction");
+        }
+        if (DatabaseUtils.queryNumEntries(db, TABLE.FOLDER_COUNT_BATCH) > 0) {
+            return false;
+        }
+        db.execSQL("INSERT INTO " + TABLE.FOLDER_COUNT_BATCH + "(" + NoteColumns.ID + ") VALUES(1)");
+        return true;
+    }
+
+    /**
+     * 退出批量操作模式：用一次分组统计重算记录下来的文件夹的NOTE_COUNT，然后恢复逐行维护。
+     *
+     * @param db SQLiteDatabase 类型，与{@link #beginFolderCountBatch}同一事务中的数据库对象
+     */
+    static void endFolderCountBatch(SQLiteDatabase db) {
+        // 子项全部移走的文件夹不在统计结果中，计数保持插入时的默认值0；根文件夹的parent_id是自己，不计入
+        db.execSQL("INSERT OR REPLACE INTO " + TABLE.FOLDER_COUNT_DIRTY + "(" + NoteColumns.ID + ","
+                + NoteColumns.NOTES_COUNT + ") SELECT " + NoteColumns.PARENT_ID + ",COUNT(*) FROM "
+                + TABLE.NOTE + " WHERE " + NoteColumns.PARENT_ID + " IN (SELECT " + NoteColumns.ID
+                + " FROM " + TABLE.FOLDER_COUNT_DIRTY + ") AND " + NoteColumns.ID + "<>" + NoteColumns.PARENT_ID
+                + " GROUP BY " + NoteColumns.PARENT_ID);
+        db.execSQL("UPDATE " + TABLE.NOTE + " SET " + NoteColumns.NOTES_COUNT + "=(SELECT "
+                + NoteColumns.NOTES_COUNT + " FROM " + TABLE.FOLDER_COUNT_DIRTY + " WHERE "
+                + TABLE.FOLDER_COUNT_DIRTY + "." + NoteColumns.ID + "=" + TABLE.NOTE + "." + NoteColumns.ID
+                + ") WHERE " + NoteColumns.ID + " IN (SELECT " + NoteColumns.ID + " FROM "
+                + TABLE.FOLDER_COUNT_DIRTY + ")");
+        db.execSQL("DELETE FROM " + TABLE.FOLDER_COUNT_DIRTY);
+        db.execSQL("DELETE FROM " + TABLE.FOLDER_COUNT_BATCH);
+    }
+
+    /**
+     * 生成计算预览的SQL表达式：去掉清单符号和开头的空白，取首行的前若干个字符
+     *
+     * @param text 正文的SQL表达式
+     * @return 预览的SQL表达式
+     */
+    private static String previewOf(String text) {
+        String stripped = "LTRIM(REPLACE(REPLACE(" + text + ",'" + TAG_CHECKED + "',''),'"
+                + TAG_UNCHECKED + "',''),' '||char(9)||char(10)||char(13))";
+        return "TRIM(SUBSTR(CASE WHEN INSTR(" + stripped + ",char(10))>0"
+                + " THEN SUBSTR(" + stripped + ",1,INSTR(" + stripped + ",char(10))-1)"
+                + " ELSE " + stripped + " END,1," + NOTE_PREVIEW_MAX_LENGTH + "),' '||char(13))";
     }
 
     /**
@@ -261,11 +1052,171 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
      */
     public void createDataTable(SQLiteDatabase db) {
         db.execSQL(CREATE_DATA_TABLE_SQL);
-        reCreateDataTableTriggers(db);
+        createNoteFtsTable(db);
+        createDataTableTriggers(db);
         db.execSQL(CREATE_DATA_NOTE_ID_INDEX_SQL);
         Log.d(TAG, "data table has been created");
     }
 
+    /**
+     * 创建附件表、附件文件表及其触发器
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void createAttachmentTables(SQLiteDatabase db) {
+        db.execSQL(CREATE_ATTACHMENT_TABLE_SQL);
+        db.execSQL(CREATE_ATTACHMENT_BLOB_TABLE_SQL);
+        db.execSQL(CREATE_ATTACHMENT_NOTE_ID_INDEX_SQL);
+        db.execSQL(CREATE_ATTACHMENT_BLOB_UNREFERENCED_INDEX_SQL);
+        db.execSQL("DROP TRIGGER IF EXISTS attachment_add_reference_on_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS attachment_remove_reference_on_delete");
+        db.execSQL("DROP TRIGGER IF EXISTS delete_attachment_on_delete");
+        db.execSQL(ATTACHMENT_ADD_REFERENCE_ON_INSERT_TRIGGER);
+        db.execSQL(ATTACHMENT_REMOVE_REFERENCE_ON_DELETE_TRIGGER);
+        db.execSQL(NOTE_DELETE_ATTACHMENT_ON_DELETE_TRIGGER);
+        Log.d(TAG, "attachment tables have been created");
+    }
+
+    /**
+     * 创建通话记录笔记表、索引及其触发器
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void createCallNoteTable(SQLiteDatabase db) {
+        db.execSQL(CREATE_CALL_NOTE_TABLE_SQL);
+        db.execSQL(CREATE_CALL_NOTE_NUMBER_DATE_INDEX_SQL);
+        db.execSQL(CREATE_CALL_NOTE_UNNORMALIZED_INDEX_SQL);
+        db.execSQL("DROP TRIGGER IF EXISTS insert_call_note_on_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS update_call_note_on_update");
+        db.execSQL("DROP TRIGGER IF EXISTS delete_call_note_on_delete");
+        db.execSQL("DROP TRIGGER IF EXISTS delete_call_note_on_note_delete");
+        db.execSQL(DATA_INSERT_CALL_NOTE_ON_INSERT_TRIGGER);
+        db.execSQL(DATA_UPDATE_CALL_NOTE_ON_UPDATE_TRIGGER);
+        db.execSQL(DATA_DELETE_CALL_NOTE_ON_DELETE_TRIGGER);
+        db.execSQL(NOTE_DELETE_CALL_NOTE_ON_DELETE_TRIGGER);
+        Log.d(TAG, "call note table has been created");
+    }
+
+    /**
+     * 为通话记录笔记表中还没有规范化号码的行补上号码的最短匹配键，见{@link Contact#toMinMatchKey}。
+     * 触发器在SQL中无法规范化号码，新写入和号码有变化的行在按号码查找前由此补齐。
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     * @return 补上的行数
+     */
+    static int normalizeCallNotes(SQLiteDatabase db) {
+        // 先读出全部待处理的行，更新会把行移出正在遍历的部分索引
+        ArrayList<Long> noteIds = new ArrayList<Long>();
+        ArrayList<String> numbers = new ArrayList<String>();
+        Cursor c = db.rawQuery("SELECT " + DataColumns.NOTE_ID + "," + CALL_NOTE_NUMBER + " FROM "
+                + TABLE.CALL_NOTE + " WHERE " + CALL_NOTE_NUMBER_NORM + " IS NULL", null);
+        try {
+            while (c.moveToNext()) {
+                noteIds.add(c.getLong(0));
+                numbers.add(c.getString(1));
+            }
+        } finally {
+            c.close();
+        }
+        if (noteIds.isEmpty()) {
+            return 0;
+        }
+        db.beginTransaction();
+        try {
+            SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE.CALL_NOTE + " SET "
+                    + CALL_NOTE_NUMBER_NORM + "=? WHERE " + DataColumns.NOTE_ID + "=? AND "
+                    + CALL_NOTE_NUMBER + "=?");
+            try {
+                for (int i = 0; i < noteIds.size(); i++) {
+                    statement.bindString(1, Contact.toMinMatchKey(numbers.get(i)));
+                    statement.bindLong(2, noteIds.get(i));
+                    statement.bindString(3, numbers.get(i));
+                    statement.executeUpdateDelete();
+                }
+            } finally {
+                statement.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return noteIds.size();
+    }
+
+    /**
+     * 判断升级后笔记预览的回填是否已经完成
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     * @return 已完成时返回true
+     */
+    static boolean isNotePreviewComplete(SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, TABLE.MIGRATION_BACKFILL,
+                BACKFILL_VERSION + "=" + NOTE_PREVIEW_VERSION) == 0;
+    }
+
+    /**
+     * 判断通话记录笔记表是否已包含全部通话记录笔记，即升级后的回填已经完成
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     * @return 已完成时返回true
+     */
+    static boolean isCallNoteTableComplete(SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, TABLE.MIGRATION_BACKFILL,
+                BACKFILL_VERSION + "=" + CALL_NOTE_VERSION) == 0;
+    }
+
+    /**
+     * 创建笔记全文索引表，依次尝试trigram分词的FTS5、unicode61分词的FTS5和FTS4
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void createNoteFtsTable(SQLiteDatabase db) {
+        try {
+            db.execSQL(CREATE_NOTE_FTS5_TRIGRAM_TABLE_SQL);
+            return;
+        } catch (SQLiteException e) {
+            Log.w(TAG, "fts5 trigram is not available, fall back to unicode61: " + e.toString());
+        }
+        try {
+            db.execSQL(CREATE_NOTE_FTS5_TABLE_SQL);
+        } catch (SQLiteException e) {
+            Log.w(TAG, "fts5 is not available, fall back to fts4: " + e.toString());
+            db.execSQL(CREATE_NOTE_FTS4_TABLE_SQL);
+        }
+    }
+
+    /**
+     * 判断全文索引表是否基于FTS5创建，FTS4没有bm25和相同参数顺序的snippet函数
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     * @return 如果是FTS5返回true，否则返回false
+     */
+    static boolean isNoteFtsV5(SQLiteDatabase db) {
+        return getNoteFtsSql(db).contains("fts5");
+    }
+
+    /**
+     * 判断全文索引表是否使用trigram分词，此时少于三个字符的词无法通过MATCH检索
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     * @return 如果使用trigram分词返回true，否则返回false
+     */
+    static boolean isNoteFtsTrigram(SQLiteDatabase db) {
+        return getNoteFtsSql(db).contains("trigram");
+    }
+
+    /**
+     * 读取全文索引表的建表语句
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     * @return 小写的建表语句，表不存在时返回空字符串
+     */
+    private static String getNoteFtsSql(SQLiteDatabase db) {
+        String sql = DatabaseUtils.stringForQuery(db,
+                "SELECT IFNULL(MAX(sql),'') FROM sqlite_master WHERE name=?", new String[]{TABLE.NOTE_FTS});
+        return sql.toLowerCase(Locale.ROOT);
+    }
+
     /**
      * 重新创建数据表的触发器
      *
@@ -276,10 +1227,24 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL("DROP TRIGGER IF EXISTS update_note_content_on_insert");
         db.execSQL("DROP TRIGGER IF EXISTS update_note_content_on_update");
         db.execSQL("DROP TRIGGER IF EXISTS update_note_content_on_delete");
-        // 创建新的触发器
+        db.execSQL("DROP TRIGGER IF EXISTS insert_note_fts_on_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS update_note_fts_on_update");
+        db.execSQL("DROP TRIGGER IF EXISTS delete_note_fts_on_delete");
+        createDataTableTriggers(db);
+    }
+
+    /**
+     * 创建数据表的触发器，新建的数据表上没有需要删除的旧触发器，直接调用
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void createDataTableTriggers(SQLiteDatabase db) {
         db.execSQL(DATA_UPDATE_NOTE_CONTENT_ON_INSERT_TRIGGER);
         db.execSQL(DATA_UPDATE_NOTE_CONTENT_ON_UPDATE_TRIGGER);
         db.execSQL(DATA_UPDATE_NOTE_CONTENT_ON_DELETE_TRIGGER);
+        db.execSQL(DATA_INSERT_FTS_ON_INSERT_TRIGGER);
+        db.execSQL(DATA_UPDATE_FTS_ON_UPDATE_TRIGGER);
+        db.execSQL(DATA_DELETE_FTS_ON_DELETE_TRIGGER);
     }
 
     /**
@@ -302,12 +1267,419 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
+        // 建表前设为增量回收模式，新建的数据库不再需要在打开后用VACUUM转换；已有表时这条语句不起作用
+        db.execSQL("PRAGMA auto_vacuum=INCREMENTAL");
         createNoteTable(db);
         createDataTable(db);
+        createAttachmentTables(db);
+        createCallNoteTable(db);
+        createBackfillTable(db);
+    }
+
+    /**
+     * 配置数据库连接，限制检查点后WAL文件的大小
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        DatabaseUtils.longForQuery(db, "PRAGMA journal_size_limit=" + JOURNAL_SIZE_LIMIT, null);
+        mStorageProfile.configure(db);
+        mConfigured = true;
+    }
+
+    /**
+     * 内存紧张时缩小内存映射区域并释放写连接的页缓存：内存严重不足或进程已进入后台时不再使用内存映射，
+     * 内存偏低时减半。缩小后保持到进程重启。内存映射只在写连接上使用，读连接不需要处理。
+     *
+     * @param level 见{@link ComponentCallbacks2#onTrimMemory}
+     */
+    private void trimMemory(int level) {
+        long mmapSize;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            mmapSize = 0;
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mmapSize = mStorageProfile.mmapSize / 2;
+        } else {
+            return;
+        }
+        final StorageProfile profile = mStorageProfile.withMmapSize(mmapSize);
+        if (profile == mStorageProfile) {
+            return;
+        }
+        mStorageProfile = profile;
+        if (!mConfigured) {
+            return;
+        }
+        mCheckpointHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SQLiteDatabase db = getWritableDatabase();
+                    profile.applyMmapSize(db);
+                    db.execSQL("PRAGMA shrink_memory");
+                } catch (SQLiteException e) {
+                    Log.w(TAG, "trim database memory failed: " + e.toString());
+                }
+            }
+        });
+    }
+
+    /**
+     * 写入后调用，空闲一段时间没有新的写入时执行被动检查点
+     */
+    void scheduleIdleCheckpoint() {
+        mCheckpointHandler.removeCallbacks(mIdleCheckpoint);
+        mCheckpointHandler.postDelayed(mIdleCheckpoint, IDLE_CHECKPOINT_DELAY);
+    }
+
+    /**
+     * 大批量写入结束后调用，尽快把WAL合并回数据库并截断WAL文件
+     */
+    void scheduleTruncateCheckpoint() {
+        mCheckpointHandler.removeCallbacks(mIdleCheckpoint);
+        mCheckpointHandler.removeCallbacks(mTruncateCheckpoint);
+        mCheckpointHandler.post(mTruncateCheckpoint);
+    }
+
+    /**
+     * 在检查点所在的后台线程执行任务，同一任务重复安排时只保留最后一次
+     *
+     * @param task  任务
+     * @param delay 延迟，单位毫秒
+     */
+    void scheduleBackground(Runnable task, long delay) {
+        mCheckpointHandler.removeCallbacks(task);
+        mCheckpointHandler.postDelayed(task, delay);
+    }
+
+    /**
+     * 执行WAL检查点，旧版本SQLite不支持TRUNCATE时按PASSIVE执行
+     *
+     * @param mode 检查点模式，{@link #CHECKPOINT_PASSIVE} 或 {@link #CHECKPOINT_TRUNCATE}
+     */
+    void checkpoint(String mode) {
+        Cursor c = null;
+        try {
+            c = getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(" + mode + ")", null);
+            if (c.moveToFirst()) {
+                Log.d(TAG, "wal checkpoint " + mode + ": busy=" + c.getInt(0) + ", log="
+                        + c.getInt(1) + ", checkpointed=" + c.getInt(2));
+            }
+        } catch (SQLiteException e) {
+            Log.w(TAG, "wal checkpoint " + mode + " failed: " + e.toString());
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    /**
+     * 空闲维护：数据库还不是增量回收模式时用VACUUM重建并切换模式，否则分片回收空闲页，
+     * 然后更新查询优化器的统计信息，最后截断WAL让文件实际变小。
+     * 已有表的数据库只能通过VACUUM切换回收模式，而VACUUM不能在升级的事务中执行，
+     * 因此升级上来的数据库在第一次空闲维护时完成切换。耗时较长，需要在后台线程调用。
+     *
+     * @return 维护结果，失败时返回null
+     */
+    MaintenanceStats maintain() {
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+            long pagesBefore = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+            if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+                // 模式只在同一连接上紧接着的VACUUM中生效，VACUUM同时回收全部空闲页
+                long start = SystemClock.uptimeMillis();
+                db.execSQL("PRAGMA auto_vacuum=INCREMENTAL");
+                db.execSQL("VACUUM");
+                Log.d(TAG, "auto_vacuum switched to incremental in "
+                        + (SystemClock.uptimeMillis() - start) + "ms");
+            } else {
+                long deadline = SystemClock.uptimeMillis() + VACUUM_TIME_LIMIT;
+                while (DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null) > 0
+                        && SystemClock.uptimeMillis() < deadline) {
+                    db.execSQL("PRAGMA incremental_vacuum(" + VACUUM_SLICE_PAGES + ")");
+                }
+            }
+            optimize(db);
+            checkpoint(CHECKPOINT_TRUNCATE);
+            long pagesAfter = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+            long freelist = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+            MaintenanceStats stats = new MaintenanceStats(Math.max(0, pagesBefore - pagesAfter) * pageSize,
+                    freelist * pageSize);
+            Log.d(TAG, "maintenance reclaimed " + stats.reclaimedBytes + " bytes, freelist "
+                    + stats.freelistBytes + " bytes");
+            return stats;
+        } catch (SQLiteException e) {
+            // VACUUM需要与数据库同样大小的临时空间，空间不足时留到下一次
+            Log.w(TAG, "maintenance failed: " + e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * 更新查询优化器的统计信息。PRAGMA optimize从SQLite 3.18开始支持，
+     * 旧版本会忽略这条语句，因此按版本退回ANALYZE。
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private static void optimize(SQLiteDatabase db) {
+        String[] version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null).split("\\.");
+        int major = Integer.parseInt(version[0]);
+        int minor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+        if (major > 3 || (major == 3 && minor >= 18)) {
+            db.execSQL("PRAGMA optimize");
+        } else {
+            db.execSQL("ANALYZE");
+        }
+    }
+
+    /**
+     * 执行一批待完成的数据回填，按版本号顺序进行。读取进度、回填和更新进度在同一个写事务中。
+     *
+     * @return 可能还有待完成的回填时返回true
+     */
+    boolean backfillChunk() {
+        SQLiteDatabase db = getWritableDatabase();
+        boolean finished = false;
+        db.beginTransaction();
+        try {
+            int version;
+            long lastId;
+            Cursor c = db.rawQuery("SELECT " + BACKFILL_VERSION + "," + BACKFILL_LAST_ID + " FROM "
+                    + TABLE.MIGRATION_BACKFILL + " ORDER BY " + BACKFILL_VERSION + " LIMIT 1", null);
+            try {
+                if (!c.moveToFirst()) {
+                    return false;
+                }
+                version = c.getInt(0);
+                lastId = c.getLong(1);
+            } finally {
+                c.close();
+            }
+            Migration migration = getMigration(version);
+            long start = SystemClock.uptimeMillis();
+            long endId = migration == null || migration.backfillTable == null ? -1
+                    : nextChunkEnd(db, migration.backfillTable, migration.backfillColumn, lastId);
+            if (endId < 0) {
+                db.delete(TABLE.MIGRATION_BACKFILL, BACKFILL_VERSION + "=" + version, null);
+                finished = DatabaseUtils.queryNumEntries(db, TABLE.MIGRATION_BACKFILL) == 0;
+                Log.d(TAG, "backfill of version " + version + " finished");
+            } else {
+                migration.backfill(db, lastId, endId);
+                ContentValues values = new ContentValues();
+                values.put(BACKFILL_LAST_ID, endId);
+                db.update(TABLE.MIGRATION_BACKFILL, values, BACKFILL_VERSION + "=" + version, null);
+                long maxId = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(" + migration.backfillColumn
+                        + "),0) FROM " + migration.backfillTable, null);
+                Log.d(TAG, "backfill of version " + version + " reached " + endId + "/" + maxId + " in "
+                        + (SystemClock.uptimeMillis() - start) + "ms");
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLiteException e) {
+            Log.w(TAG, "backfill failed: " + e.toString());
+            return false;
+        } finally {
+            db.endTransaction();
+        }
+        if (finished) {
+            // 回填改写了大量行，重新收集统计信息
+            try {
+                optimize(db);
+            } catch (SQLiteException e) {
+                Log.w(TAG, "optimize after backfill failed: " + e.toString());
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 查找登记的升级
+     *
+     * @param version 升级到的版本号
+     * @return 对应的升级，不存在时返回null
+     */
+    private Migration getMigration(int version) {
+        for (Migration migration : mMigrations) {
+            if (migration.version == version) {
+                return migration;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 求下一批回填的终点：按列的顺序，afterId之后第{@link #BACKFILL_CHUNK_SIZE}行的值，不足一批时取最后一行。
+     * 列上需要有索引或者是主键。
+     *
+     * @param db      SQLiteDatabase 类型，数据库对象
+     * @param table   回填的表
+     * @param column  分批的列
+     * @param afterId 上一批的终点
+     * @return 本批终点；afterId之后没有行时返回-1
+     */
+    private static long nextChunkEnd(SQLiteDatabase db, String table, String column, long afterId) {
+        Cursor c = db.rawQuery("SELECT MAX(" + column + ") FROM (SELECT " + column + " FROM " + table
+                + " WHERE " + column + ">? ORDER BY " + column + " LIMIT " + BACKFILL_CHUNK_SIZE + ")",
+                new String[]{String.valueOf(afterId)});
+        try {
+            return c.moveToFirst() && !c.isNull(0) ? c.getLong(0) : -1;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * 版本5的回填：用已有的笔记正文建立全文索引，每个笔记只取最新的一条文本数据。
+     * 升级后已经由触发器写入索引的笔记跳过。
+     *
+     * @param db      SQLiteDatabase 类型，数据库对象
+     * @param afterId 本批起点的笔记ID（不含）
+     * @param endId   本批终点的笔记ID（含）
+     */
+    private static void backfillNoteFts(SQLiteDatabase db, long afterId, long endId) {
+        Object[] args = new Object[]{afterId, endId, afterId, endId};
+        db.execSQL("INSERT INTO " + TABLE.NOTE_FTS + "(rowid," + DataColumns.CONTENT + ")"
+                + " SELECT " + DataColumns.NOTE_ID + "," + DataColumns.CONTENT
+                + " FROM " + TABLE.DATA
+                + " WHERE " + DataColumns.ID + " IN (SELECT MAX(" + DataColumns.ID + ")"
+                + " FROM " + TABLE.DATA
+                + " WHERE " + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'"
+                + " AND " + DataColumns.NOTE_ID + ">? AND " + DataColumns.NOTE_ID + "<=?"
+                + " GROUP BY " + DataColumns.NOTE_ID + ")"
+                + " AND " + DataColumns.NOTE_ID + " NOT IN (SELECT rowid FROM " + TABLE.NOTE_FTS
+                + " WHERE rowid>? AND rowid<=?)", args);
+    }
+
+    /**
+     * 版本7的回填：笔记的snippet此前保存的就是正文，据此生成预览后清空，避免正文存两份。
+     * 升级后已经由触发器生成预览的笔记保留现有预览。
+     *
+     * @param db      SQLiteDatabase 类型，数据库对象
+     * @param afterId 本批起点的笔记ID（不含）
+     * @param endId   本批终点的笔记ID（含）
+     */
+    private static void backfillNotePreview(SQLiteDatabase db, long afterId, long endId) {
+        db.execSQL("UPDATE " + TABLE.NOTE + " SET " + NoteColumns.PREVIEW + "=CASE WHEN "
+                + NoteColumns.PREVIEW + "='' THEN " + previewOf(NoteColumns.SNIPPET) + " ELSE "
+                + NoteColumns.PREVIEW + " END," + NoteColumns.SNIPPET + "=''"
+                + " WHERE " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE
+                + " AND " + NoteColumns.ID + ">? AND " + NoteColumns.ID + "<=?", new Object[]{afterId, endId});
+    }
+
+    /**
+     * 版本9的回填：压缩一批数据行中超过阈值的未压缩正文。
+     *
+     * @param db      SQLiteDatabase 类型，数据库对象
+     * @param afterId 本批起点的数据ID（不含）
+     * @param endId   本批终点的数据ID（含）
+     */
+    private static void compressContent(SQLiteDatabase db, long afterId, long endId) {
+        Cursor c = db.rawQuery("SELECT " + DataColumns.ID + "," + DataColumns.NOTE_ID + ","
+                + DataColumns.MIME_TYPE + " FROM " + TABLE.DATA + " WHERE " + DataColumns.ID + ">? AND "
+                + DataColumns.ID + "<=? AND " + DataColumns.CONTENT_CODEC + "=" + NoteContentCodec.CODEC_NONE
+                + " AND LENGTH(" + DataColumns.CONTENT + ")>" + NoteContentCodec.COMPRESS_THRESHOLD,
+                new String[]{String.valueOf(afterId), String.valueOf(endId)});
+        SQLiteStatement update = db.compileStatement("UPDATE " + TABLE.DATA + " SET "
+                + DataColumns.CONTENT + "=?," + DataColumns.CONTENT_COMPRESSED + "=?,"
+                + DataColumns.CONTENT_CODEC + "=" + NoteContentCodec.CODEC_DEFLATE
+                + " WHERE " + DataColumns.ID + "=?");
+        try {
+            while (c.moveToNext()) {
+                long dataId = c.getLong(0);
+                // 逐行读取正文，避免一个游标窗口装下多篇长正文
+                String content = DatabaseUtils.stringForQuery(db, "SELECT " + DataColumns.CONTENT
+                        + " FROM " + TABLE.DATA + " WHERE " + DataColumns.ID + "=" + dataId, null);
+                update.bindString(1, NoteContentCodec.prefixOf(content));
+                update.bindBlob(2, NoteContentCodec.deflate(content));
+                update.bindLong(3, dataId);
+                update.executeUpdateDelete();
+                if (DataConstants.NOTE.equals(c.getString(2))) {
+                    indexNoteContent(db, c.getLong(1), content);
+                }
+            }
+        } finally {
+            c.close();
+            update.close();
+        }
+    }
+
+    /**
+     * 版本14的回填：把已有的通话记录数据复制到通话记录笔记表，并补上规范化的号码。
+     * 升级后已经由触发器写入的笔记保留现有的行。
+     *
+     * @param db      SQLiteDatabase 类型，数据库对象
+     * @param afterId 本批起点的数据ID（不含）
+     * @param endId   本批终点的数据ID（含）
+     */
+    private void backfillCallNotes(SQLiteDatabase db, long afterId, long endId) {
+        db.execSQL("INSERT OR IGNORE INTO " + TABLE.CALL_NOTE + "(" + DataColumns.NOTE_ID + ","
+                + CALL_NOTE_DATE + "," + CALL_NOTE_NUMBER + ") SELECT " + DataColumns.NOTE_ID
+                + ",IFNULL(" + DataColumns.DATA1 + ",0)," + DataColumns.DATA3 + " FROM " + TABLE.DATA
+                + " WHERE " + DataColumns.ID + ">? AND " + DataColumns.ID + "<=? AND "
+                + DataColumns.MIME_TYPE + "='" + DataConstants.CALL_NOTE + "'", new Object[]{afterId, endId});
+        normalizeCallNotes(db);
+    }
+
+    /**
+     * 创建数据回填进度表
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private static void createBackfillTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE.MIGRATION_BACKFILL + "("
+                + BACKFILL_VERSION + " INTEGER PRIMARY KEY,"
+                + BACKFILL_LAST_ID + " INTEGER NOT NULL DEFAULT 0)");
+    }
+
+    /**
+     * 用完整正文重建笔记的全文索引。正文压缩后触发器只能拿到content列中的开头部分，写入后需调用此方法。
+     *
+     * @param db      SQLiteDatabase 类型，数据库对象
+     * @param noteId  笔记ID
+     * @param content 完整正文
+     */
+    static void indexNoteContent(SQLiteDatabase db, long noteId, String content) {
+        db.execSQL("DELETE FROM " + TABLE.NOTE_FTS + " WHERE rowid=?", new Object[]{noteId});
+        db.execSQL("INSERT INTO " + TABLE.NOTE_FTS + "(rowid," + DataColumns.CONTENT + ") VALUES(?,?)",
+                new Object[]{noteId, content});
+    }
+
+    /**
+     * 给数据表添加正文压缩所需的列，主库和归档库升级时共用
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    static void addContentCompressionColumns(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE.DATA + " ADD COLUMN " + DataColumns.CONTENT_CODEC
+                + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("ALTER TABLE " + TABLE.DATA + " ADD COLUMN " + DataColumns.CONTENT_COMPRESSED
+                + " BLOB");
+    }
+
+    /**
+     * 打开数据库时调用，调试日志开启时检查查询计划
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            logQueryPlans(db);
+        }
+        if (DatabaseUtils.queryNumEntries(db, TABLE.MIGRATION_BACKFILL) > 0) {
+            mCheckpointHandler.postDelayed(mBackfill, BACKFILL_DELAY);
+        }
     }
 
     /**
-     * 升级数据库
+     * 升级数据库：依次执行{@link #mMigrations}中旧版本之后的结构变更并记录各自的耗时，
+     * 需要数据回填的版本登记到回填表中，打开数据库后由后台线程分批完成
      *
      * @param db         SQLiteDatabase 类型，数据库对象
      * @param oldVersion int 类型，旧版本号
@@ -315,35 +1687,53 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        boolean reCreateTriggers = false;
-        boolean skipV2 = false;
-        // 根据旧版本号逐步升级
         if (oldVersion == 1) {
+            // 版本1的表结构无法逐步升级，直接按当前版本重建
             upgradeToV2(db);
-            skipV2 = true; // 这次升级包括从 v2 到 v3 的升级
-            oldVersion++;
-        }
-        if (oldVersion == 2 && !skipV2) {
-            upgradeToV3(db);
-            reCreateTriggers = true;
-            oldVersion++;
+            return;
         }
-        if (oldVersion == 3) {
-            upgradeToV4(db);
-            oldVersion++;
-        }
-        if (reCreateTriggers) {
-            reCreateNoteTableTriggers(db);
-            reCreateDataTableTriggers(db);
+        int fromVersion = oldVersion;
+        for (Migration migration : mMigrations) {
+            if (migration.version <= oldVersion || migration.version > newVersion) {
+                continue;
+            }
+            long start = SystemClock.uptimeMillis();
+            migration.migrate(db);
+            oldVersion = migration.version;
+            Log.d(TAG, "migrated to version " + oldVersion + " in " + (SystemClock.uptimeMillis() - start) + "ms");
         }
         if (oldVersion != newVersion) {
             throw new IllegalStateException("Upgrade notes database to version " + newVersion
                     + "fails");
         }
+        finishUpgrade(db, fromVersion, newVersion);
+    }
+
+    /**
+     * 结束升级：按当前版本重建触发器，登记本次升级中需要数据回填的版本。
+     * 当前的触发器引用后续版本才添加的列，各版本的结构变更中不重建触发器，期间保留旧版本的触发器，
+     * 全部结构变更完成后在这里统一重建一次
+     *
+     * @param db          SQLiteDatabase 类型，数据库对象
+     * @param fromVersion int 类型，升级前的版本号
+     * @param newVersion  int 类型，新版本号
+     */
+    void finishUpgrade(SQLiteDatabase db, int fromVersion, int newVersion) {
+        reCreateNoteTableTriggers(db);
+        reCreateDataTableTriggers(db);
+        // 需要数据回填的版本打开数据库后在后台执行
+        for (Migration migration : mMigrations) {
+            if (migration.version > fromVersion && migration.version <= newVersion
+                    && migration.backfillTable != null) {
+                ContentValues values = new ContentValues();
+                values.put(BACKFILL_VERSION, migration.version);
+                db.insertWithOnConflict(TABLE.MIGRATION_BACKFILL, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            }
+        }
     }
 
     /**
-     * 从版本1升级到版本2
+     * 从版本1升级：删除旧表，按当前版本创建全部表
      *
      * @param db SQLiteDatabase 类型，数据库对象
      */
@@ -351,8 +1741,7 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         // 删除旧表，创建新表
         db.execSQL("DROP TABLE IF EXISTS " + TABLE.NOTE);
         db.execSQL("DROP TABLE IF EXISTS " + TABLE.DATA);
-        createNoteTable(db);
-        createDataTable(db);
+        onCreate(db);
     }
 
     /**
@@ -385,4 +1774,165 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL("ALTER TABLE " + TABLE.NOTE + " ADD COLUMN " + NoteColumns.VERSION
                 + " INTEGER NOT NULL DEFAULT 0");
     }
-}
\ No newline at end of file
+
+    /**
+     * 从版本4升级到版本5
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void upgradeToV5(SQLiteDatabase db) {
+        // 添加全文索引表，同步触发器在升级结束时创建，已有笔记的索引由backfillNoteFts在后台回填
+        createNoteFtsTable(db);
+    }
+
+    /**
+     * 从版本5升级到版本6
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void upgradeToV6(SQLiteDatabase db) {
+        // 添加列表、同步、提醒和小部件查询所需的索引；统计信息在回填结束后和空闲维护时收集
+        createNoteTableIndexes(db);
+    }
+
+    /**
+     * 从版本6升级到版本7
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void upgradeToV7(SQLiteDatabase db) {
+        // 添加预览列，升级结束时重建的触发器改为维护预览而不是复制整篇正文
+        db.execSQL("ALTER TABLE " + TABLE.NOTE + " ADD COLUMN " + NoteColumns.PREVIEW
+                + " TEXT NOT NULL DEFAULT ''");
+        // 笔记的预览由backfillNotePreview在后台回填，文件夹不多，在这里直接复制名称
+        db.execSQL("UPDATE " + TABLE.NOTE + " SET " + NoteColumns.PREVIEW + "=" + NoteColumns.SNIPPET
+                + " WHERE " + NoteColumns.TYPE + "<>" + Notes.TYPE_NOTE);
+    }
+
+    /**
+     * 从版本7升级到版本8
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void upgradeToV8(SQLiteDatabase db) {
+        // 添加归档标记列，正文移入归档库后删除数据行时不再清空预览
+        db.execSQL("ALTER TABLE " + TABLE.NOTE + " ADD COLUMN " + NoteColumns.ARCHIVED
+                + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL(CREATE_NOTE_ARCHIVED_INDEX_SQL);
+    }
+
+    /**
+     * 从版本8升级到版本9
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void upgradeToV9(SQLiteDatabase db) {
+        // 添加正文压缩列，已有的长正文由compressContent在后台分批压缩，不阻塞升级
+        addContentCompressionColumns(db);
+    }
+
+    /**
+     * 从版本9升级到版本10
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void upgradeToV10(SQLiteDatabase db) {
+        // 添加附件表，has_attachment此前没有使用，改由附件表的触发器维护
+        createAttachmentTables(db);
+        db.execSQL("UPDATE " + TABLE.NOTE + " SET " + NoteColumns.HAS_ATTACHMENT + "=0"
+                + " WHERE " + NoteColumns.HAS_ATTACHMENT + "<>0");
+    }
+
+    /**
+     * 从版本10升级到版本11
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void upgradeToV11(SQLiteDatabase db) {
+        // 文件夹可以嵌套，子树的删除和移入回收站改由内容提供者用递归查询一次完成，
+        // 只处理直接子项的触发器不再需要
+        db.execSQL("DROP TRIGGER IF EXISTS folder_delete_notes_on_delete");
+        db.execSQL("DROP TRIGGER IF EXISTS folder_move_notes_on_trash");
+    }
+
+    /**
+     * 从版本11升级到版本12
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void upgradeToV12(SQLiteDatabase db) {
+        // 批量操作暂停逐行维护文件夹计数，提交前统一重算；正文未变化的数据更新不再刷新预览和全文索引。
+        // 只有触发器的变化，由升级结束时的重建完成
+    }
+
+    /**
+     * 从版本12升级到版本13
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void upgradeToV13(SQLiteDatabase db) {
+        // 添加数据回填进度表，之后的升级只在事务中做结构变更，改写已有行的部分在后台分批执行
+        createBackfillTable(db);
+    }
+
+    /**
+     * 从版本13升级到版本14
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void upgradeToV14(SQLiteDatabase db) {
+        // 添加通话记录笔记表，按号码查找笔记改为在规范化号码的索引上查找；已有的通话记录由backfillCallNotes在后台复制
+        createCallNoteTable(db);
+    }
+
+    /**
+     * 从版本14升级到版本15
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void upgradeToV15(SQLiteDatabase db) {
+        // 记录回收站中各行随哪个根一起移入，恢复和删除文件夹时不再带上此前单独移入回收站的笔记。
+        // 已在回收站中的行为0，仍按原父文件夹关系归入子树
+        db.execSQL("ALTER TABLE " + TABLE.NOTE + " ADD COLUMN " + NoteColumns.TRASH_ROOT_ID
+                + " INTEGER NOT NULL DEFAULT 0");
+    }
+
+    /**
+     * 从版本15升级到版本16
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void upgradeToV16(SQLiteDatabase db) {
+        // unicode61分词不切分中文，改用trigram分词重建全文索引。索引表中保存的是完整正文，
+        // 直接复制即可；系统SQLite不支持trigram时保留原表，中文检索由提供者改用LIKE
+        if (isNoteFtsTrigram(db)) {
+            return;
+        }
+        String trigramTable = TABLE.NOTE_FTS + "_trigram";
+        try {
+            db.execSQL("CREATE VIRTUAL TABLE " + trigramTable + NOTE_FTS_TRIGRAM_MODULE);
+        } catch (SQLiteException e) {
+            Log.w(TAG, "fts5 trigram is not available, keep the current index: " + e.toString());
+            return;
+        }
+        db.execSQL("INSERT INTO " + trigramTable + "(rowid," + DataColumns.CONTENT + ")"
+                + " SELECT rowid," + DataColumns.CONTENT + " FROM " + TABLE.NOTE_FTS);
+        // 触发器引用原表，先删除，升级结束时再重建
+        db.execSQL("DROP TRIGGER IF EXISTS insert_note_fts_on_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS update_note_fts_on_update");
+        db.execSQL("DROP TRIGGER IF EXISTS delete_note_fts_on_delete");
+        db.execSQL("DROP TABLE " + TABLE.NOTE_FTS);
+        db.execSQL("ALTER TABLE " + trigramTable + " RENAME TO " + TABLE.NOTE_FTS);
+    }
+
+    /**
+     * 从版本16升级到版本17
+     *
+     * @param db SQLiteDatabase 类型，数据库对象
+     */
+    private void upgradeToV17(SQLiteDatabase db) {
+        // 规范化号码由写入时所在国家的E.164格式改为与国家无关的最短匹配键，换SIM卡或漫游后也能找到。
+        // 已有的行置空，下次按号码查找前由normalizeCallNotes重新补上
+        db.execSQL("UPDATE " + TABLE.CALL_NOTE + " SET " + CALL_NOTE_NUMBER_NORM + "=NULL");
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * NotesMaintenanceService 是数据库的空闲维护任务。
+ * 设备空闲且在充电时由系统调度，分片回收删除笔记后留下的空闲页，并更新查询优化器的统计信息。
+ */
+
+package net.micode.notes.data;
+
+import android.app.AlarmManager;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.util.Log;
+
+import net.micode.notes.tool.DataUtils;
+
+public class NotesMaintenanceService extends JobService {
+    private static final String TAG = "NotesMaintenanceService";
+
+    // 任务ID，应用内唯一
+    private static final int JOB_ID = 1001;
+
+    private AsyncTask<Void, Void, Bundle> mTask;
+
+    /**
+     * 安排每天一次的空闲维护，已安排时不重复安排，避免重置系统的调度周期
+     *
+     * @param context 上下文对象
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null) {
+            return;
+        }
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, NotesMaintenanceService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(AlarmManager.INTERVAL_DAY)
+                .setPersisted(true)
+                .build();
+        if (scheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.w(TAG, "Schedule maintenance job failed");
+        }
+    }
+
+    /**
+     * 开始维护，在后台线程调用内容提供者，完成后结束任务
+     *
+     * @param params 任务参数
+     * @return 任务在后台继续执行，返回true
+     */
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        mTask = new AsyncTask<Void, Void, Bundle>() {
+            @Override
+            protected Bundle doInBackground(Void... unused) {
+                return DataUtils.maintainDatabase(getContentResolver());
+            }
+
+            @Override
+            protected void onPostExecute(Bundle result) {
+                if (result != null) {
+                    Log.i(TAG, "maintenance reclaimed " + result.getLong(Notes.EXTRA_RECLAIMED_BYTES)
+                            + " bytes, freelist " + result.getLong(Notes.EXTRA_FREELIST_BYTES) + " bytes");
+                }
+                mTask = null;
+                jobFinished(params, false);
+            }
+        };
+        mTask.execute();
+        return true;
+    }
+
+    /**
+     * 设备不再空闲或断开充电时由系统调用。正在执行的一片回收很快结束，剩余的空闲页留到下一次
+     *
+     * @param params 任务参数
+     * @return 周期任务由系统继续调度，无需重试，返回false
+     */
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (mTask != null) {
+            mTask.cancel(false);
+            mTask = null;
+        }
+        return false;
+    }
+}
@@ -6,21 +6,54 @@ package net.micode.notes.data;
 
 import android.app.SearchManager;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.pm.PackageManager;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MergeCursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
 import android.text.TextUtils;
 import android.util.Log;
 
 import net.micode.notes.R;
+import net.micode.notes.data.Notes.AttachmentColumns;
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.NoteColumns;
 import net.micode.notes.data.NotesDatabaseHelper.TABLE;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
 
 public class NotesProvider extends ContentProvider {
     private static final UriMatcher mMatcher;
@@ -37,6 +70,11 @@ public class NotesProvider extends ContentProvider {
     private static final int URI_SEARCH = 5;
     private static final int URI_SEARCH_SUGGEST = 6;
 
+    private static final int URI_ARCHIVE_DATA = 7;
+
+    private static final int URI_ATTACHMENT = 8;
+    private static final int URI_ATTACHMENT_ITEM = 9;
+
     // 初始化UriMatcher，用于匹配不同的URI请求
     static {
         mMatcher = new UriMatcher(UriMatcher.NO_MATCH);
@@ -47,26 +85,220 @@ public class NotesProvider extends ContentProvider {
         mMatcher.addURI(Notes.AUTHORITY, "search", URI_SEARCH);
         mMatcher.addURI(Notes.AUTHORITY, SearchManager.SUGGEST_URI_PATH_QUERY, URI_SEARCH_SUGGEST);
         mMatcher.addURI(Notes.AUTHORITY, SearchManager.SUGGEST_URI_PATH_QUERY + "/*", URI_SEARCH_SUGGEST);
+        mMatcher.addURI(Notes.AUTHORITY, "archive/data", URI_ARCHIVE_DATA);
+        mMatcher.addURI(Notes.AUTHORITY, "attachment", URI_ATTACHMENT);
+        mMatcher.addURI(Notes.AUTHORITY, "attachment/#", URI_ATTACHMENT_ITEM);
     }
 
+    // 搜索结果的默认及最大条数
+    private static final int SEARCH_DEFAULT_LIMIT = 50;
+    private static final int SEARCH_MAX_LIMIT = 200;
+
+    // 搜索摘要中命中词的高亮标记，建议列表按纯文本显示，因此不使用HTML标签
+    public static final String SEARCH_HIGHLIGHT_START = "[";
+    public static final String SEARCH_HIGHLIGHT_END = "]";
+    private static final String SEARCH_SNIPPET_ELLIPSIS = "...";
+    private static final int SEARCH_SNIPPET_TOKENS = 16;
+
+    // trigram分词在每个字符处切出一个词，摘要的词数相当于字符数，按LIKE摘要的长度截取，
+    // 否则16个字符的窗口会从中间截断命中的词
+    private static final int SEARCH_SNIPPET_TRIGRAM_TOKENS = SEARCH_SNIPPET_TOKENS * 4;
+
     /**
      * 在搜索结果中，为了显示更多信息，我们会去除标题和内容中的'\n'和空白字符。
+     * 第二行文本使用全文索引生成的高亮摘要。
      */
-    private static final String NOTES_SEARCH_PROJECTION = NoteColumns.ID + ","
-            + NoteColumns.ID + " AS " + SearchManager.SUGGEST_COLUMN_INTENT_EXTRA_DATA + ","
-            + "TRIM(REPLACE(" + NoteColumns.SNIPPET + ", x'0A','')) AS " + SearchManager.SUGGEST_COLUMN_TEXT_1 + ","
-            + "TRIM(REPLACE(" + NoteColumns.SNIPPET + ", x'0A','')) AS " + SearchManager.SUGGEST_COLUMN_TEXT_2 + ","
+    private static final String NOTES_SEARCH_PROJECTION = TABLE.NOTE + "." + NoteColumns.ID + ","
+            + TABLE.NOTE + "." + NoteColumns.ID + " AS " + SearchManager.SUGGEST_COLUMN_INTENT_EXTRA_DATA + ","
+            + NoteColumns.PREVIEW + " AS " + SearchManager.SUGGEST_COLUMN_TEXT_1 + ","
+            + "TRIM(REPLACE(%s, x'0A','')) AS " + SearchManager.SUGGEST_COLUMN_TEXT_2 + ","
             + R.drawable.search_result + " AS " + SearchManager.SUGGEST_COLUMN_ICON_1 + ","
             + "'" + Intent.ACTION_VIEW + "' AS " + SearchManager.SUGGEST_COLUMN_INTENT_ACTION + ","
             + "'" + Notes.TextNote.CONTENT_TYPE + "' AS " + SearchManager.SUGGEST_COLUMN_INTENT_DATA;
 
-    // 用于搜索查询的SQL语句
-    private static String NOTES_SNIPPET_SEARCH_QUERY = "SELECT " + NOTES_SEARCH_PROJECTION
-            + " FROM " + TABLE.NOTE
-            + " WHERE " + NoteColumns.SNIPPET + " LIKE ?"
-            + " AND " + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER
+    // FTS5的摘要函数，参数依次为列号、高亮起止标记、省略符和词数，词数在使用时填入
+    private static final String FTS5_SNIPPET = "snippet(" + TABLE.NOTE_FTS + ",0,'"
+            + SEARCH_HIGHLIGHT_START + "','" + SEARCH_HIGHLIGHT_END + "','"
+            + SEARCH_SNIPPET_ELLIPSIS + "',%d)";
+
+    // FTS4的摘要函数，列号参数位于标记之后
+    private static final String FTS4_SNIPPET = "snippet(" + TABLE.NOTE_FTS + ",'"
+            + SEARCH_HIGHLIGHT_START + "','" + SEARCH_HIGHLIGHT_END + "','"
+            + SEARCH_SNIPPET_ELLIPSIS + "',0," + SEARCH_SNIPPET_TOKENS + ")";
+
+    // 全文检索的公共部分：按rowid关联笔记表
+    private static final String NOTES_FTS_SEARCH_JOIN = " FROM " + TABLE.NOTE_FTS
+            + " JOIN " + TABLE.NOTE + " ON " + TABLE.NOTE + "." + NoteColumns.ID + "=" + TABLE.NOTE_FTS + ".rowid";
+
+    // 排除回收站和非笔记类型
+    private static final String NOTES_SEARCH_FILTER = " AND " + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER
             + " AND " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE;
 
+    private static final String NOTES_FTS_SEARCH_FROM = NOTES_FTS_SEARCH_JOIN
+            + " WHERE " + TABLE.NOTE_FTS + " MATCH ?" + NOTES_SEARCH_FILTER;
+
+    // FTS5按bm25相关度排序
+    private static final String NOTES_FTS5_SEARCH_QUERY = "SELECT "
+            + String.format(NOTES_SEARCH_PROJECTION, String.format(FTS5_SNIPPET, SEARCH_SNIPPET_TOKENS))
+            + NOTES_FTS_SEARCH_FROM
+            + " ORDER BY bm25(" + TABLE.NOTE_FTS + ")";
+
+    // trigram分词的FTS5，摘要按字符数截取
+    private static final String NOTES_FTS5_TRIGRAM_SEARCH_QUERY = "SELECT "
+            + String.format(NOTES_SEARCH_PROJECTION, String.format(FTS5_SNIPPET, SEARCH_SNIPPET_TRIGRAM_TOKENS))
+            + NOTES_FTS_SEARCH_FROM
+            + " ORDER BY bm25(" + TABLE.NOTE_FTS + ")";
+
+    // FTS4没有内置的相关度函数，按修改时间排序
+    private static final String NOTES_FTS4_SEARCH_QUERY = "SELECT "
+            + String.format(NOTES_SEARCH_PROJECTION, FTS4_SNIPPET)
+            + NOTES_FTS_SEARCH_FROM
+            + " ORDER BY " + NoteColumns.MODIFIED_DATE + " DESC";
+
+    // 按LIKE检索时没有摘要函数，截取第一个词前后的一段正文，参数为第一个词
+    private static final String LIKE_SNIPPET = "SUBSTR(" + TABLE.NOTE_FTS + "." + DataColumns.CONTENT
+            + ",MAX(1,INSTR(" + TABLE.NOTE_FTS + "." + DataColumns.CONTENT + ",?)-"
+            + SEARCH_SNIPPET_TOKENS + ")," + SEARCH_SNIPPET_TOKENS * 4 + ")";
+
+    // 分词无法处理的词在索引表保存的完整正文中按LIKE匹配，条件由每个词的LIKE条件拼接而成
+    private static final String NOTES_LIKE_SEARCH_QUERY = "SELECT "
+            + String.format(NOTES_SEARCH_PROJECTION, LIKE_SNIPPET)
+            + NOTES_FTS_SEARCH_JOIN
+            + " WHERE %s" + NOTES_SEARCH_FILTER
+            + " ORDER BY " + NoteColumns.MODIFIED_DATE + " DESC";
+
+    // 单个词的LIKE条件
+    private static final String LIKE_SEARCH_TERM = TABLE.NOTE_FTS + "." + DataColumns.CONTENT
+            + " LIKE ? ESCAPE '\\'";
+
+    // 恢复整个回收站：先把随某个根一起移入回收站的后代移回原来的父文件夹，根移出回收站时会清除trash_root_id
+    static final String RESTORE_TRASH_DESCENDANTS_SQL = "UPDATE " + TABLE.NOTE + " SET "
+            + NoteColumns.PARENT_ID + "=" + NoteColumns.ORIGIN_PARENT_ID + ","
+            + NoteColumns.LOCAL_MODIFIED + "=1," + NoteColumns.VERSION + "=" + NoteColumns.VERSION + "+1"
+            + " WHERE " + NoteColumns.ID + " IN (SELECT c." + NoteColumns.ID + " FROM " + TABLE.NOTE
+            + " c JOIN " + TABLE.NOTE + " p ON p." + NoteColumns.ID + "=c." + NoteColumns.ORIGIN_PARENT_ID
+            + " WHERE c." + NoteColumns.PARENT_ID + "=" + Notes.ID_TRASH_FOLER
+            + " AND p." + NoteColumns.PARENT_ID + "=" + Notes.ID_TRASH_FOLER
+            + " AND c." + NoteColumns.TRASH_ROOT_ID + "=p." + NoteColumns.TRASH_ROOT_ID
+            + " AND c." + NoteColumns.TYPE + "<>" + Notes.TYPE_SYSTEM + ")";
+
+    // 恢复整个回收站：其余各行都是根，回到根目录
+    static final String RESTORE_TRASH_ROOTS_SQL = "UPDATE " + TABLE.NOTE + " SET "
+            + NoteColumns.PARENT_ID + "=" + Notes.ID_ROOT_FOLDER + ","
+            + NoteColumns.LOCAL_MODIFIED + "=1," + NoteColumns.VERSION + "=" + NoteColumns.VERSION + "+1"
+            + " WHERE " + NoteColumns.PARENT_ID + "=" + Notes.ID_TRASH_FOLER
+            + " AND " + NoteColumns.TYPE + "<>" + Notes.TYPE_SYSTEM;
+
+    // 分页查询固定的排序方式，与note(parent_id, type, modified_date)索引的顺序一致
+    private static final String NOTE_PAGE_SORT_ORDER = NoteColumns.TYPE + " DESC,"
+            + NoteColumns.MODIFIED_DATE + " DESC," + NoteColumns.ID + " DESC";
+
+    // 分页查询的游标条件：排在上一页最后一条之后的笔记
+    private static final String NOTE_PAGE_KEYSET_SELECTION = "(" + NoteColumns.TYPE + "<? OR ("
+            + NoteColumns.TYPE + "=? AND (" + NoteColumns.MODIFIED_DATE + "<? OR ("
+            + NoteColumns.MODIFIED_DATE + "=? AND " + NoteColumns.ID + "<?))))";
+
+    // 查询结果缓存的容量：最多缓存的查询数量，单个结果最多缓存的行数，以及所有结果估算占用的字节数
+    private static final int QUERY_CACHE_MAX_ENTRIES = 64;
+    private static final int QUERY_CACHE_MAX_ROWS = 200;
+    private static final long QUERY_CACHE_MAX_BYTES = 256 * 1024;
+
+    private final NotesQueryCache mQueryCache =
+            new NotesQueryCache(QUERY_CACHE_MAX_ENTRIES, QUERY_CACHE_MAX_ROWS, QUERY_CACHE_MAX_BYTES);
+
+    // 包含正文或二进制内容的列，查询这些列或不指定列时不使用缓存
+    private static final String[] UNCACHEABLE_COLUMNS = {
+            NoteColumns.SNIPPET, DataColumns.CONTENT, DataColumns.CONTENT_COMPRESSED
+    };
+
+    // 查询列CALL_NUMBER对应的表达式：只对通话记录文件夹中的笔记按note_id索引查找电话号码
+    private static final String NOTE_CALL_NUMBER_EXPRESSION = "(CASE WHEN " + NoteColumns.PARENT_ID
+            + "=" + Notes.ID_CALL_RECORD_FOLDER + " THEN (SELECT " + Notes.CallNote.PHONE_NUMBER
+            + " FROM " + TABLE.DATA + " WHERE " + DataColumns.NOTE_ID + "=" + TABLE.NOTE + "." + NoteColumns.ID
+            + " AND " + DataColumns.MIME_TYPE + "='" + Notes.CallNote.CONTENT_ITEM_TYPE + "' LIMIT 1)"
+            + " END) AS " + NoteColumns.CALL_NUMBER;
+
+    // 可以归档的笔记：普通笔记，不在回收站中，没有提醒、小部件和同步记录
+    private static final String ARCHIVE_CANDIDATE_QUERY = "SELECT " + NoteColumns.ID + " FROM " + TABLE.NOTE
+            + " WHERE " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE
+            + " AND " + NoteColumns.ARCHIVED + "=0"
+            + " AND " + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER
+            + " AND " + NoteColumns.MODIFIED_DATE + "<?"
+            + " AND " + NoteColumns.ALERTED_DATE + "=0"
+            + " AND " + NoteColumns.WIDGET_ID + "<=0"
+            + " AND " + NoteColumns.GTASK_ID + "=''";
+
+    // 归档库，第一次需要时才打开；归档、恢复和打开归档库都在mArchiveLock下进行
+    private final Object mArchiveLock = new Object();
+    private NotesArchiveHelper mArchiveHelper;
+
+    // 归档库文件是否存在，不存在时打开笔记无需检查归档标记
+    private volatile boolean mArchiveExists;
+
+    // 附件文件，内容不经过数据表和游标，通过openFile读取
+    private AttachmentStore mAttachmentStore;
+
+    // 删除笔记或附件后延迟回收不再被引用的附件文件，短时间内的多次删除只回收一次
+    private static final long ATTACHMENT_GC_DELAY = 3000;
+
+    // 启动后延迟清理数据库中没有记录的附件文件，避免与启动时的查询争用
+    private static final long ATTACHMENT_SWEEP_DELAY = 30000;
+    private volatile boolean mAttachmentSweepPending;
+
+    private final Runnable mCollectAttachments = new Runnable() {
+        @Override
+        public void run() {
+            collectAttachments();
+        }
+    };
+
+    // 全文索引表是否为FTS5、是否使用trigram分词，首次搜索时确定
+    private Boolean mNoteFtsV5;
+    private boolean mNoteFtsTrigram;
+
+    // 升级后的预览回填是否已完成，完成前查询预览列时改用即时计算的预览
+    private volatile boolean mNotePreviewComplete;
+
+    // 批量插入允许的列名，按表名在首次批量插入时从表结构读取
+    private final Map<String, Set<String>> mTableColumns = new HashMap<String, Set<String>>();
+
+    // 批量操作中每执行多少条操作尝试让出一次数据库锁
+    private static final int BATCH_YIELD_INTERVAL = 500;
+
+    // 按ID集合批量修改时每条语句绑定的ID数量，低于SQLite的参数个数上限
+    private static final int BATCH_ID_CHUNK_SIZE = 500;
+
+    // 批量写入达到该行数后执行截断检查点，避免WAL文件持续膨胀
+    private static final int LARGE_BATCH_SIZE = 200;
+
+    // 当前线程正在执行的批量操作所积累的待通知URI，不在批量操作中时为null
+    private final ThreadLocal<Set<Uri>> mBatchNotifyUris = new ThreadLocal<Set<Uri>>();
+
+    // 普通写入的通知在该时间窗口内合并后发送，单位毫秒
+    private static final long NOTIFY_DEBOUNCE_DELAY = 100;
+
+    // 同一目录下变更的条目超过该数量时，改为只通知目录URI
+    private static final int NOTIFY_COLLAPSE_THRESHOLD = 20;
+
+    // 等待发送的通知及相关状态，均由mNotifyLock保护
+    private final Object mNotifyLock = new Object();
+    private final Set<Uri> mPendingNotifyUris = new LinkedHashSet<Uri>();
+    private boolean mNotifyScheduled;
+
+    // 当前线程显式暂停通知的嵌套层数和期间积累的URI，未暂停时为null。
+    // 只暂停该线程自己的写入，例如同步线程，其他线程的写入照常通知
+    private final ThreadLocal<Integer> mSuppressNotifyDepth = new ThreadLocal<Integer>();
+    private final ThreadLocal<Set<Uri>> mSuppressedNotifyUris = new ThreadLocal<Set<Uri>>();
+
+    private final Handler mNotifyHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable mFlushNotify = new Runnable() {
+        @Override
+        public void run() {
+            flushNotifyChanges();
+        }
+    };
+
     /**
      * 当ContentProvider被创建时调用，用于初始化数据库帮助类。
      *
@@ -75,6 +307,10 @@ public class NotesProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mHelper = NotesDatabaseHelper.getInstance(getContext());
+        mArchiveExists = NotesArchiveHelper.exists(getContext());
+        mAttachmentStore = new AttachmentStore(getContext());
+        mAttachmentSweepPending = true;
+        mHelper.scheduleBackground(mCollectAttachments, ATTACHMENT_SWEEP_DELAY);
         return true;
     }
 
@@ -94,15 +330,47 @@ public class NotesProvider extends ContentProvider {
         Cursor c = null;
         SQLiteDatabase db = mHelper.getReadableDatabase();
         String id = null;
+        int match = mMatcher.match(uri);
+
+        // 笔记和数据的查询先查缓存，命中时不访问数据库；正文等大列不缓存
+        String cacheTable = null;
+        if (isCacheableProjection(projection)) {
+            if (match == URI_NOTE || match == URI_NOTE_ITEM) {
+                cacheTable = TABLE.NOTE;
+            } else if (match == URI_DATA || match == URI_DATA_ITEM) {
+                cacheTable = TABLE.DATA;
+            }
+        }
+        String cacheKey = null;
+        long cacheGeneration = 0;
+        if (cacheTable != null) {
+            cacheKey = NotesQueryCache.buildKey(uri, projection, selection, selectionArgs, sortOrder);
+            c = mQueryCache.get(cacheKey, cacheTable);
+            if (c != null) {
+                c.setNotificationUri(getContext().getContentResolver(), uri);
+                return c;
+            }
+            cacheGeneration = mQueryCache.getGeneration(cacheTable);
+        }
+
+        if (match == URI_NOTE || match == URI_NOTE_ITEM) {
+            projection = expandNoteProjection(projection);
+        }
+
         // 根据URI匹配查询类型
-        switch (mMatcher.match(uri)) {
+        switch (match) {
             case URI_NOTE:
-                c = db.query(TABLE.NOTE, projection, selection, selectionArgs, null, null,
-                        sortOrder);
+                if (uri.getQueryParameter(Notes.PARAM_LIMIT) != null) {
+                    c = queryNotePage(db, uri, withPreviewFallback(db, projection), selection,
+                            selectionArgs, sortOrder);
+                } else {
+                    c = db.query(TABLE.NOTE, withPreviewFallback(db, projection), selection, selectionArgs,
+                            null, null, sortOrder);
+                }
                 break;
             case URI_NOTE_ITEM:
                 id = uri.getPathSegments().get(1);
-                c = db.query(TABLE.NOTE, projection, NoteColumns.ID + "=" + id
+                c = db.query(TABLE.NOTE, withPreviewFallback(db, projection), NoteColumns.ID + "=" + id
                         + parseSelection(selection), selectionArgs, null, null, sortOrder);
                 break;
             case URI_DATA:
@@ -135,17 +403,60 @@ public class NotesProvider extends ContentProvider {
                     return null;
                 }
 
+                if (mNoteFtsV5 == null) {
+                    mNoteFtsTrigram = NotesDatabaseHelper.isNoteFtsTrigram(db);
+                    mNoteFtsV5 = NotesDatabaseHelper.isNoteFtsV5(db);
+                }
+                String[] terms = splitSearchTerms(searchString);
+                if (terms.length == 0) {
+                    return null;
+                }
+
                 try {
-                    searchString = String.format("%%%s%%", searchString);
-                    c = db.rawQuery(NOTES_SNIPPET_SEARCH_QUERY,
-                            new String[]{searchString});
-                } catch (IllegalStateException ex) {
+                    if (needsLikeSearch(terms, mNoteFtsTrigram)) {
+                        c = searchByLike(db, terms, parseSearchLimit(uri));
+                    } else {
+                        c = db.rawQuery(buildFtsSearchQuery(mNoteFtsV5, mNoteFtsTrigram, parseSearchLimit(uri)),
+                                new String[]{buildFtsMatchString(terms, mNoteFtsV5, mNoteFtsTrigram)});
+                    }
+                } catch (IllegalStateException | SQLiteException ex) {
                     Log.e(TAG, "got exception: " + ex.toString());
                 }
+                // 归档笔记不在全文索引中，在归档库中按关键字匹配后合并到结果之后。
+                // 系统搜索框无法附加参数，未指定时同样搜索归档笔记
+                String includeArchive = uri.getQueryParameter(Notes.PARAM_INCLUDE_ARCHIVE);
+                if (includeArchive == null || Boolean.parseBoolean(includeArchive)) {
+                    Cursor archived = searchArchive(db, terms, parseSearchLimit(uri));
+                    if (archived != null) {
+                        c = c == null ? archived : new MergeCursor(new Cursor[]{c, archived});
+                    }
+                }
+                break;
+            case URI_ARCHIVE_DATA:
+                synchronized (mArchiveLock) {
+                    SQLiteDatabase archiveDb = getArchiveDatabase(false);
+                    if (archiveDb == null) {
+                        return null;
+                    }
+                    c = archiveDb.query(TABLE.DATA, projection, selection, selectionArgs, null, null,
+                            sortOrder);
+                }
+                break;
+            case URI_ATTACHMENT:
+                c = db.query(TABLE.ATTACHMENT, projection, selection, selectionArgs, null, null,
+                        sortOrder);
+                break;
+            case URI_ATTACHMENT_ITEM:
+                id = uri.getPathSegments().get(1);
+                c = db.query(TABLE.ATTACHMENT, projection, AttachmentColumns.ID + "=" + id
+                        + parseSelection(selection), selectionArgs, null, null, sortOrder);
                 break;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
+        if (cacheKey != null) {
+            mQueryCache.put(cacheKey, cacheTable, cacheGeneration, c);
+        }
         // 设置通知URI，以便数据改变时可以通知
         if (c != null) {
             c.setNotificationUri(getContext().getContentResolver(), uri);
@@ -153,6 +464,63 @@ public class NotesProvider extends ContentProvider {
         return c;
     }
 
+    /**
+     * 在一个事务中执行整批操作，所有变更只提交一次，变更通知在提交后统一发送。
+     * 批次较长时定期让出数据库锁，避免长时间阻塞其他读写线程。
+     *
+     * @param operations 要执行的操作列表。
+     * @return 每个操作的执行结果。
+     * @throws OperationApplicationException 任一操作执行失败时抛出，整批回滚。
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        Set<Uri> notifyUris = new LinkedHashSet<Uri>();
+        mBatchNotifyUris.set(notifyUris);
+        db.beginTransaction();
+        try {
+            boolean countBatch = NotesDatabaseHelper.beginFolderCountBatch(db);
+            final int numOperations = operations.size();
+            final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+            for (int i = 0; i < numOperations; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && (operation.isYieldAllowed() || i % BATCH_YIELD_INTERVAL == 0)) {
+                    // 让出锁时可能提交已完成的部分，提交前先把文件夹计数重算好
+                    if (countBatch) {
+                        NotesDatabaseHelper.endFolderCountBatch(db);
+                    }
+                    db.yieldIfContendedSafely();
+                    countBatch = NotesDatabaseHelper.beginFolderCountBatch(db);
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            if (countBatch) {
+                NotesDatabaseHelper.endFolderCountBatch(db);
+            }
+            db.setTransactionSuccessful();
+            return results;
+        } finally {
+            db.endTransaction();
+            // 事务中途读到的仍是旧数据，提交后再使缓存过期一次
+            invalidateQueryCache(true);
+            mBatchNotifyUris.remove();
+            if (operations.size() >= LARGE_BATCH_SIZE) {
+                mHelper.scheduleTruncateCheckpoint();
+            }
+            // 让出锁时已提交的部分同样需要通知，因此无论成功与否都发送
+            Set<Uri> suppressedUris = mSuppressedNotifyUris.get();
+            if (suppressedUris != null) {
+                suppressedUris.addAll(notifyUris);
+            } else {
+                synchronized (mNotifyLock) {
+                    mPendingNotifyUris.addAll(notifyUris);
+                }
+                flushNotifyChanges();
+            }
+        }
+    }
+
     /**
      * 在数据库中插入新数据。
      *
@@ -174,185 +542,1996 @@ public class NotesProvider extends ContentProvider {
                 } else {
                     Log.d(TAG, "Wrong data format without note id:" + values.toString());
                 }
-                insertedId = dataId = db.insert(TABLE.DATA, null, values);
+                ContentValues dataValues = NoteContentCodec.compress(values);
+                if (!NoteContentCodec.isCompressed(dataValues)) {
+                    insertedId = dataId = db.insert(TABLE.DATA, null, dataValues);
+                    break;
+                }
+                // 长正文压缩保存，全文索引在同一事务中改用完整正文
+                db.beginTransaction();
+                try {
+                    insertedId = dataId = db.insert(TABLE.DATA, null, dataValues);
+                    if (dataId > 0 && Notes.DataConstants.NOTE.equals(
+                            values.getAsString(DataColumns.MIME_TYPE))) {
+                        NotesDatabaseHelper.indexNoteContent(db, noteId,
+                                values.getAsString(DataColumns.CONTENT));
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
+        invalidateQueryCache(dataId > 0);
         // 通知URI改变
         if (noteId > 0) {
-            getContext().getContentResolver().notifyChange(
-                    ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId), null);
+            notifyChange(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId));
         }
 
         if (dataId > 0) {
-            getContext().getContentResolver().notifyChange(
-                    ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, dataId), null);
+            notifyChange(ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, dataId));
         }
 
         return ContentUris.withAppendedId(uri, insertedId);
     }
 
     /**
-     * 根据URI删除数据。
+     * 批量插入笔记或数据，整批在一个事务中完成。
      *
-     * @param uri           要删除数据的URI。
-     * @param selection     删除条件。
-     * @param selectionArgs 用于删除条件的参数。
-     * @return 返回被删除的行数。
+     * @param uri    插入数据的URI，只支持笔记和数据两个目录URI。
+     * @param values 要插入的数据。
+     * @return 成功插入的行数，任何一行失败时整批回滚并返回0。
      */
     @Override
-    public int delete(Uri uri, String selection, String[] selectionArgs) {
-        int count = 0;
-        String id = null;
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long[] ids = bulkInsertInternal(uri, values);
+        return ids == null ? 0 : ids.length;
+    }
+
+    /**
+     * 处理通过ContentResolver.call()发起的调用。
+     *
+     * @param method 方法名，见{@link Notes#METHOD_BULK_INSERT}、{@link Notes#METHOD_CHECKPOINT}、
+     *               {@link Notes#METHOD_SUPPRESS_NOTIFY}、{@link Notes#METHOD_RESUME_NOTIFY}、
+     *               {@link Notes#METHOD_BATCH_MOVE}、{@link Notes#METHOD_BATCH_DELETE}、
+     *               {@link Notes#METHOD_RESTORE_TRASH}、
+     *               {@link Notes#METHOD_EXISTS}、{@link Notes#METHOD_EXISTS_MANY}、
+     *               {@link Notes#METHOD_USER_FOLDER_COUNT}、
+     *               {@link Notes#METHOD_COUNT_SUBTREE}、
+     *               {@link Notes#METHOD_QUERY_CACHE_STATS}、{@link Notes#METHOD_ADD_ATTACHMENT}、
+     *               {@link Notes#METHOD_MAINTAIN}、{@link Notes#METHOD_FIND_CALL_NOTE}。
+     * @param arg    方法参数。
+     * @param extras 附加参数。
+     * @return 调用结果。
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (Notes.METHOD_BULK_INSERT.equals(method)) {
+            Parcelable[] parcelables = extras.getParcelableArray(Notes.EXTRA_VALUES);
+            ContentValues[] values = new ContentValues[parcelables == null ? 0 : parcelables.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = (ContentValues) parcelables[i];
+            }
+            Bundle result = new Bundle();
+            result.putLongArray(Notes.EXTRA_IDS, bulkInsertInternal(Uri.parse(arg), values));
+            return result;
+        }
+        if (Notes.METHOD_CHECKPOINT.equals(method)) {
+            mHelper.scheduleTruncateCheckpoint();
+            return null;
+        }
+        if (Notes.METHOD_BATCH_MOVE.equals(method) || Notes.METHOD_BATCH_DELETE.equals(method)) {
+            long[] ids = extras.getLongArray(Notes.EXTRA_IDS);
+            int count;
+            if (Notes.METHOD_BATCH_MOVE.equals(method)) {
+                final long folderId = extras.getLong(Notes.EXTRA_FOLDER_ID);
+                if (isInSubtree(mHelper.getReadableDatabase(), ids, folderId)) {
+                    Log.e(TAG, "Cannot move folder into its own subtree " + folderId);
+                    count = 0;
+                } else {
+                    count = executeForNoteIds(ids, new NoteIdsOperation() {
+                        @Override
+                        public int execute(SQLiteDatabase db, String in, String[] args) {
+                            return moveNotes(db, in, args, folderId);
+                        }
+                    });
+                }
+            } else {
+                // ID小于等于0的是系统文件夹，不允许删除；文件夹连同整个子树一起删除
+                count = executeForNoteIds(ids, new NoteIdsOperation() {
+                    @Override
+                    public int execute(SQLiteDatabase db, String in, String[] args) {
+                        return executeUpdateDelete(db, "DELETE FROM " + TABLE.NOTE + " WHERE "
+                                + deleteSubtreeCondition(NoteColumns.ID + ">0 AND " + NoteColumns.ID
+                                + " IN " + in), repeatArgs(args));
+                    }
+                });
+                if (count > 0) {
+                    mHelper.scheduleBackground(mCollectAttachments, ATTACHMENT_GC_DELAY);
+                }
+            }
+            Bundle result = new Bundle();
+            result.putInt(Notes.EXTRA_COUNT, count);
+            return result;
+        }
+        if (Notes.METHOD_RESTORE_TRASH.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(Notes.EXTRA_COUNT, restoreTrash());
+            return result;
+        }
+        if (Notes.METHOD_EXISTS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putBoolean(Notes.EXTRA_EXISTS, exists(Uri.parse(arg), extras));
+            return result;
+        }
+        if (Notes.METHOD_EXISTS_MANY.equals(method)) {
+            Bundle result = new Bundle();
+            result.putBooleanArray(Notes.EXTRA_EXISTS,
+                    existsMany(Uri.parse(arg), extras.getLongArray(Notes.EXTRA_IDS)));
+            return result;
+        }
+        if (Notes.METHOD_USER_FOLDER_COUNT.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(Notes.EXTRA_COUNT, (int) DatabaseUtils.longForQuery(mHelper.getReadableDatabase(),
+                    "SELECT COUNT(*) FROM " + TABLE.NOTE + " WHERE " + NoteColumns.TYPE + "="
+                            + Notes.TYPE_FOLDER + " AND " + NoteColumns.PARENT_ID + "<>"
+                            + Notes.ID_TRASH_FOLER, null));
+            return result;
+        }
+        if (Notes.METHOD_COUNT_SUBTREE.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(Notes.EXTRA_COUNT, (int) DatabaseUtils.longForQuery(mHelper.getReadableDatabase(),
+                    "SELECT COUNT(*) FROM " + TABLE.NOTE + " WHERE " + NoteColumns.TYPE + "="
+                            + Notes.TYPE_NOTE + " AND " + NoteColumns.ID + " IN ("
+                            + subtreeOf(NoteColumns.ID + "=?") + ")", new String[]{arg}));
+            return result;
+        }
+        if (Notes.METHOD_QUERY_CACHE_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(Notes.EXTRA_CACHE_HITS, mQueryCache.getHitCount());
+            result.putLong(Notes.EXTRA_CACHE_MISSES, mQueryCache.getMissCount());
+            result.putInt(Notes.EXTRA_COUNT, mQueryCache.size());
+            return result;
+        }
+        if (Notes.METHOD_ARCHIVE_NOTES.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(Notes.EXTRA_COUNT, archiveNotes(extras.getLong(Notes.EXTRA_ARCHIVE_BEFORE)));
+            return result;
+        }
+        if (Notes.METHOD_RESTORE_NOTES.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(Notes.EXTRA_COUNT,
+                    restoreNotes(extras == null ? null : extras.getLongArray(Notes.EXTRA_IDS)));
+            return result;
+        }
+        if (Notes.METHOD_ADD_ATTACHMENT.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(Notes.EXTRA_ATTACHMENT_ID, addAttachment(Long.parseLong(arg),
+                    (Uri) extras.getParcelable(Notes.EXTRA_SOURCE_URI),
+                    extras.getString(Notes.EXTRA_MIME_TYPE)));
+            return result;
+        }
+        if (Notes.METHOD_MAINTAIN.equals(method)) {
+            NotesDatabaseHelper.MaintenanceStats stats = mHelper.maintain();
+            Bundle result = new Bundle();
+            result.putLong(Notes.EXTRA_RECLAIMED_BYTES, stats == null ? 0 : stats.reclaimedBytes);
+            result.putLong(Notes.EXTRA_FREELIST_BYTES, stats == null ? -1 : stats.freelistBytes);
+            return result;
+        }
+        if (Notes.METHOD_FIND_CALL_NOTE.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(Notes.EXTRA_NOTE_ID, findCallNote(arg, extras.getLong(Notes.EXTRA_CALL_DATE)));
+            return result;
+        }
+        if (Notes.METHOD_SUPPRESS_NOTIFY.equals(method)) {
+            Integer depth = mSuppressNotifyDepth.get();
+            if (depth == null) {
+                mSuppressedNotifyUris.set(new LinkedHashSet<Uri>());
+                depth = 0;
+            }
+            mSuppressNotifyDepth.set(depth + 1);
+            return null;
+        }
+        if (Notes.METHOD_RESUME_NOTIFY.equals(method)) {
+            Integer depth = mSuppressNotifyDepth.get();
+            if (depth == null) {
+                return null;
+            }
+            if (depth > 1) {
+                mSuppressNotifyDepth.set(depth - 1);
+                return null;
+            }
+            Set<Uri> suppressedUris = mSuppressedNotifyUris.get();
+            mSuppressNotifyDepth.remove();
+            mSuppressedNotifyUris.remove();
+            synchronized (mNotifyLock) {
+                mPendingNotifyUris.addAll(suppressedUris);
+            }
+            flushNotifyChanges();
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * 按电话号码和通话时间查找通话记录笔记。先在通话记录笔记表的索引上按号码的最短匹配键缩小范围，
+     * 再用PHONE_NUMBERS_EQUAL确认号码；升级后的回填还没有完成时，仍在数据表中逐行比较号码。
+     *
+     * @param phoneNumber 电话号码。
+     * @param callDate    通话时间。
+     * @return 笔记ID，未找到时返回0。
+     */
+    private long findCallNote(String phoneNumber, long callDate) {
         SQLiteDatabase db = mHelper.getWritableDatabase();
-        boolean deleteData = false;
+        long[] ids;
+        if (NotesDatabaseHelper.isCallNoteTableComplete(db)) {
+            NotesDatabaseHelper.normalizeCallNotes(db);
+            ids = queryIds(db, "SELECT " + DataColumns.NOTE_ID + " FROM " + TABLE.CALL_NOTE + " WHERE "
+                    + NotesDatabaseHelper.CALL_NOTE_NUMBER_NORM + "=? AND "
+                    + NotesDatabaseHelper.CALL_NOTE_DATE + "=? AND PHONE_NUMBERS_EQUAL("
+                    + NotesDatabaseHelper.CALL_NOTE_NUMBER + ",?) LIMIT 1",
+                    new String[]{Contact.toMinMatchKey(phoneNumber), String.valueOf(callDate), phoneNumber});
+        } else {
+            ids = queryIds(db, "SELECT " + DataColumns.NOTE_ID + " FROM " + TABLE.DATA + " WHERE "
+                    + Notes.CallNote.CALL_DATE + "=? AND " + DataColumns.MIME_TYPE + "=? AND PHONE_NUMBERS_EQUAL("
+                    + Notes.CallNote.PHONE_NUMBER + ",?) LIMIT 1",
+                    new String[]{String.valueOf(callDate), Notes.CallNote.CONTENT_ITEM_TYPE, phoneNumber});
+        }
+        return ids.length > 0 ? ids[0] : 0;
+    }
+
+    /**
+     * 判断单个笔记或数据是否存在，只执行COUNT(*)，不创建游标。
+     *
+     * @param uri    笔记或数据的条目URI。
+     * @param extras 可以包含{@link Notes#EXTRA_VISIBLE_TYPE}，仅对笔记有效。
+     * @return 是否存在。
+     */
+    private boolean exists(Uri uri, Bundle extras) {
+        SQLiteDatabase db = mHelper.getReadableDatabase();
+        String id = uri.getPathSegments().get(1);
         switch (mMatcher.match(uri)) {
-            case URI_NOTE:
-                selection = "(" + selection + ") AND " + NoteColumns.ID + ">0 ";
-                count = db.delete(TABLE.NOTE, selection, selectionArgs);
-                break;
             case URI_NOTE_ITEM:
-                id = uri.getPathSegments().get(1);
-                /**
-                 * ID小于等于0的笔记是系统文件夹，不允许删除
-                 */
-                long noteId = Long.valueOf(id);
-                if (noteId <= 0) {
-                    break;
+                if (extras != null && extras.containsKey(Notes.EXTRA_VISIBLE_TYPE)) {
+                    return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TABLE.NOTE
+                            + " WHERE " + NoteColumns.ID + "=? AND " + NoteColumns.TYPE + "=? AND "
+                            + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER, new String[]{
+                            id, String.valueOf(extras.getInt(Notes.EXTRA_VISIBLE_TYPE))
+                    }) > 0;
                 }
-                count = db.delete(TABLE.NOTE,
-                        NoteColumns.ID + "=" + id + parseSelection(selection), selectionArgs);
-                break;
-            case URI_DATA:
-                count = db.delete(TABLE.DATA, selection, selectionArgs);
-                deleteData = true;
-                break;
+                return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TABLE.NOTE
+                        + " WHERE " + NoteColumns.ID + "=?", new String[]{id}) > 0;
             case URI_DATA_ITEM:
-                id = uri.getPathSegments().get(1);
-                count = db.delete(TABLE.DATA,
-                        DataColumns.ID + "=" + id + parseSelection(selection), selectionArgs);
-                deleteData = true;
-                break;
+                return DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TABLE.DATA
+                        + " WHERE " + DataColumns.ID + "=?", new String[]{id}) > 0;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
-        // 通知URI改变
-        if (count > 0) {
-            if (deleteData) {
-                getContext().getContentResolver().notifyChange(Notes.CONTENT_NOTE_URI, null);
-            }
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
-        return count;
     }
 
     /**
-     * 更新数据库中的数据。
+     * 判断一组笔记或数据是否存在，整组复用同一条预编译语句。
      *
-     * @param uri           要更新数据的URI。
-     * @param values        要更新到的数据。
-     * @param selection     更新条件。
-     * @param selectionArgs 用于更新条件的参数。
-     * @return 返回被更新的行数。
+     * @param uri 笔记或数据的目录URI。
+     * @param ids 要判断的ID。
+     * @return 与ids一一对应的结果。
      */
-    @Override
-    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        int count = 0;
-        String id = null;
-        SQLiteDatabase db = mHelper.getWritableDatabase();
-        boolean updateData = false;
+    private boolean[] existsMany(Uri uri, long[] ids) {
+        String table;
         switch (mMatcher.match(uri)) {
             case URI_NOTE:
-                increaseNoteVersion(-1, selection, selectionArgs);
-                count = db.update(TABLE.NOTE, values, selection, selectionArgs);
-                break;
-            case URI_NOTE_ITEM:
-                id = uri.getPathSegments().get(1);
-                increaseNoteVersion(Long.valueOf(id), selection, selectionArgs);
-                count = db.update(TABLE.NOTE, values, NoteColumns.ID + "=" + id
-                        + parseSelection(selection), selectionArgs);
+                table = TABLE.NOTE;
                 break;
             case URI_DATA:
-                count = db.update(TABLE.DATA, values, selection, selectionArgs);
-                updateData = true;
-                break;
-            case URI_DATA_ITEM:
-                id = uri.getPathSegments().get(1);
-                count = db.update(TABLE.DATA, values, DataColumns.ID + "=" + id
-                        + parseSelection(selection), selectionArgs);
-                updateData = true;
+                table = TABLE.DATA;
                 break;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
-
-        // 通知URI改变
-        if (count > 0) {
-            if (updateData) {
-                getContext().getContentResolver().notifyChange(Notes.CONTENT_NOTE_URI, null);
+        boolean[] exists = new boolean[ids == null ? 0 : ids.length];
+        if (exists.length == 0) {
+            return exists;
+        }
+        SQLiteStatement statement = mHelper.getReadableDatabase().compileStatement(
+                "SELECT COUNT(*) FROM " + table + " WHERE _id=?");
+        try {
+            for (int i = 0; i < ids.length; i++) {
+                statement.bindLong(1, ids[i]);
+                exists[i] = statement.simpleQueryForLong() > 0;
             }
-            getContext().getContentResolver().notifyChange(uri, null);
+        } finally {
+            statement.close();
         }
-        return count;
+        return exists;
     }
 
+    // 对一段笔记ID执行的操作
+    private interface NoteIdsOperation {
+        /**
+         * @param db   数据库，已在事务中。
+         * @param in   形如"(?,?,?)"的占位符。
+         * @param args 与占位符对应的ID参数。
+         * @return 受影响的行数。
+         */
+        int execute(SQLiteDatabase db, String in, String[] args);
+    }
 
     /**
-     * 解析选择条件，如果存在选择条件，则在条件前后添加" AND (" 和 ')'。
+     * 对一组笔记执行同一操作，ID分段绑定到IN条件中，整组在一个事务中完成并只通知一次。
+     * 执行期间暂停逐行维护文件夹计数，提交前统一重算。
      *
-     * @param selection 用户提供的选择条件。
-     * @return 如果有选择条件，则返回添加了定界符的选择条件字符串；否则返回空字符串。
+     * @param ids       笔记ID。
+     * @param operation 对每段ID执行的操作。
+     * @return 受影响的行数。
      */
-    private String parseSelection(String selection) {
-        return (!TextUtils.isEmpty(selection) ? " AND (" + selection + ')' : "");
+    private int executeForNoteIds(long[] ids, NoteIdsOperation operation) {
+        if (ids == null || ids.length == 0) {
+            return 0;
+        }
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        int count = 0;
+        db.beginTransaction();
+        try {
+            boolean countBatch = NotesDatabaseHelper.beginFolderCountBatch(db);
+            for (int start = 0; start < ids.length; start += BATCH_ID_CHUNK_SIZE) {
+                int size = Math.min(BATCH_ID_CHUNK_SIZE, ids.length - start);
+                count += operation.execute(db, buildIdPlaceholders(size), toArgs(ids, start, size, null));
+            }
+            if (countBatch) {
+                NotesDatabaseHelper.endFolderCountBatch(db);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        // 删除笔记会级联删除数据
+        invalidateQueryCache(true);
+
+        if (ids.length >= LARGE_BATCH_SIZE) {
+            mHelper.scheduleTruncateCheckpoint();
+        }
+        if (count > 0) {
+            notifyChange(Notes.CONTENT_NOTE_URI);
+        }
+        return count;
     }
 
     /**
-     * 增加指定笔记的版本号。
+     * 把长期未修改的笔记的数据行移入归档库，主库中保留笔记行和预览。
+     * 每段先在归档库中写入副本并提交，再在主库中标记归档并删除数据行；
+     * 两步之间中断时主库数据仍然有效，归档库中多余的副本在下次打开归档库时清理。
      *
-     * @param id            笔记的ID，如果为正数，则根据ID更新版本号；如果为0或负数，则根据selection参数更新版本号。
-     * @param selection     用于选择需要更新的笔记的条件字符串，可以为空。
-     * @param selectionArgs 与selection参数配合使用的参数数组，用于替换selection中的"?"。
+     * @param before 修改时间早于该值的笔记才归档。
+     * @return 归档的笔记数。
      */
-    private void increaseNoteVersion(long id, String selection, String[] selectionArgs) {
-        StringBuilder sql = new StringBuilder(120);
-        sql.append("UPDATE ");
-        sql.append(TABLE.NOTE);
-        sql.append(" SET ");
-        sql.append(NoteColumns.VERSION);
-        sql.append("=" + NoteColumns.VERSION + "+1 ");
-
-        // 根据ID或选择条件构建SQL的WHERE子句
-        if (id > 0 || !TextUtils.isEmpty(selection)) {
-            sql.append(" WHERE ");
-        }
-        if (id > 0) {
-            sql.append(NoteColumns.ID + "=" + String.valueOf(id));
+    private int archiveNotes(long before) {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        long[] ids = queryIds(db, ARCHIVE_CANDIDATE_QUERY, new String[]{String.valueOf(before)});
+        if (ids.length == 0) {
+            return 0;
         }
-        if (!TextUtils.isEmpty(selection)) {
-            String selectString = id > 0 ? parseSelection(selection) : selection;
-            // 替换selection中的"?"为selectionArgs中的对应参数
-            for (String args : selectionArgs) {
-                selectString = selectString.replaceFirst("\\?", args);
+        int count = 0;
+        synchronized (mArchiveLock) {
+            SQLiteDatabase archiveDb = getArchiveDatabase(true);
+            for (int start = 0; start < ids.length; start += BATCH_ID_CHUNK_SIZE) {
+                int size = Math.min(BATCH_ID_CHUNK_SIZE, ids.length - start);
+                String in = buildIdPlaceholders(size);
+                String[] args = toArgs(ids, start, size, null);
+
+                Cursor c = db.rawQuery("SELECT * FROM " + TABLE.DATA + " WHERE "
+                        + DataColumns.NOTE_ID + " IN " + in, args);
+                archiveDb.beginTransaction();
+                try {
+                    archiveDb.execSQL("DELETE FROM " + TABLE.DATA + " WHERE " + DataColumns.NOTE_ID
+                            + " IN " + in, args);
+                    ContentValues values = new ContentValues();
+                    while (c.moveToNext()) {
+                        values.clear();
+                        DatabaseUtils.cursorRowToContentValues(c, values);
+                        archiveDb.insertOrThrow(TABLE.DATA, null, values);
+                    }
+                    archiveDb.setTransactionSuccessful();
+                } finally {
+                    archiveDb.endTransaction();
+                    c.close();
+                }
+
+                // 复制之后又被修改的笔记不归档
+                db.beginTransaction();
+                try {
+                    SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE.NOTE + " SET "
+                            + NoteColumns.ARCHIVED + "=1 WHERE " + NoteColumns.ARCHIVED + "=0 AND "
+                            + NoteColumns.MODIFIED_DATE + "<? AND " + NoteColumns.ID + " IN " + in);
+                    try {
+                        statement.bindAllArgsAsStrings(toArgs(ids, start, size, String.valueOf(before)));
+                        count += statement.executeUpdateDelete();
+                    } finally {
+                        statement.close();
+                    }
+                    db.execSQL("DELETE FROM " + TABLE.DATA + " WHERE " + DataColumns.NOTE_ID + " IN (SELECT "
+                            + NoteColumns.ID + " FROM " + TABLE.NOTE + " WHERE " + NoteColumns.ARCHIVED
+                            + ">0 AND " + NoteColumns.ID + " IN " + in + ")", args);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
             }
-            sql.append(selectString);
         }
+        Log.d(TAG, "archived " + count + " notes modified before " + before);
 
-        mHelper.getWritableDatabase().execSQL(sql.toString());
+        invalidateQueryCache(true);
+        mHelper.scheduleTruncateCheckpoint();
+        if (count > 0) {
+            notifyChange(Notes.CONTENT_NOTE_URI);
+        }
+        return count;
     }
 
     /**
-     * 根据URI获取对应的MIME类型。
-     * 本方法是个待实现的方法，当前仅返回null。
+     * 把归档笔记的数据行移回主库。先在主库中写回数据并清除归档标记，提交后再删除归档库中的数据行。
+     * 数据行保留原来的ID，已打开的笔记和同步记录的数据ID仍然有效；只有原ID已被归档后新增的数据行
+     * 占用时才重新生成。需要在后台线程调用，查询不会触发恢复。
      *
-     * @param uri 请求的URI。
-     * @return 返回null，表示该方法尚未实现。
+     * @param ids 要恢复的笔记ID，为null时恢复全部归档笔记。
+     * @return 恢复的笔记数。
      */
-    @Override
-    public String getType(Uri uri) {
-        // TODO Auto-generated method stub
-        return null;
+    private int restoreNotes(long[] ids) {
+        if (!mArchiveExists) {
+            return 0;
+        }
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        int count = 0;
+        synchronized (mArchiveLock) {
+            SQLiteDatabase archiveDb = getArchiveDatabase(false);
+            if (archiveDb == null) {
+                return 0;
+            }
+            if (ids == null) {
+                ids = queryIds(db, "SELECT " + NoteColumns.ID + " FROM " + TABLE.NOTE + " WHERE "
+                        + NoteColumns.ARCHIVED + ">0", null);
+            }
+            for (int start = 0; start < ids.length; start += BATCH_ID_CHUNK_SIZE) {
+                int size = Math.min(BATCH_ID_CHUNK_SIZE, ids.length - start);
+                // 只恢复主库中标记为归档的笔记，归档库中多余的副本不能写回
+                long[] archived = queryIds(db, "SELECT " + NoteColumns.ID + " FROM " + TABLE.NOTE
+                        + " WHERE " + NoteColumns.ARCHIVED + ">0 AND " + NoteColumns.ID + " IN "
+                        + buildIdPlaceholders(size), toArgs(ids, start, size, null));
+                if (archived.length == 0) {
+                    continue;
+                }
+                String in = buildIdPlaceholders(archived.length);
+                String[] args = toArgs(archived, 0, archived.length, null);
+
+                Cursor c = archiveDb.rawQuery("SELECT * FROM " + TABLE.DATA + " WHERE "
+                        + DataColumns.NOTE_ID + " IN " + in + " ORDER BY " + DataColumns.ID, args);
+                db.beginTransaction();
+                try {
+                    ContentValues values = new ContentValues();
+                    while (c.moveToNext()) {
+                        values.clear();
+                        DatabaseUtils.cursorRowToContentValues(c, values);
+                        try {
+                            db.insertOrThrow(TABLE.DATA, null, values);
+                        } catch (SQLiteConstraintException e) {
+                            Log.w(TAG, "data id " + values.getAsLong(DataColumns.ID) + " reused, restore with a new id");
+                            values.remove(DataColumns.ID);
+                            db.insertOrThrow(TABLE.DATA, null, values);
+                        }
+                        // 压缩的正文需要用完整内容重建全文索引
+                        if (NoteContentCodec.isCompressed(values) && Notes.DataConstants.NOTE
+                                .equals(values.getAsString(DataColumns.MIME_TYPE))) {
+                            NotesDatabaseHelper.indexNoteContent(db,
+                                    values.getAsLong(DataColumns.NOTE_ID),
+                                    NoteContentCodec.readContent(c, c.getColumnIndex(DataColumns.CONTENT),
+                                            c.getColumnIndex(DataColumns.CONTENT_CODEC),
+                                            c.getColumnIndex(DataColumns.CONTENT_COMPRESSED)));
+                        }
+                    }
+                    db.execSQL("UPDATE " + TABLE.NOTE + " SET " + NoteColumns.ARCHIVED + "=0 WHERE "
+                            + NoteColumns.ID + " IN " + in, args);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                    c.close();
+                }
+                archiveDb.execSQL("DELETE FROM " + TABLE.DATA + " WHERE " + DataColumns.NOTE_ID
+                        + " IN " + in, args);
+                count += archived.length;
+            }
+        }
+        if (count > 0) {
+            Log.d(TAG, "restored " + count + " archived notes");
+            invalidateQueryCache(true);
+            notifyChange(Notes.CONTENT_NOTE_URI);
+            notifyChange(Notes.CONTENT_DATA_URI);
+        }
+        return count;
+    }
+
+    /**
+     * 在归档笔记的正文中按关键字搜索，结果的列与全文检索相同，第二行文字为预览。
+     * 压缩的正文在content列中只有开头一段，先用LIKE匹配content列，
+     * 尚未匹配的压缩正文再逐条解压后匹配，找够条数即停止。
+     *
+     * @param db    主库。
+     * @param terms 检索词，笔记需包含全部检索词。
+     * @param limit 最多返回的条数。
+     * @return 搜索结果；归档库不存在或没有匹配时返回null。
+     */
+    private Cursor searchArchive(SQLiteDatabase db, String[] terms, int limit) {
+        Set<Long> matched = new LinkedHashSet<Long>();
+        synchronized (mArchiveLock) {
+            SQLiteDatabase archiveDb = getArchiveDatabase(false);
+            if (archiveDb == null) {
+                return null;
+            }
+            StringBuilder where = new StringBuilder(DataColumns.MIME_TYPE + "=?");
+            String[] args = new String[terms.length + 1];
+            args[0] = Notes.DataConstants.NOTE;
+            for (int i = 0; i < terms.length; i++) {
+                where.append(" AND ").append(DataColumns.CONTENT).append(" LIKE ? ESCAPE '\\'");
+                args[i + 1] = "%" + escapeLike(terms[i]) + "%";
+            }
+            for (long id : queryIds(archiveDb, "SELECT DISTINCT " + DataColumns.NOTE_ID + " FROM "
+                    + TABLE.DATA + " WHERE " + where + " LIMIT " + limit, args)) {
+                matched.add(id);
+            }
+            if (matched.size() < limit) {
+                searchCompressedArchive(archiveDb, terms, limit, matched);
+            }
+        }
+        if (matched.isEmpty()) {
+            return null;
+        }
+        long[] ids = new long[matched.size()];
+        int i = 0;
+        for (long id : matched) {
+            ids[i++] = id;
+        }
+        return db.rawQuery("SELECT " + String.format(NOTES_SEARCH_PROJECTION, NoteColumns.PREVIEW)
+                + " FROM " + TABLE.NOTE + " WHERE " + NoteColumns.ARCHIVED + ">0 AND "
+                + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER + " AND "
+                + NoteColumns.ID + " IN " + buildIdPlaceholders(ids.length)
+                + " ORDER BY " + NoteColumns.MODIFIED_DATE + " DESC", toArgs(ids, 0, ids.length, null));
+    }
+
+    /**
+     * 解压归档库中的压缩正文，逐条匹配检索词，不区分大小写。
+     * 调用方需持有mArchiveLock。
+     *
+     * @param archiveDb 归档库。
+     * @param terms     检索词。
+     * @param limit     最多匹配的笔记数。
+     * @param matched   已匹配的笔记ID，新匹配的笔记加入其中。
+     */
+    private static void searchCompressedArchive(SQLiteDatabase archiveDb, String[] terms, int limit,
+                                                Set<Long> matched) {
+        String[] lowerTerms = new String[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            lowerTerms[i] = terms[i].toLowerCase(Locale.ROOT);
+        }
+        Cursor c = archiveDb.query(TABLE.DATA, new String[]{DataColumns.NOTE_ID, DataColumns.CONTENT,
+                        DataColumns.CONTENT_CODEC, DataColumns.CONTENT_COMPRESSED},
+                DataColumns.MIME_TYPE + "=? AND " + DataColumns.CONTENT_CODEC + "="
+                        + NoteContentCodec.CODEC_DEFLATE, new String[]{Notes.DataConstants.NOTE},
+                null, null, null);
+        try {
+            while (matched.size() < limit && c.moveToNext()) {
+                if (matched.contains(c.getLong(0))) {
+                    continue;
+                }
+                String content = NoteContentCodec.readContent(c, 1, 2, 3).toLowerCase(Locale.ROOT);
+                boolean all = true;
+                for (String term : lowerTerms) {
+                    if (!content.contains(term)) {
+                        all = false;
+                        break;
+                    }
+                }
+                if (all) {
+                    matched.add(c.getLong(0));
+                }
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * 获取归档库，每个进程第一次打开时清理与主库不一致的数据行。调用方需持有mArchiveLock。
+     *
+     * @param create 归档库不存在时是否创建。
+     * @return 归档库；不存在且不创建时返回null。
+     */
+    private SQLiteDatabase getArchiveDatabase(boolean create) {
+        if (mArchiveHelper == null) {
+            if (!create && !NotesArchiveHelper.exists(getContext())) {
+                return null;
+            }
+            mArchiveHelper = new NotesArchiveHelper(getContext());
+            SQLiteDatabase archiveDb = mArchiveHelper.getWritableDatabase();
+            mArchiveExists = true;
+            reconcileArchive(archiveDb);
+            return archiveDb;
+        }
+        return mArchiveHelper.getWritableDatabase();
+    }
+
+    /**
+     * 删除归档库中不属于主库归档笔记的数据行：归档或恢复中途中断留下的副本，以及已删除笔记的正文。
+     *
+     * @param archiveDb 归档库。
+     */
+    private void reconcileArchive(SQLiteDatabase archiveDb) {
+        long[] archived = queryIds(mHelper.getReadableDatabase(), "SELECT " + NoteColumns.ID + " FROM "
+                + TABLE.NOTE + " WHERE " + NoteColumns.ARCHIVED + ">0", null);
+        Set<Long> archivedIds = new HashSet<Long>();
+        for (long id : archived) {
+            archivedIds.add(id);
+        }
+        long[] noteIds = queryIds(archiveDb, "SELECT DISTINCT " + DataColumns.NOTE_ID + " FROM "
+                + TABLE.DATA, null);
+        List<Long> stale = new ArrayList<Long>();
+        for (long id : noteIds) {
+            if (!archivedIds.contains(id)) {
+                stale.add(id);
+            }
+        }
+        if (stale.isEmpty()) {
+            return;
+        }
+        archiveDb.beginTransaction();
+        try {
+            for (int start = 0; start < stale.size(); start += BATCH_ID_CHUNK_SIZE) {
+                int size = Math.min(BATCH_ID_CHUNK_SIZE, stale.size() - start);
+                String[] args = new String[size];
+                for (int i = 0; i < size; i++) {
+                    args[i] = String.valueOf(stale.get(start + i));
+                }
+                archiveDb.execSQL("DELETE FROM " + TABLE.DATA + " WHERE " + DataColumns.NOTE_ID
+                        + " IN " + buildIdPlaceholders(size), args);
+            }
+            archiveDb.setTransactionSuccessful();
+        } finally {
+            archiveDb.endTransaction();
+        }
+        Log.d(TAG, "removed stale archive data of " + stale.size() + " notes");
+    }
+
+    /**
+     * 执行只返回一列ID的查询。
+     *
+     * @return 查询到的ID。
+     */
+    private static long[] queryIds(SQLiteDatabase db, String sql, String[] args) {
+        Cursor c = db.rawQuery(sql, args);
+        try {
+            long[] ids = new long[c.getCount()];
+            int i = 0;
+            while (c.moveToNext()) {
+                ids[i++] = c.getLong(0);
+            }
+            return ids;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * 生成IN条件的参数占位符，形如"(?,?,?)"。
+     *
+     * @param size 参数个数。
+     * @return 占位符。
+     */
+    private static String buildIdPlaceholders(int size) {
+        StringBuilder sb = new StringBuilder(size * 2 + 1);
+        sb.append('(');
+        for (int i = 0; i < size; i++) {
+            sb.append(i > 0 ? ",?" : "?");
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * 把一段ID转换为绑定参数。
+     *
+     * @param leadingArg 放在ID之前的参数，没有时为null。
+     * @return 绑定参数。
+     */
+    private static String[] toArgs(long[] ids, int start, int size, String leadingArg) {
+        int offset = leadingArg == null ? 0 : 1;
+        String[] args = new String[size + offset];
+        if (leadingArg != null) {
+            args[0] = leadingArg;
+        }
+        for (int i = 0; i < size; i++) {
+            args[offset + i] = String.valueOf(ids[start + i]);
+        }
+        return args;
+    }
+
+    /**
+     * 生成文件夹子树的查询：从满足根条件的笔记出发，沿parent_id逐层找出所有后代。
+     * 每层都走parent_id索引，代价与子树大小成正比，不需要逐层往返。
+     *
+     * @param rootCondition 选出子树根的条件。
+     * @return 返回子树（包括根）所有ID的查询，可以放在IN条件中。
+     */
+    private static String subtreeOf(String rootCondition) {
+        return "WITH RECURSIVE subtree(id) AS (SELECT " + NoteColumns.ID + " FROM " + TABLE.NOTE
+                + " WHERE " + rootCondition
+                + " UNION SELECT " + TABLE.NOTE + "." + NoteColumns.ID + " FROM " + TABLE.NOTE
+                + " JOIN subtree ON " + TABLE.NOTE + "." + NoteColumns.PARENT_ID + "=subtree.id)"
+                + " SELECT id FROM subtree";
+    }
+
+    /**
+     * 生成回收站中子树的查询：子树移入回收站后各行的parent_id都变为回收站，
+     * 原来的父文件夹记在origin_parent_id中，同一次移入的行记有相同的trash_root_id。
+     * 沿origin_parent_id找出与根同一次移入回收站的后代，此前单独移入回收站的笔记不在其中。
+     *
+     * @param rootCondition 选出子树根的条件。
+     * @return 返回子树（包括根）所有ID的查询，可以放在IN条件中。
+     */
+    private static String trashedSubtreeOf(String rootCondition) {
+        return "WITH RECURSIVE subtree(id, root) AS (SELECT " + NoteColumns.ID + ","
+                + NoteColumns.TRASH_ROOT_ID + " FROM " + TABLE.NOTE + " WHERE " + rootCondition
+                + " UNION SELECT " + TABLE.NOTE + "." + NoteColumns.ID + ",subtree.root FROM " + TABLE.NOTE
+                + " JOIN subtree ON " + TABLE.NOTE + "." + NoteColumns.PARENT_ID + "=" + Notes.ID_TRASH_FOLER
+                + " AND " + TABLE.NOTE + "." + NoteColumns.ORIGIN_PARENT_ID + "=subtree.id"
+                + " AND " + TABLE.NOTE + "." + NoteColumns.TRASH_ROOT_ID + "=subtree.root)"
+                + " SELECT id FROM subtree";
+    }
+
+    /**
+     * 生成删除子树的条件：根及其后代，以及已在回收站中的根随之移入回收站的后代。
+     * 根条件在条件中出现两次，参数需要用{@link #repeatArgs}重复一遍。
+     * 两个子查询合并在同一个IN中，保证在删除任何一行之前求出全部ID，
+     * 分成两个IN时后一个可能在根已被删除后才求值。
+     *
+     * @param rootCondition 选出子树根的条件。
+     * @return 删除条件。
+     */
+    static String deleteSubtreeCondition(String rootCondition) {
+        return NoteColumns.ID + " IN (SELECT id FROM (" + subtreeOf(rootCondition)
+                + ") UNION SELECT id FROM (" + trashedSubtreeOf("(" + rootCondition + ") AND "
+                + NoteColumns.PARENT_ID + "=" + Notes.ID_TRASH_FOLER) + "))";
+    }
+
+    /**
+     * 生成按调用方条件删除笔记时选出子树根的条件，排除系统文件夹。
+     * 条件为空时得到"(null)"，不匹配任何行，不会删除全部笔记。
+     *
+     * @param selection 调用方的删除条件。
+     * @return 根条件。
+     */
+    static String noteRootCondition(String selection) {
+        return "(" + selection + ") AND " + NoteColumns.ID + ">0";
+    }
+
+    /**
+     * 删除子树，期间暂停逐行维护文件夹计数，提交前统一重算。
+     *
+     * @param rootCondition 选出子树根的条件。
+     * @param args          条件的参数。
+     * @return 删除的行数，包括后代。
+     */
+    private static int deleteNoteSubtree(SQLiteDatabase db, String rootCondition, String[] args) {
+        db.beginTransaction();
+        try {
+            boolean countBatch = NotesDatabaseHelper.beginFolderCountBatch(db);
+            int count = db.delete(TABLE.NOTE, deleteSubtreeCondition(rootCondition), repeatArgs(args));
+            if (countBatch) {
+                NotesDatabaseHelper.endFolderCountBatch(db);
+            }
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * 把参数重复一遍，用于根条件出现两次的语句。
+     *
+     * @param args 参数，可以为null。
+     * @return 重复后的参数。
+     */
+    private static String[] repeatArgs(String[] args) {
+        if (args == null) {
+            return null;
+        }
+        String[] result = new String[args.length * 2];
+        System.arraycopy(args, 0, result, 0, args.length);
+        System.arraycopy(args, 0, result, args.length, args.length);
+        return result;
+    }
+
+    /**
+     * 判断目标文件夹是否在一组笔记的子树中，文件夹不能移动到自己或自己的后代中。
+     *
+     * @param ids      要移动的笔记ID。
+     * @param folderId 目标文件夹ID。
+     * @return 在子树中时返回true。
+     */
+    private static boolean isInSubtree(SQLiteDatabase db, long[] ids, long folderId) {
+        if (ids == null || folderId <= 0) {
+            return false;
+        }
+        for (int start = 0; start < ids.length; start += BATCH_ID_CHUNK_SIZE) {
+            int size = Math.min(BATCH_ID_CHUNK_SIZE, ids.length - start);
+            String[] args = toArgs(ids, start, size, String.valueOf(folderId));
+            if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TABLE.NOTE + " WHERE "
+                    + NoteColumns.ID + "=? AND " + NoteColumns.ID + " IN ("
+                    + subtreeOf(NoteColumns.ID + " IN " + buildIdPlaceholders(size)) + ")", args) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 移动一段笔记，需要在事务中调用。
+     * 移入回收站时整个子树一起移入，各行原来的父文件夹记在origin_parent_id中；
+     * 从回收站移出时，与之同一次移入回收站的后代回到原来的父文件夹，子树结构保持不变。
+     *
+     * @param in       形如"(?,?,?)"的占位符。
+     * @param args     与占位符对应的ID参数。
+     * @param folderId 目标文件夹ID。
+     * @return 移动的行数，移入回收站时包括后代。
+     */
+    private static int moveNotes(SQLiteDatabase db, String in, String[] args, long folderId) {
+        if (folderId == Notes.ID_TRASH_FOLER) {
+            return trashSubtree(db, NoteColumns.ID + ">0 AND " + NoteColumns.ID + " IN " + in, args);
+        }
+        long[] trashed = queryIds(db, "SELECT " + NoteColumns.ID + " FROM " + TABLE.NOTE + " WHERE "
+                + NoteColumns.PARENT_ID + "=" + Notes.ID_TRASH_FOLER + " AND " + NoteColumns.ID + " IN " + in, args);
+        // 根移出回收站时清除trash_root_id，需要在此之前按它找出后代
+        restoreTrashedSubtree(db, trashed);
+        String[] moveArgs = new String[args.length + 1];
+        moveArgs[0] = String.valueOf(folderId);
+        System.arraycopy(args, 0, moveArgs, 1, args.length);
+        return executeUpdateDelete(db, "UPDATE " + TABLE.NOTE + " SET " + NoteColumns.PARENT_ID + "=?,"
+                + NoteColumns.LOCAL_MODIFIED + "=1," + NoteColumns.VERSION + "=" + NoteColumns.VERSION + "+1"
+                + " WHERE " + NoteColumns.ID + " IN " + in, moveArgs);
+    }
+
+    /**
+     * 按parent_id把回收站中的全部笔记移出回收站，不依赖调用方已加载的列表。
+     * 随某个根一起移入回收站的后代回到原来的父文件夹，各个根回到根目录，整个回收站在一个事务中完成并只通知一次。
+     *
+     * @return 移出回收站的行数，包括后代。
+     */
+    private int restoreTrash() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        int count;
+        db.beginTransaction();
+        try {
+            boolean countBatch = NotesDatabaseHelper.beginFolderCountBatch(db);
+            // 先按移入回收站时的记录找出全部后代，根移出回收站时会清除trash_root_id
+            count = executeUpdateDelete(db, RESTORE_TRASH_DESCENDANTS_SQL, null);
+            count += executeUpdateDelete(db, RESTORE_TRASH_ROOTS_SQL, null);
+            if (countBatch) {
+                NotesDatabaseHelper.endFolderCountBatch(db);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        invalidateQueryCache(false);
+        if (count > 0) {
+            notifyChange(Notes.CONTENT_NOTE_URI);
+        }
+        return count;
+    }
+
+    /**
+     * 把子树中尚未在回收站的笔记移入回收站，并记下各行随哪个根一起移入。
+     * 根已由调用方移入回收站时只记下根自身；此前已在回收站中的根保持原来的记录。
+     *
+     * @param rootCondition 选出子树根的条件。
+     * @param args          条件的参数。
+     * @return 移入回收站的行数。
+     */
+    private static int trashSubtree(SQLiteDatabase db, String rootCondition, String[] args) {
+        int count = executeUpdateDelete(db, trashSubtreeSql(rootCondition), args);
+        executeUpdateDelete(db, markTrashRootSql(rootCondition), args);
+        return count;
+    }
+
+    /**
+     * 生成把子树中尚未在回收站的笔记移入回收站的语句，各行记下原来的父文件夹和随之移入的根。
+     *
+     * @param rootCondition 选出子树根的条件。
+     * @return UPDATE语句。
+     */
+    static String trashSubtreeSql(String rootCondition) {
+        return "WITH RECURSIVE subtree(id, root) AS (SELECT "
+                + NoteColumns.ID + "," + NoteColumns.ID + " FROM " + TABLE.NOTE + " WHERE " + rootCondition
+                + " UNION SELECT " + TABLE.NOTE + "." + NoteColumns.ID + ",subtree.root FROM " + TABLE.NOTE
+                + " JOIN subtree ON " + TABLE.NOTE + "." + NoteColumns.PARENT_ID + "=subtree.id)"
+                + " UPDATE " + TABLE.NOTE + " SET "
+                + NoteColumns.ORIGIN_PARENT_ID + "=" + NoteColumns.PARENT_ID + ","
+                + NoteColumns.PARENT_ID + "=" + Notes.ID_TRASH_FOLER + ","
+                + NoteColumns.TRASH_ROOT_ID + "=(SELECT root FROM subtree WHERE subtree.id="
+                + TABLE.NOTE + "." + NoteColumns.ID + "),"
+                + NoteColumns.LOCAL_MODIFIED + "=1," + NoteColumns.VERSION + "=" + NoteColumns.VERSION + "+1"
+                + " WHERE " + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER
+                + " AND " + NoteColumns.ID + " IN (SELECT id FROM subtree)";
+    }
+
+    /**
+     * 生成给已由调用方移入回收站、尚未记录根的笔记记下自身为根的语句。
+     *
+     * @param rootCondition 选出子树根的条件。
+     * @return UPDATE语句。
+     */
+    static String markTrashRootSql(String rootCondition) {
+        return "UPDATE " + TABLE.NOTE + " SET " + NoteColumns.TRASH_ROOT_ID + "="
+                + NoteColumns.ID + " WHERE (" + rootCondition + ") AND " + NoteColumns.PARENT_ID + "="
+                + Notes.ID_TRASH_FOLER + " AND " + NoteColumns.TRASH_ROOT_ID + "=0";
+    }
+
+    /**
+     * 用一条语句把与一组根同一次移入回收站的后代移回原来的父文件夹，需要在根移出回收站之前调用。
+     *
+     * @param roots 在回收站中的根，不超过一段的大小。
+     */
+    private static void restoreTrashedSubtree(SQLiteDatabase db, long[] roots) {
+        if (roots.length == 0) {
+            return;
+        }
+        executeUpdateDelete(db, restoreTrashedSubtreeSql(buildIdPlaceholders(roots.length)),
+                repeatArgs(toArgs(roots, 0, roots.length, null)));
+    }
+
+    /**
+     * 生成把与一组根同一次移入回收站的后代移回原来的父文件夹的语句，根本身不移动。
+     * 占位符在语句中出现两次，参数需要用{@link #repeatArgs}重复一遍。
+     *
+     * @param in 形如"(?,?,?)"的根ID占位符。
+     * @return UPDATE语句。
+     */
+    static String restoreTrashedSubtreeSql(String in) {
+        return "UPDATE " + TABLE.NOTE + " SET "
+                + NoteColumns.PARENT_ID + "=" + NoteColumns.ORIGIN_PARENT_ID + ","
+                + NoteColumns.LOCAL_MODIFIED + "=1," + NoteColumns.VERSION + "=" + NoteColumns.VERSION + "+1"
+                + " WHERE " + NoteColumns.PARENT_ID + "=" + Notes.ID_TRASH_FOLER
+                + " AND " + NoteColumns.ID + " NOT IN " + in
+                + " AND " + NoteColumns.ID + " IN (" + trashedSubtreeOf(NoteColumns.ID + " IN " + in) + ")";
+    }
+
+    /**
+     * 执行带字符串参数的UPDATE或DELETE语句。
+     *
+     * @return 受影响的行数。
+     */
+    private static int executeUpdateDelete(SQLiteDatabase db, String sql, String[] args) {
+        SQLiteStatement statement = db.compileStatement(sql);
+        try {
+            statement.bindAllArgsAsStrings(args);
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * 转义LIKE模式中的通配符，配合ESCAPE '\'使用。
+     *
+     * @param value 原始字符串。
+     * @return 转义后的字符串。
+     */
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    /**
+     * 把来源URI的内容作为附件加入笔记。内容先流式写入临时文件并计算SHA-256，
+     * 再在一个事务中移动到按哈希命名的位置并插入附件行，相同内容的文件只保存一份。
+     * 来源以内容提供者的身份读取，只接受调用方自己有读权限的content URI，
+     * 否则调用方可以借此把应用私有的文件复制成附件再通过openFile读出。
+     *
+     * @param noteId   笔记ID。
+     * @param source   附件内容的来源URI，必须是调用方可读的content URI。
+     * @param mimeType 附件的MIME类型，为null时取来源URI的类型。
+     * @return 新附件的ID，失败时返回-1。
+     */
+    private long addAttachment(long noteId, Uri source, String mimeType) {
+        if (source == null) {
+            Log.e(TAG, "Add attachment without source uri");
+            return -1;
+        }
+        if (!ContentResolver.SCHEME_CONTENT.equals(source.getScheme())) {
+            Log.e(TAG, "Reject attachment source that is not a content uri: " + source);
+            return -1;
+        }
+        if (getContext().checkCallingUriPermission(source, Intent.FLAG_GRANT_READ_URI_PERMISSION)
+                != PackageManager.PERMISSION_GRANTED) {
+            Log.e(TAG, "Caller cannot read attachment source: " + source);
+            return -1;
+        }
+        ContentResolver resolver = getContext().getContentResolver();
+        if (TextUtils.isEmpty(mimeType)) {
+            mimeType = resolver.getType(source);
+        }
+        AttachmentStore.Blob blob;
+        try {
+            InputStream in = resolver.openInputStream(source);
+            if (in == null) {
+                Log.e(TAG, "Open attachment source failed: " + source);
+                return -1;
+            }
+            try {
+                blob = mAttachmentStore.write(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException | SecurityException e) {
+            Log.e(TAG, "Read attachment source failed: " + e.toString());
+            return -1;
+        }
+
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        long attachmentId = -1;
+        db.beginTransaction();
+        try {
+            if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TABLE.NOTE + " WHERE "
+                    + NoteColumns.ID + "=? AND " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE,
+                    new String[]{String.valueOf(noteId)}) == 0) {
+                Log.e(TAG, "Add attachment to nonexistent note " + noteId);
+            } else {
+                // 提交文件和插入引用在同一事务中，与回收文件互斥
+                mAttachmentStore.commit(blob);
+                ContentValues values = new ContentValues();
+                values.put(AttachmentColumns.NOTE_ID, noteId);
+                values.put(AttachmentColumns.HASH, blob.hash);
+                values.put(AttachmentColumns.MIME_TYPE, mimeType == null ? "" : mimeType);
+                values.put(AttachmentColumns.SIZE, blob.size);
+                attachmentId = db.insert(TABLE.ATTACHMENT, null, values);
+                if (attachmentId > 0) {
+                    db.setTransactionSuccessful();
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Save attachment failed: " + e.toString());
+            attachmentId = -1;
+        } finally {
+            db.endTransaction();
+            mAttachmentStore.discard(blob);
+        }
+        if (attachmentId <= 0) {
+            return -1;
+        }
+        // 附件表的触发器会修改笔记的附件标记
+        invalidateQueryCache(false);
+        notifyChange(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId));
+        notifyChange(ContentUris.withAppendedId(Notes.CONTENT_ATTACHMENT_URI, attachmentId));
+        return attachmentId;
+    }
+
+    /**
+     * 回收引用计数为0的附件文件；启动后第一次执行时还清理数据库中没有记录的文件。
+     * 在事务中进行，与加入附件互斥，不会删除刚被重新引用的文件。
+     */
+    private void collectAttachments() {
+        boolean sweep = mAttachmentSweepPending;
+        mAttachmentSweepPending = false;
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        String unreferenced = NotesDatabaseHelper.BLOB_REF_COUNT + "<=0";
+        String[] hashColumn = new String[]{NotesDatabaseHelper.BLOB_HASH};
+        int count = 0;
+        db.beginTransaction();
+        try {
+            Cursor c = db.query(TABLE.ATTACHMENT_BLOB, hashColumn, unreferenced, null, null, null, null);
+            try {
+                while (c.moveToNext()) {
+                    mAttachmentStore.delete(c.getString(0));
+                    count++;
+                }
+            } finally {
+                c.close();
+            }
+            if (count > 0) {
+                db.delete(TABLE.ATTACHMENT_BLOB, unreferenced, null);
+            }
+            if (sweep) {
+                Set<String> known = new HashSet<String>();
+                c = db.query(TABLE.ATTACHMENT_BLOB, hashColumn, null, null, null, null, null);
+                try {
+                    while (c.moveToNext()) {
+                        known.add(c.getString(0));
+                    }
+                } finally {
+                    c.close();
+                }
+                count += mAttachmentStore.sweep(known);
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            Log.e(TAG, "Collect attachments failed: " + e.toString());
+        } finally {
+            db.endTransaction();
+        }
+        if (count > 0) {
+            Log.d(TAG, "collected " + count + " attachment files");
+        }
+    }
+
+    /**
+     * 查询附件行的一列。
+     *
+     * @param uri    附件的条目URI。
+     * @param column 列名。
+     * @return 列的值，附件不存在时返回null。
+     */
+    private String getAttachmentColumn(Uri uri, String column) {
+        Cursor c = mHelper.getReadableDatabase().query(TABLE.ATTACHMENT, new String[]{column},
+                AttachmentColumns.ID + "=?", new String[]{uri.getPathSegments().get(1)},
+                null, null, null);
+        try {
+            return c.moveToFirst() ? c.getString(0) : null;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * 批量插入的实现：相同列集合的行复用同一条预编译语句，整批只提交一次事务。
+     * 任何一行插入失败时整批回滚，调用方不会看到只写入了一部分的笔记。
+     *
+     * @param uri    插入数据的URI。
+     * @param values 要插入的数据，列名必须是表中的列。
+     * @return 与values一一对应的新行ID，整批回滚时返回null。
+     */
+    private long[] bulkInsertInternal(Uri uri, ContentValues[] values) {
+        String table;
+        switch (mMatcher.match(uri)) {
+            case URI_NOTE:
+                table = TABLE.NOTE;
+                break;
+            case URI_DATA:
+                table = TABLE.DATA;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+
+        long[] ids = new long[values.length];
+        if (values.length == 0) {
+            return ids;
+        }
+
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        Set<String> tableColumns = getTableColumns(db, table);
+        Map<String, SQLiteStatement> statements = new HashMap<String, SQLiteStatement>();
+        db.beginTransaction();
+        try {
+            boolean countBatch = TABLE.NOTE.equals(table) && NotesDatabaseHelper.beginFolderCountBatch(db);
+            for (int i = 0; i < values.length; i++) {
+                ContentValues rowValues = TABLE.DATA.equals(table)
+                        ? NoteContentCodec.compress(values[i]) : values[i];
+                // 按列名排序，保证列集合相同的行得到相同的语句
+                String[] columns = new TreeSet<String>(rowValues.keySet()).toArray(new String[0]);
+                for (String column : columns) {
+                    // 列名会拼接进语句，只接受表中已有的列
+                    if (!tableColumns.contains(column)) {
+                        throw new IllegalArgumentException("Unknown column " + column + " for " + table);
+                    }
+                }
+                String sql = buildInsertSql(table, columns);
+                SQLiteStatement statement = statements.get(sql);
+                if (statement == null) {
+                    statement = db.compileStatement(sql);
+                    statements.put(sql, statement);
+                }
+                statement.clearBindings();
+                for (int j = 0; j < columns.length; j++) {
+                    DatabaseUtils.bindObjectToProgram(statement, j + 1, rowValues.get(columns[j]));
+                }
+                ids[i] = statement.executeInsert();
+                if (ids[i] <= 0) {
+                    throw new SQLException("Failed to insert row " + i + " into " + table);
+                }
+                if (NoteContentCodec.isCompressed(rowValues) && Notes.DataConstants.NOTE
+                        .equals(rowValues.getAsString(DataColumns.MIME_TYPE))) {
+                    NotesDatabaseHelper.indexNoteContent(db,
+                            rowValues.getAsLong(DataColumns.NOTE_ID),
+                            values[i].getAsString(DataColumns.CONTENT));
+                }
+            }
+            if (countBatch) {
+                NotesDatabaseHelper.endFolderCountBatch(db);
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            // 未标记成功，endTransaction回滚整批
+            Log.e(TAG, "bulk insert into " + table + " rolled back: " + e.toString());
+            return null;
+        } finally {
+            db.endTransaction();
+            for (SQLiteStatement statement : statements.values()) {
+                statement.close();
+            }
+        }
+
+        invalidateQueryCache(TABLE.DATA.equals(table));
+        if (values.length >= LARGE_BATCH_SIZE) {
+            mHelper.scheduleTruncateCheckpoint();
+        }
+
+        // 整批只通知一次
+        notifyChange(Notes.CONTENT_NOTE_URI);
+        if (TABLE.DATA.equals(table)) {
+            notifyChange(Notes.CONTENT_DATA_URI);
+        }
+        return ids;
+    }
+
+    /**
+     * 从旧版本升级后，预览在后台逐批回填，回填到达前预览为空。回填完成前把查询列中的预览
+     * 换成即时计算的表达式，列表、小部件和按预览排序都能得到正确的预览。
+     *
+     * @param db         数据库。
+     * @param projection 查询列。
+     * @return 回填已完成或未查询预览时返回原查询列，否则返回替换后的副本。
+     */
+    private String[] withPreviewFallback(SQLiteDatabase db, String[] projection) {
+        if (mNotePreviewComplete || projection == null) {
+            return projection;
+        }
+        if (NotesDatabaseHelper.isNotePreviewComplete(db)) {
+            mNotePreviewComplete = true;
+            return projection;
+        }
+        String[] result = projection;
+        for (int i = 0; i < projection.length; i++) {
+            if (NoteColumns.PREVIEW.equals(projection[i])) {
+                if (result == projection) {
+                    result = projection.clone();
+                }
+                result[i] = NotesDatabaseHelper.NOTE_PREVIEW_WITH_FALLBACK + " AS " + NoteColumns.PREVIEW;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 读取表中的列名，结果按表名缓存。
+     *
+     * @param db    数据库。
+     * @param table 表名。
+     * @return 表中所有列名。
+     */
+    private Set<String> getTableColumns(SQLiteDatabase db, String table) {
+        synchronized (mTableColumns) {
+            Set<String> columns = mTableColumns.get(table);
+            if (columns == null) {
+                columns = new HashSet<String>();
+                Cursor c = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+                try {
+                    int nameIndex = c.getColumnIndexOrThrow("name");
+                    while (c.moveToNext()) {
+                        columns.add(c.getString(nameIndex));
+                    }
+                } finally {
+                    c.close();
+                }
+                mTableColumns.put(table, columns);
+            }
+            return columns;
+        }
+    }
+
+    /**
+     * 构造指定列集合的INSERT语句。
+     *
+     * @param table   表名。
+     * @param columns 列名，为空时插入默认值。
+     * @return INSERT语句。
+     */
+    private static String buildInsertSql(String table, String[] columns) {
+        if (columns.length == 0) {
+            return "INSERT INTO " + table + " DEFAULT VALUES";
+        }
+        StringBuilder sql = new StringBuilder(120);
+        sql.append("INSERT INTO ").append(table).append('(');
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? "," : "").append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        sql.append(')');
+        return sql.toString();
+    }
+
+    /**
+     * 根据URI删除数据。
+     *
+     * @param uri           要删除数据的URI。
+     * @param selection     删除条件。
+     * @param selectionArgs 用于删除条件的参数。
+     * @return 返回被删除的行数。
+     */
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        int count = 0;
+        String id = null;
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        boolean deleteData = false;
+        boolean deleteAttachment = false;
+        switch (mMatcher.match(uri)) {
+            case URI_NOTE:
+                // 文件夹连同整个子树一起删除
+                count = deleteNoteSubtree(db, noteRootCondition(selection), selectionArgs);
+                deleteAttachment = true;
+                break;
+            case URI_NOTE_ITEM:
+                id = uri.getPathSegments().get(1);
+                /**
+                 * ID小于等于0的笔记是系统文件夹，不允许删除
+                 */
+                long noteId = Long.valueOf(id);
+                if (noteId <= 0) {
+                    break;
+                }
+                count = deleteNoteSubtree(db, NoteColumns.ID + "=" + id + parseSelection(selection),
+                        selectionArgs);
+                deleteAttachment = true;
+                break;
+            case URI_DATA:
+                count = db.delete(TABLE.DATA, selection, selectionArgs);
+                deleteData = true;
+                break;
+            case URI_DATA_ITEM:
+                id = uri.getPathSegments().get(1);
+                count = db.delete(TABLE.DATA,
+                        DataColumns.ID + "=" + id + parseSelection(selection), selectionArgs);
+                deleteData = true;
+                break;
+            case URI_ATTACHMENT:
+                count = db.delete(TABLE.ATTACHMENT, selection, selectionArgs);
+                deleteAttachment = true;
+                break;
+            case URI_ATTACHMENT_ITEM:
+                id = uri.getPathSegments().get(1);
+                count = db.delete(TABLE.ATTACHMENT,
+                        AttachmentColumns.ID + "=" + id + parseSelection(selection), selectionArgs);
+                deleteAttachment = true;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+        // 通知URI改变
+        if (count > 0) {
+            // 删除笔记会级联删除数据
+            invalidateQueryCache(true);
+            if (deleteData) {
+                notifyChange(Notes.CONTENT_NOTE_URI);
+            }
+            if (deleteAttachment) {
+                // 删除附件会修改笔记的附件标记，删除笔记会级联删除附件
+                notifyChange(Notes.CONTENT_NOTE_URI);
+                notifyChange(Notes.CONTENT_ATTACHMENT_URI);
+                mHelper.scheduleBackground(mCollectAttachments, ATTACHMENT_GC_DELAY);
+            }
+            notifyChange(uri);
+        }
+        return count;
+    }
+
+    /**
+     * 更新数据库中的数据。
+     *
+     * @param uri           要更新数据的URI。
+     * @param values        要更新到的数据。
+     * @param selection     更新条件。
+     * @param selectionArgs 用于更新条件的参数。
+     * @return 返回被更新的行数。
+     */
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        int count = 0;
+        String id = null;
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        boolean updateData = false;
+        switch (mMatcher.match(uri)) {
+            case URI_NOTE:
+                count = updateNoteTree(db, values, selection, selectionArgs);
+                break;
+            case URI_NOTE_ITEM:
+                id = uri.getPathSegments().get(1);
+                count = updateNoteTree(db, values, NoteColumns.ID + "=" + id
+                        + parseSelection(selection), selectionArgs);
+                break;
+            case URI_DATA:
+                count = updateData(db, values, selection, selectionArgs);
+                updateData = true;
+                break;
+            case URI_DATA_ITEM:
+                id = uri.getPathSegments().get(1);
+                count = updateData(db, values, DataColumns.ID + "=" + id
+                        + parseSelection(selection), selectionArgs);
+                updateData = true;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+
+        // 通知URI改变
+        if (count > 0) {
+            invalidateQueryCache(updateData);
+            if (updateData) {
+                notifyChange(Notes.CONTENT_NOTE_URI);
+            }
+            notifyChange(uri);
+        }
+        return count;
+    }
+
+
+    /**
+     * 更新数据行。正文超过阈值时压缩保存，并在同一事务中用完整正文重建受影响笔记的全文索引。
+     *
+     * @return 更新的行数。
+     */
+    private int updateData(SQLiteDatabase db, ContentValues values, String where, String[] whereArgs) {
+        ContentValues dataValues = NoteContentCodec.compress(values);
+        if (!NoteContentCodec.isCompressed(dataValues)) {
+            return db.update(TABLE.DATA, dataValues, where, whereArgs);
+        }
+        db.beginTransaction();
+        try {
+            int count = db.update(TABLE.DATA, dataValues, where, whereArgs);
+            if (count > 0) {
+                String content = values.getAsString(DataColumns.CONTENT);
+                String[] args = new String[(whereArgs == null ? 0 : whereArgs.length) + 1];
+                args[0] = Notes.DataConstants.NOTE;
+                if (whereArgs != null) {
+                    System.arraycopy(whereArgs, 0, args, 1, whereArgs.length);
+                }
+                long[] noteIds = queryIds(db, "SELECT DISTINCT " + DataColumns.NOTE_ID + " FROM "
+                        + TABLE.DATA + " WHERE " + DataColumns.MIME_TYPE + "=?"
+                        + (TextUtils.isEmpty(where) ? "" : " AND (" + where + ")"), args);
+                for (long noteId : noteIds) {
+                    NotesDatabaseHelper.indexNoteContent(db, noteId, content);
+                }
+            }
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * 写入后使查询缓存过期。数据表的触发器会同时修改笔记表，因此笔记表总是过期。
+     *
+     * @param data 数据表是否也被修改。
+     */
+    private void invalidateQueryCache(boolean data) {
+        mQueryCache.invalidate(TABLE.NOTE);
+        if (data) {
+            mQueryCache.invalidate(TABLE.DATA);
+        }
+    }
+
+    /**
+     * 记录数据变更通知；处于批量操作中时待事务结束后发送，当前线程暂停了通知时待恢复后发送，
+     * 否则在短时间窗口内合并后发送。
+     *
+     * @param uri 发生变更的URI。
+     */
+    private void notifyChange(Uri uri) {
+        // 每次写入都会走到这里，借此推迟空闲检查点
+        mHelper.scheduleIdleCheckpoint();
+        Set<Uri> batchUris = mBatchNotifyUris.get();
+        if (batchUris != null) {
+            batchUris.add(uri);
+            return;
+        }
+        Set<Uri> suppressedUris = mSuppressedNotifyUris.get();
+        if (suppressedUris != null) {
+            suppressedUris.add(uri);
+            return;
+        }
+        synchronized (mNotifyLock) {
+            mPendingNotifyUris.add(uri);
+            if (mNotifyScheduled) {
+                return;
+            }
+            mNotifyScheduled = true;
+        }
+        mNotifyHandler.postDelayed(mFlushNotify, NOTIFY_DEBOUNCE_DELAY);
+    }
+
+    /**
+     * 去重后发送所有积累的通知。
+     */
+    private void flushNotifyChanges() {
+        Set<Uri> uris;
+        synchronized (mNotifyLock) {
+            mNotifyScheduled = false;
+            if (mPendingNotifyUris.isEmpty()) {
+                return;
+            }
+            uris = coalesceNotifyUris(mPendingNotifyUris);
+            mPendingNotifyUris.clear();
+        }
+        for (Uri uri : uris) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * 合并通知URI：目录URI的通知会传递给其下条目URI的观察者，
+     * 因此已通知目录时省略其下的条目，条目过多时直接改为通知目录。
+     *
+     * @param uris 待发送的通知URI。
+     * @return 合并后的通知URI。
+     */
+    private static Set<Uri> coalesceNotifyUris(Set<Uri> uris) {
+        Map<Uri, Integer> itemCounts = new HashMap<Uri, Integer>();
+        Set<Uri> directories = new LinkedHashSet<Uri>();
+        for (Uri uri : uris) {
+            Uri directory = getDirectoryUri(uri);
+            if (directory == null) {
+                directories.add(uri);
+                continue;
+            }
+            Integer count = itemCounts.get(directory);
+            count = count == null ? 1 : count + 1;
+            itemCounts.put(directory, count);
+            if (count > NOTIFY_COLLAPSE_THRESHOLD) {
+                directories.add(directory);
+            }
+        }
+
+        Set<Uri> result = new LinkedHashSet<Uri>(directories);
+        for (Uri uri : uris) {
+            Uri directory = getDirectoryUri(uri);
+            if (directory != null && !directories.contains(directory)) {
+                result.add(uri);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 获取条目URI所在的目录URI。
+     *
+     * @param uri 通知URI。
+     * @return 目录URI；uri本身即为目录时返回null。
+     */
+    private static Uri getDirectoryUri(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() < 2) {
+            return null;
+        }
+        return uri.buildUpon().path(segments.get(0)).build();
+    }
+
+    /**
+     * 判断查询结果是否可以缓存：必须指定查询列，且不包含正文或二进制内容的列。
+     *
+     * @param projection 查询列。
+     * @return 可以缓存时返回true。
+     */
+    private static boolean isCacheableProjection(String[] projection) {
+        if (projection == null) {
+            return false;
+        }
+        for (String column : projection) {
+            for (String uncacheable : UNCACHEABLE_COLUMNS) {
+                if (uncacheable.equals(column)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把查询列中的{@link NoteColumns#CALL_NUMBER}替换为关联通话记录数据的表达式，
+     * 列表游标直接带回电话号码，不需要逐行再查询。
+     *
+     * @param projection 查询列。
+     * @return 替换后的查询列。
+     */
+    private static String[] expandNoteProjection(String[] projection) {
+        if (projection == null) {
+            return null;
+        }
+        String[] expanded = null;
+        for (int i = 0; i < projection.length; i++) {
+            if (NoteColumns.CALL_NUMBER.equals(projection[i])) {
+                if (expanded == null) {
+                    expanded = projection.clone();
+                }
+                expanded[i] = NOTE_CALL_NUMBER_EXPRESSION;
+            }
+        }
+        return expanded == null ? projection : expanded;
+    }
+
+    /**
+     * 按(type, modified_date, _id)倒序分页查询笔记，使用上一页最后一条的排序键定位下一页，
+     * 不需要像OFFSET那样跳过前面的行。
+     *
+     * @param db            可读数据库。
+     * @param uri           带有分页参数的笔记URI，见{@link Notes#PARAM_LIMIT}。
+     * @param projection    要查询的列。
+     * @param selection     查询条件。
+     * @param selectionArgs 查询条件的参数。
+     * @param sortOrder     必须为null，分页查询使用固定的排序方式。
+     * @return 一页笔记。
+     */
+    private static Cursor queryNotePage(SQLiteDatabase db, Uri uri, String[] projection,
+                                        String selection, String[] selectionArgs, String sortOrder) {
+        if (sortOrder != null) {
+            throw new IllegalArgumentException("do not specify sortOrder with paged note query");
+        }
+        long limit = parseLongParameter(uri, Notes.PARAM_LIMIT);
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Invalid page limit " + uri);
+        }
+
+        StringBuilder where = new StringBuilder();
+        ArrayList<String> args = new ArrayList<String>();
+        if (!TextUtils.isEmpty(selection)) {
+            where.append('(').append(selection).append(')');
+            if (selectionArgs != null) {
+                Collections.addAll(args, selectionArgs);
+            }
+        }
+        if (uri.getQueryParameter(Notes.PARAM_AFTER_ID) != null) {
+            String afterType = String.valueOf(parseLongParameter(uri, Notes.PARAM_AFTER_TYPE));
+            String afterModified = String.valueOf(parseLongParameter(uri, Notes.PARAM_AFTER_MODIFIED));
+            String afterId = String.valueOf(parseLongParameter(uri, Notes.PARAM_AFTER_ID));
+            if (where.length() > 0) {
+                where.append(" AND ");
+            }
+            where.append(NOTE_PAGE_KEYSET_SELECTION);
+            Collections.addAll(args, afterType, afterType, afterModified, afterModified, afterId);
+        }
+        return db.query(TABLE.NOTE, projection, where.length() > 0 ? where.toString() : null,
+                args.toArray(new String[0]), null, null, NOTE_PAGE_SORT_ORDER, String.valueOf(limit));
+    }
+
+    /**
+     * 读取URI中的整数参数。
+     *
+     * @param uri  请求的URI。
+     * @param name 参数名。
+     * @return 参数值。
+     * @throws IllegalArgumentException 参数缺失或不是整数时抛出。
+     */
+    private static long parseLongParameter(Uri uri, String name) {
+        try {
+            return Long.parseLong(uri.getQueryParameter(name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid parameter " + name + " in " + uri);
+        }
+    }
+
+    /**
+     * 解析选择条件，如果存在选择条件，则在条件前后添加" AND (" 和 ')'。
+     *
+     * @param selection 用户提供的选择条件。
+     * @return 如果有选择条件，则返回添加了定界符的选择条件字符串；否则返回空字符串。
+     */
+    private String parseSelection(String selection) {
+        return (!TextUtils.isEmpty(selection) ? " AND (" + selection + ')' : "");
+    }
+
+    /**
+     * 把用户输入按空白切分成检索词，并去掉引号，避免被当作检索语法。
+     *
+     * @param searchString 用户输入的搜索字符串。
+     * @return 检索词，没有可检索的词时为空数组。
+     */
+    static String[] splitSearchTerms(String searchString) {
+        List<String> terms = new ArrayList<String>();
+        for (String term : searchString.trim().split("\\s+")) {
+            term = term.replace("\"", "");
+            if (!term.isEmpty()) {
+                terms.add(term);
+            }
+        }
+        return terms.toArray(new String[terms.size()]);
+    }
+
+    /**
+     * 判断检索词能否交给全文索引。unicode61分词不切分中日韩文字，整句是一个词，
+     * 词中的片段检索不到；trigram分词检索不到少于三个字符的词。这些情况改用LIKE。
+     *
+     * @param terms   检索词。
+     * @param trigram 全文索引表是否使用trigram分词。
+     * @return 需要改用LIKE时返回true。
+     */
+    static boolean needsLikeSearch(String[] terms, boolean trigram) {
+        for (String term : terms) {
+            if (trigram ? term.codePointCount(0, term.length()) < 3 : containsCjk(term)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 判断字符串中是否有中日韩文字。
+     *
+     * @param s 字符串。
+     * @return 包含中日韩文字时返回true。
+     */
+    private static boolean containsCjk(String s) {
+        for (int i = 0; i < s.length(); ) {
+            int codePoint = s.codePointAt(i);
+            Character.UnicodeBlock block = Character.UnicodeBlock.of(codePoint);
+            if (Character.isIdeographic(codePoint)
+                    || block == Character.UnicodeBlock.HIRAGANA
+                    || block == Character.UnicodeBlock.KATAKANA
+                    || block == Character.UnicodeBlock.HANGUL_SYLLABLES) {
+                return true;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return false;
+    }
+
+    /**
+     * 将检索词转换为全文检索的匹配表达式。
+     * 每个词都被加上引号，避免用户输入的星号等被当作检索语法。
+     *
+     * @param terms   检索词。
+     * @param fts5    全文索引表是否为FTS5。
+     * @param trigram 全文索引表是否使用trigram分词，此时词本身按子串匹配，不加前缀符号。
+     * @return MATCH表达式。
+     */
+    static String buildFtsMatchString(String[] terms, boolean fts5, boolean trigram) {
+        StringBuilder match = new StringBuilder();
+        for (String term : terms) {
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append('"').append(term);
+            if (trigram) {
+                match.append('"');
+            } else {
+                // FTS5的前缀符号写在引号外，FTS4写在引号内
+                match.append(fts5 ? "\"*" : "*\"");
+            }
+        }
+        return match.toString();
+    }
+
+    /**
+     * 生成全文检索的查询语句，参数为{@link #buildFtsMatchString}生成的匹配表达式。
+     * FTS5按bm25相关度排序，FTS4按修改时间排序。
+     *
+     * @param fts5    全文索引表是否为FTS5。
+     * @param trigram 全文索引表是否使用trigram分词。
+     * @param limit   最多返回的条数。
+     * @return 查询语句。
+     */
+    static String buildFtsSearchQuery(boolean fts5, boolean trigram, int limit) {
+        String query;
+        if (!fts5) {
+            query = NOTES_FTS4_SEARCH_QUERY;
+        } else {
+            query = trigram ? NOTES_FTS5_TRIGRAM_SEARCH_QUERY : NOTES_FTS5_SEARCH_QUERY;
+        }
+        return query + " LIMIT " + limit;
+    }
+
+    /**
+     * 在全文索引表保存的完整正文中按LIKE检索，所有检索词都出现的笔记按修改时间排列。
+     * 需要扫描整个索引表，只在分词无法处理检索词时使用。
+     *
+     * @param db    数据库。
+     * @param terms 检索词。
+     * @param limit 最多返回的条数。
+     * @return 搜索结果，列与全文检索相同。
+     */
+    private static Cursor searchByLike(SQLiteDatabase db, String[] terms, int limit) {
+        return db.rawQuery(buildLikeSearchQuery(terms.length, limit), buildLikeSearchArgs(terms));
+    }
+
+    /**
+     * 生成按LIKE检索的查询语句，每个检索词一个LIKE条件。
+     *
+     * @param termCount 检索词的个数。
+     * @param limit     最多返回的条数。
+     * @return 查询语句，参数见{@link #buildLikeSearchArgs}。
+     */
+    static String buildLikeSearchQuery(int termCount, int limit) {
+        StringBuilder where = new StringBuilder();
+        for (int i = 0; i < termCount; i++) {
+            if (i > 0) {
+                where.append(" AND ");
+            }
+            where.append(LIKE_SEARCH_TERM);
+        }
+        return String.format(NOTES_LIKE_SEARCH_QUERY, where) + " LIMIT " + limit;
+    }
+
+    /**
+     * 生成按LIKE检索的查询参数：第一个参数用于截取摘要，之后是各检索词转义后的LIKE模式。
+     *
+     * @param terms 检索词。
+     * @return 查询参数。
+     */
+    static String[] buildLikeSearchArgs(String[] terms) {
+        String[] args = new String[terms.length + 1];
+        args[0] = terms[0];
+        for (int i = 0; i < terms.length; i++) {
+            args[i + 1] = "%" + escapeLike(terms[i]) + "%";
+        }
+        return args;
+    }
+
+    /**
+     * 解析搜索建议请求中的条数限制。
+     *
+     * @param uri 搜索请求的URI。
+     * @return 限制在[1, SEARCH_MAX_LIMIT]范围内的条数。
+     */
+    private static int parseSearchLimit(Uri uri) {
+        String limit = uri.getQueryParameter(SearchManager.SUGGEST_PARAMETER_LIMIT);
+        if (TextUtils.isEmpty(limit)) {
+            return SEARCH_DEFAULT_LIMIT;
+        }
+        try {
+            return Math.max(1, Math.min(SEARCH_MAX_LIMIT, Integer.parseInt(limit)));
+        } catch (NumberFormatException e) {
+            return SEARCH_DEFAULT_LIMIT;
+        }
+    }
+
+    /**
+     * 更新笔记。修改父文件夹时在同一事务中带上子树：移入回收站时后代一起移入，
+     * 移出回收站时与之同一次移入的后代回到原来的父文件夹；不允许把文件夹移动到自己的子树中。
+     * 子树中每行都会移动，期间暂停逐行维护文件夹计数，提交前统一重算。
+     *
+     * @param db            可写数据库。
+     * @param values        要更新到的数据。
+     * @param where         更新条件，可以为空。
+     * @param selectionArgs 更新条件的参数，按位置绑定。
+     * @return 被更新的行数，不包括随之移动的后代。
+     */
+    private static int updateNoteTree(SQLiteDatabase db, ContentValues values, String where,
+                                      String[] selectionArgs) {
+        Long parentId = values == null ? null : values.getAsLong(NoteColumns.PARENT_ID);
+        if (parentId == null) {
+            return updateNote(db, values, where, selectionArgs);
+        }
+        String condition = TextUtils.isEmpty(where) ? "" : " AND (" + where + ")";
+        db.beginTransaction();
+        try {
+            boolean countBatch = NotesDatabaseHelper.beginFolderCountBatch(db);
+            long[] ids = queryIds(db, "SELECT " + NoteColumns.ID + " FROM " + TABLE.NOTE
+                    + " WHERE " + NoteColumns.ID + ">0" + condition, selectionArgs);
+            if (isInSubtree(db, ids, parentId)) {
+                throw new IllegalArgumentException("Cannot move folder into its own subtree " + parentId);
+            }
+            if (parentId != Notes.ID_TRASH_FOLER) {
+                // 根移出回收站时清除trash_root_id，需要在此之前按它把同一次移入的后代移回
+                long[] trashed = queryIds(db, "SELECT " + NoteColumns.ID + " FROM " + TABLE.NOTE
+                        + " WHERE " + NoteColumns.PARENT_ID + "=" + Notes.ID_TRASH_FOLER + condition,
+                        selectionArgs);
+                for (int start = 0; start < trashed.length; start += BATCH_ID_CHUNK_SIZE) {
+                    int size = Math.min(BATCH_ID_CHUNK_SIZE, trashed.length - start);
+                    restoreTrashedSubtree(db, Arrays.copyOfRange(trashed, start, start + size));
+                }
+            }
+            int count = updateNote(db, values, where, selectionArgs);
+            if (parentId == Notes.ID_TRASH_FOLER) {
+                // 根已经移入回收站，这里移入它们的后代
+                for (int start = 0; start < ids.length; start += BATCH_ID_CHUNK_SIZE) {
+                    int size = Math.min(BATCH_ID_CHUNK_SIZE, ids.length - start);
+                    trashSubtree(db, NoteColumns.ID + " IN " + buildIdPlaceholders(size),
+                            toArgs(ids, start, size, null));
+                }
+            }
+            if (countBatch) {
+                NotesDatabaseHelper.endFolderCountBatch(db);
+            }
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * 更新笔记并在同一条语句中递增版本号。
+     * 列名排序后生成SQL，相同列集合的更新得到相同的语句，可以命中连接的预编译语句缓存。
+     *
+     * @param db            可写数据库。
+     * @param values        要更新到的数据，显式指定版本号时以指定值为准。
+     * @param where         更新条件，可以为空。
+     * @param selectionArgs 更新条件的参数，按位置绑定。
+     * @return 被更新的行数。
+     */
+    private static int updateNote(SQLiteDatabase db, ContentValues values, String where,
+                                  String[] selectionArgs) {
+        if (values == null || values.size() == 0) {
+            throw new IllegalArgumentException("Empty values");
+        }
+        String[] columns = new TreeSet<String>(values.keySet()).toArray(new String[0]);
+        StringBuilder sql = new StringBuilder(120);
+        sql.append("UPDATE ").append(TABLE.NOTE).append(" SET ");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? "," : "").append(columns[i]).append("=?");
+        }
+        if (!values.containsKey(NoteColumns.VERSION)) {
+            sql.append(',').append(NoteColumns.VERSION).append('=').append(NoteColumns.VERSION).append("+1");
+        }
+        if (!TextUtils.isEmpty(where)) {
+            sql.append(" WHERE ").append(where);
+        }
+
+        SQLiteStatement statement = db.compileStatement(sql.toString());
+        try {
+            for (int i = 0; i < columns.length; i++) {
+                DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(columns[i]));
+            }
+            if (selectionArgs != null) {
+                for (int i = 0; i < selectionArgs.length; i++) {
+                    statement.bindString(columns.length + i + 1, selectionArgs[i]);
+                }
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * 以只读方式打开附件文件。调用方可以流式读取或对文件描述符做内存映射，附件内容不经过游标。
+     *
+     * @param uri  附件的条目URI。
+     * @param mode 打开模式，只支持"r"。
+     * @return 附件文件的描述符。
+     * @throws FileNotFoundException URI不是附件、附件不存在或要求写入时抛出。
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (mMatcher.match(uri) != URI_ATTACHMENT_ITEM) {
+            throw new FileNotFoundException("Unknown URI " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Attachment is read-only: " + uri);
+        }
+        String hash = getAttachmentColumn(uri, AttachmentColumns.HASH);
+        if (hash == null) {
+            throw new FileNotFoundException("No attachment for " + uri);
+        }
+        File file = mAttachmentStore.getFile(hash);
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /**
+     * 根据URI获取对应的MIME类型，目前只有附件有MIME类型。
+     *
+     * @param uri 请求的URI。
+     * @return 附件的MIME类型，其他URI返回null。
+     */
+    @Override
+    public String getType(Uri uri) {
+        switch (mMatcher.match(uri)) {
+            case URI_ATTACHMENT:
+                return AttachmentColumns.CONTENT_TYPE;
+            case URI_ATTACHMENT_ITEM:
+                String mimeType = getAttachmentColumn(uri, AttachmentColumns.MIME_TYPE);
+                return TextUtils.isEmpty(mimeType) ? null : mimeType;
+            default:
+                return null;
+        }
     }
 
 }
@@ -0,0 +1,248 @@
+/*
+ * NotesQueryCache 类缓存 NotesProvider 的小结果集查询。
+ * 每张表维护一个代数，表被修改时代数加一，代数不一致的缓存项即视为过期。
+ * 缓存按查询数量和估算的字节数共同限制，同一查询第二次未命中时才复制结果建立缓存项。
+ */
+
+package net.micode.notes.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+class NotesQueryCache {
+    // 缓存的一次查询结果
+    private static class Entry {
+        final long generation;
+        final String[] columns;
+        final Object[][] rows;
+        final long bytes;
+
+        Entry(long generation, String[] columns, Object[][] rows, long bytes) {
+            this.generation = generation;
+            this.columns = columns;
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+    }
+
+    // 估算占用时每行和每个值的固定开销
+    private static final int ROW_OVERHEAD_BYTES = 16;
+    private static final int VALUE_OVERHEAD_BYTES = 16;
+
+    // 最多缓存的查询数量
+    private final int mMaxEntries;
+
+    // 行数超过该值的结果不缓存
+    private final int mMaxRows;
+
+    // 所有缓存项估算占用的字节数上限，单个结果超过上限的四分之一时不缓存
+    private final long mMaxBytes;
+
+    // 当前缓存项估算占用的字节数
+    private long mBytes;
+
+    // 按访问顺序排列，超出数量或字节数时淘汰最久未使用的项
+    private final LinkedHashMap<String, Entry> mEntries;
+
+    // 未命中过一次的查询，再次未命中时才建立缓存项，只查询一次的结果不必复制
+    private final LinkedHashMap<String, Boolean> mMissedKeys;
+
+    // 各表的代数
+    private final Map<String, Long> mGenerations = new HashMap<String, Long>();
+
+    // 命中和未命中次数
+    private long mHitCount;
+    private long mMissCount;
+
+    /**
+     * 构造函数
+     *
+     * @param maxEntries 最多缓存的查询数量
+     * @param maxRows    单个结果最多缓存的行数
+     * @param maxBytes   所有缓存项估算占用的字节数上限
+     */
+    NotesQueryCache(int maxEntries, int maxRows, long maxBytes) {
+        mMaxEntries = maxEntries;
+        mMaxRows = maxRows;
+        mMaxBytes = maxBytes;
+        mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        mMissedKeys = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > mMaxEntries;
+            }
+        };
+    }
+
+    /**
+     * 生成缓存键，查询的URI、列、条件、参数和排序都相同时才命中
+     *
+     * @return 缓存键
+     */
+    static String buildKey(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                           String sortOrder) {
+        return uri + "|" + Arrays.toString(projection) + "|" + selection + "|"
+                + Arrays.toString(selectionArgs) + "|" + sortOrder;
+    }
+
+    /**
+     * 获取表的当前代数，查询前调用，查询结果以该代数存入缓存
+     *
+     * @param table 表名
+     * @return 代数
+     */
+    synchronized long getGeneration(String table) {
+        Long generation = mGenerations.get(table);
+        return generation == null ? 0 : generation;
+    }
+
+    /**
+     * 表被修改后调用，使该表之前的缓存项全部过期
+     *
+     * @param table 表名
+     */
+    synchronized void invalidate(String table) {
+        mGenerations.put(table, getGeneration(table) + 1);
+    }
+
+    /**
+     * 查找缓存的结果
+     *
+     * @param key   缓存键
+     * @param table 查询的表
+     * @return 结果的副本；未命中或已过期时返回null
+     */
+    synchronized Cursor get(String key, String table) {
+        Entry entry = mEntries.get(key);
+        if (entry == null || entry.generation != getGeneration(table)) {
+            if (entry != null) {
+                remove(key);
+            }
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        MatrixCursor cursor = new MatrixCursor(entry.columns, entry.rows.length);
+        for (Object[] row : entry.rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * 缓存查询结果。同一查询此前未命中过、行数和估算字节数不超过上限且查询期间表未被修改时才缓存；
+     * 第一次未命中只记下查询，不读取游标。读取后把游标移回第一行之前，调用方可以继续使用。
+     *
+     * @param key        缓存键
+     * @param table      查询的表
+     * @param generation 查询前取得的代数
+     * @param cursor     查询结果
+     */
+    void put(String key, String table, long generation, Cursor cursor) {
+        if (cursor == null) {
+            return;
+        }
+        synchronized (this) {
+            if (generation != getGeneration(table) || mMissedKeys.remove(key) == null) {
+                mMissedKeys.put(key, Boolean.TRUE);
+                return;
+            }
+        }
+        if (cursor.getCount() > mMaxRows) {
+            return;
+        }
+        long maxEntryBytes = mMaxBytes / 4;
+        String[] columns = cursor.getColumnNames();
+        Object[][] rows = new Object[cursor.getCount()][];
+        long bytes = 0;
+        int i = 0;
+        cursor.moveToPosition(-1);
+        try {
+            while (cursor.moveToNext()) {
+                Object[] row = new Object[columns.length];
+                bytes += ROW_OVERHEAD_BYTES;
+                for (int j = 0; j < columns.length; j++) {
+                    bytes += VALUE_OVERHEAD_BYTES;
+                    switch (cursor.getType(j)) {
+                        case Cursor.FIELD_TYPE_NULL:
+                            row[j] = null;
+                            break;
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[j] = cursor.getLong(j);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[j] = cursor.getDouble(j);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            // 二进制内容不缓存
+                            return;
+                        default:
+                            String value = cursor.getString(j);
+                            bytes += value.length() * 2L;
+                            row[j] = value;
+                            break;
+                    }
+                }
+                if (bytes > maxEntryBytes) {
+                    return;
+                }
+                rows[i++] = row;
+            }
+        } finally {
+            cursor.moveToPosition(-1);
+        }
+
+        synchronized (this) {
+            if (generation == getGeneration(table)) {
+                remove(key);
+                mEntries.put(key, new Entry(generation, columns, rows, bytes));
+                mBytes += bytes;
+                trim();
+            }
+        }
+    }
+
+    /**
+     * 移除一个缓存项并扣除其占用，需要在同步块中调用
+     */
+    private void remove(String key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            mBytes -= entry.bytes;
+        }
+    }
+
+    /**
+     * 淘汰最久未使用的项，直到数量和字节数都不超过上限，需要在同步块中调用
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while ((mEntries.size() > mMaxEntries || mBytes > mMaxBytes) && iterator.hasNext()) {
+            mBytes -= iterator.next().getValue().bytes;
+            iterator.remove();
+        }
+    }
+
+    synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    synchronized long getBytes() {
+        return mBytes;
+    }
+}
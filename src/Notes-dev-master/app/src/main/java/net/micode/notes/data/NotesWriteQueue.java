@@ -0,0 +1,600 @@
+/*
+ * NotesWriteQueue 类把对内容提供者的写入放到一个专门的写线程上执行。
+ * 写线程空闲时写入立即提交，不等待合并；上一次提交期间到达的写入合并为一次applyBatch，在同一个事务中提交，
+ * 写入密集时多次小写入只同步一次磁盘。对同一行的多次更新合并为一次，
+ * 对还没有提交的插入的更新直接并入插入的值。调用方立即返回，需要结果（例如新行的ID）时通过返回的PendingWrite等待。
+ */
+
+package net.micode.notes.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class NotesWriteQueue {
+    private static final String TAG = "NotesWriteQueue";
+
+    // 写入的类型
+    private static final int TYPE_INSERT = 0;
+    private static final int TYPE_UPDATE = 1;
+    private static final int TYPE_CALL = 2;
+    private static final int TYPE_CALLBACK = 3;
+
+    private static NotesWriteQueue sInstance;
+
+    private final ContentResolver mResolver;
+
+    // 写线程，所有写入按到达顺序在这里提交
+    private final Handler mWriter;
+
+    // 主线程，执行写入之后的回调
+    private final Handler mMainHandler;
+
+    // 等待提交的写入，按到达顺序排列
+    private ArrayList<Write> mPending = new ArrayList<Write>();
+
+    // 等待提交的按行更新，键为行的URI，同一行之后的更新合并到这里
+    private final HashMap<Uri, Write> mPendingUpdates = new HashMap<Uri, Write>();
+
+    // 是否已经安排了提交
+    private boolean mCommitScheduled;
+
+    // 写线程是否正在提交
+    private boolean mCommitting;
+
+    // 调用方正在放入一组写入的层数，大于0时暂不安排提交，一次保存的多次写入在同一个事务中提交
+    private int mGroupDepth;
+
+    private final Runnable mCommit = new Runnable() {
+        @Override
+        public void run() {
+            commit();
+        }
+    };
+
+    /**
+     * 一次写入的结果。插入的结果包含新行的URI，更新和调用的结果包含受影响的行数。
+     * 结果还没有提交时调用{@link #get}会阻塞到提交完成，主线程上应改用{@link #runAfterPending}。
+     */
+    public static class PendingWrite implements Future<ContentProviderResult> {
+        private final NotesWriteQueue mQueue;
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile ContentProviderResult mResult;
+        private volatile Exception mError;
+
+        // 产生该结果的写入，提交后置为null
+        private Write mWrite;
+
+        private PendingWrite(NotesWriteQueue queue) {
+            mQueue = queue;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            // 进入队列的写入不能取消
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return mDone.getCount() == 0;
+        }
+
+        @Override
+        public ContentProviderResult get() throws InterruptedException, ExecutionException {
+            if (!isDone()) {
+                mQueue.checkCanWait();
+                mDone.await();
+            }
+            return report();
+        }
+
+        @Override
+        public ContentProviderResult get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            if (!isDone()) {
+                mQueue.checkCanWait();
+                if (!mDone.await(timeout, unit)) {
+                    throw new TimeoutException("Write is not committed in " + timeout + " " + unit);
+                }
+            }
+            return report();
+        }
+
+        /**
+         * 等待提交并获取插入的新行的ID
+         *
+         * @return 新行的ID，写入失败或等待被中断时返回0
+         */
+        public long getId() {
+            try {
+                ContentProviderResult result = get();
+                return result.uri == null ? 0 : ContentUris.parseId(result.uri);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 0;
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Write failed: " + e.getCause());
+                return 0;
+            }
+        }
+
+        private ContentProviderResult report() throws ExecutionException {
+            if (mError != null) {
+                throw new ExecutionException(mError);
+            }
+            return mResult;
+        }
+
+        private void complete(ContentProviderResult result) {
+            mResult = result;
+            mDone.countDown();
+        }
+
+        private void fail(Exception error) {
+            mError = error;
+            mDone.countDown();
+        }
+    }
+
+    /**
+     * 队列中的一次写入
+     */
+    private static class Write {
+        final int type;
+        final Uri uri;
+        final ContentValues values;
+        String selection;
+        String[] selectionArgs;
+
+        // 插入时把该写入插入的行的ID填入idKey列
+        String idKey;
+        PendingWrite idSource;
+
+        // 更新由该写入插入的行，uri为null
+        PendingWrite target;
+
+        // 调用的方法和参数
+        String method;
+        Bundle extras;
+
+        // 之前的写入提交后在主线程执行
+        Runnable callback;
+
+        final PendingWrite result;
+
+        Write(int type, Uri uri, ContentValues values, PendingWrite result) {
+            this.type = type;
+            this.uri = uri;
+            this.values = values == null ? null : new ContentValues(values);
+            this.result = result;
+            result.mWrite = this;
+        }
+    }
+
+    private NotesWriteQueue(Context context) {
+        mResolver = context.getApplicationContext().getContentResolver();
+        HandlerThread thread = new HandlerThread("NotesWriter");
+        thread.start();
+        mWriter = new Handler(thread.getLooper());
+        mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * 获取写入队列的单例
+     *
+     * @param context 上下文对象
+     * @return 写入队列
+     */
+    public static synchronized NotesWriteQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NotesWriteQueue(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * 插入一行
+     *
+     * @param uri    表的URI
+     * @param values 新行的值，进入队列时复制
+     * @return 写入结果，提交后包含新行的URI
+     */
+    public PendingWrite insert(Uri uri, ContentValues values) {
+        return enqueueOrdered(new Write(TYPE_INSERT, uri, values, new PendingWrite(this)));
+    }
+
+    /**
+     * 插入一行，其中一列的值是之前另一次插入的新行的ID，例如新笔记的数据行。两次插入在同一个事务中时用回引填入。
+     *
+     * @param uri      表的URI
+     * @param values   新行的值，进入队列时复制
+     * @param idKey    填入ID的列
+     * @param idSource 之前的插入
+     * @return 写入结果，提交后包含新行的URI
+     */
+    public PendingWrite insert(Uri uri, ContentValues values, String idKey, PendingWrite idSource) {
+        Write write = new Write(TYPE_INSERT, uri, values, new PendingWrite(this));
+        write.idKey = idKey;
+        write.idSource = idSource;
+        return enqueueOrdered(write);
+    }
+
+    /**
+     * 更新一行。该行还有没提交的更新时合并到那次更新中，同一列以后到的值为准。
+     *
+     * @param itemUri 行的URI
+     * @param values  要更新的值，进入队列时复制
+     * @return 写入结果，合并时与之前的更新相同
+     */
+    public PendingWrite update(Uri itemUri, ContentValues values) {
+        synchronized (this) {
+            Write pending = mPendingUpdates.get(itemUri);
+            if (pending != null) {
+                pending.values.putAll(values);
+                return pending.result;
+            }
+            Write write = new Write(TYPE_UPDATE, itemUri, values, new PendingWrite(this));
+            mPendingUpdates.put(itemUri, write);
+            return enqueue(write);
+        }
+    }
+
+    /**
+     * 更新之前插入的行。插入还没有提交时直接并入插入的值，否则在插入提交后按新行的URI更新。
+     *
+     * @param insert 之前的插入
+     * @param values 要更新的值，进入队列时复制
+     * @return 写入结果，合并时与插入相同
+     */
+    public PendingWrite update(PendingWrite insert, ContentValues values) {
+        synchronized (this) {
+            Write pending = insert.mWrite;
+            if (pending != null && pending.type == TYPE_INSERT) {
+                pending.values.putAll(values);
+                return insert;
+            }
+            Write write = new Write(TYPE_UPDATE, null, values, new PendingWrite(this));
+            write.target = insert;
+            return enqueue(write);
+        }
+    }
+
+    /**
+     * 按条件更新，不与其他写入合并，之后的按行更新也不再合并到此前的更新中
+     *
+     * @param uri           表的URI
+     * @param values        要更新的值，进入队列时复制
+     * @param selection     更新条件
+     * @param selectionArgs 条件参数
+     * @return 写入结果，包含更新的行数
+     */
+    public PendingWrite update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        Write write = new Write(TYPE_UPDATE, uri, values, new PendingWrite(this));
+        write.selection = selection;
+        write.selectionArgs = selectionArgs;
+        return enqueueOrdered(write);
+    }
+
+    /**
+     * 调用内容提供者的方法，例如{@link Notes#METHOD_BATCH_MOVE}。之前的写入先提交，调用之后的写入在调用完成后提交。
+     *
+     * @param method 方法名
+     * @param extras 方法参数
+     * @return 写入结果，包含方法返回的{@link Notes#EXTRA_COUNT}
+     */
+    public PendingWrite call(String method, Bundle extras) {
+        Write write = new Write(TYPE_CALL, null, null, new PendingWrite(this));
+        write.method = method;
+        write.extras = extras;
+        return enqueueOrdered(write);
+    }
+
+    /**
+     * 在此之前进入队列的写入全部提交后，在主线程执行回调，例如刷新小部件
+     *
+     * @param callback 回调
+     */
+    public void runAfterPending(Runnable callback) {
+        Write write = new Write(TYPE_CALLBACK, null, null, new PendingWrite(this));
+        write.callback = callback;
+        enqueue(write);
+    }
+
+    /**
+     * 等待队列中的写入全部提交。在后台线程读取刚修改过的笔记之前调用，保证读到的是最新内容；
+     * 主线程上使用{@link #flush(Runnable)}
+     */
+    public void flush() {
+        PendingWrite barrier = enqueue(new Write(TYPE_CALLBACK, null, null, new PendingWrite(this)));
+        try {
+            barrier.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // 屏障本身不会失败
+            Log.e(TAG, "Flush failed: " + e.getCause());
+        }
+    }
+
+    /**
+     * 队列中的写入全部提交后在主线程执行回调。用于主线程上读取前不能阻塞的场合，例如刷新列表和打开笔记
+     *
+     * @param callback 回调
+     */
+    public void flush(Runnable callback) {
+        runAfterPending(callback);
+    }
+
+    /**
+     * 队列中是否没有等待提交或正在提交的写入。为true时读到的已经是最新内容，不需要{@link #flush}
+     *
+     * @return 没有未完成的写入时返回true
+     */
+    public synchronized boolean isIdle() {
+        return mPending.isEmpty() && !mCommitting;
+    }
+
+    /**
+     * 开始放入一组写入，到{@link #endGroup}为止放入的写入在同一次提交中提交。
+     * 两者之间只能是放入写入的同步代码，必须在finally中调用endGroup
+     */
+    public synchronized void beginGroup() {
+        mGroupDepth++;
+    }
+
+    /**
+     * 结束放入一组写入，立即安排提交
+     */
+    public synchronized void endGroup() {
+        if (--mGroupDepth == 0) {
+            scheduleCommit();
+        }
+    }
+
+    /**
+     * 把可能与之前的写入作用于同一行的写入放入队列。之后的按行更新不能再合并到此前的更新中，否则会越过这次写入
+     *
+     * @param write 写入
+     * @return 写入结果
+     */
+    private synchronized PendingWrite enqueueOrdered(Write write) {
+        mPendingUpdates.clear();
+        return enqueue(write);
+    }
+
+    private synchronized PendingWrite enqueue(Write write) {
+        mPending.add(write);
+        if (mGroupDepth == 0) {
+            scheduleCommit();
+        }
+        return write.result;
+    }
+
+    private synchronized void scheduleCommit() {
+        if (!mCommitScheduled && !mPending.isEmpty()) {
+            // 不延迟提交：写入停留在内存中时进程被杀会丢失修改。写线程正在提交时这次提交排在其后，
+            // 期间到达的写入一起提交
+            mCommitScheduled = true;
+            mWriter.post(mCommit);
+        }
+    }
+
+    /**
+     * 检查当前线程能否等待写入结果，写线程等待自己的提交会死锁
+     */
+    private void checkCanWait() {
+        if (Looper.myLooper() == mWriter.getLooper()) {
+            throw new IllegalStateException("Cannot wait for a write on the writer thread");
+        }
+    }
+
+    /**
+     * 在写线程执行：取出队列中的全部写入，以调用和回调为界分段，每段用一次applyBatch提交
+     */
+    private void commit() {
+        ArrayList<Write> writes;
+        synchronized (this) {
+            mCommitScheduled = false;
+            mCommitting = true;
+            writes = mPending;
+            mPending = new ArrayList<Write>();
+            mPendingUpdates.clear();
+            for (Write write : writes) {
+                write.result.mWrite = null;
+            }
+        }
+        ArrayList<Write> batch = new ArrayList<Write>();
+        for (Write write : writes) {
+            if (write.type == TYPE_INSERT || write.type == TYPE_UPDATE) {
+                batch.add(write);
+                continue;
+            }
+            applyBatch(batch);
+            batch.clear();
+            if (write.type == TYPE_CALL) {
+                applyCall(write);
+            } else {
+                write.result.complete(new ContentProviderResult(0));
+                if (write.callback != null) {
+                    mMainHandler.post(write.callback);
+                }
+            }
+        }
+        applyBatch(batch);
+        synchronized (this) {
+            mCommitting = false;
+        }
+    }
+
+    /**
+     * 在一个事务中提交一段写入。整批失败时逐个重试，只让出错的写入失败。
+     *
+     * @param batch 一段写入
+     */
+    private void applyBatch(ArrayList<Write> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long start = SystemClock.uptimeMillis();
+        ArrayList<Write> applied = new ArrayList<Write>(batch.size());
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(batch.size());
+        for (Write write : batch) {
+            ContentProviderOperation operation = buildOperation(write, applied);
+            if (operation != null) {
+                applied.add(write);
+                operations.add(operation);
+            }
+        }
+        if (operations.isEmpty()) {
+            return;
+        }
+        try {
+            ContentProviderResult[] results = mResolver.applyBatch(Notes.AUTHORITY, operations);
+            for (int i = 0; i < applied.size(); i++) {
+                applied.get(i).result.complete(results[i]);
+            }
+            Log.d(TAG, "committed " + operations.size() + " writes in "
+                    + (SystemClock.uptimeMillis() - start) + "ms");
+        } catch (Exception e) {
+            Log.w(TAG, "Group commit failed, retry one by one: " + e.toString());
+            for (Write write : applied) {
+                applySingle(write);
+            }
+        }
+    }
+
+    /**
+     * 单独提交一次写入
+     *
+     * @param write 写入
+     */
+    private void applySingle(Write write) {
+        ContentProviderOperation operation = buildOperation(write, null);
+        if (operation == null) {
+            return;
+        }
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(1);
+        operations.add(operation);
+        try {
+            write.result.complete(mResolver.applyBatch(Notes.AUTHORITY, operations)[0]);
+        } catch (Exception e) {
+            Log.e(TAG, "Write to " + operation.getUri() + " failed: " + e.toString());
+            write.result.fail(e);
+        }
+    }
+
+    /**
+     * 执行一次调用
+     *
+     * @param write 调用
+     */
+    private void applyCall(Write write) {
+        try {
+            Bundle result = mResolver.call(Notes.CONTENT_NOTE_URI, write.method, null, write.extras);
+            write.result.complete(new ContentProviderResult(
+                    result == null ? 0 : result.getInt(Notes.EXTRA_COUNT)));
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Call " + write.method + " failed: " + e.toString());
+            write.result.fail(e);
+        }
+    }
+
+    /**
+     * 生成写入对应的操作。依赖的插入在同一批中时使用回引，已提交时直接填入ID。
+     *
+     * @param write   写入
+     * @param applied 同一批中已经生成操作的写入，单独提交时为null
+     * @return 操作，依赖的插入失败时返回null，此时写入已标记为失败
+     */
+    private ContentProviderOperation buildOperation(Write write, ArrayList<Write> applied) {
+        ContentProviderOperation.Builder builder;
+        if (write.type == TYPE_INSERT) {
+            builder = ContentProviderOperation.newInsert(write.uri).withValues(write.values);
+            if (write.idSource != null) {
+                int index = indexOf(applied, write.idSource);
+                if (index >= 0) {
+                    builder.withValueBackReference(write.idKey, index);
+                } else {
+                    long id = committedId(write, write.idSource);
+                    if (id <= 0) {
+                        return null;
+                    }
+                    builder.withValue(write.idKey, id);
+                }
+            }
+        } else {
+            Uri uri = write.uri;
+            if (uri == null) {
+                long id = committedId(write, write.target);
+                if (id <= 0) {
+                    return null;
+                }
+                uri = write.target.mResult.uri;
+            }
+            builder = ContentProviderOperation.newUpdate(uri).withValues(write.values);
+            if (write.selection != null) {
+                builder.withSelection(write.selection, write.selectionArgs);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * 查找同一批中产生指定结果的写入的位置
+     *
+     * @param applied 同一批中已经生成操作的写入，单独提交时为null
+     * @param result  写入结果
+     * @return 位置，不在同一批中时返回-1
+     */
+    private static int indexOf(ArrayList<Write> applied, PendingWrite result) {
+        if (applied == null) {
+            return -1;
+        }
+        for (int i = 0; i < applied.size(); i++) {
+            if (applied.get(i).result == result) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 获取已提交的插入的新行ID，插入失败时把依赖它的写入标记为失败
+     *
+     * @param write  依赖插入的写入
+     * @param source 插入
+     * @return 新行的ID，插入失败时返回0
+     */
+    private static long committedId(Write write, PendingWrite source) {
+        ContentProviderResult result = source.isDone() ? source.mResult : null;
+        if (result == null || result.uri == null) {
+            write.result.fail(new IllegalStateException("Depends on a failed insert"));
+            return 0;
+        }
+        return ContentUris.parseId(result.uri);
+    }
+}
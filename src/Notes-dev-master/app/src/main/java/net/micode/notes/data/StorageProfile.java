@@ -0,0 +1,146 @@
+/*
+ * StorageProfile 类描述数据库连接的存储参数：页大小、页缓存、内存映射、临时表位置和同步级别。
+ * 参数按设备内存选择，在配置数据库连接时应用；内存紧张时只缩小内存映射区域，其余参数不变。
+ * WAL模式下读操作使用连接池中的其他连接：Android 12起页缓存和临时表参数对池中全部连接生效，
+ * 更早的系统没有逐连接执行语句的接口，只作用于写连接。内存映射在任何系统上都只作用于写连接，
+ * 设置mmap_size的语句返回一行结果，不能逐连接执行；读连接使用系统默认值，即不使用内存映射。
+ */
+
+package net.micode.notes.data;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.util.Log;
+
+class StorageProfile {
+    private static final String TAG = "StorageProfile";
+
+    // 页大小，与闪存的页和系统默认值一致；只对新建的数据库生效，已有数据库在WAL模式下无法修改
+    private static final int PAGE_SIZE = 4096;
+
+    // PRAGMA temp_store 的取值：1为文件，2为内存。系统SQLite编译时固定为内存的设备上不起作用
+    private static final int TEMP_STORE_FILE = 1;
+    private static final int TEMP_STORE_MEMORY = 2;
+
+    // 各档设备的页缓存大小，单位KB
+    private static final int LOW_RAM_CACHE_SIZE_KB = 1024;
+    private static final int DEVICE_CACHE_SIZE_KB = 4096;
+
+    // 内存映射区域按可用内存的1/16计算，不超过上限；可用内存不足下限的设备不使用内存映射
+    private static final int MMAP_RAM_FRACTION = 16;
+    private static final long MMAP_MAX_SIZE = 64L * 1024 * 1024;
+    private static final long MMAP_MIN_AVAIL_MEM = 512L * 1024 * 1024;
+    private static final long MMAP_ALIGNMENT = 1024 * 1024;
+
+    // 低内存设备：较小的页缓存，不使用内存映射，临时表写文件
+    static final StorageProfile LOW_RAM = new StorageProfile("low_ram",
+            LOW_RAM_CACHE_SIZE_KB, 0, TEMP_STORE_FILE);
+
+    // 参数组名称，用于日志
+    final String name;
+
+    // 页缓存大小，单位KB
+    final int cacheSizeKb;
+
+    // 内存映射区域大小，单位字节，0表示不使用
+    final long mmapSize;
+
+    // PRAGMA temp_store 的取值
+    final int tempStore;
+
+    StorageProfile(String name, int cacheSizeKb, long mmapSize, int tempStore) {
+        this.name = name;
+        this.cacheSizeKb = cacheSizeKb;
+        this.mmapSize = mmapSize;
+        this.tempStore = tempStore;
+    }
+
+    /**
+     * 按设备内存选择参数：低内存设备使用{@link #LOW_RAM}，其他设备使用较大的页缓存和按可用内存计算的内存映射。
+     *
+     * @param context 上下文对象。
+     * @return 适合当前设备的参数。
+     */
+    static StorageProfile forDevice(Context context) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (am == null || am.isLowRamDevice()) {
+            return LOW_RAM;
+        }
+        ActivityManager.MemoryInfo info = new ActivityManager.MemoryInfo();
+        am.getMemoryInfo(info);
+        return forMemory(info.lowMemory, info.availMem);
+    }
+
+    /**
+     * 按内存状态选择参数，见{@link #forDevice}。
+     *
+     * @param lowMemory 系统是否处于内存不足状态。
+     * @param availMem  可用内存，单位字节。
+     * @return 对应的参数。
+     */
+    static StorageProfile forMemory(boolean lowMemory, long availMem) {
+        if (lowMemory || availMem < MMAP_MIN_AVAIL_MEM) {
+            return LOW_RAM;
+        }
+        long mmapSize = Math.min(availMem / MMAP_RAM_FRACTION, MMAP_MAX_SIZE);
+        return new StorageProfile("device", DEVICE_CACHE_SIZE_KB,
+                mmapSize / MMAP_ALIGNMENT * MMAP_ALIGNMENT, TEMP_STORE_MEMORY);
+    }
+
+    /**
+     * 获取只改变内存映射区域大小的参数，内存紧张时使用。
+     *
+     * @param mmapSize 内存映射区域大小，单位字节。
+     * @return 新的参数，大小不变时返回自身。
+     */
+    StorageProfile withMmapSize(long mmapSize) {
+        if (mmapSize == this.mmapSize) {
+            return this;
+        }
+        return new StorageProfile(name, cacheSizeKb, mmapSize, tempStore);
+    }
+
+    /**
+     * 在配置数据库连接时应用全部参数。
+     * 同步级别设为NORMAL：WAL模式下只在检查点时同步数据库文件，断电最多丢失最后几次提交，不会损坏数据库。
+     *
+     * @param db SQLiteDatabase 类型，正在配置的数据库对象。
+     */
+    void configure(SQLiteDatabase db) {
+        db.execSQL("PRAGMA page_size=" + PAGE_SIZE);
+        db.execSQL("PRAGMA synchronous=NORMAL");
+        apply(db);
+    }
+
+    /**
+     * 应用页缓存、内存映射和临时表参数，这几项可以在连接打开后随时修改。
+     * Android 12起页缓存和临时表参数对连接池中现有和以后打开的全部连接执行，否则只作用于执行语句的写连接。
+     *
+     * @param db SQLiteDatabase 类型，数据库对象。
+     */
+    void apply(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            db.execPerConnectionSQL("PRAGMA cache_size=-" + cacheSizeKb, null);
+            db.execPerConnectionSQL("PRAGMA temp_store=" + tempStore, null);
+        } else {
+            db.execSQL("PRAGMA cache_size=-" + cacheSizeKb);
+            db.execSQL("PRAGMA temp_store=" + tempStore);
+        }
+        applyMmapSize(db);
+    }
+
+    /**
+     * 应用内存映射区域大小，只作用于执行语句的写连接，内存紧张时单独调用。
+     *
+     * @param db SQLiteDatabase 类型，数据库对象。
+     */
+    void applyMmapSize(SQLiteDatabase db) {
+        // 设置mmap_size会返回生效的大小，需要按查询执行
+        long mmapSize = DatabaseUtils.longForQuery(db, "PRAGMA mmap_size=" + this.mmapSize, null);
+        Log.d(TAG, "storage profile " + name + ": cache " + cacheSizeKb + "KB, mmap " + mmapSize
+                + " bytes, temp_store " + tempStore);
+    }
+}
@@ -12,6 +12,7 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.util.Log;
 
+import net.micode.notes.data.NoteContentCodec;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.DataConstants;
@@ -33,7 +34,7 @@ public class SqlData {
     // 查询时使用的字段投影
     public static final String[] PROJECTION_DATA = new String[]{
             DataColumns.ID, DataColumns.MIME_TYPE, DataColumns.CONTENT, DataColumns.DATA1,
-            DataColumns.DATA3
+            DataColumns.DATA3, DataColumns.CONTENT_CODEC, DataColumns.CONTENT_COMPRESSED
     };
 
     // 字段在Cursor中的索引
@@ -42,6 +43,8 @@ public class SqlData {
     public static final int DATA_CONTENT_COLUMN = 2;
     public static final int DATA_CONTENT_DATA_1_COLUMN = 3;
     public static final int DATA_CONTENT_DATA_3_COLUMN = 4;
+    public static final int DATA_CONTENT_CODEC_COLUMN = 5;
+    public static final int DATA_CONTENT_COMPRESSED_COLUMN = 6;
 
     // ContentResolver用于操作内容提供者
     private ContentResolver mContentResolver;
@@ -101,7 +104,8 @@ public class SqlData {
     private void loadFromCursor(Cursor c) {
         mDataId = c.getLong(DATA_ID_COLUMN);
         mDataMimeType = c.getString(DATA_MIME_TYPE_COLUMN);
-        mDataContent = c.getString(DATA_CONTENT_COLUMN);
+        mDataContent = NoteContentCodec.readContent(c, DATA_CONTENT_COLUMN,
+                DATA_CONTENT_CODEC_COLUMN, DATA_CONTENT_COMPRESSED_COLUMN);
         mDataContentData1 = c.getLong(DATA_CONTENT_DATA_1_COLUMN);
         mDataContentData3 = c.getString(DATA_CONTENT_DATA_3_COLUMN);
     }
@@ -173,12 +177,7 @@ public class SqlData {
 
         if (mIsCreate) {
             // 处理新数据项的插入
-            if (mDataId == INVALID_ID && mDiffDataValues.containsKey(DataColumns.ID)) {
-                mDiffDataValues.remove(DataColumns.ID);
-            }
-
-            mDiffDataValues.put(DataColumns.NOTE_ID, noteId);
-            Uri uri = mContentResolver.insert(Notes.CONTENT_DATA_URI, mDiffDataValues);
+            Uri uri = mContentResolver.insert(Notes.CONTENT_DATA_URI, getInsertValues(noteId));
             try {
                 mDataId = Long.valueOf(uri.getPathSegments().get(1));
             } catch (NumberFormatException e) {
@@ -213,6 +212,41 @@ public class SqlData {
         mIsCreate = false;
     }
 
+    /*
+     * 判断数据项是否尚未写入数据库。
+     * @return 新建且未提交时返回true。
+     */
+    public boolean isCreate() {
+        return mIsCreate;
+    }
+
+    /*
+     * 生成插入新数据项所需的值，单条提交和批量插入共用。
+     * @param noteId 数据项所属的笔记ID。
+     * @return 待插入的值。
+     */
+    public ContentValues getInsertValues(long noteId) {
+        if (mDataId == INVALID_ID && mDiffDataValues.containsKey(DataColumns.ID)) {
+            mDiffDataValues.remove(DataColumns.ID);
+        }
+        mDiffDataValues.put(DataColumns.NOTE_ID, noteId);
+        return mDiffDataValues;
+    }
+
+    /*
+     * 批量插入完成后记录新数据项的ID并重置状态。
+     * @param dataId 插入后生成的数据项ID。
+     */
+    public void onInserted(long dataId) {
+        if (dataId <= 0) {
+            Log.e(TAG, "Bulk insert data failed, id: " + dataId);
+            throw new ActionFailureException("create note failed");
+        }
+        mDataId = dataId;
+        mDiffDataValues.clear();
+        mIsCreate = false;
+    }
+
     /*
      * 获取数据项的ID。
      * @return 数据项的ID。
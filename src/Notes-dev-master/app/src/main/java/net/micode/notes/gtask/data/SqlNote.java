@@ -28,6 +28,7 @@ import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.NoteColumns;
 import net.micode.notes.gtask.exception.ActionFailureException;
+import net.micode.notes.tool.DataUtils;
 import net.micode.notes.tool.GTaskStringUtils;
 import net.micode.notes.tool.ResourceParser;
 
@@ -445,9 +446,7 @@ public class SqlNote {
 
             // 如果是创建笔记类型，提交关联数据
             if (mType == Notes.TYPE_NOTE) {
-                for (SqlData sqlData : mDataList) {
-                    sqlData.commit(mId, false, -1);
-                }
+                commitDataList(false, -1);
             }
         } else { // 处理更新现有笔记的逻辑
             // 如果指定的笔记ID无效或不存在，抛出异常
@@ -480,9 +479,7 @@ public class SqlNote {
 
             // 如果是笔记类型，提交关联数据
             if (mType == Notes.TYPE_NOTE) {
-                for (SqlData sqlData : mDataList) {
-                    sqlData.commit(mId, validateVersion, mVersion);
-                }
+                commitDataList(validateVersion, mVersion);
             }
         }
 
@@ -495,4 +492,37 @@ public class SqlNote {
         mDiffNoteValues.clear();
         mIsCreate = false;
     }
+
+    /**
+     * 提交关联数据。新建的数据项通过一次批量插入写入，已有的数据项逐条更新。
+     *
+     * @param validateVersion 是否验证版本号。
+     * @param version         笔记的版本号。
+     */
+    private void commitDataList(boolean validateVersion, long version) {
+        ArrayList<SqlData> createList = new ArrayList<SqlData>();
+        for (SqlData sqlData : mDataList) {
+            if (sqlData.isCreate()) {
+                createList.add(sqlData);
+            } else {
+                sqlData.commit(mId, validateVersion, version);
+            }
+        }
+        if (createList.isEmpty()) {
+            return;
+        }
+
+        ContentValues[] values = new ContentValues[createList.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = createList.get(i).getInsertValues(mId);
+        }
+        long[] ids = DataUtils.bulkInsertWithIds(mContentResolver, Notes.CONTENT_DATA_URI, values);
+        if (ids == null || ids.length != values.length) {
+            Log.e(TAG, "Bulk insert data failed for note " + mId);
+            throw new ActionFailureException("create note failed");
+        }
+        for (int i = 0; i < ids.length; i++) {
+            createList.get(i).onInserted(ids[i]);
+        }
+    }
 }
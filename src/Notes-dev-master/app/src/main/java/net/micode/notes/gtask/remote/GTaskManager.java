@@ -28,6 +28,7 @@ import net.micode.notes.R;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesWriteQueue;
 import net.micode.notes.gtask.data.MetaData;
 import net.micode.notes.gtask.data.Node;
 import net.micode.notes.gtask.data.SqlNote;
@@ -168,7 +169,15 @@ public class GTaskManager {
         mGidToNid.clear();
         mNidToGid.clear();
 
+        // 先提交写入队列中的修改，同步读到的是用户最后保存的内容
+        NotesWriteQueue.getInstance(mContext).flush();
+
+        // 同步线程写入的变更通知积累到结束时统一发送，避免列表和小部件反复刷新；用户的编辑照常通知
+        DataUtils.suppressNotifyChanges(mContentResolver);
         try {
+            // 同步需要读取完整的笔记正文，先把归档的笔记移回主库
+            DataUtils.restoreArchivedNotes(mContentResolver);
+
             GTaskClient client = GTaskClient.getInstance();
             client.resetUpdateArray();
 
@@ -205,6 +214,9 @@ public class GTaskManager {
             mGidToNid.clear();
             mNidToGid.clear();
             mSyncing = false;
+            DataUtils.resumeNotifyChanges(mContentResolver);
+            // 同步期间写入较多，结束后截断WAL
+            DataUtils.requestWalCheckpoint(mContentResolver);
         }
 
         return mCancelled ? STATE_SYNC_CANCELLED : STATE_SUCCESS;
@@ -648,14 +660,18 @@ public class GTaskManager {
 
                 if (js.has(GTaskStringUtils.META_HEAD_DATA)) {
                     JSONArray dataArray = js.getJSONArray(GTaskStringUtils.META_HEAD_DATA);
+                    // 一次检查所有数据 ID 是否已存在
+                    long[] dataIds = new long[dataArray.length()];
                     for (int i = 0; i < dataArray.length(); i++) {
                         JSONObject data = dataArray.getJSONObject(i);
-                        if (data.has(DataColumns.ID)) {
-                            long dataId = data.getLong(DataColumns.ID);
-                            if (DataUtils.existInDataDatabase(mContentResolver, dataId)) {
-                                // 如果数据 ID 已存在，则移除该 ID
-                                data.remove(DataColumns.ID);
-                            }
+                        dataIds[i] = data.has(DataColumns.ID) ? data.getLong(DataColumns.ID) : 0;
+                    }
+                    boolean[] exists = DataUtils.existInDataDatabase(mContentResolver, dataIds);
+                    for (int i = 0; i < dataArray.length(); i++) {
+                        JSONObject data = dataArray.getJSONObject(i);
+                        if (data.has(DataColumns.ID) && exists[i]) {
+                            // 如果数据 ID 已存在，则移除该 ID
+                            data.remove(DataColumns.ID);
                         }
                     }
                 }
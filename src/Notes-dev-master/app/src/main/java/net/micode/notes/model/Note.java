@@ -16,14 +16,9 @@
 
 package net.micode.notes.model;
 
-import android.content.ContentProviderOperation;
-import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.OperationApplicationException;
-import android.net.Uri;
-import android.os.RemoteException;
 import android.util.Log;
 
 import net.micode.notes.data.Notes;
@@ -31,8 +26,11 @@ import net.micode.notes.data.Notes.CallNote;
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.NoteColumns;
 import net.micode.notes.data.Notes.TextNote;
+import net.micode.notes.data.NotesWriteQueue;
+import net.micode.notes.data.NotesWriteQueue.PendingWrite;
 
 import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
 
 
 public class Note {
@@ -40,14 +38,37 @@ public class Note {
     private NoteData mNoteData;
     private static final String TAG = "Note";
 
+    // 已放入写入队列但尚未确认提交的修改，提交失败时放回待保存的修改中
+    private final ArrayList<QueuedValues> mQueuedValues = new ArrayList<QueuedValues>();
+
+    /**
+     * 一次放入写入队列的修改
+     */
+    private static class QueuedValues {
+        // 写入结果
+        final PendingWrite write;
+
+        // 修改来自的待保存值，失败时放回这里
+        final ContentValues target;
+
+        // 修改的值
+        final ContentValues values;
+
+        QueuedValues(PendingWrite write, ContentValues target, ContentValues values) {
+            this.write = write;
+            this.target = target;
+            this.values = new ContentValues(values);
+        }
+    }
+
     /**
-     * 为数据库中添加新笔记生成一个新的笔记ID
+     * 把新笔记的插入放入写入队列，与随后的笔记数据在同一个事务中提交
      *
      * @param context  上下文对象，用于访问应用程序的资源和其他内容提供者
      * @param folderId 文件夹ID，表示新笔记将被添加到的文件夹
-     * @return 新创建的笔记的ID
+     * @return 插入的结果，提交后包含新笔记的URI
      */
-    public static synchronized long getNewNoteId(Context context, long folderId) {
+    public static PendingWrite insertNewNote(Context context, long folderId) {
         // 在数据库中创建一个新的笔记
         ContentValues values = new ContentValues();
         long createdTime = System.currentTimeMillis();
@@ -56,19 +77,7 @@ public class Note {
         values.put(NoteColumns.TYPE, Notes.TYPE_NOTE);
         values.put(NoteColumns.LOCAL_MODIFIED, 1);
         values.put(NoteColumns.PARENT_ID, folderId);
-        Uri uri = context.getContentResolver().insert(Notes.CONTENT_NOTE_URI, values);
-
-        long noteId = 0;
-        try {
-            noteId = Long.valueOf(uri.getPathSegments().get(1));
-        } catch (NumberFormatException e) {
-            Log.e(TAG, "获取笔记ID错误 :" + e.toString());
-            noteId = 0;
-        }
-        if (noteId == -1) {
-            throw new IllegalStateException("错误的笔记ID:" + noteId);
-        }
-        return noteId;
+        return NotesWriteQueue.getInstance(context).insert(Notes.CONTENT_NOTE_URI, values);
     }
 
     public Note() {
@@ -113,7 +122,7 @@ public class Note {
      * @return 文本数据的ID
      */
     public long getTextDataId() {
-        return mNoteData.mTextDataId;
+        return mNoteData.getTextDataId();
     }
 
     /**
@@ -145,11 +154,12 @@ public class Note {
     }
 
     /**
-     * 同步笔记到数据库
+     * 同步笔记到数据库。修改放入写入队列，与其间的其他写入合并提交，调用方不等待提交，
+     * 提交后用{@link #confirmSync}确认结果
      *
      * @param context 上下文对象，用于访问应用程序的资源和其他内容提供者
      * @param noteId  需要同步的笔记ID
-     * @return 如果同步成功则返回true，否则返回false
+     * @return 修改已放入写入队列时返回true
      */
     public boolean syncNote(Context context, long noteId) {
         if (noteId <= 0) {
@@ -160,23 +170,102 @@ public class Note {
             return true;
         }
 
+        NotesWriteQueue queue = NotesWriteQueue.getInstance(context);
         // 理论上，一旦数据改变，笔记应该在本地修改标记和修改日期上更新。为了数据安全，即使更新笔记失败，我们也更新笔记的数据信息
-        if (context.getContentResolver().update(
-                ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId), mNoteDiffValues, null,
-                null) == 0) {
-            Log.e(TAG, "更新笔记错误，不应该发生");
-            // 不返回，继续执行
+        if (mNoteDiffValues.size() > 0) {
+            track(queue.update(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId),
+                    mNoteDiffValues), mNoteDiffValues);
         }
-        mNoteDiffValues.clear();
 
-        if (mNoteData.isLocalModified()
-                && (mNoteData.pushIntoContentResolver(context, noteId) == null)) {
-            return false;
+        if (mNoteData.isLocalModified()) {
+            mNoteData.pushIntoWriteQueue(queue, noteId, null);
+        }
+        return true;
+    }
+
+    /**
+     * 同步尚未提交的新笔记到数据库。笔记的修改并入笔记的插入，数据行用笔记插入的结果填入笔记ID，全部在同一个事务中提交
+     *
+     * @param context    上下文对象，用于访问应用程序的资源和其他内容提供者
+     * @param noteInsert 新笔记的插入，由{@link #insertNewNote}返回
+     * @return 修改已放入写入队列时返回true
+     */
+    public boolean syncNote(Context context, PendingWrite noteInsert) {
+        if (!isLocalModified()) {
+            return true;
+        }
+
+        NotesWriteQueue queue = NotesWriteQueue.getInstance(context);
+        if (mNoteDiffValues.size() > 0) {
+            track(queue.update(noteInsert, mNoteDiffValues), mNoteDiffValues);
         }
 
+        if (mNoteData.isLocalModified()) {
+            mNoteData.pushIntoWriteQueue(queue, 0, noteInsert);
+        }
         return true;
     }
 
+    /**
+     * 记录放入写入队列的修改并清空待保存的值
+     *
+     * @param write  写入结果
+     * @param target 待保存的值
+     */
+    private void track(PendingWrite write, ContentValues target) {
+        mQueuedValues.add(new QueuedValues(write, target, target));
+        target.clear();
+    }
+
+    /**
+     * 确认放入写入队列的修改是否已经提交。提交失败的修改放回待保存的值中，下次保存时重试；
+     * 失败后又有新的修改时以新的值为准。
+     *
+     * @param wait 是否等待尚未提交的修改，为false时只确认已经提交完成的修改
+     * @return 确认的修改全部提交成功时返回true
+     */
+    public boolean confirmSync(boolean wait) {
+        boolean succeeded = true;
+        // 从新到旧处理，同一列先放回较新的值
+        for (int i = mQueuedValues.size() - 1; i >= 0; i--) {
+            QueuedValues queued = mQueuedValues.get(i);
+            if (!wait && !queued.write.isDone()) {
+                continue;
+            }
+            mQueuedValues.remove(i);
+            if (!isCommitted(queued.write)) {
+                succeeded = false;
+                ContentValues restore = new ContentValues(queued.values);
+                for (String key : queued.target.keySet()) {
+                    restore.remove(key);
+                }
+                queued.target.putAll(restore);
+            }
+        }
+        if (!succeeded) {
+            Log.e(TAG, "Save note failed, changes are kept for next save");
+        }
+        return succeeded;
+    }
+
+    /**
+     * 等待写入并判断是否提交成功
+     *
+     * @param write 写入结果
+     * @return 提交成功时返回true
+     */
+    private static boolean isCommitted(PendingWrite write) {
+        try {
+            write.get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
     /**
      * 内部类NoteData，用于管理笔记的文本数据和通话数据
      */
@@ -189,6 +278,11 @@ public class Note {
 
         private ContentValues mCallDataValues;
 
+        // 尚未得到ID的数据行插入，之后的修改合并到插入中
+        private PendingWrite mTextDataInsert;
+
+        private PendingWrite mCallDataInsert;
+
         private static final String TAG = "NoteData";
 
         public NoteData() {
@@ -256,82 +350,101 @@ public class Note {
         }
 
         /**
-         * 将数据推送到内容解析器
+         * 获取文本数据ID，数据行的插入还没有提交时等待提交
+         *
+         * @return 文本数据的ID，尚未插入时返回0
+         */
+        long getTextDataId() {
+            if (mTextDataId == 0 && mTextDataInsert != null) {
+                resolveTextDataId();
+            }
+            return mTextDataId;
+        }
+
+        /**
+         * 将数据的修改放入写入队列。数据行不存在时插入，插入尚未提交时合并到插入中，否则按数据ID更新
          *
-         * @param context 上下文对象，用于访问应用程序的资源和其他内容提供者
-         * @param noteId  笔记的ID
-         * @return 如果推送成功则返回Uri，否则返回null
+         * @param queue      写入队列
+         * @param noteId     笔记的ID，笔记尚未提交时为0
+         * @param noteInsert 尚未提交的笔记插入，笔记已存在时为null
          */
-        Uri pushIntoContentResolver(Context context, long noteId) {
+        void pushIntoWriteQueue(NotesWriteQueue queue, long noteId, PendingWrite noteInsert) {
             /**
              * 安全性检查
              */
-            if (noteId <= 0) {
+            if (noteId <= 0 && noteInsert == null) {
                 throw new IllegalArgumentException("错误的笔记ID:" + noteId);
             }
 
-            ArrayList<ContentProviderOperation> operationList = new ArrayList<ContentProviderOperation>();
-            ContentProviderOperation.Builder builder = null;
-
             if (mTextDataValues.size() > 0) {
-                mTextDataValues.put(DataColumns.NOTE_ID, noteId);
-                if (mTextDataId == 0) {
-                    mTextDataValues.put(DataColumns.MIME_TYPE, TextNote.CONTENT_ITEM_TYPE);
-                    Uri uri = context.getContentResolver().insert(Notes.CONTENT_DATA_URI,
-                            mTextDataValues);
-                    try {
-                        setTextDataId(Long.valueOf(uri.getPathSegments().get(1)));
-                    } catch (NumberFormatException e) {
-                        Log.e(TAG, "插入新的文本数据失败，笔记ID" + noteId);
-                        mTextDataValues.clear();
-                        return null;
-                    }
+                if (mTextDataId == 0 && mTextDataInsert != null && mTextDataInsert.isDone()) {
+                    resolveTextDataId();
+                }
+                if (mTextDataId != 0) {
+                    track(queue.update(ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, mTextDataId),
+                            mTextDataValues), mTextDataValues);
+                } else if (mTextDataInsert != null) {
+                    track(queue.update(mTextDataInsert, mTextDataValues), mTextDataValues);
                 } else {
-                    builder = ContentProviderOperation.newUpdate(ContentUris.withAppendedId(
-                            Notes.CONTENT_DATA_URI, mTextDataId));
-                    builder.withValues(mTextDataValues);
-                    operationList.add(builder.build());
+                    mTextDataValues.put(DataColumns.MIME_TYPE, TextNote.CONTENT_ITEM_TYPE);
+                    mTextDataInsert = insertData(queue, mTextDataValues, noteId, noteInsert);
+                    track(mTextDataInsert, mTextDataValues);
                 }
-                mTextDataValues.clear();
             }
 
             if (mCallDataValues.size() > 0) {
-                mCallDataValues.put(DataColumns.NOTE_ID, noteId);
-                if (mCallDataId == 0) {
-                    mCallDataValues.put(DataColumns.MIME_TYPE, CallNote.CONTENT_ITEM_TYPE);
-                    Uri uri = context.getContentResolver().insert(Notes.CONTENT_DATA_URI,
-                            mCallDataValues);
-                    try {
-                        setCallDataId(Long.valueOf(uri.getPathSegments().get(1)));
-                    } catch (NumberFormatException e) {
-                        Log.e(TAG, "插入新的通话数据失败，笔记ID" + noteId);
-                        mCallDataValues.clear();
-                        return null;
-                    }
+                if (mCallDataId == 0 && mCallDataInsert != null && mCallDataInsert.isDone()) {
+                    resolveCallDataId();
+                }
+                if (mCallDataId != 0) {
+                    track(queue.update(ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, mCallDataId),
+                            mCallDataValues), mCallDataValues);
+                } else if (mCallDataInsert != null) {
+                    track(queue.update(mCallDataInsert, mCallDataValues), mCallDataValues);
                 } else {
-                    builder = ContentProviderOperation.newUpdate(ContentUris.withAppendedId(
-                            Notes.CONTENT_DATA_URI, mCallDataId));
-                    builder.withValues(mCallDataValues);
-                    operationList.add(builder.build());
+                    mCallDataValues.put(DataColumns.MIME_TYPE, CallNote.CONTENT_ITEM_TYPE);
+                    mCallDataInsert = insertData(queue, mCallDataValues, noteId, noteInsert);
+                    track(mCallDataInsert, mCallDataValues);
                 }
-                mCallDataValues.clear();
             }
+        }
 
-            if (operationList.size() > 0) {
-                try {
-                    ContentProviderResult[] results = context.getContentResolver().applyBatch(
-                            Notes.AUTHORITY, operationList);
-                    return (results == null || results.length == 0 || results[0] == null) ? null
-                            : ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId);
-                } catch (RemoteException e) {
-                    Log.e(TAG, String.format("%s: %s", e.toString(), e.getMessage()));
-                    return null;
-                } catch (OperationApplicationException e) {
-                    Log.e(TAG, String.format("%s: %s", e.toString(), e.getMessage()));
-                    return null;
-                }
+        /**
+         * 插入数据行，笔记尚未提交时用笔记插入的结果填入笔记ID
+         */
+        private PendingWrite insertData(NotesWriteQueue queue, ContentValues values, long noteId,
+                                        PendingWrite noteInsert) {
+            if (noteInsert != null) {
+                return queue.insert(Notes.CONTENT_DATA_URI, values, DataColumns.NOTE_ID, noteInsert);
+            }
+            values.put(DataColumns.NOTE_ID, noteId);
+            return queue.insert(Notes.CONTENT_DATA_URI, values);
+        }
+
+        /**
+         * 从已提交的插入中取得文本数据ID。插入失败时修改由{@link #confirmSync}放回，下次保存时重新插入
+         */
+        private void resolveTextDataId() {
+            long id = mTextDataInsert.getId();
+            mTextDataInsert = null;
+            if (id > 0) {
+                setTextDataId(id);
+            } else {
+                Log.e(TAG, "插入新的文本数据失败");
+            }
+        }
+
+        /**
+         * 从已提交的插入中取得通话数据ID。插入失败时修改由{@link #confirmSync}放回，下次保存时重新插入
+         */
+        private void resolveCallDataId() {
+            long id = mCallDataInsert.getId();
+            mCallDataInsert = null;
+            if (id > 0) {
+                setCallDataId(id);
+            } else {
+                Log.e(TAG, "插入新的通话数据失败");
             }
-            return null;
         }
     }
 }
@@ -25,12 +25,16 @@ import android.net.Uri;
 import android.text.TextUtils;
 import android.util.Log;
 
+import net.micode.notes.data.NoteContentCodec;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.CallNote;
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.DataConstants;
 import net.micode.notes.data.Notes.NoteColumns;
 import net.micode.notes.data.Notes.TextNote;
+import net.micode.notes.data.NotesWriteQueue;
+import net.micode.notes.data.NotesWriteQueue.PendingWrite;
+import net.micode.notes.tool.DataUtils;
 import net.micode.notes.tool.ResourceParser.NoteBgResources;
 
 // WorkingNote类用于管理笔记的相关信息
@@ -39,6 +43,8 @@ public class WorkingNote {
     private Note mNote;
     // 笔记的唯一标识符
     private long mNoteId;
+    // 新笔记已放入写入队列、还没有取得ID的插入
+    private PendingWrite mNoteInsert;
     // 笔记的内容
     private String mContent;
     // 笔记的模式，例如普通、草稿等
@@ -77,6 +83,8 @@ public class WorkingNote {
             DataColumns.DATA2,
             DataColumns.DATA3,
             DataColumns.DATA4,
+            DataColumns.CONTENT_CODEC,
+            DataColumns.CONTENT_COMPRESSED,
     };
 
 
@@ -87,7 +95,8 @@ public class WorkingNote {
             NoteColumns.BG_COLOR_ID,
             NoteColumns.WIDGET_ID,
             NoteColumns.WIDGET_TYPE,
-            NoteColumns.MODIFIED_DATE
+            NoteColumns.MODIFIED_DATE,
+            NoteColumns.ARCHIVED
     };
 
     // 数据ID列的索引
@@ -102,6 +111,10 @@ public class WorkingNote {
     // 数据模式列的索引
     private static final int DATA_MODE_COLUMN = 3;
 
+    // 正文压缩方式和压缩内容列的索引
+    private static final int DATA_CONTENT_CODEC_COLUMN = 7;
+    private static final int DATA_CONTENT_COMPRESSED_COLUMN = 8;
+
     // Note表中父ID列的索引
     private static final int NOTE_PARENT_ID_COLUMN = 0;
 
@@ -120,6 +133,9 @@ public class WorkingNote {
     // Note表中修改日期列的索引
     private static final int NOTE_MODIFIED_DATE_COLUMN = 5;
 
+    // Note表中归档标记列的索引
+    private static final int NOTE_ARCHIVED_COLUMN = 6;
+
     /**
      * 新建笔记的构造函数
      *
@@ -158,9 +174,11 @@ public class WorkingNote {
     /**
      * 加载指定笔记的信息。
      * 从数据库中查询指定ID的笔记的详细信息，并更新当前实例的状态。
+     * 调用方需在写入队列空闲后加载（见{@link NotesWriteQueue#flush(Runnable)}），否则可能读到刚保存之前的内容。
      * 注意：此方法不处理查询失败或笔记不存在的情况。
      */
     private void loadNote() {
+        boolean archived = false;
         // 查询指定ID的笔记信息
         Cursor cursor = mContext.getContentResolver().query(
                 ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, mNoteId), 
@@ -177,6 +195,7 @@ public class WorkingNote {
                 mWidgetType = cursor.getInt(NOTE_WIDGET_TYPE_COLUMN);
                 mAlertDate = cursor.getLong(NOTE_ALERTED_DATE_COLUMN);
                 mModifiedDate = cursor.getLong(NOTE_MODIFIED_DATE_COLUMN);
+                archived = cursor.getInt(NOTE_ARCHIVED_COLUMN) > 0;
             }
             cursor.close();
         } else {
@@ -184,6 +203,10 @@ public class WorkingNote {
             Log.e(TAG, "No note with id:" + mNoteId);
             throw new IllegalArgumentException("Unable to find note with id " + mNoteId);
         }
+        if (archived) {
+            // 笔记列表打开归档笔记前已在后台恢复，这里只会遇到从搜索结果等入口直接打开的归档笔记
+            DataUtils.restoreArchivedNote(mContext.getContentResolver(), mNoteId);
+        }
         // 加载笔记的附加数据，如内容、设置等
         loadNoteData();
     }
@@ -208,7 +231,8 @@ public class WorkingNote {
                     String type = cursor.getString(DATA_MIME_TYPE_COLUMN);
                     if (DataConstants.NOTE.equals(type)) {
                         // 处理普通笔记内容
-                        mContent = cursor.getString(DATA_CONTENT_COLUMN);
+                        mContent = NoteContentCodec.readContent(cursor, DATA_CONTENT_COLUMN,
+                                DATA_CONTENT_CODEC_COLUMN, DATA_CONTENT_COMPRESSED_COLUMN);
                         mMode = cursor.getInt(DATA_MODE_COLUMN);
                         mNote.setTextDataId(cursor.getLong(DATA_ID_COLUMN));
                     } else if (DataConstants.CALL_NOTE.equals(type)) {
@@ -263,38 +287,88 @@ public class WorkingNote {
     /**
      * 保存笔记到数据库。
      * 如果笔记值得保存（即内容非空且未被标记为删除），且笔记不存在于数据库中或已存在于数据库但本地有修改，则进行保存操作。
-     * 如果笔记存在对应的小部件，会更新小部件内容。
+     * 修改放入写入队列后返回，不等待提交，提交失败时通过{@link NoteSettingChangedListener#onSaveFailed}通知；
+     * 新笔记提交后才取得笔记ID。如果笔记存在对应的小部件，提交后会更新小部件内容。
      *
-     * @return 如果保存成功返回true，否则返回false。
+     * @return 如果修改已放入写入队列返回true，否则返回false。
      */
     public synchronized boolean saveNote() {
+        // 已经失败的新笔记插入不再合并，重新插入
+        resolveNoteId(false);
         if (isWorthSaving()) {
-            if (!existInDatabase()) {
-                if ((mNoteId = Note.getNewNoteId(mContext, mFolderId)) == 0) {
-                    Log.e(TAG, "Create new note fail with id:" + mNoteId);
-                    return false;
+            NotesWriteQueue queue = NotesWriteQueue.getInstance(mContext);
+            // 一次保存的笔记和数据行在同一个事务中提交
+            queue.beginGroup();
+            try {
+                if (mNoteId > 0) {
+                    mNote.syncNote(mContext, mNoteId);
+                } else {
+                    // 新笔记的插入还没有提交时，之后的保存继续并入这次插入
+                    if (mNoteInsert == null) {
+                        mNoteInsert = Note.insertNewNote(mContext, mFolderId);
+                    }
+                    mNote.syncNote(mContext, mNoteInsert);
                 }
+            } finally {
+                queue.endGroup();
             }
 
-            mNote.syncNote(mContext, mNoteId);
-
-            if (mWidgetId != AppWidgetManager.INVALID_APPWIDGET_ID
-                    && mWidgetType != Notes.TYPE_WIDGET_INVALIDE
-                    && mNoteSettingStatusListener != null) {
-                mNoteSettingStatusListener.onWidgetChanged();
-            }
+            // 修改提交后确认结果并刷新小部件，否则小部件读到的还是旧内容
+            queue.runAfterPending(new Runnable() {
+                @Override
+                public void run() {
+                    onSaveCommitted();
+                }
+            });
             return true;
         }
         return false;
     }
 
+    /**
+     * 从新笔记的插入中取得笔记ID。插入失败时清除插入，修改由{@link Note#confirmSync}放回，下次保存时重新插入
+     *
+     * @param wait 插入还没有提交时是否等待
+     */
+    private void resolveNoteId(boolean wait) {
+        if (mNoteInsert == null || (!wait && !mNoteInsert.isDone())) {
+            return;
+        }
+        long id = mNoteInsert.getId();
+        mNoteInsert = null;
+        if (id > 0) {
+            mNoteId = id;
+        } else {
+            Log.e(TAG, "Create new note fail");
+        }
+    }
+
+    /**
+     * 保存的修改提交后在主线程调用。提交失败的修改留在笔记中等待下次保存，并通知监听器；
+     * 成功时如果笔记存在对应的小部件，更新小部件内容。
+     */
+    private synchronized void onSaveCommitted() {
+        resolveNoteId(false);
+        if (!mNote.confirmSync(false)) {
+            if (mNoteSettingStatusListener != null) {
+                mNoteSettingStatusListener.onSaveFailed();
+            }
+            return;
+        }
+        if (mWidgetId != AppWidgetManager.INVALID_APPWIDGET_ID
+                && mWidgetType != Notes.TYPE_WIDGET_INVALIDE
+                && mNoteSettingStatusListener != null) {
+            mNoteSettingStatusListener.onWidgetChanged();
+        }
+    }
+
     /**
      * 检查笔记是否已存在于数据库中。
      *
-     * @return 如果笔记ID大于0，表示已存在于数据库，返回true；否则返回false。
+     * @return 如果笔记ID大于0或新笔记的插入已放入写入队列，返回true；否则返回false。
      */
     public boolean existInDatabase() {
-        return mNoteId > 0;
+        return mNoteId > 0 || mNoteInsert != null;
     }
 
     /**
@@ -512,11 +586,13 @@ public class WorkingNote {
     }
 
     /**
-     * 获取笔记ID
+     * 获取笔记ID。新笔记的插入还在写入队列中时等待提交，主线程上只在保存状态等必须立即取得ID的场合调用，
+     * 其他场合在{@link NotesWriteQueue#runAfterPending}的回调中调用
      *
-     * @return 笔记ID
+     * @return 笔记ID，笔记还没有保存或插入失败时返回0
      */
-    public long getNoteId() {
+    public synchronized long getNoteId() {
+        resolveNoteId(true);
         return mNoteId;
     }
 
@@ -569,6 +645,11 @@ public class WorkingNote {
          */
         void onWidgetChanged();
 
+        /**
+         * 保存的修改提交失败时调用，修改保留在笔记中，下次保存时重试
+         */
+        void onSaveFailed();
+
         /**
          * 切换勾选列表模式和普通模式时调用
          *
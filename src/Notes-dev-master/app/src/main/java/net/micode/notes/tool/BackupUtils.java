@@ -30,6 +30,7 @@ import androidx.core.content.ContextCompat;
 import androidx.core.app.ActivityCompat;
 
 import net.micode.notes.R;
+import net.micode.notes.data.NoteContentCodec;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.DataConstants;
@@ -130,13 +131,15 @@ public class BackupUtils {
                 NoteColumns.ID,
                 NoteColumns.MODIFIED_DATE,
                 NoteColumns.SNIPPET,
-                NoteColumns.TYPE
+                NoteColumns.TYPE,
+                NoteColumns.ARCHIVED
         };
 
         // 笔记列的索引
         private static final int NOTE_COLUMN_ID = 0;
         private static final int NOTE_COLUMN_MODIFIED_DATE = 1;
         private static final int NOTE_COLUMN_SNIPPET = 2;
+        private static final int NOTE_COLUMN_ARCHIVED = 4;
 
         // 查询数据时需要的列
         private static final String[] DATA_PROJECTION = {
@@ -146,6 +149,8 @@ public class BackupUtils {
                 DataColumns.DATA2,
                 DataColumns.DATA3,
                 DataColumns.DATA4,
+                DataColumns.CONTENT_CODEC,
+                DataColumns.CONTENT_COMPRESSED,
         };
 
 
@@ -161,6 +166,10 @@ public class BackupUtils {
         // 定义数据列的电话号码索引
         private static final int DATA_COLUMN_PHONE_NUMBER = 4;
 
+        // 定义数据列的正文压缩方式和压缩内容索引
+        private static final int DATA_COLUMN_CONTENT_CODEC = 6;
+        private static final int DATA_COLUMN_CONTENT_COMPRESSED = 7;
+
         // 用于导出笔记的文本格式数组
         private final String[] TEXT_FORMAT;
         // 定义文本格式的索引：文件夹名称
@@ -222,7 +231,7 @@ public class BackupUtils {
                                 notesCursor.getLong(NOTE_COLUMN_MODIFIED_DATE))));
                         // 导出该笔记的内容到文本
                         String noteId = notesCursor.getString(NOTE_COLUMN_ID);
-                        exportNoteToText(noteId, ps);
+                        exportNoteToText(noteId, notesCursor.getInt(NOTE_COLUMN_ARCHIVED) > 0, ps);
                     } while (notesCursor.moveToNext());
                 }
                 notesCursor.close();
@@ -233,12 +242,14 @@ public class BackupUtils {
         /**
          * 将指定id的笔记导出到打印流中
          *
-         * @param noteId 笔记的id
-         * @param ps     打印流，用于输出笔记内容
+         * @param noteId   笔记的id
+         * @param archived 笔记正文是否已归档，已归档时从归档库读取，不把笔记移回
+         * @param ps       打印流，用于输出笔记内容
          */
-        private void exportNoteToText(String noteId, PrintStream ps) {
+        private void exportNoteToText(String noteId, boolean archived, PrintStream ps) {
             // 查询指定id的笔记数据
-            Cursor dataCursor = mContext.getContentResolver().query(Notes.CONTENT_DATA_URI,
+            Cursor dataCursor = mContext.getContentResolver().query(
+                    archived ? Notes.CONTENT_ARCHIVE_DATA_URI : Notes.CONTENT_DATA_URI,
                     DATA_PROJECTION, DataColumns.NOTE_ID + "=?", new String[]{
                             noteId
                     }, null);
@@ -267,7 +278,8 @@ public class BackupUtils {
                             }
                         } else if (DataConstants.NOTE.equals(mimeType)) {
                             // 处理普通笔记类型
-                            String content = dataCursor.getString(DATA_COLUMN_CONTENT);
+                            String content = NoteContentCodec.readContent(dataCursor, DATA_COLUMN_CONTENT,
+                                    DATA_COLUMN_CONTENT_CODEC, DATA_COLUMN_CONTENT_COMPRESSED);
                             if (!TextUtils.isEmpty(content)) {
                                 ps.println(String.format(getFormat(FORMAT_NOTE_CONTENT),
                                         content));
@@ -351,7 +363,7 @@ public class BackupUtils {
                                 noteCursor.getLong(NOTE_COLUMN_MODIFIED_DATE))));
                         // 导出笔记内容
                         String noteId = noteCursor.getString(NOTE_COLUMN_ID);
-                        exportNoteToText(noteId, ps);
+                        exportNoteToText(noteId, noteCursor.getInt(NOTE_COLUMN_ARCHIVED) > 0, ps);
                     } while (noteCursor.moveToNext());
                 }
                 noteCursor.close();
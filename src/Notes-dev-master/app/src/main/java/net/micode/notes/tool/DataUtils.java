@@ -16,29 +16,29 @@
 
 package net.micode.notes.tool;
 
-import android.content.ContentProviderOperation;
-import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.OperationApplicationException;
+import android.content.Context;
 import android.database.Cursor;
-import android.os.RemoteException;
+import android.net.Uri;
+import android.os.Bundle;
 import android.util.Log;
 
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.CallNote;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesWriteQueue;
+import net.micode.notes.data.NotesWriteQueue.PendingWrite;
 import net.micode.notes.ui.NotesListAdapter.AppWidgetAttribute;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
 
 public class DataUtils {
     public static final String TAG = "DataUtils";
-    private static final String ERROR_FORMAT = "%s: %s";
     private static final String LOG_IDS_NULL = "the ids is null";
     private static final String LOG_IDS_EMPTY = "no id is in the hashset";
     private static final String LOG_DELETE_FAILED = "delete notes failed, ids: %s";
@@ -68,29 +68,200 @@ public class DataUtils {
             return true;
         }
 
-        // 构建删除操作的列表
-        ArrayList<ContentProviderOperation> operationList = new ArrayList<>();
+        Bundle result = resolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_BATCH_DELETE, null,
+                batchDeleteExtras(ids));
+        // 检查删除结果
+        if (result == null || result.getInt(Notes.EXTRA_COUNT) == 0) {
+            Log.d(TAG, String.format(LOG_DELETE_FAILED, ids));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 把批量删除笔记放入写入队列，与其间的其他写入按顺序提交，调用方不等待删除完成
+     *
+     * @param context 上下文对象
+     * @param ids     要删除的笔记ID集合
+     * @return 删除的结果，包含删除的行数；集合为空或为null时返回null
+     */
+    public static PendingWrite enqueueBatchDeleteNotes(Context context, Set<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            Log.d(TAG, ids == null ? LOG_IDS_NULL : LOG_IDS_EMPTY);
+            return null;
+        }
+        return NotesWriteQueue.getInstance(context).call(Notes.METHOD_BATCH_DELETE,
+                batchDeleteExtras(ids));
+    }
+
+    /**
+     * 收集要删除的笔记ID，由内容提供者用一条语句删除
+     *
+     * @param ids 要删除的笔记ID集合
+     * @return 批量删除的参数，不包含根文件夹
+     */
+    private static Bundle batchDeleteExtras(Set<Long> ids) {
+        long[] idArray = new long[ids.size()];
+        int size = 0;
         for (long id : ids) {
             if (id == Notes.ID_ROOT_FOLDER) {
                 Log.e(TAG, LOG_SYSTEM_FOLDER);
                 continue;
             }
-            ContentProviderOperation.Builder builder = ContentProviderOperation
-                    .newDelete(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, id));
-            operationList.add(builder.build());
-        }
-        try {
-            ContentProviderResult[] results = resolver.applyBatch(Notes.AUTHORITY, operationList);
-            // 检查删除结果
-            if (results.length == 0) {
-                Log.d(TAG, String.format(LOG_DELETE_FAILED, ids));
-                return false;
-            }
-            return true;
-        } catch (RemoteException | OperationApplicationException e) {
-            Log.e(TAG, String.format(ERROR_FORMAT, e.getClass().getSimpleName(), e.getMessage()));
-            return false;
+            idArray[size++] = id;
         }
+        Bundle extras = new Bundle();
+        extras.putLongArray(Notes.EXTRA_IDS, Arrays.copyOf(idArray, size));
+        return extras;
+    }
+
+    /**
+     * 批量插入笔记或数据，整批在一个事务中完成并返回生成的ID
+     *
+     * @param resolver 内容解析器
+     * @param uri      目标URI，{@link Notes#CONTENT_NOTE_URI}或{@link Notes#CONTENT_DATA_URI}
+     * @param values   要插入的数据
+     * @return 与values一一对应的新行ID；任何一行插入失败时整批回滚并返回null
+     */
+    public static long[] bulkInsertWithIds(ContentResolver resolver, Uri uri, ContentValues[] values) {
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(Notes.EXTRA_VALUES, values);
+        Bundle result = resolver.call(uri, Notes.METHOD_BULK_INSERT, uri.toString(), extras);
+        return result == null ? null : result.getLongArray(Notes.EXTRA_IDS);
+    }
+
+    /**
+     * 同步等大批量写入结束后调用，请求把WAL合并回数据库并截断
+     *
+     * @param resolver 内容解析器
+     */
+    public static void requestWalCheckpoint(ContentResolver resolver) {
+        resolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_CHECKPOINT, null, null);
+    }
+
+    /**
+     * 执行数据库空闲维护：回收删除笔记后留下的空闲页并更新查询统计信息，需要在后台线程调用
+     *
+     * @param resolver 内容解析器
+     * @return 维护结果，包含{@link Notes#EXTRA_RECLAIMED_BYTES}和{@link Notes#EXTRA_FREELIST_BYTES}；调用失败时返回null
+     */
+    public static Bundle maintainDatabase(ContentResolver resolver) {
+        return resolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_MAINTAIN, null, null);
+    }
+
+    /**
+     * 把修改时间早于指定时间的笔记正文移入归档库，需要在后台线程调用
+     *
+     * @param resolver 内容解析器
+     * @param before   修改时间早于该值的笔记才归档
+     * @return 归档的笔记数
+     */
+    public static int archiveNotes(ContentResolver resolver, long before) {
+        Bundle extras = new Bundle();
+        extras.putLong(Notes.EXTRA_ARCHIVE_BEFORE, before);
+        Bundle result = resolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_ARCHIVE_NOTES, null, extras);
+        return result == null ? 0 : result.getInt(Notes.EXTRA_COUNT);
+    }
+
+    /**
+     * 把一条归档笔记的正文移回主库，打开归档笔记前调用，需要在后台线程调用
+     *
+     * @param resolver 内容解析器
+     * @param noteId   笔记ID
+     * @return 笔记已归档并恢复时返回true
+     */
+    public static boolean restoreArchivedNote(ContentResolver resolver, long noteId) {
+        Bundle extras = new Bundle();
+        extras.putLongArray(Notes.EXTRA_IDS, new long[]{noteId});
+        Bundle result = resolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_RESTORE_NOTES, null, extras);
+        return result != null && result.getInt(Notes.EXTRA_COUNT) > 0;
+    }
+
+    /**
+     * 把全部归档笔记的正文移回主库，需要在后台线程调用
+     *
+     * @param resolver 内容解析器
+     * @return 恢复的笔记数
+     */
+    public static int restoreArchivedNotes(ContentResolver resolver) {
+        Bundle result = resolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_RESTORE_NOTES, null, null);
+        return result == null ? 0 : result.getInt(Notes.EXTRA_COUNT);
+    }
+
+    /**
+     * 把来源URI的内容作为附件加入笔记，内容由内容提供者直接读取，不经过Binder传递，需要在后台线程调用
+     *
+     * @param resolver 内容解析器
+     * @param noteId   笔记ID
+     * @param source   附件内容的来源URI，必须是调用方可读的content URI，不接受file URI
+     * @param mimeType 附件的MIME类型，为null时取来源URI的类型
+     * @return 新附件的ID，失败时返回-1
+     */
+    public static long addAttachment(ContentResolver resolver, long noteId, Uri source, String mimeType) {
+        Bundle extras = new Bundle();
+        extras.putParcelable(Notes.EXTRA_SOURCE_URI, source);
+        extras.putString(Notes.EXTRA_MIME_TYPE, mimeType);
+        Bundle result = resolver.call(Notes.CONTENT_ATTACHMENT_URI, Notes.METHOD_ADD_ATTACHMENT,
+                String.valueOf(noteId), extras);
+        return result == null ? -1 : result.getLong(Notes.EXTRA_ATTACHMENT_ID, -1);
+    }
+
+    /**
+     * 获取附件的URI，用ContentResolver.openFileDescriptor或openInputStream读取附件内容
+     *
+     * @param attachmentId 附件ID
+     * @return 附件URI
+     */
+    public static Uri getAttachmentUri(long attachmentId) {
+        return ContentUris.withAppendedId(Notes.CONTENT_ATTACHMENT_URI, attachmentId);
+    }
+
+    /**
+     * 构造笔记分页查询的第一页URI
+     *
+     * @param limit 每页条数
+     * @return 分页查询URI
+     */
+    public static Uri buildNotePageUri(int limit) {
+        return Notes.CONTENT_NOTE_URI.buildUpon()
+                .appendQueryParameter(Notes.PARAM_LIMIT, String.valueOf(limit))
+                .build();
+    }
+
+    /**
+     * 构造笔记分页查询的后续页URI
+     *
+     * @param limit         每页条数
+     * @param afterType     上一页最后一条笔记的类型
+     * @param afterModified 上一页最后一条笔记的修改时间
+     * @param afterId       上一页最后一条笔记的ID
+     * @return 分页查询URI
+     */
+    public static Uri buildNotePageUri(int limit, int afterType, long afterModified, long afterId) {
+        return buildNotePageUri(limit).buildUpon()
+                .appendQueryParameter(Notes.PARAM_AFTER_TYPE, String.valueOf(afterType))
+                .appendQueryParameter(Notes.PARAM_AFTER_MODIFIED, String.valueOf(afterModified))
+                .appendQueryParameter(Notes.PARAM_AFTER_ID, String.valueOf(afterId))
+                .build();
+    }
+
+    /**
+     * 暂停当前线程写入引起的变更通知，直到在同一线程调用{@link #resumeNotifyChanges}，两者须成对调用。
+     * 其他线程的写入（例如用户在编辑界面的保存）照常通知
+     *
+     * @param resolver 内容解析器
+     */
+    public static void suppressNotifyChanges(ContentResolver resolver) {
+        resolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_SUPPRESS_NOTIFY, null, null);
+    }
+
+    /**
+     * 恢复当前线程写入引起的变更通知，暂停期间的变更去重后一次性发送
+     *
+     * @param resolver 内容解析器
+     */
+    public static void resumeNotifyChanges(ContentResolver resolver) {
+        resolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_RESUME_NOTIFY, null, null);
     }
 
     /**
@@ -124,28 +295,62 @@ public class DataUtils {
             return true;
         }
 
-        // 构建更新操作的列表
-        ArrayList<ContentProviderOperation> operationList = new ArrayList<>();
-        for (long id : ids) {
-            ContentProviderOperation.Builder builder = ContentProviderOperation
-                    .newUpdate(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, id));
-            builder.withValue(NoteColumns.PARENT_ID, folderId);
-            builder.withValue(NoteColumns.LOCAL_MODIFIED, 1);
-            operationList.add(builder.build());
+        Bundle result = resolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_BATCH_MOVE, null,
+                batchMoveExtras(ids, folderId));
+        // 检查移动结果
+        if (result == null || result.getInt(Notes.EXTRA_COUNT) == 0) {
+            Log.d(TAG, String.format("move notes failed, ids: %s", ids));
+            return false;
         }
+        return true;
+    }
 
-        try {
-            ContentProviderResult[] results = resolver.applyBatch(Notes.AUTHORITY, operationList);
-            // 检查移动结果
-            if (results.length == 0) {
-                Log.d(TAG, String.format("move notes failed, ids: %s", ids));
-                return false;
-            }
-            return true;
-        } catch (RemoteException | OperationApplicationException e) {
-            Log.e(TAG, String.format(ERROR_FORMAT, e.getClass().getSimpleName(), e.getMessage()));
-            return false;
+    /**
+     * 把回收站中的全部笔记移出回收站，由内容提供者按parent_id选出，不受列表分页影响
+     *
+     * @param resolver 内容解析器
+     * @return 移出回收站的笔记数，失败时返回0
+     */
+    public static int restoreTrash(ContentResolver resolver) {
+        Bundle result = resolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_RESTORE_TRASH, null, null);
+        return result == null ? 0 : result.getInt(Notes.EXTRA_COUNT);
+    }
+
+    /**
+     * 把批量移动笔记放入写入队列，与其间的其他写入按顺序提交，调用方不等待移动完成
+     *
+     * @param context  上下文对象
+     * @param ids      要移动的笔记ID集合
+     * @param folderId 目标文件夹ID
+     * @return 移动的结果，包含移动的行数；集合为null时返回null
+     */
+    public static PendingWrite enqueueBatchMoveToFolder(Context context, Set<Long> ids,
+                                                        long folderId) {
+        if (ids == null) {
+            Log.d(TAG, LOG_IDS_NULL);
+            return null;
+        }
+        return NotesWriteQueue.getInstance(context).call(Notes.METHOD_BATCH_MOVE,
+                batchMoveExtras(ids, folderId));
+    }
+
+    /**
+     * 收集要移动的笔记ID，由内容提供者用一条语句更新
+     *
+     * @param ids      要移动的笔记ID集合
+     * @param folderId 目标文件夹ID
+     * @return 批量移动的参数
+     */
+    private static Bundle batchMoveExtras(Set<Long> ids, long folderId) {
+        long[] idArray = new long[ids.size()];
+        int i = 0;
+        for (long id : ids) {
+            idArray[i++] = id;
         }
+        Bundle extras = new Bundle();
+        extras.putLongArray(Notes.EXTRA_IDS, idArray);
+        extras.putLong(Notes.EXTRA_FOLDER_ID, folderId);
+        return extras;
     }
 
     /**
@@ -155,25 +360,8 @@ public class DataUtils {
      * @return 用户文件夹数量
      */
     public static int getUserFolderCount(ContentResolver resolver) {
-        Cursor cursor = resolver.query(Notes.CONTENT_NOTE_URI,
-                new String[]{"COUNT(*)"},
-                NoteColumns.TYPE + "=? AND " + NoteColumns.PARENT_ID + "<>?",
-                new String[]{String.valueOf(Notes.TYPE_FOLDER), String.valueOf(Notes.ID_TRASH_FOLER)},
-                null);
-
-        int count = 0;
-        if (cursor != null) {
-            if (cursor.moveToFirst()) {
-                try {
-                    count = cursor.getInt(0);
-                } catch (IndexOutOfBoundsException e) {
-                    Log.e(TAG, "get folder count failed:" + e.toString());
-                } finally {
-                    cursor.close();
-                }
-            }
-        }
-        return count;
+        Bundle result = resolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_USER_FOLDER_COUNT, null, null);
+        return result == null ? 0 : result.getInt(Notes.EXTRA_COUNT);
     }
 
     /**
@@ -185,20 +373,9 @@ public class DataUtils {
      * @return 如果可见，则返回true，否则返回false
      */
     public static boolean visibleInNoteDatabase(ContentResolver resolver, long noteId, int type) {
-        Cursor cursor = resolver.query(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId),
-                null,
-                NoteColumns.TYPE + "=? AND " + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER,
-                new String[]{String.valueOf(type)},
-                null);
-
-        boolean exist = false;
-        if (cursor != null) {
-            if (cursor.getCount() > 0) {
-                exist = true;
-            }
-            cursor.close();
-        }
-        return exist;
+        Bundle extras = new Bundle();
+        extras.putInt(Notes.EXTRA_VISIBLE_TYPE, type);
+        return exists(resolver, ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId), extras);
     }
 
     /**
@@ -209,17 +386,7 @@ public class DataUtils {
      * @return 如果存在，则返回true，否则返回false
      */
     public static boolean existInNoteDatabase(ContentResolver resolver, long noteId) {
-        Cursor cursor = resolver.query(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId),
-                null, null, null, null);
-
-        boolean exist = false;
-        if (cursor != null) {
-            if (cursor.getCount() > 0) {
-                exist = true;
-            }
-            cursor.close();
-        }
-        return exist;
+        return exists(resolver, ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId), null);
     }
 
     /**
@@ -230,17 +397,48 @@ public class DataUtils {
      * @return 如果存在，则返回true，否则返回false
      */
     public static boolean existInDataDatabase(ContentResolver resolver, long dataId) {
-        Cursor cursor = resolver.query(ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, dataId),
-                null, null, null, null);
+        return exists(resolver, ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, dataId), null);
+    }
 
-        boolean exist = false;
-        if (cursor != null) {
-            if (cursor.getCount() > 0) {
-                exist = true;
-            }
-            cursor.close();
-        }
-        return exist;
+    /**
+     * 批量检查数据是否存在于数据库中
+     *
+     * @param resolver 内容解析器
+     * @param dataIds  数据ID
+     * @return 与dataIds一一对应的结果
+     */
+    public static boolean[] existInDataDatabase(ContentResolver resolver, long[] dataIds) {
+        Bundle extras = new Bundle();
+        extras.putLongArray(Notes.EXTRA_IDS, dataIds);
+        Bundle result = resolver.call(Notes.CONTENT_DATA_URI, Notes.METHOD_EXISTS_MANY,
+                Notes.CONTENT_DATA_URI.toString(), extras);
+        return result == null ? new boolean[dataIds.length] : result.getBooleanArray(Notes.EXTRA_EXISTS);
+    }
+
+    /**
+     * 统计文件夹整个子树中的笔记数量，包括各级子文件夹中的笔记
+     *
+     * @param resolver 内容解析器
+     * @param folderId 文件夹ID
+     * @return 数量
+     */
+    public static int getNoteCountInSubtree(ContentResolver resolver, long folderId) {
+        Bundle result = resolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_COUNT_SUBTREE,
+                String.valueOf(folderId), null);
+        return result == null ? 0 : result.getInt(Notes.EXTRA_COUNT);
+    }
+
+    /**
+     * 通过内容提供者的call()判断单行是否存在，不创建游标
+     *
+     * @param resolver 内容解析器
+     * @param uri      笔记或数据的条目URI
+     * @param extras   附加条件
+     * @return 是否存在
+     */
+    private static boolean exists(ContentResolver resolver, Uri uri, Bundle extras) {
+        Bundle result = resolver.call(uri, Notes.METHOD_EXISTS, uri.toString(), extras);
+        return result != null && result.getBoolean(Notes.EXTRA_EXISTS);
     }
 
     /**
@@ -327,7 +525,7 @@ public class DataUtils {
     }
 
     /**
-     * 根据电话号码和通话日期获取对应的笔记ID
+     * 根据电话号码和通话日期获取对应的笔记ID，由内容提供者按规范化的号码在索引上查找
      *
      * @param resolver    内容解析器
      * @param phoneNumber 电话号码
@@ -335,24 +533,10 @@ public class DataUtils {
      * @return 笔记ID，未找到则返回0
      */
     public static long getNoteIdByPhoneNumberAndCallDate(ContentResolver resolver, String phoneNumber, long callDate) {
-        Cursor cursor = resolver.query(Notes.CONTENT_DATA_URI,
-                new String[]{CallNote.NOTE_ID},
-                CallNote.CALL_DATE + "=? AND " + CallNote.MIME_TYPE + "=? AND PHONE_NUMBERS_EQUAL("
-                        + CallNote.PHONE_NUMBER + ",?)",
-                new String[]{String.valueOf(callDate), CallNote.CONTENT_ITEM_TYPE, phoneNumber},
-                null);
-
-        if (cursor != null) {
-            if (cursor.moveToFirst()) {
-                try {
-                    return cursor.getLong(0);
-                } catch (IndexOutOfBoundsException e) {
-                    Log.e(TAG, "Get call note id fails " + e.toString());
-                }
-            }
-            cursor.close();
-        }
-        return 0;
+        Bundle extras = new Bundle();
+        extras.putLong(Notes.EXTRA_CALL_DATE, callDate);
+        Bundle result = resolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_FIND_CALL_NOTE, phoneNumber, extras);
+        return result == null ? 0 : result.getLong(Notes.EXTRA_NOTE_ID);
     }
 
     /**
@@ -365,7 +549,7 @@ public class DataUtils {
     public static String getSnippetById(ContentResolver resolver, long noteId) {
         // 使用内容解析器查询特定ID的笔记的摘要
         Cursor cursor = resolver.query(Notes.CONTENT_NOTE_URI,
-                new String[]{NoteColumns.SNIPPET},
+                new String[]{NoteColumns.PREVIEW},
                 NoteColumns.ID + "=?",
                 new String[]{String.valueOf(noteId)},
                 null);
@@ -41,7 +41,8 @@ public class AlarmInitReceiver extends BroadcastReceiver {
         // 查询数据库中所有需要提醒的笔记
         Cursor c = context.getContentResolver().query(Notes.CONTENT_NOTE_URI,
                 PROJECTION,
-                NoteColumns.ALERTED_DATE + ">? AND " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE,
+                NoteColumns.ALERTED_DATE + ">? AND " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE
+                        + " AND " + NoteColumns.ALERTED_DATE + ">0", // 命中 alert_date 部分索引
                 new String[]{String.valueOf(currentDate)},
                 null);
 
@@ -65,6 +65,7 @@ import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.TextNote;
+import net.micode.notes.data.NotesWriteQueue;
 import net.micode.notes.model.WorkingNote;
 import net.micode.notes.model.WorkingNote.NoteSettingChangedListener;
 import net.micode.notes.tool.DataUtils;
@@ -213,10 +214,13 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         super.onCreate(savedInstanceState);
         this.setContentView(R.layout.note_edit); // 设置活动的视图布局
 
-        // 检查实例状态是否被保存，如果未保存且初始化活动状态失败，则结束该活动
-        if (savedInstanceState == null && !initActivityState(getIntent())) {
-            finish();
-            return;
+        // 检查实例状态是否被保存，如果未保存且初始化活动状态失败，则结束该活动。
+        // 保存状态时笔记还没有加载完的，同样按原来的Intent初始化
+        if (savedInstanceState == null || !savedInstanceState.containsKey(Intent.EXTRA_UID)) {
+            initActivityStateAfterPending(getIntent());
+            if (isFinishing()) {
+                return;
+            }
         }
         initResources(); // 初始化资源
         count();
@@ -241,15 +245,43 @@ public class NoteEditActivity extends Activity implements OnClickListener,
             Intent intent = new Intent(Intent.ACTION_VIEW);
             intent.putExtra(Intent.EXTRA_UID, savedInstanceState.getLong(Intent.EXTRA_UID));
             // 使用intent尝试恢复活动状态，如果失败则结束该活动
+            initActivityStateAfterPending(intent);
+            Log.d(TAG, "Restoring from killed activity"); // 日志记录，表示活动状态正在从被杀死的状态恢复
+        }
+    }
+
+
+    /**
+     * 初始化活动状态，失败时结束活动。写入队列中还有未提交的修改时，等提交后在回调中初始化并刷新界面，
+     * 不在主线程等待提交，也不会读到刚保存之前的内容；其间mWorkingNote为null。
+     *
+     * @param intent 传入的Intent
+     */
+    private void initActivityStateAfterPending(final Intent intent) {
+        mWorkingNote = null;
+        NotesWriteQueue queue = NotesWriteQueue.getInstance(this);
+        if (queue.isIdle()) {
             if (!initActivityState(intent)) {
                 finish();
-                return;
             }
-            Log.d(TAG, "Restoring from killed activity"); // 日志记录，表示活动状态正在从被杀死的状态恢复
+            return;
         }
+        queue.flush(new Runnable() {
+            @Override
+            public void run() {
+                if (isFinishing() || isDestroyed()) {
+                    return;
+                }
+                if (!initActivityState(intent)) {
+                    finish();
+                    return;
+                }
+                initNoteScreen();
+                invalidateOptionsMenu();
+            }
+        });
     }
 
-
     /**
      * 初始化活动状态，根据传入的Intent确定是查看笔记、新建笔记还是编辑笔记。
      *
@@ -381,7 +413,10 @@ public class NoteEditActivity extends Activity implements OnClickListener,
     @Override
     protected void onResume() {
         super.onResume();
-        initNoteScreen();   // 初始化笔记界面
+        // 笔记还在等待写入队列提交时，加载后再初始化
+        if (mWorkingNote != null) {
+            initNoteScreen();   // 初始化笔记界面
+        }
     }
 
     /**
@@ -459,7 +494,7 @@ public class NoteEditActivity extends Activity implements OnClickListener,
     @Override
     protected void onNewIntent(Intent intent) {
         super.onNewIntent(intent);
-        initActivityState(intent);
+        initActivityStateAfterPending(intent);
     }
 
     /**
@@ -472,6 +507,10 @@ public class NoteEditActivity extends Activity implements OnClickListener,
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
+        // 笔记还没有加载完时不保存ID，重建时按原来的Intent加载
+        if (mWorkingNote == null) {
+            return;
+        }
         // 如果当前编辑的笔记不存在于数据库中，即还未保存，先保存它
         if (!mWorkingNote.existInDatabase()) {
             saveNote();
@@ -720,6 +759,10 @@ public class NoteEditActivity extends Activity implements OnClickListener,
      * @param v 被点击的视图对象。
      */
     public void onClick(View v) {
+        // 笔记还没有加载完
+        if (mWorkingNote == null) {
+            return;
+        }
         int id = v.getId();
         // 如果点击的是设置背景颜色的按钮
         if (id == R.id.btn_set_bg_color) {
@@ -831,6 +874,10 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         if (isFinishing()) {
             return true;
         }
+        // 笔记加载完后会重新准备菜单
+        if (mWorkingNote == null) {
+            return false;
+        }
         // 尝试清除设置状态
         clearSettingState();
         menu.clear(); // 清除菜单项
@@ -1092,10 +1139,26 @@ public class NoteEditActivity extends Activity implements OnClickListener,
      * @param date 提醒的日期时间戳
      * @param set  是否设置提醒
      */
-    public void onClockAlertChanged(long date, boolean set) {
+    public void onClockAlertChanged(final long date, final boolean set) {
         if (!mWorkingNote.existInDatabase()) {
             saveNote();
         }
+        // 新笔记的插入提交后才有ID，在提交后的回调中设置提醒，不在主线程等待提交
+        NotesWriteQueue.getInstance(this).runAfterPending(new Runnable() {
+            @Override
+            public void run() {
+                updateClockAlert(date, set);
+            }
+        });
+    }
+
+    /**
+     * 根据笔记ID设置或取消提醒，笔记没有保存时提示用户输入内容。
+     *
+     * @param date 提醒的日期时间戳
+     * @param set  是否设置提醒
+     */
+    private void updateClockAlert(long date, boolean set) {
         if (mWorkingNote.getNoteId() > 0) {
             Intent intent = new Intent(this, AlarmReceiver.class);
             intent.setData(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, mWorkingNote.getNoteId()));
@@ -1120,6 +1183,13 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         updateWidget();
     }
 
+    /**
+     * 保存提交失败时提示用户，修改保留在笔记中，下次保存时重试。
+     */
+    public void onSaveFailed() {
+        showToast(R.string.error_note_save_failed);
+    }
+
     /**
      * 当删除某个编辑框中的文本时的处理逻辑。
      * 重新设置后续编辑框的索引，并将删除的文本添加到前一个或当前编辑框中。
@@ -1404,6 +1474,9 @@ public class NoteEditActivity extends Activity implements OnClickListener,
      * @return 是否成功保存笔记。
      */
     private boolean saveNote() {
+        if (mWorkingNote == null) {
+            return false;
+        }
         getWorkingText();
         boolean saved = mWorkingNote.saveNote();
         if (saved) {
@@ -1423,7 +1496,19 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         if (!mWorkingNote.existInDatabase()) {
             saveNote();
         }
+        // 新笔记的插入提交后才有ID，在提交后的回调中创建快捷方式
+        NotesWriteQueue.getInstance(this).runAfterPending(new Runnable() {
+            @Override
+            public void run() {
+                createShortcut();
+            }
+        });
+    }
 
+    /**
+     * 为已保存的笔记创建桌面快捷方式，笔记没有保存时提示用户输入内容。
+     */
+    private void createShortcut() {
         // 如果笔记存在于数据库（有noteId），则创建快捷方式
         if (mWorkingNote.getNoteId() > 0) {
             ShortcutManager shortcutManager = getSystemService(ShortcutManager.class);
@@ -23,7 +23,6 @@ import android.text.TextUtils;
 import net.micode.notes.data.Contact;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.NoteColumns;
-import net.micode.notes.tool.DataUtils;
 
 
 /**
@@ -40,10 +39,12 @@ public class NoteItemData {
             NoteColumns.MODIFIED_DATE,
             NoteColumns.NOTES_COUNT,
             NoteColumns.PARENT_ID,
-            NoteColumns.SNIPPET,
+            NoteColumns.PREVIEW,
             NoteColumns.TYPE,
             NoteColumns.WIDGET_ID,
             NoteColumns.WIDGET_TYPE,
+            NoteColumns.CALL_NUMBER,
+            NoteColumns.ARCHIVED,
     };
 
     // 各列数据的索引
@@ -59,6 +60,8 @@ public class NoteItemData {
     private static final int TYPE_COLUMN = 9;
     private static final int WIDGET_ID_COLUMN = 10;
     private static final int WIDGET_TYPE_COLUMN = 11;
+    private static final int CALL_NUMBER_COLUMN = 12;
+    private static final int ARCHIVED_COLUMN = 13;
 
     // 笔记的各项数据
     private long mId;
@@ -73,6 +76,7 @@ public class NoteItemData {
     private int mType;
     private int mWidgetId;
     private int mWidgetType;
+    private boolean mArchived;
     private String mName;
     private String mPhoneNumber;
 
@@ -99,19 +103,19 @@ public class NoteItemData {
         mModifiedDate = cursor.getLong(MODIFIED_DATE_COLUMN);
         mNotesCount = cursor.getInt(NOTES_COUNT_COLUMN);
         mParentId = cursor.getLong(PARENT_ID_COLUMN);
+        // 预览在写入时已去掉清单符号
         mSnippet = cursor.getString(SNIPPET_COLUMN);
-        mSnippet = mSnippet.replace(NoteEditActivity.TAG_CHECKED, "").replace(
-                NoteEditActivity.TAG_UNCHECKED, "");
         mType = cursor.getInt(TYPE_COLUMN);
         mWidgetId = cursor.getInt(WIDGET_ID_COLUMN);
         mWidgetType = cursor.getInt(WIDGET_TYPE_COLUMN);
+        mArchived = cursor.getInt(ARCHIVED_COLUMN) > 0;
 
-        // 如果是通话记录笔记，尝试获取通话号码和联系人名称
+        // 通话记录笔记的号码由列表游标直接带回，联系人名称只取缓存，未解析的由列表在后台批量解析
         mPhoneNumber = "";
         if (mParentId == Notes.ID_CALL_RECORD_FOLDER) {
-            mPhoneNumber = DataUtils.getCallNumberByNoteId(context.getContentResolver(), mId);
+            mPhoneNumber = cursor.getString(CALL_NUMBER_COLUMN);
             if (!TextUtils.isEmpty(mPhoneNumber)) {
-                mName = Contact.getContact(context, mPhoneNumber);
+                mName = Contact.getCachedContact(mPhoneNumber);
                 if (mName == null) {
                     mName = mPhoneNumber;
                 }
@@ -200,6 +204,15 @@ public class NoteItemData {
         return mHasAttachment;
     }
 
+    /**
+     * 判断笔记的正文是否已移入归档库，打开前需要先恢复
+     *
+     * @return 已归档返回true，否则返回false
+     */
+    public boolean isArchived() {
+        return mArchived;
+    }
+
     public long getModifiedDate() {
         return mModifiedDate;
     }
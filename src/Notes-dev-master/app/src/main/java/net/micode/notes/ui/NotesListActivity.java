@@ -49,6 +49,7 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
@@ -71,6 +72,8 @@ import android.view.View.OnClickListener;
 import android.view.View.OnCreateContextMenuListener;
 import android.view.View.OnTouchListener;
 import android.view.inputmethod.InputMethodManager;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.AdapterView.OnItemLongClickListener;
@@ -82,8 +85,11 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import net.micode.notes.R;
+import net.micode.notes.data.Contact;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesMaintenanceService;
+import net.micode.notes.data.NotesWriteQueue;
 import net.micode.notes.gtask.remote.GTaskSyncService;
 import net.micode.notes.model.WorkingNote;
 import net.micode.notes.tool.BackupUtils;
@@ -97,6 +103,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.HashSet;
 import android.content.res.Resources;
 
@@ -104,6 +111,12 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     /** 查询标记常量 */
     private static final int FOLDER_NOTE_LIST_QUERY_TOKEN = 0;  // 文件夹中笔记列表查询的标记
     private static final int FOLDER_LIST_QUERY_TOKEN = 1;       // 文件夹列表查询的标记
+    private static final int FOLDER_NOTE_PAGE_QUERY_TOKEN = 2;  // 笔记列表后续分页查询的标记
+    private static final int NOTE_COUNT_QUERY_TOKEN = 3;        // 列表总数查询的标记
+
+    /** 笔记列表分页加载常量 */
+    private static final int NOTES_LIST_PAGE_SIZE = 100;       // 每页加载的笔记数量
+    private static final int NOTES_LIST_PREFETCH_DISTANCE = 20; // 距离列表末尾多少项时加载下一页
 
     /** 菜单操作常量 */
     private static final int MENU_FOLDER_DELETE = 0;           // 删除文件夹的菜单选项
@@ -124,6 +137,12 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     /** 首次使用应用时添加介绍信息的偏好设置键 */
     private static final String PREFERENCE_ADD_INTRODUCTION = "net.micode.notes.introduction";
 
+    /** 上次归档旧便签的时间 */
+    private static final String PREFERENCE_LAST_ARCHIVE_TIME = "net.micode.notes.last_archive_time";
+
+    /** 两次归档之间的最短间隔，单位毫秒 */
+    private static final long ARCHIVE_INTERVAL = 24 * 60 * 60 * 1000L;
+
     /**
      * 列表编辑状态枚举
      * 定义了笔记列表可能的不同显示状态
@@ -149,6 +168,33 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     // 笔记列表视图
     private ListView mNotesListView;
 
+    // 笔记列表是否分页加载、是否还有下一页、是否正在加载下一页
+    private boolean mNotesListPaged;
+    private boolean mNotesListHasMore;
+    private boolean mNotesListLoadingPage;
+
+    // 笔记列表每次从头加载时递增，用于丢弃过期的分页查询结果
+    private int mNotesListGeneration;
+
+    // 最近一次从头加载时请求的笔记数量
+    private int mNotesListFirstPageLimit;
+
+    // 数据变化时按已加载的数量从头重新加载，保证各页之间不重不漏
+    private final Runnable mReloadNotesList = new Runnable() {
+        @Override
+        public void run() {
+            startAsyncNotesListQuery(Math.max(NOTES_LIST_PAGE_SIZE, mNotesListAdapter.getCount()));
+        }
+    };
+
+    // 按其他方式排序时，数据变化后按当前排序方式重新查询
+    private final Runnable mReloadSortedNotesList = new Runnable() {
+        @Override
+        public void run() {
+            updateSortOrder();
+        }
+    };
+
     // 添加新笔记的按钮
     private Button mAddNewNote;
 
@@ -213,6 +259,43 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
 
         // 用户首次使用时插入介绍信息
         setAppInfoFromRawRes();
+
+        archiveOldNotes();
+        NotesMaintenanceService.schedule(this);
+    }
+
+    /**
+     * 按设置在后台把长期未修改的便签正文移入归档库，每天最多执行一次。
+     * 同步需要完整的正文，设置了同步账户时不归档。
+     */
+    private void archiveOldNotes() {
+        final SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
+        int days;
+        try {
+            days = Integer.parseInt(sp.getString(
+                    NotesPreferenceActivity.PREFERENCE_ARCHIVE_AFTER_DAYS_KEY, "0"));
+        } catch (NumberFormatException e) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if (days <= 0 || isSyncMode()
+                || now - sp.getLong(PREFERENCE_LAST_ARCHIVE_TIME, 0) < ARCHIVE_INTERVAL) {
+            return;
+        }
+        final long before = now - days * ARCHIVE_INTERVAL;
+        final ContentResolver resolver = mContentResolver;
+        new AsyncTask<Void, Void, Integer>() {
+            @Override
+            protected Integer doInBackground(Void... unused) {
+                return DataUtils.archiveNotes(resolver, before);
+            }
+
+            @Override
+            protected void onPostExecute(Integer count) {
+                sp.edit().putLong(PREFERENCE_LAST_ARCHIVE_TIME, now).apply();
+                Log.d(TAG, "archived " + count + " notes");
+            }
+        }.execute();
     }
 
     /**
@@ -305,6 +388,21 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
                 null, false);
         mNotesListView.setOnItemClickListener(new OnListItemClickListener());
         mNotesListView.setOnItemLongClickListener(this);
+        mNotesListView.setOnScrollListener(new OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                                 int totalItemCount) {
+                // 接近已加载内容的末尾时加载下一页
+                if (firstVisibleItem + visibleItemCount
+                        >= totalItemCount - NOTES_LIST_PREFETCH_DISTANCE) {
+                    startAsyncNotesPageQuery();
+                }
+            }
+        });
         // 初始化并设置笔记列表适配器
         mNotesListAdapter = new NotesListAdapter(this);
         mNotesListView.setAdapter(mNotesListAdapter);
@@ -571,44 +669,139 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     ;
 
 
+    /**
+     * 异步查询笔记列表的第一页。
+     */
+    private void startAsyncNotesListQuery() {
+        startAsyncNotesListQuery(NOTES_LIST_PAGE_SIZE);
+    }
+
     /**
      * 异步查询笔记列表。
      * 根据当前文件夹ID选择不同的查询条件，启动一个后台查询处理该查询。
+     * 列表按(type, modified_date, _id)倒序分页加载，滚动到末尾时再加载后续页。
+     *
+     * @param limit 第一次加载的笔记数量
      */
-    private void startAsyncNotesListQuery() {
+    private void startAsyncNotesListQuery(int limit) {
+        final String selection = (mCurrentFolderId == Notes.ID_ROOT_FOLDER) ? ROOT_FOLDER_SELECTION
+                : NORMAL_SELECTION;
+        final int generation = ++mNotesListGeneration;
+        mNotesListFirstPageLimit = limit;
+        // 第一页返回之前不加载后续页
+        mNotesListLoadingPage = true;
+        final Uri uri = DataUtils.buildNotePageUri(limit);
+        final String[] selectionArgs = new String[]{String.valueOf(mCurrentFolderId)};
+        // 先提交写入队列中的修改再查询，返回列表时能看到编辑页刚保存的内容
+        NotesWriteQueue.getInstance(this).flush(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mNotesListGeneration || isDestroyed()) {
+                    return;
+                }
+                mBackgroundQueryHandler.startQuery(FOLDER_NOTE_LIST_QUERY_TOKEN, generation, uri,
+                        getNotesListProjection(), selection, selectionArgs, null);
+                // 查询完成后更新便签数量
+                updateNoteCount();
+            }
+        });
+    }
+
+    /**
+     * 异步查询笔记列表的下一页，以当前最后一条笔记的排序键为起点。
+     */
+    private void startAsyncNotesPageQuery() {
+        if (!mNotesListPaged || !mNotesListHasMore || mNotesListLoadingPage) {
+            return;
+        }
+        Cursor cursor = mNotesListAdapter.getCursor();
+        if (cursor == null || !cursor.moveToLast()) {
+            return;
+        }
+        int afterType = cursor.getInt(cursor.getColumnIndexOrThrow(NoteColumns.TYPE));
+        long afterModified = cursor.getLong(cursor.getColumnIndexOrThrow(NoteColumns.MODIFIED_DATE));
+        long afterId = cursor.getLong(cursor.getColumnIndexOrThrow(NoteColumns.ID));
+
         String selection = (mCurrentFolderId == Notes.ID_ROOT_FOLDER) ? ROOT_FOLDER_SELECTION
                 : NORMAL_SELECTION;
-        if(secret_mode == 0) {
-            mBackgroundQueryHandler.startQuery(FOLDER_NOTE_LIST_QUERY_TOKEN, null,
-                    Notes.CONTENT_NOTE_URI, NoteItemData.PROJECTION, selection, new String[]{
-                            String.valueOf(mCurrentFolderId)
-                    }, NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC");
+        mNotesListLoadingPage = true;
+        mBackgroundQueryHandler.startQuery(FOLDER_NOTE_PAGE_QUERY_TOKEN, mNotesListGeneration,
+                DataUtils.buildNotePageUri(NOTES_LIST_PAGE_SIZE, afterType, afterModified, afterId),
+                getNotesListProjection(), selection, new String[]{
+                        String.valueOf(mCurrentFolderId)
+                }, null);
+    }
+
+    /**
+     * 获取笔记列表的查询列，私密模式下不查询摘要。
+     *
+     * @return 查询列
+     */
+    private String[] getNotesListProjection() {
+        if (secret_mode == 0) {
+            return NoteItemData.PROJECTION;
         }
-        else{
-            String str1 = "520";
-            String [] PROJECTION = new String [] {  //定义一个新的PROJECTION数组，只换掉SNIPPET
-                    NoteColumns.ID,
-                    NoteColumns.ALERTED_DATE,
-                    NoteColumns.BG_COLOR_ID,
-                    NoteColumns.CREATED_DATE,
-                    NoteColumns.HAS_ATTACHMENT,
-                    NoteColumns.MODIFIED_DATE,
-                    NoteColumns.NOTES_COUNT,
-                    NoteColumns.PARENT_ID,
-//                    NoteColumns.SNIPPET,
-                    str1,
-                    NoteColumns.TYPE,
-                    NoteColumns.WIDGET_ID,
-                    NoteColumns.WIDGET_TYPE,
-            };
-            mBackgroundQueryHandler.startQuery(FOLDER_NOTE_LIST_QUERY_TOKEN, null,
-                    Notes.CONTENT_NOTE_URI, PROJECTION, selection, new String[]{
-                            String.valueOf(mCurrentFolderId)
-                    }, NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC");
+        String str1 = "520";
+        return new String[]{  //定义一个新的PROJECTION数组，只换掉SNIPPET
+                NoteColumns.ID,
+                NoteColumns.ALERTED_DATE,
+                NoteColumns.BG_COLOR_ID,
+                NoteColumns.CREATED_DATE,
+                NoteColumns.HAS_ATTACHMENT,
+                NoteColumns.MODIFIED_DATE,
+                NoteColumns.NOTES_COUNT,
+                NoteColumns.PARENT_ID,
+//                NoteColumns.PREVIEW,
+                str1,
+                NoteColumns.TYPE,
+                NoteColumns.WIDGET_ID,
+                NoteColumns.WIDGET_TYPE,
+                NoteColumns.CALL_NUMBER,
+                NoteColumns.ARCHIVED,
+        };
+    }
 
+    /**
+     * 在后台批量解析通话记录文件夹中尚未缓存的联系人名称，解析完成后刷新列表。
+     * 号码在主线程从游标中取出，后台线程不访问列表游标。
+     *
+     * @param cursor 通话记录列表的查询结果
+     */
+    private void resolveCallContacts(Cursor cursor) {
+        if (cursor == null || mCurrentFolderId != Notes.ID_CALL_RECORD_FOLDER) {
+            return;
         }
-        // 查询完成后更新便签数量
-        updateNoteCount();
+        int column = cursor.getColumnIndex(NoteColumns.CALL_NUMBER);
+        if (column < 0) {
+            return;
+        }
+        final HashSet<String> phoneNumbers = new HashSet<String>();
+        int position = cursor.getPosition();
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            String phoneNumber = cursor.getString(column);
+            if (!TextUtils.isEmpty(phoneNumber) && !Contact.isResolved(phoneNumber)) {
+                phoneNumbers.add(phoneNumber);
+            }
+        }
+        cursor.moveToPosition(position);
+        if (phoneNumbers.isEmpty()) {
+            return;
+        }
+        final Context context = getApplicationContext();
+        new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(Void... unused) {
+                return Contact.resolveContacts(context, phoneNumbers);
+            }
+
+            @Override
+            protected void onPostExecute(Boolean resolved) {
+                if (resolved && !isFinishing()) {
+                    mNotesListAdapter.notifyDataSetChanged();
+                }
+            }
+        }.execute();
     }
 
     /**
@@ -632,11 +825,53 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
             switch (token) {
                 case FOLDER_NOTE_LIST_QUERY_TOKEN:
+                    if (cookie instanceof Integer) {
+                        // 分页加载的第一页
+                        if (!cookie.equals(mNotesListGeneration)) {
+                            closeCursor(cursor);
+                            return;
+                        }
+                        mNotesListPaged = true;
+                        mNotesListLoadingPage = false;
+                        mNotesListHasMore = cursor != null
+                                && cursor.getCount() >= mNotesListFirstPageLimit;
+                        mNotesListAdapter.setContentChangedListener(mReloadNotesList);
+                    } else {
+                        // 其他排序方式一次加载全部
+                        mNotesListPaged = false;
+                        mNotesListHasMore = false;
+                        mNotesListAdapter.setContentChangedListener(mReloadSortedNotesList);
+                    }
                     // 更新笔记列表适配器的数据源
                     mNotesListAdapter.changeCursor(cursor);
+                    resolveCallContacts(cursor);
                     // 查询完成后更新便签数量
                     updateNoteCount();
                     break;
+                case FOLDER_NOTE_PAGE_QUERY_TOKEN:
+                    // 丢弃列表从头重新加载之前发出的分页查询
+                    if (!mNotesListPaged || !cookie.equals(mNotesListGeneration)) {
+                        closeCursor(cursor);
+                        return;
+                    }
+                    mNotesListLoadingPage = false;
+                    if (cursor == null || cursor.getCount() == 0) {
+                        mNotesListHasMore = false;
+                        closeCursor(cursor);
+                        return;
+                    }
+                    mNotesListHasMore = cursor.getCount() >= NOTES_LIST_PAGE_SIZE;
+                    mNotesListAdapter.appendPage(cursor);
+                    resolveCallContacts(cursor);
+                    updateNoteCount();
+                    break;
+                case NOTE_COUNT_QUERY_TOKEN:
+                    // 丢弃列表重新加载之前发出的计数查询
+                    if (cookie.equals(mNotesListGeneration) && cursor != null && cursor.moveToFirst()) {
+                        setNoteCountTitle(cursor.getInt(0));
+                    }
+                    closeCursor(cursor);
+                    break;
                 case FOLDER_LIST_QUERY_TOKEN:
                     // 根据查询结果展示或记录错误
                     if (cursor != null && cursor.getCount() > 0) {
@@ -652,6 +887,17 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         }
     }
 
+    /**
+     * 关闭不再使用的查询结果。
+     *
+     * @param cursor 查询结果的游标，可以为null。
+     */
+    private static void closeCursor(Cursor cursor) {
+        if (cursor != null) {
+            cursor.close();
+        }
+    }
+
     /**
      * 显示文件夹列表的菜单。
      * 使用查询结果构建一个对话框，让用户选择一个文件夹。
@@ -673,8 +919,8 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
              * @param which  用户选择的项的索引。
              */
             public void onClick(DialogInterface dialog, int which) {
-                // 批量移动选中的笔记到目标文件夹
-                DataUtils.batchMoveToFolder(mContentResolver,
+                // 批量移动选中的笔记到目标文件夹，移动在写入队列中提交，列表在提交后按变更通知刷新
+                DataUtils.enqueueBatchMoveToFolder(NotesListActivity.this,
                         mNotesListAdapter.getSelectedItemIds(), adapter.getItemId(which));
                 // 显示移动操作的反馈信息
                 Toast.makeText(
@@ -776,25 +1022,30 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         ids.add(folderId);
 
         // 获取与文件夹相关联的小部件信息
-        HashSet<AppWidgetAttribute> widgets = DataUtils.getFolderNoteWidget(mContentResolver,
+        final HashSet<AppWidgetAttribute> widgets = DataUtils.getFolderNoteWidget(mContentResolver,
                 folderId);
         if (!isSyncMode()) {
             // 非同步模式下直接删除文件夹
-            DataUtils.batchDeleteNotes(mContentResolver, ids);
+            DataUtils.enqueueBatchDeleteNotes(this, ids);
         } else {
             // 同步模式下将文件夹移动到回收站
-            DataUtils.batchMoveToFolder(mContentResolver, ids, Notes.ID_TRASH_FOLER);
+            DataUtils.enqueueBatchMoveToFolder(this, ids, Notes.ID_TRASH_FOLER);
         }
 
-        // 更新相关小部件
+        // 删除提交后更新相关小部件
         if (widgets != null) {
-            for (AppWidgetAttribute widget : widgets) {
-                // 有效的小部件才进行更新
-                if (widget.widgetId != AppWidgetManager.INVALID_APPWIDGET_ID
-                        && widget.widgetType != Notes.TYPE_WIDGET_INVALIDE) {
-                    updateWidget(widget.widgetId, widget.widgetType);
+            NotesWriteQueue.getInstance(this).runAfterPending(new Runnable() {
+                @Override
+                public void run() {
+                    for (AppWidgetAttribute widget : widgets) {
+                        // 有效的小部件才进行更新
+                        if (widget.widgetId != AppWidgetManager.INVALID_APPWIDGET_ID
+                                && widget.widgetType != Notes.TYPE_WIDGET_INVALIDE) {
+                            updateWidget(widget.widgetId, widget.widgetType);
+                        }
+                    }
                 }
-            }
+            });
         }
     }
 
@@ -805,10 +1056,30 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
      */
     private void openNode(NoteItemData data) {
         // 构造Intent并设置动作和额外数据，然后启动Activity
-        Intent intent = new Intent(this, NoteEditActivity.class);
+        final Intent intent = new Intent(this, NoteEditActivity.class);
         intent.setAction(Intent.ACTION_VIEW);
         intent.putExtra(Intent.EXTRA_UID, data.getId());
-        this.startActivityForResult(intent, REQUEST_CODE_OPEN_NODE);
+        if (!data.isArchived()) {
+            this.startActivityForResult(intent, REQUEST_CODE_OPEN_NODE);
+            return;
+        }
+        // 正文已归档的笔记先在后台移回主库，编辑界面加载时不再写库
+        final ContentResolver resolver = mContentResolver;
+        final long noteId = data.getId();
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... unused) {
+                DataUtils.restoreArchivedNote(resolver, noteId);
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(Void unused) {
+                if (!isFinishing()) {
+                    startActivityForResult(intent, REQUEST_CODE_OPEN_NODE);
+                }
+            }
+        }.execute();
     }
 
     /**
@@ -1457,7 +1728,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
                 orderBy = NoteColumns.CREATED_DATE + " DESC";
                 break;
             case SORT_BY_TITLE:
-                orderBy = NoteColumns.SNIPPET + " ASC";
+                orderBy = NoteColumns.PREVIEW + " ASC";
                 break;
             case SORT_BY_MODIFIED_DATE:
             default:
@@ -1500,23 +1771,39 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
 
     private void updateNoteCount() {
         if (mNotesListAdapter != null) {
-            int count = mNotesListAdapter.getCount();
-            // 根据当前状态设置不同的标题
-            String title;
-            switch (mState) {
-                case SUB_FOLDER:
-                    title = mTitleBar.getText() + " (" + count + ")";
-                    break;
-                case CALL_RECORD_FOLDER:
-                    title = getString(R.string.call_record_folder_name) + " (" + count + ")";
-                    break;
-
-                default:
-                    title = getString(R.string.note_count_format, count);
-                    break;
+            // 分页加载尚未加载完时，已加载的数量不是总数，用与列表相同的条件在后台统计
+            if (mNotesListPaged && mNotesListHasMore) {
+                String selection = (mCurrentFolderId == Notes.ID_ROOT_FOLDER) ? ROOT_FOLDER_SELECTION
+                        : NORMAL_SELECTION;
+                mBackgroundQueryHandler.startQuery(NOTE_COUNT_QUERY_TOKEN, mNotesListGeneration,
+                        Notes.CONTENT_NOTE_URI, new String[]{"COUNT(*)"}, selection,
+                        new String[]{String.valueOf(mCurrentFolderId)}, null);
+                return;
             }
-            mTitleBar.setText(title);
+            setNoteCountTitle(mNotesListAdapter.getCount());
+        }
+    }
+
+    /**
+     * 根据当前状态在标题中显示便签数量
+     *
+     * @param count 便签数量
+     */
+    private void setNoteCountTitle(int count) {
+        String title;
+        switch (mState) {
+            case SUB_FOLDER:
+                title = mTitleBar.getText() + " (" + count + ")";
+                break;
+            case CALL_RECORD_FOLDER:
+                title = getString(R.string.call_record_folder_name) + " (" + count + ")";
+                break;
+
+            default:
+                title = getString(R.string.note_count_format, count);
+                break;
         }
+        mTitleBar.setText(title);
     }
 
     @Override
@@ -19,6 +19,9 @@ package net.micode.notes.ui;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.DataSetObserver;
+import android.database.MergeCursor;
 import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
@@ -30,6 +33,7 @@ import net.micode.notes.ui.NoteEditActivity;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.NoteColumns;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -46,6 +50,32 @@ public class NotesListAdapter extends CursorAdapter {
     private HashMap<Integer, Boolean> mSelectedIndex;
     private int mNotesCount; // 笔记总数
     private boolean mChoiceMode; // 选择模式标志
+    // 内容变化时交给该回调通过内容提供者重新查询：分页合并的游标和查询缓存返回的游标都不能requery
+    private Runnable mContentChangedListener;
+    // 分页加载的各页游标，由适配器在换入新数据时统一关闭
+    private final ArrayList<Cursor> mPages = new ArrayList<Cursor>();
+
+    /**
+     * 合并游标中的一页：关闭时不关闭所包装的游标，也不在其上注册数据集观察者。
+     * 追加一页后可以直接关闭旧的合并游标，各页仍然有效。
+     */
+    private static class PageCursor extends CursorWrapper {
+        PageCursor(Cursor cursor) {
+            super(cursor);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void registerDataSetObserver(DataSetObserver observer) {
+        }
+
+        @Override
+        public void unregisterDataSetObserver(DataSetObserver observer) {
+        }
+    }
 
     /**
      * AppWidget属性容器，用于存储与小部件相关的数据。
@@ -238,18 +268,59 @@ public class NotesListAdapter extends CursorAdapter {
      */
     @Override
     protected void onContentChanged() {
+        if (mContentChangedListener != null) {
+            mContentChangedListener.run();
+            return;
+        }
         super.onContentChanged();
         calcNotesCount();
     }
 
     /**
-     * 当游标改变时调用，更新笔记数量。
+     * 设置内容变化时的回调，为null时恢复游标自动requery。
+     *
+     * @param listener 内容变化回调
+     */
+    public void setContentChangedListener(Runnable listener) {
+        mContentChangedListener = listener;
+    }
+
+    /**
+     * 追加一页数据：把当前游标和新的一页合并为一个游标换入，关闭被换下的合并游标，各页仍在使用。
+     *
+     * @param page 新的一页
+     */
+    public void appendPage(Cursor page) {
+        if (mPages.isEmpty() && getCursor() != null) {
+            mPages.add(getCursor());
+        }
+        mPages.add(page);
+        Cursor[] pages = new Cursor[mPages.size()];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = new PageCursor(mPages.get(i));
+        }
+        Cursor old = super.swapCursor(new MergeCursor(pages));
+        // 第一次追加时换下的是第一页本身，不能关闭
+        if (old != null && !mPages.contains(old)) {
+            old.close();
+        }
+        calcNotesCount();
+    }
+
+    /**
+     * 当游标改变时调用，关闭旧的游标和已加载的各页，更新笔记数量。
      *
      * @param cursor 新的游标
      */
     @Override
     public void changeCursor(Cursor cursor) {
         super.changeCursor(cursor);
+        for (Cursor page : mPages) {
+            if (page != cursor) {
+                page.close();
+            }
+        }
+        mPages.clear();
         calcNotesCount();
     }
 
@@ -58,6 +58,7 @@ public class NotesPreferenceActivity extends AppCompatActivity  {
     public static final String PREFERENCE_SYNC_ACCOUNT_NAME = "pref_key_account_name"; // 同步账户名称的键
     public static final String PREFERENCE_LAST_SYNC_TIME = "pref_last_sync_time"; // 上次同步时间的键
     public static final String PREFERENCE_SET_BG_COLOR_KEY = "pref_key_bg_random_appear"; // 设置背景颜色的键
+    public static final String PREFERENCE_ARCHIVE_AFTER_DAYS_KEY = "pref_key_archive_after_days"; // 归档未修改便签的天数，0为不归档
     private static final String PREFERENCE_SYNC_ACCOUNT_KEY = "pref_sync_account_key"; // 同步账户的键
     private static final String AUTHORITIES_FILTER_KEY = "authorities"; // 权限过滤键
 
@@ -3,7 +3,6 @@ package net.micode.notes.ui;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.DialogInterface;
 import android.database.Cursor;
 import android.os.Bundle;
@@ -17,6 +16,7 @@ import android.widget.Toast;
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.tool.DataUtils;
 
 public class TrashNotesActivity extends Activity {
     private static final String TAG = "TrashNotesActivity";
@@ -41,6 +41,13 @@ public class TrashNotesActivity extends Activity {
     private void initTrashNotesList() {
         // 初始化适配器，只传入 Context 参数
         mAdapter = new NotesListAdapter(this);
+        // 数据变化时重新查询，查询缓存返回的游标不能requery
+        mAdapter.setContentChangedListener(new Runnable() {
+            @Override
+            public void run() {
+                loadTrashNotes();
+            }
+        });
         mTrashListView.setAdapter(mAdapter);
         mTrashListView.setEmptyView(mEmptyView);
 
@@ -51,7 +58,7 @@ public class TrashNotesActivity extends Activity {
     private void loadTrashNotes() {
         Cursor cursor = mContentResolver.query(
                 Notes.CONTENT_NOTE_URI,
-                null,
+                NoteItemData.PROJECTION,
                 NoteColumns.PARENT_ID + "=" + Notes.ID_TRASH_FOLER,
                 null,
                 NoteColumns.MODIFIED_DATE + " DESC"
@@ -75,21 +82,8 @@ public class TrashNotesActivity extends Activity {
 
     private void restoreTrash() {
         try {
-            // 准备更新的数据
-            ContentValues values = new ContentValues();
-            values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
-            values.put(NoteColumns.TYPE, Notes.TYPE_NOTE);
-            values.put(NoteColumns.LOCAL_MODIFIED, System.currentTimeMillis());
-
-            // 更新回收站中的所有便签
-            int count = mContentResolver.update(
-                    Notes.CONTENT_NOTE_URI,
-                    values,
-                    NoteColumns.PARENT_ID + "=? AND " + NoteColumns.TYPE + "!=?",
-                    new String[] { String.valueOf(Notes.ID_TRASH_FOLER), String.valueOf(Notes.TYPE_SYSTEM) }
-            );
-
-            if (count > 0) {
+            // 由内容提供者按parent_id恢复整个回收站，包括列表尚未加载的行
+            if (DataUtils.restoreTrash(mContentResolver) > 0) {
                 Toast.makeText(this, R.string.alert_restore_all_success, Toast.LENGTH_SHORT).show();
                 // 重新加载数据
                 loadTrashNotes();
@@ -18,6 +18,7 @@ import android.widget.RemoteViews;
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesWriteQueue;
 import net.micode.notes.tool.ResourceParser;
 import net.micode.notes.ui.NoteEditActivity;
 import net.micode.notes.ui.NotesListActivity;
@@ -30,7 +31,7 @@ public abstract class NoteWidgetProvider extends AppWidgetProvider {
     public static final String[] PROJECTION = new String[]{
             NoteColumns.ID,
             NoteColumns.BG_COLOR_ID,
-            NoteColumns.SNIPPET
+            NoteColumns.PREVIEW
     };
 
     // 列的索引常量
@@ -43,17 +44,26 @@ public abstract class NoteWidgetProvider extends AppWidgetProvider {
 
     /**
      * 当小部件被删除时调用，更新数据库中对应小部件的ID为无效ID。
+     * 更新放入写入队列在一个事务中提交，广播保持到提交完成。
      */
     @Override
     public void onDeleted(Context context, int[] appWidgetIds) {
         ContentValues values = new ContentValues();
         values.put(NoteColumns.WIDGET_ID, AppWidgetManager.INVALID_APPWIDGET_ID);
+        NotesWriteQueue queue = NotesWriteQueue.getInstance(context);
         for (int i = 0; i < appWidgetIds.length; i++) {
-            context.getContentResolver().update(Notes.CONTENT_NOTE_URI,
+            queue.update(Notes.CONTENT_NOTE_URI,
                     values,
-                    NoteColumns.WIDGET_ID + "=?",
+                    NoteColumns.WIDGET_ID + "=? AND " + NoteColumns.WIDGET_ID + ">0",
                     new String[]{String.valueOf(appWidgetIds[i])});
         }
+        final PendingResult result = goAsync();
+        queue.runAfterPending(new Runnable() {
+            @Override
+            public void run() {
+                result.finish();
+            }
+        });
     }
 
     /**
@@ -66,7 +76,8 @@ public abstract class NoteWidgetProvider extends AppWidgetProvider {
     private Cursor getNoteWidgetInfo(Context context, int widgetId) {
         return context.getContentResolver().query(Notes.CONTENT_NOTE_URI,
                 PROJECTION,
-                NoteColumns.WIDGET_ID + "=? AND " + NoteColumns.PARENT_ID + "<>?",
+                NoteColumns.WIDGET_ID + "=? AND " + NoteColumns.PARENT_ID + "<>? AND "
+                        + NoteColumns.WIDGET_ID + ">0", // 命中 widget_id 部分索引
                 new String[]{String.valueOf(widgetId), String.valueOf(Notes.ID_TRASH_FOLER)},
                 null);
     }
@@ -84,14 +95,40 @@ public abstract class NoteWidgetProvider extends AppWidgetProvider {
 
     /**
      * 根据是否隐私模式更新小部件显示内容。
+     * 写入队列中的修改提交后在回调中读取，否则小部件可能显示刚保存之前的内容；不在主线程等待提交，广播保持到更新完成。
+     *
+     * @param context          上下文
+     * @param appWidgetManager AppWidget管理器
+     * @param appWidgetIds     小部件ID数组
+     * @param privacyMode      是否为隐私模式
+     */
+    private void update(final Context context, final AppWidgetManager appWidgetManager,
+                        final int[] appWidgetIds, final boolean privacyMode) {
+        final PendingResult result = goAsync();
+        NotesWriteQueue.getInstance(context).flush(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    updateViews(context, appWidgetManager, appWidgetIds, privacyMode);
+                } finally {
+                    if (result != null) {
+                        result.finish();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 读取小部件对应的笔记并更新显示内容。
      *
      * @param context          上下文
      * @param appWidgetManager AppWidget管理器
      * @param appWidgetIds     小部件ID数组
      * @param privacyMode      是否为隐私模式
      */
-    private void update(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds,
-                        boolean privacyMode) {
+    private void updateViews(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds,
+                             boolean privacyMode) {
         for (int i = 0; i < appWidgetIds.length; i++) {
             if (appWidgetIds[i] != AppWidgetManager.INVALID_APPWIDGET_ID) {
                 int bgId = ResourceParser.getDefaultBgId(context);
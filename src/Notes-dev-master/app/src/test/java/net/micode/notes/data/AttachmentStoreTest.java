@@ -0,0 +1,112 @@
+package net.micode.notes.data;
+
+import android.content.ContextWrapper;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AttachmentStoreTest {
+    // "hello"的SHA-256
+    private static final String HELLO_HASH = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+
+    // 早于清理时跳过的时间范围
+    private static final long OLD = 2 * 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private AttachmentStore mStore;
+    private File mRoot;
+
+    @Before
+    public void setUp() throws IOException {
+        final File filesDir = mFolder.newFolder("files");
+        mRoot = new File(filesDir, "attachments");
+        mStore = new AttachmentStore(new ContextWrapper(null) {
+            @Override
+            public File getFilesDir() {
+                return filesDir;
+            }
+        });
+    }
+
+    private AttachmentStore.Blob write(String content) throws IOException {
+        return mStore.write(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private File oldFile(File dir, String name) throws IOException {
+        assertTrue(dir.isDirectory() || dir.mkdirs());
+        File file = new File(dir, name);
+        assertTrue(file.createNewFile());
+        assertTrue(file.setLastModified(System.currentTimeMillis() - OLD));
+        return file;
+    }
+
+    @Test
+    public void writeHashesContent() throws IOException {
+        AttachmentStore.Blob blob = write("hello");
+        assertEquals(HELLO_HASH, blob.hash);
+        assertEquals(5, blob.size);
+        assertTrue(blob.tmpFile.exists());
+    }
+
+    @Test
+    public void commitStoresContentOnce() throws IOException {
+        AttachmentStore.Blob first = write("hello");
+        mStore.commit(first);
+        File file = mStore.getFile(HELLO_HASH);
+        assertTrue(file.exists());
+        assertEquals(new File(new File(mRoot, "2c"), HELLO_HASH), file);
+        assertFalse(first.tmpFile.exists());
+
+        AttachmentStore.Blob second = write("hello");
+        mStore.commit(second);
+        assertFalse(second.tmpFile.exists());
+        assertEquals(5, file.length());
+    }
+
+    @Test
+    public void discardDeletesTmpFile() throws IOException {
+        AttachmentStore.Blob blob = write("hello");
+        mStore.discard(blob);
+        assertFalse(blob.tmpFile.exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getFileRejectsInvalidHash() {
+        mStore.getFile("../" + HELLO_HASH.substring(3));
+    }
+
+    @Test
+    public void sweepDeletesOldOrphansOnly() throws IOException {
+        String known = HELLO_HASH;
+        String orphan = HELLO_HASH.replace('2', '3');
+        File knownFile = oldFile(new File(mRoot, known.substring(0, 2)), known);
+        File orphanFile = oldFile(new File(mRoot, orphan.substring(0, 2)), orphan);
+        File oldTmp = oldFile(new File(mRoot, "tmp"), "blob1.tmp");
+        // 最近写入的文件可能属于正在加入的附件，不删除
+        AttachmentStore.Blob recent = write("recent");
+        mStore.commit(recent);
+
+        Set<String> knownHashes = new HashSet<String>(Collections.singleton(known));
+        assertEquals(2, mStore.sweep(knownHashes));
+        assertTrue(knownFile.exists());
+        assertFalse(orphanFile.exists());
+        assertFalse(oldTmp.exists());
+        assertTrue(mStore.getFile(recent.hash).exists());
+    }
+}
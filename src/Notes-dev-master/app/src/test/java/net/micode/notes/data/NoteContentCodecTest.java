@@ -0,0 +1,85 @@
+package net.micode.notes.data;
+
+import android.database.Cursor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class NoteContentCodecTest {
+    private static final String[] CONTENT_COLUMNS = {"content", "content_codec", "content_compressed"};
+
+    private static String repeat(String text, int count) {
+        StringBuilder builder = new StringBuilder(text.length() * count);
+        for (int i = 0; i < count; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void prefixOfKeepsShortContent() {
+        String content = "short note";
+        assertSame(content, NoteContentCodec.prefixOf(content));
+    }
+
+    @Test
+    public void prefixOfCutsLongContent() {
+        String content = repeat("a", NoteContentCodec.CONTENT_PREFIX_LENGTH + 10);
+        assertEquals(NoteContentCodec.CONTENT_PREFIX_LENGTH, NoteContentCodec.prefixOf(content).length());
+    }
+
+    @Test
+    public void prefixOfDoesNotSplitSurrogatePair() {
+        // 代理对跨过截断位置时整对去掉
+        String content = repeat("a", NoteContentCodec.CONTENT_PREFIX_LENGTH - 1) + "😀tail";
+        String prefix = NoteContentCodec.prefixOf(content);
+        assertEquals(NoteContentCodec.CONTENT_PREFIX_LENGTH - 1, prefix.length());
+        assertTrue(Character.isLowSurrogate(content.charAt(prefix.length() + 1)));
+    }
+
+    @Test
+    public void deflateRoundTrip() {
+        String content = repeat("便签 note 😀\n", 2000);
+        byte[] compressed = NoteContentCodec.deflate(content);
+        assertTrue(compressed.length < content.length());
+        assertEquals(content, NoteContentCodec.inflate(compressed));
+    }
+
+    @Test
+    public void inflateCorruptDataReturnsNull() {
+        byte[] compressed = NoteContentCodec.deflate(repeat("content", 100));
+        byte[] truncated = new byte[compressed.length / 2];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+        assertNull(NoteContentCodec.inflate(truncated));
+        assertNull(NoteContentCodec.inflate(new byte[]{1, 2, 3, 4}));
+    }
+
+    @Test
+    public void readContentReturnsPlainContent() {
+        Cursor c = RowsCursor.of(CONTENT_COLUMNS,
+                new Object[]{"plain", (long) NoteContentCodec.CODEC_NONE, null});
+        c.moveToFirst();
+        assertEquals("plain", NoteContentCodec.readContent(c, 0, 1, 2));
+    }
+
+    @Test
+    public void readContentInflatesCompressedContent() {
+        String content = repeat("0123456789", NoteContentCodec.COMPRESS_THRESHOLD / 10 + 1);
+        Cursor c = RowsCursor.of(CONTENT_COLUMNS, new Object[]{NoteContentCodec.prefixOf(content),
+                (long) NoteContentCodec.CODEC_DEFLATE, NoteContentCodec.deflate(content)});
+        c.moveToFirst();
+        assertEquals(content, NoteContentCodec.readContent(c, 0, 1, 2));
+    }
+
+    @Test
+    public void readContentFallsBackToPrefixWhenCorrupt() {
+        Cursor c = RowsCursor.of(CONTENT_COLUMNS,
+                new Object[]{"prefix", (long) NoteContentCodec.CODEC_DEFLATE, new byte[]{1, 2, 3}});
+        c.moveToFirst();
+        assertEquals("prefix", NoteContentCodec.readContent(c, 0, 1, 2));
+    }
+}
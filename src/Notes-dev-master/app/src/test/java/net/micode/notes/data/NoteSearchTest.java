@@ -0,0 +1,220 @@
+package net.micode.notes.data;
+
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在内存SQLite数据库上执行NotesProvider的搜索语句，验证全文索引的触发器同步、排序、匹配和按LIKE检索的回退。
+ * 默认使用trigram分词的FTS5，与系统SQLite 3.34以上的设备一致。
+ */
+public class NoteSearchTest {
+    // 搜索结果中摘要所在的列，从1开始
+    private static final int COLUMN_SNIPPET = 4;
+
+    private Connection mDb;
+
+    @Before
+    public void setUp() throws SQLException {
+        mDb = DriverManager.getConnection("jdbc:sqlite::memory:");
+        execute(NotesDatabaseHelper.CREATE_NOTE_TABLE_SQL);
+        execute(NotesDatabaseHelper.CREATE_DATA_TABLE_SQL);
+        execute(NotesDatabaseHelper.CREATE_NOTE_FTS5_TRIGRAM_TABLE_SQL);
+        execute(NotesDatabaseHelper.DATA_INSERT_FTS_ON_INSERT_TRIGGER);
+        execute(NotesDatabaseHelper.DATA_UPDATE_FTS_ON_UPDATE_TRIGGER);
+        execute(NotesDatabaseHelper.DATA_DELETE_FTS_ON_DELETE_TRIGGER);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        mDb.close();
+    }
+
+    private void execute(String sql, Object... args) throws SQLException {
+        PreparedStatement statement = mDb.prepareStatement(sql);
+        try {
+            for (int i = 0; i < args.length; i++) {
+                statement.setObject(i + 1, args[i]);
+            }
+            statement.executeUpdate();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * 插入一条笔记和它的文本数据，数据ID与笔记ID相同
+     */
+    private void insertNote(long id, long modifiedDate, String content) throws SQLException {
+        execute("INSERT INTO " + TABLE.NOTE + "(" + NoteColumns.ID + "," + NoteColumns.PARENT_ID + ","
+                + NoteColumns.TYPE + "," + NoteColumns.MODIFIED_DATE + ") VALUES(?,?,?,?)",
+                id, Notes.ID_ROOT_FOLDER, Notes.TYPE_NOTE, modifiedDate);
+        execute("INSERT INTO " + TABLE.DATA + "(" + DataColumns.ID + "," + DataColumns.NOTE_ID + ","
+                + DataColumns.MIME_TYPE + "," + DataColumns.CONTENT + ") VALUES(?,?,?,?)",
+                id, id, DataConstants.NOTE, content);
+    }
+
+    private void updateContent(long id, String content) throws SQLException {
+        execute("UPDATE " + TABLE.DATA + " SET " + DataColumns.CONTENT + "=? WHERE " + DataColumns.ID + "=?",
+                content, id);
+    }
+
+    /**
+     * 按提供者的方式检索：分词能处理时用全文索引，否则按LIKE
+     *
+     * @return 每行的笔记ID和摘要
+     */
+    private List<String[]> search(String searchString, boolean trigram, int limit) throws SQLException {
+        String[] terms = NotesProvider.splitSearchTerms(searchString);
+        if (NotesProvider.needsLikeSearch(terms, trigram)) {
+            return query(NotesProvider.buildLikeSearchQuery(terms.length, limit),
+                    NotesProvider.buildLikeSearchArgs(terms));
+        }
+        return query(NotesProvider.buildFtsSearchQuery(true, trigram, limit),
+                NotesProvider.buildFtsMatchString(terms, true, trigram));
+    }
+
+    private List<String[]> query(String sql, String... args) throws SQLException {
+        List<String[]> rows = new ArrayList<String[]>();
+        PreparedStatement statement = mDb.prepareStatement(sql);
+        try {
+            for (int i = 0; i < args.length; i++) {
+                statement.setString(i + 1, args[i]);
+            }
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                rows.add(new String[]{rs.getString(1), rs.getString(COLUMN_SNIPPET)});
+            }
+        } finally {
+            statement.close();
+        }
+        return rows;
+    }
+
+    private static String[] ids(List<String[]> rows) {
+        String[] ids = new String[rows.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = rows.get(i)[0];
+        }
+        return ids;
+    }
+
+    @Test
+    public void triggersIndexInsertedAndUpdatedContent() throws SQLException {
+        insertNote(1, 1000, "quarterly budget review");
+        assertArrayEquals(new String[]{"1"}, ids(search("budget", true, 20)));
+
+        updateContent(1, "holiday plans");
+        assertEquals(0, search("budget", true, 20).size());
+        assertArrayEquals(new String[]{"1"}, ids(search("holiday", true, 20)));
+
+        // 正文未变化的更新不改动索引，每条笔记只有一行
+        updateContent(1, "holiday plans");
+        assertEquals(1, query("SELECT rowid, content, 0, content FROM " + TABLE.NOTE_FTS).size());
+    }
+
+    @Test
+    public void ordersByRelevance() throws SQLException {
+        // 较新的笔记只顺带提到一次，较旧的笔记反复提到，按bm25排在前面
+        insertNote(1, 2000, "notes from the call, the report is due next week along with other things");
+        insertNote(2, 1000, "report report report");
+        assertArrayEquals(new String[]{"2", "1"}, ids(search("report", true, 20)));
+    }
+
+    @Test
+    public void matchesPrefixWithUnicode61() throws SQLException {
+        execute("DROP TABLE " + TABLE.NOTE_FTS);
+        execute(NotesDatabaseHelper.CREATE_NOTE_FTS5_TABLE_SQL);
+        insertNote(1, 1000, "meeting minutes");
+        assertArrayEquals(new String[]{"1"}, ids(search("meet", false, 20)));
+        // unicode61分词只能按词的前缀匹配
+        assertEquals(0, search("eting", false, 20).size());
+    }
+
+    @Test
+    public void matchesInsideWordsWithTrigram() throws SQLException {
+        insertNote(1, 1000, "meeting minutes");
+        assertArrayEquals(new String[]{"1"}, ids(search("eting", true, 20)));
+        // 多个词都要出现
+        assertArrayEquals(new String[]{"1"}, ids(search("meet minute", true, 20)));
+        assertEquals(0, search("meet agenda", true, 20).size());
+    }
+
+    @Test
+    public void appliesLimit() throws SQLException {
+        for (int i = 1; i <= 5; i++) {
+            insertNote(i, 1000 + i, "task " + i + " 明天开会");
+        }
+        assertEquals(3, search("task", true, 3).size());
+        // 按LIKE检索时同样限制条数，按修改时间从新到旧
+        assertArrayEquals(new String[]{"5", "4"}, ids(search("开会", true, 2)));
+    }
+
+    @Test
+    public void highlightsMatchInSnippet() throws SQLException {
+        String highlighted = NotesProvider.SEARCH_HIGHLIGHT_START + "budget" + NotesProvider.SEARCH_HIGHLIGHT_END;
+        insertNote(1, 1000, "the quarterly budget review is on friday");
+        List<String[]> rows = search("budget", true, 20);
+        assertEquals(1, rows.size());
+        // trigram分词下命中的词不能被摘要窗口截断
+        assertTrue(rows.get(0)[1], rows.get(0)[1].contains(highlighted));
+
+        // 长正文只截取命中处前后的一段
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            content.append("filler ");
+        }
+        insertNote(2, 2000, content + "budget " + content);
+        rows = search("budget", true, 20);
+        String snippet = rows.get(0)[0].equals("2") ? rows.get(0)[1] : rows.get(1)[1];
+        assertTrue(snippet, snippet.contains(highlighted));
+        assertTrue(snippet, snippet.startsWith("...") && snippet.endsWith("..."));
+
+        // unicode61分词按词截取
+        execute("DROP TABLE " + TABLE.NOTE_FTS);
+        execute(NotesDatabaseHelper.CREATE_NOTE_FTS5_TABLE_SQL);
+        updateContent(2, content + "budget " + content + " ");
+        snippet = search("budget", false, 20).get(0)[1];
+        assertTrue(snippet, snippet.contains(highlighted));
+    }
+
+    @Test
+    public void fallsBackToLikeForShortAndCjkTerms() throws SQLException {
+        // trigram分词检索不到少于三个字符的词
+        assertTrue(NotesProvider.needsLikeSearch(new String[]{"开会"}, true));
+        assertTrue(NotesProvider.needsLikeSearch(new String[]{"ok"}, true));
+        assertFalse(NotesProvider.needsLikeSearch(new String[]{"开会讨论"}, true));
+        // unicode61分词不切分中文
+        assertTrue(NotesProvider.needsLikeSearch(new String[]{"开会讨论"}, false));
+        assertFalse(NotesProvider.needsLikeSearch(new String[]{"meeting"}, false));
+
+        insertNote(1, 1000, "明天下午开会讨论预算");
+        insertNote(2, 2000, "100% done");
+        List<String[]> rows = search("开会", true, 20);
+        assertArrayEquals(new String[]{"1"}, ids(rows));
+        assertTrue(rows.get(0)[1], rows.get(0)[1].contains("开会"));
+        // 三个字以上的中文交给trigram分词
+        assertArrayEquals(new String[]{"1"}, ids(search("开会讨论", true, 20)));
+        // LIKE模式中的通配符按原样匹配
+        assertArrayEquals(new String[]{"2"}, ids(search("0%", true, 20)));
+        assertEquals(0, search("1_", true, 20).size());
+    }
+}
@@ -0,0 +1,194 @@
+package net.micode.notes.data;
+
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 在内存SQLite数据库上执行NotesProvider移入和移出回收站的语句，验证子树结构的保存和恢复。
+ */
+public class NoteTrashSubtreeTest {
+    // 根目录下的文件夹F，其中有笔记N1和子文件夹S，S中有笔记N2
+    private static final long F = 10;
+    private static final long N1 = 11;
+    private static final long S = 12;
+    private static final long N2 = 13;
+    // F中的笔记N3，有的用例中先于F单独移入回收站
+    private static final long N3 = 14;
+
+    private Connection mDb;
+
+    @Before
+    public void setUp() throws SQLException {
+        mDb = DriverManager.getConnection("jdbc:sqlite::memory:");
+        execute(NotesDatabaseHelper.CREATE_NOTE_TABLE_SQL);
+        execute(NotesDatabaseHelper.NOTE_CLEAR_TRASH_ROOT_ON_RESTORE_TRIGGER);
+        insert(Notes.ID_ROOT_FOLDER, Notes.ID_ROOT_FOLDER, Notes.TYPE_SYSTEM);
+        insert(Notes.ID_TRASH_FOLER, Notes.ID_ROOT_FOLDER, Notes.TYPE_SYSTEM);
+        insert(F, Notes.ID_ROOT_FOLDER, Notes.TYPE_FOLDER);
+        insert(N1, F, Notes.TYPE_NOTE);
+        insert(S, F, Notes.TYPE_FOLDER);
+        insert(N2, S, Notes.TYPE_NOTE);
+        insert(N3, F, Notes.TYPE_NOTE);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        mDb.close();
+    }
+
+    private int execute(String sql, Object... args) throws SQLException {
+        PreparedStatement statement = mDb.prepareStatement(sql);
+        try {
+            for (int i = 0; i < args.length; i++) {
+                statement.setObject(i + 1, args[i]);
+            }
+            return statement.executeUpdate();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void insert(long id, long parentId, int type) throws SQLException {
+        execute("INSERT INTO " + TABLE.NOTE + "(" + NoteColumns.ID + "," + NoteColumns.PARENT_ID + ","
+                + NoteColumns.TYPE + ") VALUES(?,?,?)", id, parentId, type);
+    }
+
+    private long countNotes() throws SQLException {
+        Statement statement = mDb.createStatement();
+        try {
+            ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + TABLE.NOTE);
+            rs.next();
+            return rs.getLong(1);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private long parentOf(long id) throws SQLException {
+        Statement statement = mDb.createStatement();
+        try {
+            ResultSet rs = statement.executeQuery("SELECT " + NoteColumns.PARENT_ID + " FROM "
+                    + TABLE.NOTE + " WHERE " + NoteColumns.ID + "=" + id);
+            rs.next();
+            return rs.getLong(1);
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * 与NotesProvider.moveNotes移入回收站相同
+     */
+    private void trash(long id) throws SQLException {
+        String rootCondition = NoteColumns.ID + ">0 AND " + NoteColumns.ID + " IN (?)";
+        execute(NotesProvider.trashSubtreeSql(rootCondition), id);
+        execute(NotesProvider.markTrashRootSql(rootCondition), id);
+    }
+
+    /**
+     * 与NotesProvider.delete按条件删除笔记相同，根条件出现两次，参数重复一遍
+     */
+    private int delete(String selection, Object... args) throws SQLException {
+        Object[] repeated = new Object[args.length * 2];
+        System.arraycopy(args, 0, repeated, 0, args.length);
+        System.arraycopy(args, 0, repeated, args.length, args.length);
+        return execute("DELETE FROM " + TABLE.NOTE + " WHERE " + NotesProvider.deleteSubtreeCondition(
+                NotesProvider.noteRootCondition(selection)), repeated);
+    }
+
+    /**
+     * 与NotesProvider.moveNotes移出回收站相同：先移回后代，再移动根
+     */
+    private void restore(long id, long folderId) throws SQLException {
+        execute(NotesProvider.restoreTrashedSubtreeSql("(?)"), id, id);
+        execute("UPDATE " + TABLE.NOTE + " SET " + NoteColumns.PARENT_ID + "=? WHERE "
+                + NoteColumns.ID + "=?", folderId, id);
+    }
+
+    @Test
+    public void trashMovesWholeSubtree() throws SQLException {
+        trash(F);
+        for (long id : new long[]{F, N1, S, N2, N3}) {
+            assertEquals(Notes.ID_TRASH_FOLER, parentOf(id));
+        }
+    }
+
+    @Test
+    public void restoreKeepsSubtreeStructure() throws SQLException {
+        trash(F);
+        restore(F, Notes.ID_ROOT_FOLDER);
+        assertEquals(Notes.ID_ROOT_FOLDER, parentOf(F));
+        assertEquals(F, parentOf(N1));
+        assertEquals(F, parentOf(S));
+        assertEquals(S, parentOf(N2));
+    }
+
+    @Test
+    public void restoreLeavesNotesTrashedEarlier() throws SQLException {
+        trash(N3);
+        trash(F);
+        restore(F, Notes.ID_ROOT_FOLDER);
+        assertEquals(S, parentOf(N2));
+        assertEquals(Notes.ID_TRASH_FOLER, parentOf(N3));
+    }
+
+    @Test
+    public void restoreSubfolderAlone() throws SQLException {
+        trash(F);
+        // 子文件夹单独移出回收站时只带回自己的后代
+        restore(S, Notes.ID_ROOT_FOLDER);
+        assertEquals(S, parentOf(N2));
+        assertEquals(Notes.ID_TRASH_FOLER, parentOf(N1));
+
+        // 重新移入回收站后记录新的根，不再随F移回
+        trash(S);
+        restore(F, Notes.ID_ROOT_FOLDER);
+        assertEquals(F, parentOf(N1));
+        assertEquals(Notes.ID_TRASH_FOLER, parentOf(S));
+        assertEquals(Notes.ID_TRASH_FOLER, parentOf(N2));
+    }
+
+    @Test
+    public void deleteWithoutSelectionDeletesNothing() throws SQLException {
+        assertEquals(0, delete(null));
+        assertEquals(7, countNotes());
+    }
+
+    @Test
+    public void deleteFolderDeletesSubtree() throws SQLException {
+        assertEquals(5, delete(NoteColumns.ID + "=?", F));
+        assertEquals(2, countNotes());
+    }
+
+    @Test
+    public void deleteSkipsSystemFolders() throws SQLException {
+        assertEquals(0, delete(NoteColumns.TYPE + "=?", Notes.TYPE_SYSTEM));
+        assertEquals(7, countNotes());
+    }
+
+    @Test
+    public void restoreWholeTrash() throws SQLException {
+        trash(N3);
+        trash(F);
+        execute(NotesProvider.RESTORE_TRASH_DESCENDANTS_SQL);
+        execute(NotesProvider.RESTORE_TRASH_ROOTS_SQL);
+        assertEquals(Notes.ID_ROOT_FOLDER, parentOf(F));
+        assertEquals(F, parentOf(N1));
+        assertEquals(S, parentOf(N2));
+        // 单独移入回收站的笔记作为根回到根目录
+        assertEquals(Notes.ID_ROOT_FOLDER, parentOf(N3));
+    }
+}
@@ -0,0 +1,161 @@
+package net.micode.notes.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用系统的SQLiteOpenHelper新建数据库，验证建库的结果。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33, manifest = Config.NONE)
+public class NotesDatabaseHelperTest {
+    // 当前版本的全部触发器
+    private static final String[] TRIGGERS = new String[]{
+            "increase_folder_count_on_update", "decrease_folder_count_on_update",
+            "decrease_folder_count_on_delete", "delete_data_on_delete", "increase_folder_count_on_insert",
+            "update_folder_preview_on_insert", "update_folder_preview_on_update",
+            "mark_folder_count_on_update", "mark_folder_count_on_insert", "mark_folder_count_on_delete",
+            "clear_trash_root_on_restore",
+            "update_note_content_on_insert", "update_note_content_on_update", "update_note_content_on_delete",
+            "insert_note_fts_on_insert", "update_note_fts_on_update", "delete_note_fts_on_delete"};
+
+    private Context mContext;
+    private NotesDatabaseHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.getApplication();
+        mHelper = new NotesDatabaseHelper(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(mHelper.getDatabaseName());
+    }
+
+    @Test
+    public void newDatabaseUsesIncrementalAutoVacuum() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        // 建表前设置的回收模式直接生效，不需要打开后再用VACUUM转换
+        assertEquals(2, DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null));
+        assertEquals(0, DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null));
+    }
+
+    @Test
+    public void newDatabaseHasAllTriggers() {
+        assertTriggers(mHelper.getWritableDatabase());
+    }
+
+    @Test
+    public void upgradeFromVersion2CreatesCurrentTriggers() {
+        File file = mContext.getDatabasePath(mHelper.getDatabaseName());
+        file.getParentFile().mkdirs();
+        SQLiteDatabase old = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            NotesV2Schema.create(old);
+            old.execSQL("INSERT INTO note(_id,parent_id,type,snippet) VALUES(100,0,1,'work')");
+            old.execSQL("INSERT INTO note(_id,parent_id,type) VALUES(101,100,0)");
+            old.execSQL("INSERT INTO data(_id,note_id,mime_type,content) VALUES(200,101,'"
+                    + DataConstants.NOTE + "','meeting minutes')");
+        } finally {
+            old.close();
+        }
+
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        while (mHelper.backfillChunk()) {
+        }
+        assertEquals("ok", DatabaseUtils.stringForQuery(db, "PRAGMA integrity_check", null));
+        assertTriggers(db);
+        assertEquals("meeting minutes", DatabaseUtils.stringForQuery(db, "SELECT " + NoteColumns.PREVIEW
+                + " FROM " + TABLE.NOTE + " WHERE " + NoteColumns.ID + "=101", null));
+        assertEquals(101, DatabaseUtils.longForQuery(db, "SELECT rowid FROM " + TABLE.NOTE_FTS
+                + " WHERE " + TABLE.NOTE_FTS + " MATCH 'meeting'", null));
+
+        // 升级后的触发器按当前的表结构工作
+        ContentValues values = new ContentValues();
+        values.put(DataColumns.CONTENT, "holiday plans");
+        db.update(TABLE.DATA, values, DataColumns.ID + "=200", null);
+        assertEquals("holiday plans", DatabaseUtils.stringForQuery(db, "SELECT " + NoteColumns.PREVIEW
+                + " FROM " + TABLE.NOTE + " WHERE " + NoteColumns.ID + "=101", null));
+        assertEquals(0, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + TABLE.NOTE_FTS
+                + " WHERE " + TABLE.NOTE_FTS + " MATCH 'meeting'", null));
+        values.clear();
+        values.put(NoteColumns.PARENT_ID, Notes.ID_TRASH_FOLER);
+        values.put(NoteColumns.TRASH_ROOT_ID, 101);
+        db.update(TABLE.NOTE, values, NoteColumns.ID + "=101", null);
+        values.clear();
+        values.put(NoteColumns.PARENT_ID, 100);
+        db.update(TABLE.NOTE, values, NoteColumns.ID + "=101", null);
+        assertEquals(0, DatabaseUtils.longForQuery(db, "SELECT " + NoteColumns.TRASH_ROOT_ID
+                + " FROM " + TABLE.NOTE + " WHERE " + NoteColumns.ID + "=101", null));
+        assertEquals(1, DatabaseUtils.longForQuery(db, "SELECT " + NoteColumns.NOTES_COUNT
+                + " FROM " + TABLE.NOTE + " WHERE " + NoteColumns.ID + "=100", null));
+    }
+
+    @Test
+    public void migrationsKeepTriggersValid() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        try {
+            NotesV2Schema.create(db);
+            // 系统默认打开legacy_alter_table，改表名时不检查触发器
+            db.execSQL("PRAGMA legacy_alter_table=OFF");
+            int version = NotesV2Schema.VERSION;
+            for (NotesDatabaseHelper.Migration migration : mHelper.mMigrations) {
+                migration.migrate(db);
+                version = migration.version;
+                // 改表名时SQLite会检查全部触发器，引用了尚不存在的列或表的触发器在这里报错
+                for (String table : new String[]{TABLE.NOTE, TABLE.DATA}) {
+                    db.execSQL("ALTER TABLE " + table + " RENAME TO " + table + "_renamed");
+                    db.execSQL("ALTER TABLE " + table + "_renamed RENAME TO " + table);
+                }
+            }
+            mHelper.finishUpgrade(db, NotesV2Schema.VERSION, version);
+            assertTriggers(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    private static void assertTriggers(SQLiteDatabase db) {
+        List<String> triggers = new ArrayList<String>();
+        Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='trigger'", null);
+        try {
+            while (c.moveToNext()) {
+                triggers.add(c.getString(0));
+            }
+        } finally {
+            c.close();
+        }
+        for (String trigger : TRIGGERS) {
+            assertTrue(trigger, triggers.contains(trigger));
+        }
+        // 版本11起由内容提供者处理子树，旧版本只处理直接子项的触发器不应保留
+        assertFalse(triggers.contains("folder_delete_notes_on_delete"));
+        assertFalse(triggers.contains("folder_move_notes_on_trash"));
+    }
+}
@@ -0,0 +1,202 @@
+package net.micode.notes.data;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 在约10万行的版本2数据库上执行全部升级，分别记录每个版本的结构变更和数据回填的耗时，结果输出到标准输出。
+ * 结构变更按onUpgrade的方式在一个事务中依次执行，回填按后台线程的方式逐批调用backfillChunk。
+ * 在JVM上运行，绝对耗时与设备不同，用于发现与行数相关的结构变更和比较各版本回填的开销。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33, manifest = Config.NONE)
+public class NotesMigrationBenchmarkTest {
+    // 测试数据：文件夹数、文本笔记数和通话记录笔记数。每条笔记一行文本数据，通话记录另有一行通话数据，
+    // 笔记和数据合计约10万行
+    private static final int FOLDERS = 50;
+    private static final int TEXT_NOTES = 45000;
+    private static final int CALL_NOTES = 5000;
+
+    // 每隔多少条笔记写入一篇超过压缩阈值的长正文
+    private static final int LONG_CONTENT_INTERVAL = 100;
+
+    private Context mContext;
+    private NotesDatabaseHelper mHelper;
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.getApplication();
+        mHelper = new NotesDatabaseHelper(mContext);
+        mFile = mContext.getDatabasePath(mHelper.getDatabaseName());
+        mFile.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(mFile, null);
+        try {
+            db.beginTransaction();
+            try {
+                NotesV2Schema.create(db);
+                populate(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(mHelper.getDatabaseName());
+    }
+
+    /**
+     * 按版本2的表结构插入测试数据，文本笔记平均分到根文件夹和各文件夹，通话记录笔记在通话记录文件夹中
+     */
+    private static void populate(SQLiteDatabase db) {
+        SQLiteStatement note = db.compileStatement("INSERT INTO note(parent_id,type,modified_date,snippet)"
+                + " VALUES(?,?,?,?)");
+        SQLiteStatement data = db.compileStatement("INSERT INTO data(note_id,mime_type,content,data1,data3)"
+                + " VALUES(?,?,?,?,?)");
+        try {
+            long firstFolder = 0;
+            for (int i = 0; i < FOLDERS; i++) {
+                note.bindLong(1, Notes.ID_ROOT_FOLDER);
+                note.bindLong(2, Notes.TYPE_FOLDER);
+                note.bindLong(3, 1600000000000L);
+                note.bindString(4, "folder " + i);
+                long id = note.executeInsert();
+                if (i == 0) {
+                    firstFolder = id;
+                }
+            }
+            StringBuilder longContent = new StringBuilder();
+            while (longContent.length() <= NoteContentCodec.COMPRESS_THRESHOLD) {
+                longContent.append("minutes of the weekly planning meeting, action items and owners. ");
+            }
+            for (int i = 0; i < TEXT_NOTES + CALL_NOTES; i++) {
+                boolean call = i >= TEXT_NOTES;
+                note.bindLong(1, call ? Notes.ID_CALL_RECORD_FOLDER
+                        : i % (FOLDERS + 1) == 0 ? Notes.ID_ROOT_FOLDER : firstFolder + i % (FOLDERS + 1) - 1);
+                note.bindLong(2, Notes.TYPE_NOTE);
+                note.bindLong(3, 1600000000000L + i * 60000L);
+                note.bindString(4, "");
+                long noteId = note.executeInsert();
+                if (call) {
+                    data.bindLong(1, noteId);
+                    data.bindString(2, DataConstants.CALL_NOTE);
+                    data.bindString(3, "");
+                    data.bindLong(4, 1600000000000L + i * 60000L);
+                    data.bindString(5, "+86 138 0013 " + String.format("%04d", i % 10000));
+                    data.executeInsert();
+                }
+                data.bindLong(1, noteId);
+                data.bindString(2, DataConstants.NOTE);
+                data.bindString(3, i % LONG_CONTENT_INTERVAL == 0 ? longContent.toString()
+                        : "note " + i + " about the quarterly plan, follow up on the open items");
+                data.bindNull(4);
+                data.bindString(5, "");
+                data.executeInsert();
+            }
+        } finally {
+            note.close();
+            data.close();
+        }
+    }
+
+    @Test
+    public void migrateFromVersion2() {
+        // 结构变更：与onUpgrade相同，在配置好的连接上用一个事务执行
+        NotesDatabaseHelper.Migration[] migrations = mHelper.mMigrations;
+        long[] migrateMicros = new long[migrations.length];
+        long finishMicros;
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(mFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+        try {
+            mHelper.onConfigure(db);
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < migrations.length; i++) {
+                    long start = System.nanoTime();
+                    migrations[i].migrate(db);
+                    migrateMicros[i] = (System.nanoTime() - start) / 1000;
+                }
+                long start = System.nanoTime();
+                mHelper.finishUpgrade(db, NotesV2Schema.VERSION, migrations[migrations.length - 1].version);
+                finishMicros = (System.nanoTime() - start) / 1000;
+                db.setVersion(migrations[migrations.length - 1].version);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            db.close();
+        }
+
+        // 数据回填：按版本记录各批的总耗时和批数
+        db = mHelper.getWritableDatabase();
+        Map<Integer, long[]> backfillMicros = new TreeMap<Integer, long[]>();
+        boolean more = true;
+        while (more) {
+            int version = (int) DatabaseUtils.longForQuery(db, "SELECT IFNULL(MIN("
+                    + NotesDatabaseHelper.BACKFILL_VERSION + "),0) FROM " + TABLE.MIGRATION_BACKFILL, null);
+            if (version == 0) {
+                break;
+            }
+            long start = System.nanoTime();
+            more = mHelper.backfillChunk();
+            long[] total = backfillMicros.get(version);
+            if (total == null) {
+                total = new long[2];
+                backfillMicros.put(version, total);
+            }
+            total[0] += (System.nanoTime() - start) / 1000;
+            total[1]++;
+        }
+
+        for (int i = 0; i < migrations.length; i++) {
+            System.out.println("migration v" + migrations[i].version + ": " + migrateMicros[i] + "us");
+        }
+        System.out.println("migration triggers and backfill registration: " + finishMicros + "us");
+        for (Map.Entry<Integer, long[]> entry : backfillMicros.entrySet()) {
+            System.out.println("backfill v" + entry.getKey() + ": " + entry.getValue()[1] + " chunks in "
+                    + entry.getValue()[0] + "us");
+        }
+
+        int notes = TEXT_NOTES + CALL_NOTES;
+        assertEquals("ok", DatabaseUtils.stringForQuery(db, "PRAGMA integrity_check", null));
+        assertEquals(0, DatabaseUtils.queryNumEntries(db, TABLE.MIGRATION_BACKFILL));
+        assertEquals(notes, DatabaseUtils.queryNumEntries(db, TABLE.NOTE_FTS));
+        assertEquals(notes, DatabaseUtils.queryNumEntries(db, TABLE.NOTE, NoteColumns.TYPE + "="
+                + Notes.TYPE_NOTE + " AND " + NoteColumns.PREVIEW + "<>'' AND " + NoteColumns.SNIPPET + "=''"));
+        assertEquals(CALL_NOTES, DatabaseUtils.queryNumEntries(db, TABLE.CALL_NOTE));
+        assertEquals(notes / LONG_CONTENT_INTERVAL, DatabaseUtils.queryNumEntries(db, TABLE.DATA,
+                DataColumns.CONTENT_CODEC + "=" + NoteContentCodec.CODEC_DEFLATE));
+        // 每个有数据回填的版本都执行过
+        for (NotesDatabaseHelper.Migration migration : migrations) {
+            assertEquals("v" + migration.version, migration.backfillTable != null,
+                    backfillMicros.containsKey(migration.version));
+        }
+    }
+}
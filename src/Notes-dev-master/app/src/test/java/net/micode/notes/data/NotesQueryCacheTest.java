@@ -0,0 +1,121 @@
+package net.micode.notes.data;
+
+import android.database.Cursor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NotesQueryCacheTest {
+    private static final String TABLE = "note";
+    private static final String[] COLUMNS = {"_id", "preview"};
+
+    private static Cursor rows(int count, int textLength) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < textLength; i++) {
+            text.append('x');
+        }
+        Object[][] rows = new Object[count][];
+        for (int i = 0; i < count; i++) {
+            rows[i] = new Object[]{(long) i, text.toString()};
+        }
+        return RowsCursor.of(COLUMNS, rows);
+    }
+
+    /**
+     * 模拟同一查询连续两次未命中，第二次才会建立缓存项
+     */
+    private static void missTwice(NotesQueryCache cache, String key, Cursor cursor) {
+        for (int i = 0; i < 2; i++) {
+            assertNull(cache.get(key, TABLE));
+            cache.put(key, TABLE, cache.getGeneration(TABLE), cursor);
+        }
+    }
+
+    @Test
+    public void firstMissIsNotCached() {
+        NotesQueryCache cache = new NotesQueryCache(8, 100, 64 * 1024);
+        cache.put("a", TABLE, cache.getGeneration(TABLE), rows(1, 10));
+        assertEquals(0, cache.size());
+
+        cache.put("a", TABLE, cache.getGeneration(TABLE), rows(1, 10));
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get("a", TABLE));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void putLeavesCursorBeforeFirstRow() {
+        NotesQueryCache cache = new NotesQueryCache(8, 100, 64 * 1024);
+        Cursor cursor = rows(3, 10);
+        missTwice(cache, "a", cursor);
+        assertEquals(-1, cursor.getPosition());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedOverEntryLimit() {
+        NotesQueryCache cache = new NotesQueryCache(2, 100, 64 * 1024);
+        missTwice(cache, "a", rows(1, 10));
+        missTwice(cache, "b", rows(1, 10));
+        // 访问a之后b成为最久未使用的项
+        assertNotNull(cache.get("a", TABLE));
+        missTwice(cache, "c", rows(1, 10));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a", TABLE));
+        assertNotNull(cache.get("c", TABLE));
+        assertNull(cache.get("b", TABLE));
+    }
+
+    @Test
+    public void evictsOverByteBudget() {
+        NotesQueryCache cache = new NotesQueryCache(64, 100, 4000);
+        for (int i = 0; i < 10; i++) {
+            missTwice(cache, "key" + i, rows(1, 200));
+        }
+        assertTrue(cache.getBytes() <= 4000);
+        assertTrue(cache.size() < 10);
+        assertNull(cache.get("key0", TABLE));
+        assertNotNull(cache.get("key9", TABLE));
+    }
+
+    @Test
+    public void skipsResultsOverRowOrByteLimit() {
+        NotesQueryCache cache = new NotesQueryCache(64, 5, 4000);
+        missTwice(cache, "rows", rows(6, 1));
+        // 单个结果超过字节上限的四分之一
+        missTwice(cache, "bytes", rows(1, 1000));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void skipsBlobs() {
+        NotesQueryCache cache = new NotesQueryCache(64, 100, 64 * 1024);
+        missTwice(cache, "blob", RowsCursor.of(new String[]{"data"}, new Object[]{new byte[16]}));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void invalidateExpiresEntries() {
+        NotesQueryCache cache = new NotesQueryCache(8, 100, 64 * 1024);
+        missTwice(cache, "a", rows(2, 10));
+        cache.invalidate(TABLE);
+        assertNull(cache.get("a", TABLE));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void skipsResultsQueriedBeforeInvalidation() {
+        NotesQueryCache cache = new NotesQueryCache(8, 100, 64 * 1024);
+        cache.put("a", TABLE, cache.getGeneration(TABLE), rows(1, 10));
+        long generation = cache.getGeneration(TABLE);
+        cache.invalidate(TABLE);
+        cache.put("a", TABLE, generation, rows(1, 10));
+        assertEquals(0, cache.size());
+    }
+}
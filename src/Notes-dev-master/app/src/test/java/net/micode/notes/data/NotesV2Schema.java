@@ -0,0 +1,74 @@
+package net.micode.notes.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * 版本2的数据库结构，从当时的NotesDatabaseHelper抄录，用于验证从旧版本开始的升级。
+ * 语句写成字面量，不引用当前的列名常量和触发器，之后的修改不会影响这里。
+ */
+final class NotesV2Schema {
+    static final int VERSION = 2;
+
+    private static final String[] SQL = new String[]{
+            "CREATE TABLE note(_id INTEGER PRIMARY KEY,parent_id INTEGER NOT NULL DEFAULT 0,"
+                    + "alert_date INTEGER NOT NULL DEFAULT 0,bg_color_id INTEGER NOT NULL DEFAULT 0,"
+                    + "created_date INTEGER NOT NULL DEFAULT (strftime('%s','now') * 1000),"
+                    + "has_attachment INTEGER NOT NULL DEFAULT 0,"
+                    + "modified_date INTEGER NOT NULL DEFAULT (strftime('%s','now') * 1000),"
+                    + "notes_count INTEGER NOT NULL DEFAULT 0,snippet TEXT NOT NULL DEFAULT '',"
+                    + "type INTEGER NOT NULL DEFAULT 0,widget_id INTEGER NOT NULL DEFAULT 0,"
+                    + "widget_type INTEGER NOT NULL DEFAULT -1,sync_id INTEGER NOT NULL DEFAULT 0,"
+                    + "local_modified INTEGER NOT NULL DEFAULT 0,origin_parent_id INTEGER NOT NULL DEFAULT 0)",
+            "CREATE TRIGGER increase_folder_count_on_update AFTER UPDATE OF parent_id ON note"
+                    + " BEGIN UPDATE note SET notes_count=notes_count + 1 WHERE _id=new.parent_id; END",
+            "CREATE TRIGGER decrease_folder_count_on_update AFTER UPDATE OF parent_id ON note"
+                    + " BEGIN UPDATE note SET notes_count=notes_count-1 WHERE _id=old.parent_id"
+                    + " AND notes_count>0; END",
+            "CREATE TRIGGER decrease_folder_count_on_delete AFTER DELETE ON note"
+                    + " BEGIN UPDATE note SET notes_count=notes_count-1 WHERE _id=old.parent_id"
+                    + " AND notes_count>0; END",
+            "CREATE TRIGGER delete_data_on_delete AFTER DELETE ON note"
+                    + " BEGIN DELETE FROM data WHERE note_id=old._id; END",
+            "CREATE TRIGGER increase_folder_count_on_insert AFTER INSERT ON note"
+                    + " BEGIN UPDATE note SET notes_count=notes_count + 1 WHERE _id=new.parent_id; END",
+            "CREATE TRIGGER folder_delete_notes_on_delete AFTER DELETE ON note"
+                    + " BEGIN DELETE FROM note WHERE parent_id=old._id; END",
+            "CREATE TRIGGER folder_move_notes_on_trash AFTER UPDATE ON note WHEN new.parent_id=-1"
+                    + " BEGIN UPDATE note SET parent_id=-1 WHERE parent_id=old._id; END",
+            "INSERT INTO note(_id,type) VALUES(-2,2)",
+            "INSERT INTO note(_id,type) VALUES(0,2)",
+            "INSERT INTO note(_id,type) VALUES(-1,2)",
+            "CREATE TABLE data(_id INTEGER PRIMARY KEY,mime_type TEXT NOT NULL,"
+                    + "note_id INTEGER NOT NULL DEFAULT 0,"
+                    + "created_date INTEGER NOT NULL DEFAULT (strftime('%s','now') * 1000),"
+                    + "modified_date INTEGER NOT NULL DEFAULT (strftime('%s','now') * 1000),"
+                    + "content TEXT NOT NULL DEFAULT '',data1 INTEGER,data2 INTEGER,"
+                    + "data3 TEXT NOT NULL DEFAULT '',data4 TEXT NOT NULL DEFAULT '',"
+                    + "data5 TEXT NOT NULL DEFAULT '')",
+            "CREATE TRIGGER update_note_content_on_insert AFTER INSERT ON data"
+                    + " WHEN new.mime_type='vnd.android.cursor.item/text_note'"
+                    + " BEGIN UPDATE note SET snippet=new.content WHERE _id=new.note_id; END",
+            "CREATE TRIGGER update_note_content_on_update AFTER UPDATE ON data"
+                    + " WHEN old.mime_type='vnd.android.cursor.item/text_note'"
+                    + " BEGIN UPDATE note SET snippet=new.content WHERE _id=new.note_id; END",
+            "CREATE TRIGGER update_note_content_on_delete AFTER delete ON data"
+                    + " WHEN old.mime_type='vnd.android.cursor.item/text_note'"
+                    + " BEGIN UPDATE note SET snippet='' WHERE _id=old.note_id; END",
+            "CREATE INDEX IF NOT EXISTS note_id_index ON data(note_id)",
+    };
+
+    private NotesV2Schema() {
+    }
+
+    /**
+     * 在空数据库中创建版本2的表、触发器和系统文件夹，并把版本号设为2
+     *
+     * @param db 空数据库
+     */
+    static void create(SQLiteDatabase db) {
+        for (String sql : SQL) {
+            db.execSQL(sql);
+        }
+        db.setVersion(VERSION);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * RowsCursor 类在JVM单元测试中提供只读的内存游标。
+ * 框架的游标实现在本地单元测试中不可用，这里按行数组实现测试用到的方法。
+ */
+
+package net.micode.notes.data;
+
+import android.database.Cursor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+final class RowsCursor {
+    private RowsCursor() {
+    }
+
+    /**
+     * 创建游标
+     *
+     * @param columns 列名
+     * @param rows    各行的值，支持null、Long、Integer、Double、String和byte[]
+     * @return 游标，位置在第一行之前
+     */
+    static Cursor of(final String[] columns, final Object[]... rows) {
+        InvocationHandler handler = new InvocationHandler() {
+            private int mPosition = -1;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if ("getCount".equals(name)) {
+                    return rows.length;
+                } else if ("getColumnCount".equals(name)) {
+                    return columns.length;
+                } else if ("getColumnNames".equals(name)) {
+                    return columns.clone();
+                } else if ("getPosition".equals(name)) {
+                    return mPosition;
+                } else if ("moveToPosition".equals(name)) {
+                    return move((Integer) args[0]);
+                } else if ("moveToFirst".equals(name)) {
+                    return move(0);
+                } else if ("moveToNext".equals(name)) {
+                    return move(mPosition + 1);
+                } else if ("isNull".equals(name)) {
+                    return value(args) == null;
+                } else if ("getType".equals(name)) {
+                    return typeOf(value(args));
+                } else if ("getString".equals(name)) {
+                    Object value = value(args);
+                    return value == null ? null : value.toString();
+                } else if ("getLong".equals(name)) {
+                    return ((Number) value(args)).longValue();
+                } else if ("getInt".equals(name)) {
+                    Object value = value(args);
+                    return value == null ? 0 : ((Number) value).intValue();
+                } else if ("getDouble".equals(name)) {
+                    return ((Number) value(args)).doubleValue();
+                } else if ("getBlob".equals(name)) {
+                    return value(args);
+                } else if ("close".equals(name)) {
+                    return null;
+                }
+                throw new UnsupportedOperationException(name);
+            }
+
+            private boolean move(int position) {
+                mPosition = Math.max(-1, Math.min(position, rows.length));
+                return mPosition >= 0 && mPosition < rows.length;
+            }
+
+            private Object value(Object[] args) {
+                return rows[mPosition][(Integer) args[0]];
+            }
+        };
+        return (Cursor) Proxy.newProxyInstance(Cursor.class.getClassLoader(),
+                new Class<?>[]{Cursor.class}, handler);
+    }
+
+    private static int typeOf(Object value) {
+        if (value == null) {
+            return Cursor.FIELD_TYPE_NULL;
+        } else if (value instanceof Long || value instanceof Integer) {
+            return Cursor.FIELD_TYPE_INTEGER;
+        } else if (value instanceof Double) {
+            return Cursor.FIELD_TYPE_FLOAT;
+        } else if (value instanceof byte[]) {
+            return Cursor.FIELD_TYPE_BLOB;
+        }
+        return Cursor.FIELD_TYPE_STRING;
+    }
+}
@@ -0,0 +1,189 @@
+package net.micode.notes.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在几组存储参数下分别执行列表、搜索和同步查询并计时，比较各组参数的效果，结果输出到标准输出。
+ * 每组在新打开的只读连接上执行，SQLite页缓存从空开始，但系统的文件缓存仍是热的，先执行的参数组会替后面的组预热。
+ * 为此按轮换的顺序重复测试，每组参数在每个位置各执行一次，并单独给出各位置的耗时，位置之间的差别即顺序带来的偏差。
+ * 在JVM上运行，绝对耗时与设备不同，只用于比较各组参数。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33, manifest = Config.NONE)
+public class StorageProfileBenchmarkTest {
+    // 测试数据的文件夹数和笔记数
+    private static final int FOLDERS = 20;
+    private static final int NOTES = 5000;
+
+    // 每个查询执行的次数，取总耗时
+    private static final int ROUNDS = 5;
+
+    // 按8GB可用内存选择的参数，对应一般的手机
+    private static final long DEVICE_AVAIL_MEM = 8L * 1024 * 1024 * 1024;
+
+    // 系统默认参数，只用作对照：SQLite默认的2000KB页缓存，不使用内存映射，临时表位置取编译时默认
+    private static final StorageProfile PLATFORM = new StorageProfile("platform", 2000, 0, 0);
+
+    // 列表查询：根文件夹的笔记列表，与NotesListActivity一致
+    private static final String LIST_QUERY = "SELECT * FROM " + TABLE.NOTE + " WHERE ("
+            + NoteColumns.TYPE + "<>" + Notes.TYPE_SYSTEM + " AND " + NoteColumns.PARENT_ID + "="
+            + Notes.ID_ROOT_FOLDER + ") OR (" + NoteColumns.ID + "=" + Notes.ID_CALL_RECORD_FOLDER
+            + " AND " + NoteColumns.NOTES_COUNT + ">0) ORDER BY " + NoteColumns.TYPE + " DESC,"
+            + NoteColumns.MODIFIED_DATE + " DESC";
+
+    // 搜索查询：全文索引匹配后取笔记行
+    private static final String SEARCH_QUERY = "SELECT * FROM " + TABLE.NOTE + " WHERE "
+            + NoteColumns.ID + " IN (SELECT rowid FROM " + TABLE.NOTE_FTS + " WHERE " + TABLE.NOTE_FTS
+            + " MATCH ?)";
+
+    // 同步查询：回收站以外的全部笔记及其数据行，与GTaskManager逐个笔记读取数据的访问模式相同
+    private static final String SYNC_QUERY = "SELECT * FROM " + TABLE.NOTE + " n JOIN "
+            + TABLE.DATA + " d ON d." + DataColumns.NOTE_ID + "=n." + NoteColumns.ID + " WHERE n."
+            + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE + " AND n." + NoteColumns.PARENT_ID + "<>"
+            + Notes.ID_TRASH_FOLER;
+
+    private static final String[] WORKLOADS = new String[]{"list", "search", "sync"};
+    private static final String[] QUERIES = new String[]{LIST_QUERY, SEARCH_QUERY, SYNC_QUERY};
+    private static final String[][] ARGS = new String[][]{null, new String[]{"meeting"}, null};
+
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        mFile = context.getDatabasePath("benchmark.db");
+        mFile.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(mFile, null);
+        try {
+            db.beginTransaction();
+            try {
+                new NotesDatabaseHelper(context).onCreate(db);
+                populate(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        SQLiteDatabase.deleteDatabase(mFile);
+    }
+
+    /**
+     * 插入测试数据：一半笔记在根文件夹，其余平均分到各文件夹，每条笔记一行文本数据
+     */
+    private static void populate(SQLiteDatabase db) {
+        ContentValues values = new ContentValues();
+        long firstFolder = 0;
+        for (int i = 0; i < FOLDERS; i++) {
+            values.clear();
+            values.put(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER);
+            values.put(NoteColumns.TYPE, Notes.TYPE_FOLDER);
+            values.put(NoteColumns.SNIPPET, "folder " + i);
+            long id = db.insert(TABLE.NOTE, null, values);
+            if (i == 0) {
+                firstFolder = id;
+            }
+        }
+        for (int i = 0; i < NOTES; i++) {
+            values.clear();
+            values.put(NoteColumns.PARENT_ID, i % 2 == 0 ? Notes.ID_ROOT_FOLDER : firstFolder + i % FOLDERS);
+            values.put(NoteColumns.TYPE, Notes.TYPE_NOTE);
+            values.put(NoteColumns.MODIFIED_DATE, 1700000000000L + i * 60000L);
+            long noteId = db.insert(TABLE.NOTE, null, values);
+            values.clear();
+            values.put(DataColumns.NOTE_ID, noteId);
+            values.put(DataColumns.MIME_TYPE, DataConstants.NOTE);
+            values.put(DataColumns.CONTENT, "note " + i + (i % 10 == 0 ? " meeting with the team" : "")
+                    + " about the quarterly plan, follow up on the open items and the shopping list");
+            db.insert(TABLE.DATA, null, values);
+        }
+    }
+
+    @Test
+    public void compareProfiles() {
+        StorageProfile[] profiles = new StorageProfile[]{PLATFORM, StorageProfile.LOW_RAM,
+                StorageProfile.forMemory(false, DEVICE_AVAIL_MEM)};
+        long[][] profileMicros = new long[profiles.length][WORKLOADS.length];
+        long[][] orderMicros = new long[profiles.length][WORKLOADS.length];
+        int[] rows = new int[WORKLOADS.length];
+        for (int repeat = 0; repeat < profiles.length; repeat++) {
+            for (int position = 0; position < profiles.length; position++) {
+                int index = (repeat + position) % profiles.length;
+                SQLiteDatabase db = SQLiteDatabase.openDatabase(mFile.getPath(), null,
+                        SQLiteDatabase.OPEN_READONLY);
+                try {
+                    profiles[index].apply(db);
+                    for (int i = 0; i < WORKLOADS.length; i++) {
+                        long start = System.nanoTime();
+                        for (int round = 0; round < ROUNDS; round++) {
+                            rows[i] = readAll(db, QUERIES[i], ARGS[i]);
+                        }
+                        long micros = (System.nanoTime() - start) / 1000;
+                        profileMicros[index][i] += micros;
+                        orderMicros[position][i] += micros;
+                    }
+                } finally {
+                    db.close();
+                }
+            }
+        }
+        for (int i = 0; i < WORKLOADS.length; i++) {
+            for (int p = 0; p < profiles.length; p++) {
+                System.out.println("benchmark " + profiles[p].name + "/" + WORKLOADS[i] + ": " + rows[i]
+                        + " rows x " + ROUNDS + " x " + profiles.length + " in " + profileMicros[p][i] + "us");
+            }
+            System.out.println("benchmark " + WORKLOADS[i] + " order bias: first " + orderMicros[0][i]
+                    + "us, last " + orderMicros[profiles.length - 1][i] + "us");
+        }
+        assertEquals(FOLDERS + NOTES / 2, rows[0]);
+        assertEquals(NOTES / 10, rows[1]);
+        assertEquals(NOTES, rows[2]);
+        assertTrue(profiles[2].mmapSize > 0);
+    }
+
+    /**
+     * 执行查询并读出每一行的全部列
+     *
+     * @return 行数
+     */
+    private static int readAll(SQLiteDatabase db, String sql, String[] args) {
+        Cursor c = db.rawQuery(sql, args);
+        try {
+            int columns = c.getColumnCount();
+            while (c.moveToNext()) {
+                for (int i = 0; i < columns; i++) {
+                    c.getType(i);
+                }
+            }
+            return c.getCount();
+        } finally {
+            c.close();
+        }
+    }
+}